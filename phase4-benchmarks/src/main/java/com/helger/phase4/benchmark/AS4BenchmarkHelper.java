@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+import javax.mail.MessagingException;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.AS4CryptParams;
+import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
+import com.helger.phase4.crypto.AS4SigningParams;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.ebms3header.Ebms3CollaborationInfo;
+import com.helger.phase4.ebms3header.Ebms3MessageInfo;
+import com.helger.phase4.ebms3header.Ebms3MessageProperties;
+import com.helger.phase4.ebms3header.Ebms3PartyInfo;
+import com.helger.phase4.ebms3header.Ebms3PayloadInfo;
+import com.helger.phase4.ebms3header.Ebms3Property;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.crypto.AS4Encryptor;
+import com.helger.phase4.messaging.crypto.AS4Signer;
+import com.helger.phase4.messaging.domain.AS4UserMessage;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.messaging.mime.MimeMessageCreator;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.servlet.AS4IncomingHandler;
+import com.helger.phase4.servlet.AS4IncomingHandler.IAS4ParsedMessageCallback;
+import com.helger.phase4.servlet.AS4IncomingMessageMetadata;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.phase4.util.Phase4Exception;
+import com.helger.scope.mgr.ScopeManager;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.KeyStoreHelper;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Shared helper methods for all phase4 benchmarks. Everything is created
+ * in-process, using an in-memory key store so that no file system
+ * configuration is needed.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class AS4BenchmarkHelper
+{
+  public static final String KEY_STORE_PATH = "keys/dummy-pw-test.jks";
+  public static final String KEY_STORE_PASSWORD = "test";
+  public static final String KEY_ALIAS = "ph-as4";
+  public static final String KEY_PASSWORD = "test";
+
+  public static final String PARTY_ID = "APP_000000000012";
+  public static final String SERVICE = "urn:phase4:benchmark:service";
+  public static final String ACTION = "urn:phase4:benchmark:action";
+
+  private static final String PAYLOAD_NS = "urn:phase4:benchmark";
+
+  private AS4BenchmarkHelper ()
+  {}
+
+  /**
+   * Start the global scope, if it is not yet started. Required for all the
+   * global singletons like the WSSConfigManager.
+   */
+  public static void beginGlobalScope ()
+  {
+    if (ScopeManager.getGlobalScopeOrNull () == null)
+      ScopeManager.onGlobalBegin ("phase4-benchmarks");
+  }
+
+  /**
+   * End the global scope, if it is started.
+   */
+  public static void endGlobalScope ()
+  {
+    if (ScopeManager.getGlobalScopeOrNull () != null)
+      ScopeManager.onGlobalEnd ();
+  }
+
+  /**
+   * @return A new crypto factory based on an in-memory key store loaded from
+   *         the class path. The key store is also used as the trust store.
+   * @throws GeneralSecurityException
+   *         If the key store cannot be loaded
+   * @throws IOException
+   *         If the key store cannot be read
+   */
+  @Nonnull
+  public static IAS4CryptoFactory createCryptoFactory () throws GeneralSecurityException, IOException
+  {
+    final KeyStore aKS = KeyStoreHelper.loadKeyStoreDirect (EKeyStoreType.JKS, KEY_STORE_PATH, KEY_STORE_PASSWORD);
+    return new AS4CryptoFactoryInMemoryKeyStore (aKS, KEY_ALIAS, KEY_PASSWORD, aKS);
+  }
+
+  @Nonnull
+  public static AS4SigningParams createSigningParams ()
+  {
+    return AS4SigningParams.createDefault ();
+  }
+
+  @Nonnull
+  public static AS4CryptParams createCryptParams ()
+  {
+    return AS4CryptParams.createDefault ().setAlias (KEY_ALIAS);
+  }
+
+  /**
+   * @return The PMode to be used when processing incoming messages. It is not
+   *         persisted.
+   */
+  @Nonnull
+  public static IPMode createPMode ()
+  {
+    return DefaultPMode.getOrCreateDefaultPMode (PARTY_ID, PARTY_ID, null, false);
+  }
+
+  /**
+   * Create an XML payload with approximately the provided number of bytes.
+   *
+   * @param nPayloadBytes
+   *        The number of characters in the payload text. Must be &ge; 0.
+   * @return The payload document. Never <code>null</code>.
+   */
+  @Nonnull
+  public static Document createPayload (final int nPayloadBytes)
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eRoot = (Element) aDoc.appendChild (aDoc.createElementNS (PAYLOAD_NS, "Payload"));
+    eRoot.appendChild (aDoc.createTextNode (StringHelper.getRepeated ('x', nPayloadBytes)));
+    return aDoc;
+  }
+
+  /**
+   * Create the provided number of XML attachments of the provided size.
+   *
+   * @param nAttachmentCount
+   *        Number of attachments to create. Must be &ge; 0.
+   * @param nAttachmentBytes
+   *        Size of each attachment in bytes. Must be &ge; 0.
+   * @param aResHelper
+   *        Resource helper to use. May not be <code>null</code>.
+   * @return The list of attachments. Never <code>null</code>.
+   * @throws IOException
+   *         In case of error
+   */
+  @Nonnull
+  public static ICommonsList <WSS4JAttachment> createAttachments (final int nAttachmentCount,
+                                                                 final int nAttachmentBytes,
+                                                                 @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    final byte [] aData = AS4XMLHelper.serializeXML (createPayload (nAttachmentBytes)).getBytes (AS4XMLHelper.XWS.getCharset ());
+    final ICommonsList <WSS4JAttachment> ret = new CommonsArrayList <> (nAttachmentCount);
+    for (int i = 0; i < nAttachmentCount; ++i)
+      ret.add (WSS4JAttachment.createOutgoingFileAttachment (Phase4OutgoingAttachment.builder ().data (aData).mimeTypeXML ().build (),
+                                                             aResHelper));
+    return ret;
+  }
+
+  /**
+   * Create an unsigned user message, using only {@link MessageHelperMethods}.
+   *
+   * @param eSoapVersion
+   *        SOAP version to use. May not be <code>null</code>.
+   * @param bHasSoapPayload
+   *        <code>true</code> if the SOAP body contains a payload.
+   * @param aAttachments
+   *        Optional attachments to reference.
+   * @return The user message. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4UserMessage createUserMessage (@Nonnull final ESoapVersion eSoapVersion,
+                                                  final boolean bHasSoapPayload,
+                                                  @Nullable final ICommonsList <WSS4JAttachment> aAttachments)
+  {
+    final ICommonsList <Ebms3Property> aEbms3Properties = new CommonsArrayList <> ();
+    aEbms3Properties.add (MessageHelperMethods.createEbms3Property (CAS4.ORIGINAL_SENDER, "C1-test"));
+    aEbms3Properties.add (MessageHelperMethods.createEbms3Property (CAS4.FINAL_RECIPIENT, "C4-test"));
+
+    final Ebms3MessageInfo aEbms3MessageInfo = MessageHelperMethods.createEbms3MessageInfo ();
+    final Ebms3PayloadInfo aEbms3PayloadInfo = MessageHelperMethods.createEbms3PayloadInfo (bHasSoapPayload, aAttachments);
+    final Ebms3CollaborationInfo aEbms3CollaborationInfo = MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                                              null,
+                                                                                                              null,
+                                                                                                              SERVICE,
+                                                                                                              ACTION,
+                                                                                                              MessageHelperMethods.createRandomConversationID ());
+    final Ebms3PartyInfo aEbms3PartyInfo = MessageHelperMethods.createEbms3PartyInfo (CAS4.DEFAULT_INITIATOR_URL,
+                                                                                      PARTY_ID,
+                                                                                      CAS4.DEFAULT_RESPONDER_URL,
+                                                                                      PARTY_ID);
+    final Ebms3MessageProperties aEbms3MessageProperties = MessageHelperMethods.createEbms3MessageProperties (aEbms3Properties);
+
+    return AS4UserMessage.create (aEbms3MessageInfo,
+                                  aEbms3PayloadInfo,
+                                  aEbms3CollaborationInfo,
+                                  aEbms3PartyInfo,
+                                  aEbms3MessageProperties,
+                                  eSoapVersion)
+                         .setMustUnderstand (true);
+  }
+
+  /**
+   * Create a signed and encrypted message as it would be sent over the wire.
+   * If attachments are present, a MIME message is created, otherwise the SOAP
+   * body is encrypted.
+   *
+   * @param aCryptoFactory
+   *        Crypto factory to use. May not be <code>null</code>.
+   * @param eSoapVersion
+   *        SOAP version to use. May not be <code>null</code>.
+   * @param nPayloadBytes
+   *        Size of the SOAP body payload, or of each attachment.
+   * @param nAttachmentCount
+   *        Number of attachments. If 0, the payload is put in the SOAP body.
+   * @param aResHelper
+   *        Resource helper to use. May not be <code>null</code>.
+   * @return The serialized message. Never <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of WSS4J errors
+   * @throws MessagingException
+   *         In case of MIME errors
+   * @throws IOException
+   *         In case of IO errors
+   */
+  @Nonnull
+  public static AS4BenchmarkMessage createSignedAndEncryptedMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                                     @Nonnull final ESoapVersion eSoapVersion,
+                                                                     final int nPayloadBytes,
+                                                                     final int nAttachmentCount,
+                                                                     @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws WSSecurityException,
+                                                                                                                                MessagingException,
+                                                                                                                                IOException
+  {
+    if (nAttachmentCount == 0)
+    {
+      final Document aPayload = createPayload (nPayloadBytes);
+      final AS4UserMessage aMsg = createUserMessage (eSoapVersion, true, null);
+      final Document aSignedDoc = AS4Signer.createSignedMessage (aCryptoFactory,
+                                                                 aMsg.getAsSoapDocument (aPayload),
+                                                                 eSoapVersion,
+                                                                 aMsg.getMessagingID (),
+                                                                 null,
+                                                                 aResHelper,
+                                                                 false,
+                                                                 createSigningParams ());
+      final Document aEncryptedDoc = AS4Encryptor.encryptSoapBodyPayload (aCryptoFactory,
+                                                                          eSoapVersion,
+                                                                          aSignedDoc,
+                                                                          false,
+                                                                          createCryptParams ());
+      return AS4BenchmarkMessage.createSoap (eSoapVersion, aEncryptedDoc);
+    }
+
+    final ICommonsList <WSS4JAttachment> aAttachments = createAttachments (nAttachmentCount, nPayloadBytes, aResHelper);
+    final AS4UserMessage aMsg = createUserMessage (eSoapVersion, false, aAttachments);
+    final Document aSignedDoc = AS4Signer.createSignedMessage (aCryptoFactory,
+                                                               aMsg.getAsSoapDocument (null),
+                                                               eSoapVersion,
+                                                               aMsg.getMessagingID (),
+                                                               aAttachments,
+                                                               aResHelper,
+                                                               false,
+                                                               createSigningParams ());
+    final AS4MimeMessage aMimeMsg = AS4Encryptor.encryptMimeMessage (eSoapVersion,
+                                                                     aSignedDoc,
+                                                                     aAttachments,
+                                                                     aCryptoFactory,
+                                                                     false,
+                                                                     aResHelper,
+                                                                     createCryptParams ());
+    return AS4BenchmarkMessage.createMime (aMimeMsg);
+  }
+
+  /**
+   * Create a signed but not encrypted MIME message.
+   *
+   * @param aCryptoFactory
+   *        Crypto factory to use. May not be <code>null</code>.
+   * @param eSoapVersion
+   *        SOAP version to use. May not be <code>null</code>.
+   * @param nAttachmentBytes
+   *        Size of each attachment.
+   * @param nAttachmentCount
+   *        Number of attachments.
+   * @param aResHelper
+   *        Resource helper to use. May not be <code>null</code>.
+   * @return The serialized message. Never <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of WSS4J errors
+   * @throws MessagingException
+   *         In case of MIME errors
+   * @throws IOException
+   *         In case of IO errors
+   */
+  @Nonnull
+  public static AS4BenchmarkMessage createSignedMimeMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                             @Nonnull final ESoapVersion eSoapVersion,
+                                                             final int nAttachmentBytes,
+                                                             final int nAttachmentCount,
+                                                             @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws WSSecurityException,
+                                                                                                                        MessagingException,
+                                                                                                                        IOException
+  {
+    final ICommonsList <WSS4JAttachment> aAttachments = createAttachments (nAttachmentCount, nAttachmentBytes, aResHelper);
+    final AS4UserMessage aMsg = createUserMessage (eSoapVersion, false, aAttachments);
+    final Document aSignedDoc = AS4Signer.createSignedMessage (aCryptoFactory,
+                                                               aMsg.getAsSoapDocument (null),
+                                                               eSoapVersion,
+                                                               aMsg.getMessagingID (),
+                                                               aAttachments,
+                                                               aResHelper,
+                                                               false,
+                                                               createSigningParams ());
+    return AS4BenchmarkMessage.createMime (MimeMessageCreator.generateMimeMessage (eSoapVersion, aSignedDoc, aAttachments));
+  }
+
+  /**
+   * Parse a serialized message in the same way as the AS4 servlet does.
+   *
+   * @param aMessage
+   *        The message to parse. May not be <code>null</code>.
+   * @param aResHelper
+   *        Resource helper to use. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback to be invoked with the parsed message. May not be
+   *        <code>null</code>.
+   * @throws Phase4Exception
+   *         In case of a processing error
+   * @throws WSSecurityException
+   *         In case of WSS4J errors
+   * @throws MessagingException
+   *         In case of MIME errors
+   * @throws IOException
+   *         In case of IO errors
+   */
+  public static void parseMessage (@Nonnull final AS4BenchmarkMessage aMessage,
+                                   @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                   @Nonnull final IAS4ParsedMessageCallback aCallback) throws Phase4Exception,
+                                                                                       WSSecurityException,
+                                                                                       MessagingException,
+                                                                                       IOException
+  {
+    AS4IncomingHandler.parseAS4Message (IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                        aResHelper,
+                                        new AS4IncomingMessageMetadata (EAS4MessageMode.REQUEST),
+                                        new NonBlockingByteArrayInputStream (aMessage.getBytes ()),
+                                        aMessage.getHttpHeaders (),
+                                        aCallback,
+                                        null);
+  }
+
+  /**
+   * A fully serialized message together with the HTTP headers needed to parse
+   * it again.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  public static final class AS4BenchmarkMessage
+  {
+    private final HttpHeaderMap m_aHttpHeaders;
+    private final byte [] m_aBytes;
+
+    private AS4BenchmarkMessage (@Nonnull final HttpHeaderMap aHttpHeaders, @Nonnull final byte [] aBytes)
+    {
+      m_aHttpHeaders = aHttpHeaders;
+      m_aBytes = aBytes;
+    }
+
+    @Nonnull
+    public HttpHeaderMap getHttpHeaders ()
+    {
+      return m_aHttpHeaders;
+    }
+
+    @Nonnull
+    public byte [] getBytes ()
+    {
+      return m_aBytes;
+    }
+
+    @Nonnull
+    public static AS4BenchmarkMessage createSoap (@Nonnull final ESoapVersion eSoapVersion, @Nonnull final Document aDoc)
+    {
+      final HttpHeaderMap aHttpHeaders = new HttpHeaderMap ();
+      aHttpHeaders.addHeader (CHttpHeader.CONTENT_TYPE,
+                             eSoapVersion.getMimeType (AS4XMLHelper.XWS.getCharset ()).getAsString ());
+      return new AS4BenchmarkMessage (aHttpHeaders, AS4XMLHelper.serializeXML (aDoc).getBytes (AS4XMLHelper.XWS.getCharset ()));
+    }
+
+    @Nonnull
+    public static AS4BenchmarkMessage createMime (@Nonnull final AS4MimeMessage aMimeMsg) throws MessagingException,
+                                                                                            IOException
+    {
+      // Move the MIME headers to the HTTP headers
+      final HttpHeaderMap aHttpHeaders = MessageHelperMethods.getAndRemoveAllHeaders (aMimeMsg);
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aMimeMsg.writeTo (aBAOS);
+        return new AS4BenchmarkMessage (aHttpHeaders, aBAOS.toByteArray ());
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.messaging.crypto.AS4Encryptor;
+import com.helger.phase4.messaging.crypto.AS4Signer;
+import com.helger.phase4.messaging.domain.AS4UserMessage;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.wss.WSSConfigManager;
+
+/**
+ * Benchmark for {@link AS4Signer} and {@link AS4Encryptor}. If the attachment
+ * count is 0 the payload is contained in the SOAP body, otherwise each
+ * attachment has the payload size and a MIME message is created.
+ *
+ * @author Philip Helger
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class AS4CryptoBenchmark
+{
+  private static final ESoapVersion SOAP_VERSION = ESoapVersion.SOAP_12;
+
+  @Param ({ "1024", "65536", "1048576" })
+  public int payloadSize;
+
+  @Param ({ "0", "1", "5" })
+  public int attachmentCount;
+
+  private IAS4CryptoFactory m_aCryptoFactory;
+  private Document m_aPayload;
+
+  // Per invocation
+  private AS4ResourceHelper m_aResHelper;
+  private ICommonsList <WSS4JAttachment> m_aAttachments;
+  private AS4UserMessage m_aUserMessage;
+  private Document m_aUnsignedDoc;
+  private Document m_aSignedDoc;
+
+  @Setup (Level.Trial)
+  public void setupTrial () throws Exception
+  {
+    AS4BenchmarkHelper.beginGlobalScope ();
+    // Ensure WSSConfig is initialized
+    WSSConfigManager.getInstance ();
+    m_aCryptoFactory = AS4BenchmarkHelper.createCryptoFactory ();
+    m_aPayload = attachmentCount == 0 ? AS4BenchmarkHelper.createPayload (payloadSize) : null;
+  }
+
+  @Setup (Level.Invocation)
+  public void setupInvocation () throws Exception
+  {
+    // Signing and encryption modify the document, so a fresh one is needed
+    m_aResHelper = new AS4ResourceHelper ();
+    m_aAttachments = attachmentCount == 0 ? null
+                                          : AS4BenchmarkHelper.createAttachments (attachmentCount,
+                                                                                  payloadSize,
+                                                                                  m_aResHelper);
+    m_aUserMessage = AS4BenchmarkHelper.createUserMessage (SOAP_VERSION, m_aPayload != null, m_aAttachments);
+    m_aUnsignedDoc = m_aUserMessage.getAsSoapDocument (m_aPayload);
+    m_aSignedDoc = AS4Signer.createSignedMessage (m_aCryptoFactory,
+                                                  m_aUserMessage.getAsSoapDocument (m_aPayload),
+                                                  SOAP_VERSION,
+                                                  m_aUserMessage.getMessagingID (),
+                                                  m_aAttachments,
+                                                  m_aResHelper,
+                                                  false,
+                                                  AS4BenchmarkHelper.createSigningParams ());
+  }
+
+  @TearDown (Level.Invocation)
+  public void tearDownInvocation ()
+  {
+    m_aResHelper.close ();
+  }
+
+  @TearDown (Level.Trial)
+  public void tearDownTrial ()
+  {
+    AS4BenchmarkHelper.endGlobalScope ();
+  }
+
+  @Benchmark
+  public Document sign () throws Exception
+  {
+    return AS4Signer.createSignedMessage (m_aCryptoFactory,
+                                          m_aUnsignedDoc,
+                                          SOAP_VERSION,
+                                          m_aUserMessage.getMessagingID (),
+                                          m_aAttachments,
+                                          m_aResHelper,
+                                          false,
+                                          AS4BenchmarkHelper.createSigningParams ());
+  }
+
+  @Benchmark
+  public Object encrypt () throws Exception
+  {
+    if (attachmentCount == 0)
+      return AS4Encryptor.encryptSoapBodyPayload (m_aCryptoFactory,
+                                                  SOAP_VERSION,
+                                                  m_aSignedDoc,
+                                                  false,
+                                                  AS4BenchmarkHelper.createCryptParams ());
+
+    final AS4MimeMessage aMimeMsg = AS4Encryptor.encryptMimeMessage (SOAP_VERSION,
+                                                                     m_aSignedDoc,
+                                                                     m_aAttachments,
+                                                                     m_aCryptoFactory,
+                                                                     false,
+                                                                     m_aResHelper,
+                                                                     AS4BenchmarkHelper.createCryptParams ());
+    // Write the message so that all attachment content is processed
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aMimeMsg.writeTo (aBAOS);
+      return aBAOS;
+    }
+  }
+}
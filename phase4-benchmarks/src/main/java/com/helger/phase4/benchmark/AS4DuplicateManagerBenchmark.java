@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.commons.state.EContinue;
+import com.helger.phase4.duplicate.AS4DuplicateManagerInMemory;
+import com.helger.phase4.duplicate.AS4DuplicateManagerInMemoryBucketed;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+
+/**
+ * Benchmark for {@link IAS4DuplicateManager#registerAndCheck(String, String, String)}
+ * of the in-memory implementations, both for new and for duplicate message IDs.
+ * The manager is pre-filled with the provided number of entries before each
+ * iteration.
+ *
+ * @author Philip Helger
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class AS4DuplicateManagerBenchmark
+{
+  private static final String PROFILE_ID = "benchmark-profile";
+  private static final String PMODE_ID = "benchmark-pmode";
+
+  @Param ({ "memory", "bucketed" })
+  public String implementation;
+
+  @Param ({ "1000", "100000" })
+  public int prefilledEntries;
+
+  private IAS4DuplicateManager m_aMgr;
+  private String [] m_aExistingIDs;
+
+  /**
+   * Per thread state to create unique message IDs without contention.
+   *
+   * @author Philip Helger
+   */
+  @State (Scope.Thread)
+  public static class ThreadState
+  {
+    private final String m_sPrefix = MessageHelperMethods.createRandomMessageID () + "-";
+    private int m_nCounter = 0;
+    private int m_nExistingIndex = 0;
+
+    String getNextNewID ()
+    {
+      return m_sPrefix + m_nCounter++;
+    }
+
+    String getNextExistingID (final String [] aExistingIDs)
+    {
+      final String ret = aExistingIDs[m_nExistingIndex];
+      m_nExistingIndex = (m_nExistingIndex + 1) % aExistingIDs.length;
+      return ret;
+    }
+  }
+
+  @Setup (Level.Trial)
+  public void setupTrial ()
+  {
+    AS4BenchmarkHelper.beginGlobalScope ();
+    switch (implementation)
+    {
+      case "memory":
+        m_aMgr = new AS4DuplicateManagerInMemory ();
+        break;
+      case "bucketed":
+        m_aMgr = new AS4DuplicateManagerInMemoryBucketed ();
+        break;
+      default:
+        throw new IllegalStateException ("Unsupported implementation '" + implementation + "'");
+    }
+    m_aExistingIDs = new String [prefilledEntries];
+    for (int i = 0; i < prefilledEntries; ++i)
+      m_aExistingIDs[i] = MessageHelperMethods.createRandomMessageID ();
+  }
+
+  @Setup (Level.Iteration)
+  public void setupIteration ()
+  {
+    // Avoid that the manager grows between iterations
+    m_aMgr.clearCache ();
+    for (final String sMessageID : m_aExistingIDs)
+      m_aMgr.registerAndCheck (sMessageID, PROFILE_ID, PMODE_ID);
+  }
+
+  @TearDown (Level.Trial)
+  public void tearDownTrial ()
+  {
+    AS4BenchmarkHelper.endGlobalScope ();
+  }
+
+  @Benchmark
+  public EContinue registerNew (final ThreadState aThreadState)
+  {
+    return m_aMgr.registerAndCheck (aThreadState.getNextNewID (), PROFILE_ID, PMODE_ID);
+  }
+
+  @Benchmark
+  public EContinue registerDuplicate (final ThreadState aThreadState)
+  {
+    return m_aMgr.registerAndCheck (aThreadState.getNextExistingID (m_aExistingIDs), PROFILE_ID, PMODE_ID);
+  }
+
+  @Benchmark
+  @Threads (Threads.MAX)
+  public EContinue registerNewConcurrent (final ThreadState aThreadState)
+  {
+    return m_aMgr.registerAndCheck (aThreadState.getNextNewID (), PROFILE_ID, PMODE_ID);
+  }
+}
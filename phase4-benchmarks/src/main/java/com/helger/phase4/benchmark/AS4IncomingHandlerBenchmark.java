@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.helger.phase4.benchmark.AS4BenchmarkHelper.AS4BenchmarkMessage;
+import com.helger.phase4.servlet.AS4IncomingHandler;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.wss.WSSConfigManager;
+
+/**
+ * Benchmark for the MIME parsing of signed MIME messages in
+ * {@link AS4IncomingHandler}. Each attachment has the payload size.
+ *
+ * @author Philip Helger
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class AS4IncomingHandlerBenchmark
+{
+  private static final ESoapVersion SOAP_VERSION = ESoapVersion.SOAP_12;
+
+  @Param ({ "1024", "65536", "1048576" })
+  public int payloadSize;
+
+  @Param ({ "1", "5", "20" })
+  public int attachmentCount;
+
+  private AS4BenchmarkMessage m_aMessage;
+
+  @Setup (Level.Trial)
+  public void setupTrial () throws Exception
+  {
+    AS4BenchmarkHelper.beginGlobalScope ();
+    // Ensure WSSConfig is initialized
+    WSSConfigManager.getInstance ();
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      m_aMessage = AS4BenchmarkHelper.createSignedMimeMessage (AS4BenchmarkHelper.createCryptoFactory (),
+                                                               SOAP_VERSION,
+                                                               payloadSize,
+                                                               attachmentCount,
+                                                               aResHelper);
+    }
+  }
+
+  @TearDown (Level.Trial)
+  public void tearDownTrial ()
+  {
+    AS4BenchmarkHelper.endGlobalScope ();
+  }
+
+  @Benchmark
+  public void parseMime (final Blackhole aBlackhole) throws Exception
+  {
+    // Closing the resource helper removes all temporary files
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      AS4BenchmarkHelper.parseMessage (m_aMessage, aResHelper, (aHttpHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> {
+        aBlackhole.consume (aSoapDocument);
+        aBlackhole.consume (aIncomingAttachments);
+      });
+    }
+  }
+}
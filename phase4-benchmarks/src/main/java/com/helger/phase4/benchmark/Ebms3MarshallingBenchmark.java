@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.marshaller.Ebms3WriterBuilder;
+import com.helger.phase4.messaging.domain.AS4UserMessage;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.AS4XMLHelper;
+
+/**
+ * Benchmark for the creation of user messages with
+ * {@link MessageHelperMethods} and the marshalling with
+ * {@link Ebms3WriterBuilder}. The payload size only applies to the SOAP body
+ * payload, the attachment count determines the number of PartInfo elements.
+ *
+ * @author Philip Helger
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class Ebms3MarshallingBenchmark
+{
+  private static final ESoapVersion SOAP_VERSION = ESoapVersion.SOAP_12;
+
+  @Param ({ "1024", "65536", "1048576" })
+  public int payloadSize;
+
+  @Param ({ "0", "1", "5" })
+  public int attachmentCount;
+
+  private AS4ResourceHelper m_aResHelper;
+  private ICommonsList <WSS4JAttachment> m_aAttachments;
+  private Document m_aPayload;
+  private AS4UserMessage m_aUserMessage;
+  private Ebms3Messaging m_aMessaging;
+  private Document m_aSoapDoc;
+
+  @Setup (Level.Trial)
+  public void setupTrial () throws Exception
+  {
+    AS4BenchmarkHelper.beginGlobalScope ();
+    m_aResHelper = new AS4ResourceHelper ();
+    // Attachment content is irrelevant here
+    m_aAttachments = AS4BenchmarkHelper.createAttachments (attachmentCount, 0, m_aResHelper);
+    m_aPayload = AS4BenchmarkHelper.createPayload (payloadSize);
+    m_aUserMessage = AS4BenchmarkHelper.createUserMessage (SOAP_VERSION, true, m_aAttachments);
+    m_aMessaging = new Ebms3Messaging ();
+    m_aMessaging.addUserMessage (m_aUserMessage.getEbms3UserMessage ());
+    m_aSoapDoc = m_aUserMessage.getAsSoapDocument (m_aPayload);
+  }
+
+  @TearDown (Level.Trial)
+  public void tearDownTrial ()
+  {
+    m_aResHelper.close ();
+    AS4BenchmarkHelper.endGlobalScope ();
+  }
+
+  @Benchmark
+  public AS4UserMessage createUserMessage ()
+  {
+    return AS4BenchmarkHelper.createUserMessage (SOAP_VERSION, true, m_aAttachments);
+  }
+
+  @Benchmark
+  public Document writeEbms3Messaging ()
+  {
+    return Ebms3WriterBuilder.ebms3Messaging ().getAsDocument (m_aMessaging);
+  }
+
+  @Benchmark
+  public Document writeSoapDocument ()
+  {
+    return m_aUserMessage.getAsSoapDocument (m_aPayload);
+  }
+
+  @Benchmark
+  public String serializeSoapDocument ()
+  {
+    return AS4XMLHelper.serializeXML (m_aSoapDoc);
+  }
+}
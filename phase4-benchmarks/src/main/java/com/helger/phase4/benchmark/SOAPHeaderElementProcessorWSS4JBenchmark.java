@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.state.ESuccess;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.benchmark.AS4BenchmarkHelper.AS4BenchmarkMessage;
+import com.helger.phase4.servlet.AS4MessageState;
+import com.helger.phase4.servlet.soap.SOAPHeaderElementProcessorWSS4J;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.wss.WSSConfigManager;
+
+/**
+ * Benchmark for the signature verification and decryption in
+ * {@link SOAPHeaderElementProcessorWSS4J}. If the attachment count is 0 the
+ * payload is contained in the SOAP body, otherwise each attachment has the
+ * payload size.
+ *
+ * @author Philip Helger
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class SOAPHeaderElementProcessorWSS4JBenchmark
+{
+  private static final ESoapVersion SOAP_VERSION = ESoapVersion.SOAP_12;
+
+  @Param ({ "1024", "65536", "1048576" })
+  public int payloadSize;
+
+  @Param ({ "0", "1", "5" })
+  public int attachmentCount;
+
+  private SOAPHeaderElementProcessorWSS4J m_aProcessor;
+  private AS4BenchmarkMessage m_aMessage;
+
+  // Per invocation
+  private AS4ResourceHelper m_aResHelper;
+  private Document m_aSoapDoc;
+  private Element m_aSecurityNode;
+  private ICommonsList <WSS4JAttachment> m_aAttachments;
+  private AS4MessageState m_aState;
+
+  @Setup (Level.Trial)
+  public void setupTrial () throws Exception
+  {
+    AS4BenchmarkHelper.beginGlobalScope ();
+    // Ensure WSSConfig is initialized
+    WSSConfigManager.getInstance ();
+    m_aProcessor = new SOAPHeaderElementProcessorWSS4J (AS4BenchmarkHelper.createCryptoFactory (),
+                                                        AS4BenchmarkHelper.createPMode ());
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      m_aMessage = AS4BenchmarkHelper.createSignedAndEncryptedMessage (AS4BenchmarkHelper.createCryptoFactory (),
+                                                                       SOAP_VERSION,
+                                                                       payloadSize,
+                                                                       attachmentCount,
+                                                                       aResHelper);
+    }
+  }
+
+  @Setup (Level.Invocation)
+  public void setupInvocation () throws Exception
+  {
+    // Decryption modifies the document, so it needs to be parsed again
+    m_aResHelper = new AS4ResourceHelper ();
+    AS4BenchmarkHelper.parseMessage (m_aMessage, m_aResHelper, (aHttpHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> {
+      m_aSoapDoc = aSoapDocument;
+      m_aAttachments = aIncomingAttachments;
+    });
+    m_aSecurityNode = (Element) m_aSoapDoc.getElementsByTagNameNS (SOAPHeaderElementProcessorWSS4J.QNAME_SECURITY.getNamespaceURI (),
+                                                                   SOAPHeaderElementProcessorWSS4J.QNAME_SECURITY.getLocalPart ())
+                                          .item (0);
+    if (m_aSecurityNode == null)
+      throw new IllegalStateException ("No WSS Security header found");
+    m_aState = new AS4MessageState (SOAP_VERSION, m_aResHelper, Locale.US);
+  }
+
+  @TearDown (Level.Invocation)
+  public void tearDownInvocation ()
+  {
+    m_aResHelper.close ();
+  }
+
+  @TearDown (Level.Trial)
+  public void tearDownTrial ()
+  {
+    AS4BenchmarkHelper.endGlobalScope ();
+  }
+
+  @Benchmark
+  public ESuccess verifyAndDecrypt ()
+  {
+    final ErrorList aErrorList = new ErrorList ();
+    final ESuccess eSuccess = m_aProcessor.processHeaderElement (m_aSoapDoc,
+                                                                 m_aSecurityNode,
+                                                                 m_aAttachments,
+                                                                 m_aState,
+                                                                 aErrorList);
+    if (eSuccess.isFailure ())
+      throw new IllegalStateException ("Failed to verify and decrypt: " + aErrorList);
+    return eSuccess;
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
+import com.helger.smpclient.exception.SMPClientException;
+import com.helger.smpclient.exception.SMPClientNotFoundException;
+import com.helger.smpclient.httpclient.AbstractGenericSMPClient;
+
+/**
+ * A global, size bounded cache for SMP endpoint lookups, shared between all
+ * endpoint detail provider instances of the same SMP type. It supports:
+ * <ul>
+ * <li>A configurable time to live, that is shortened to the next activation or
+ * expiration date of the endpoint</li>
+ * <li>Negative caching for lookups that found no endpoint, either because the
+ * loader returned <code>null</code> or because it threw an
+ * {@link SMPClientNotFoundException}</li>
+ * <li>Single-flight loading - concurrent lookups of the same key wait for the
+ * first lookup instead of querying the SMP again</li>
+ * <li>Hit and miss counters</li>
+ * </ul>
+ * Other lookup errors are never cached. The cache is only used if
+ * {@link AS4Configuration#isSMPCacheEnabled()} returns <code>true</code>.
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        The endpoint type to be cached
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class AS4EndpointCache <T>
+{
+  private static final class Entry <T>
+  {
+    private final CompletableFuture <T> m_aFuture = new CompletableFuture <> ();
+    // Not expired while the lookup is in progress
+    private volatile long m_nExpiresAtMillis = Long.MAX_VALUE;
+
+    boolean isExpired (final long nNowMillis)
+    {
+      return nNowMillis >= m_nExpiresAtMillis;
+    }
+  }
+
+  private final String m_sName;
+  private final Function <? super T, OffsetDateTime> m_aValidityChangeGetter;
+  private final int m_nMaxSize;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final Map <String, Entry <T>> m_aMap;
+  private final LongAdder m_aHits = new LongAdder ();
+  private final LongAdder m_aMisses = new LongAdder ();
+
+  /**
+   * Constructor
+   *
+   * @param sName
+   *        The name of the cache, used for the metrics. May neither be
+   *        <code>null</code> nor empty.
+   * @param aValidityChangeGetter
+   *        A function that returns the next point in time the validity of the
+   *        passed endpoint changes (activation or expiration). May be
+   *        <code>null</code>. The function itself may return
+   *        <code>null</code>.
+   * @param nMaxSize
+   *        The maximum number of entries. Must be &gt; 0. If exceeded, the least
+   *        recently used entry is removed.
+   */
+  public AS4EndpointCache (@Nonnull @Nonempty final String sName,
+                           @Nullable final Function <? super T, OffsetDateTime> aValidityChangeGetter,
+                           @Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_sName = sName;
+    m_aValidityChangeGetter = aValidityChangeGetter;
+    m_nMaxSize = nMaxSize;
+    m_aMap = new LinkedHashMap <String, Entry <T>> (16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <String, Entry <T>> aEldest)
+      {
+        return size () > m_nMaxSize;
+      }
+    };
+  }
+
+  /**
+   * @return The name of the cache. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getName ()
+  {
+    return m_sName;
+  }
+
+  /**
+   * @return The maximum number of entries.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The number of lookups answered from the cache, including the ones
+   *         that waited for a concurrent lookup.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.sum ();
+  }
+
+  /**
+   * @return The number of lookups that queried the SMP.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.sum ();
+  }
+
+  /**
+   * @return The number of currently cached entries.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  private void _remove (@Nonnull final String sKey, @Nonnull final Entry <T> aEntry)
+  {
+    m_aLock.locked ( () -> m_aMap.remove (sKey, aEntry));
+  }
+
+  private long _getExpiresAtMillis (@Nullable final T aValue, final long nNowMillis)
+  {
+    final long nTTLSeconds = aValue == null ? AS4Configuration.getSMPCacheNegativeTTLSeconds ()
+                                            : AS4Configuration.getSMPCacheTTLSeconds ();
+    long ret = nNowMillis + TimeUnit.SECONDS.toMillis (Math.max (nTTLSeconds, 0));
+    if (aValue != null && m_aValidityChangeGetter != null)
+    {
+      // Don't cache beyond the next activation or expiration
+      final OffsetDateTime aChange = m_aValidityChangeGetter.apply (aValue);
+      if (aChange != null)
+      {
+        final long nChangeMillis = aChange.toInstant ().toEpochMilli ();
+        if (nChangeMillis > nNowMillis)
+          ret = Math.min (ret, nChangeMillis);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Get the cached value or perform the lookup.
+   *
+   * @param sKey
+   *        The cache key. May neither be <code>null</code> nor empty.
+   * @param aLoader
+   *        The lookup to be performed if the value is not cached. May not be
+   *        <code>null</code>. May return <code>null</code> or throw an
+   *        {@link SMPClientNotFoundException} if no endpoint was found. Both
+   *        results are cached for the negative time to live.
+   * @return The cached or looked up value. May be <code>null</code>.
+   * @throws SMPClientException
+   *         In case the lookup failed. A cached
+   *         {@link SMPClientNotFoundException} is re-thrown on every hit.
+   */
+  @Nullable
+  public T get (@Nonnull @Nonempty final String sKey,
+                @Nonnull final IThrowingSupplier <? extends T, SMPClientException> aLoader) throws SMPClientException
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+    ValueEnforcer.notNull (aLoader, "Loader");
+
+    if (!AS4Configuration.isSMPCacheEnabled ())
+      return aLoader.get ();
+
+    final long nNowMillis = System.currentTimeMillis ();
+    final Entry <T> aNewEntry = new Entry <> ();
+    final Entry <T> aEntry = m_aLock.lockedGet ( () -> {
+      final Entry <T> aExisting = m_aMap.get (sKey);
+      if (aExisting != null && !aExisting.isExpired (nNowMillis))
+        return aExisting;
+      m_aMap.put (sKey, aNewEntry);
+      return aNewEntry;
+    });
+
+    if (aEntry == aNewEntry)
+    {
+      // We perform the lookup
+      m_aMisses.increment ();
+      AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_PREFIX_SMP_CACHE_MISSES + m_sName);
+      try
+      {
+        final T ret = aLoader.get ();
+        aEntry.m_nExpiresAtMillis = _getExpiresAtMillis (ret, nNowMillis);
+        aEntry.m_aFuture.complete (ret);
+        return ret;
+      }
+      catch (final SMPClientNotFoundException ex)
+      {
+        // Not found is a negative result and cached like a null value
+        aEntry.m_nExpiresAtMillis = _getExpiresAtMillis (null, nNowMillis);
+        aEntry.m_aFuture.completeExceptionally (ex);
+        throw ex;
+      }
+      catch (final SMPClientException | RuntimeException | Error ex)
+      {
+        // Errors are not cached, but waiting lookups must be released
+        _remove (sKey, aEntry);
+        aEntry.m_aFuture.completeExceptionally (ex);
+        throw ex;
+      }
+    }
+
+    m_aHits.increment ();
+    AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_PREFIX_SMP_CACHE_HITS + m_sName);
+    try
+    {
+      // Blocks if the lookup is still in progress
+      return aEntry.m_aFuture.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new SMPClientException ("Interrupted while waiting for SMP lookup of '" + sKey + "'", ex);
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof SMPClientException)
+        throw (SMPClientException) aCause;
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      if (aCause instanceof Error)
+        throw (Error) aCause;
+      throw new SMPClientException ("Failed to perform SMP lookup of '" + sKey + "'", aCause);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Name", m_sName)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .append ("Hits", getHitCount ())
+                                       .append ("Misses", getMissCount ())
+                                       .getToString ();
+  }
+
+  /**
+   * Get the earliest of the provided dates that lies in the future.
+   *
+   * @param aActivation
+   *        Activation date. May be <code>null</code>.
+   * @param aExpiration
+   *        Expiration date. May be <code>null</code>.
+   * @return <code>null</code> if none of the dates is in the future.
+   */
+  @Nullable
+  public static OffsetDateTime getNextValidityChange (@Nullable final OffsetDateTime aActivation,
+                                                      @Nullable final OffsetDateTime aExpiration)
+  {
+    final OffsetDateTime aNow = OffsetDateTime.now ();
+    OffsetDateTime ret = null;
+    if (aActivation != null && aActivation.isAfter (aNow))
+      ret = aActivation;
+    if (aExpiration != null && aExpiration.isAfter (aNow) && (ret == null || aExpiration.isBefore (ret)))
+      ret = aExpiration;
+    return ret;
+  }
+
+  /**
+   * Create the cache key for an SMP lookup.
+   *
+   * @param aSMPClient
+   *        The SMP client used. If it is a generic SMP client, the SMP host URI
+   *        is part of the key, otherwise the client identity.
+   * @param aReceiverID
+   *        Receiver ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcID
+   *        Process ID. May not be <code>null</code>.
+   * @param aTP
+   *        Transport profile. May not be <code>null</code>.
+   * @return The cache key. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getCacheKey (@Nonnull final Object aSMPClient,
+                                    @Nonnull final IParticipantIdentifier aReceiverID,
+                                    @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                    @Nonnull final IProcessIdentifier aProcID,
+                                    @Nonnull final ISMPTransportProfile aTP)
+  {
+    final String sSMP = aSMPClient instanceof AbstractGenericSMPClient <?> ? ((AbstractGenericSMPClient <?>) aSMPClient).getSMPHostURI ()
+                                                                           : aSMPClient.getClass ().getName () +
+                                                                             "@" +
+                                                                             System.identityHashCode (aSMPClient);
+    return sSMP +
+           ' ' +
+           aReceiverID.getURIEncoded () +
+           ' ' +
+           aDocTypeID.getURIEncoded () +
+           ' ' +
+           aProcID.getURIEncoded () +
+           ' ' +
+           aTP.getID ();
+  }
+}
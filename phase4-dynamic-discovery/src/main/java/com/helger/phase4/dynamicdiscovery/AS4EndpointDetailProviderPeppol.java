@@ -18,6 +18,7 @@ package com.helger.phase4.dynamicdiscovery;
 
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.time.OffsetDateTime;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -27,12 +28,14 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.datetime.XMLOffsetDateTime;
 import com.helger.commons.string.StringHelper;
 import com.helger.peppol.smp.ESMPTransportProfile;
 import com.helger.peppol.smp.ISMPTransportProfile;
 import com.helger.peppolid.IDocumentTypeIdentifier;
 import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.smpclient.exception.SMPClientException;
 import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
@@ -52,16 +55,41 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointDetailProviderPeppol.class);
 
+  /** The global cache shared by all instances of this class */
+  private static final AS4EndpointCache <EndpointType> CACHE = new AS4EndpointCache <> ("peppol",
+                                                                                    AS4EndpointDetailProviderPeppol::_getValidityChange,
+                                                                                    AS4Configuration.getSMPCacheMaxSize ());
+
   private final ISMPServiceMetadataProvider m_aSMPClient;
   private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
   private EndpointType m_aEndpoint;
 
+  @Nullable
+  private static OffsetDateTime _getValidityChange (@Nonnull final EndpointType aEndpoint)
+  {
+    final XMLOffsetDateTime aActivation = aEndpoint.getServiceActivationDate ();
+    final XMLOffsetDateTime aExpiration = aEndpoint.getServiceExpirationDate ();
+    return AS4EndpointCache.getNextValidityChange (aActivation == null ? null : aActivation.toOffsetDateTime (),
+                                                   aExpiration == null ? null : aExpiration.toOffsetDateTime ());
+  }
+
   public AS4EndpointDetailProviderPeppol (@Nonnull final ISMPServiceMetadataProvider aSMPClient)
   {
     ValueEnforcer.notNull (aSMPClient, "SMPClient");
     m_aSMPClient = aSMPClient;
   }
 
+  /**
+   * @return The global SMP lookup cache used by all instances of this class.
+   *         Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static AS4EndpointCache <EndpointType> getCache ()
+  {
+    return CACHE;
+  }
+
   /**
    * @return The service metadata provider passed in the constructor. Never
    *         <code>null</code>.
@@ -134,7 +162,10 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
       // Perform SMP lookup
       try
       {
-        m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
+        // Use the global cache, if enabled
+        final ISMPTransportProfile aTP = m_aTP;
+        m_aEndpoint = CACHE.get (AS4EndpointCache.getCacheKey (m_aSMPClient, aReceiverID, aDocTypeID, aProcID, aTP),
+                                 () -> m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, aTP));
         if (m_aEndpoint == null)
           throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
                                         aReceiverID.getURIEncoded () +
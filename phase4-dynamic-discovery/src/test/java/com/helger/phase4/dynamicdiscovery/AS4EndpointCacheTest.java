@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2020-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hc.client5.http.HttpResponseException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.config.Config;
+import com.helger.config.IConfig;
+import com.helger.config.source.EConfigSourceType;
+import com.helger.config.source.MultiConfigurationValueProvider;
+import com.helger.config.source.appl.ConfigurationSourceFunction;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.smpclient.exception.SMPClientException;
+import com.helger.smpclient.exception.SMPClientNotFoundException;
+
+/**
+ * Test class for class {@link AS4EndpointCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4EndpointCacheTest
+{
+  private static IConfig s_aOldConfig;
+
+  private static final class SimulatedError extends Error
+  {}
+
+  @BeforeClass
+  public static void beforeClass ()
+  {
+    final StringMap aMap = new StringMap ();
+    aMap.put ("phase4.smp.cache.enabled", "true");
+    aMap.put ("phase4.smp.cache.ttl.seconds", "300");
+    aMap.put ("phase4.smp.cache.negative.ttl.seconds", "1");
+    final MultiConfigurationValueProvider aVP = AS4Configuration.createPhase4ValueProvider ();
+    aVP.addConfigurationSource (new ConfigurationSourceFunction (aMap::getAsString),
+                                EConfigSourceType.RESOURCE.getDefaultPriority () + 20);
+    s_aOldConfig = AS4Configuration.setConfig (new Config (aVP));
+  }
+
+  @AfterClass
+  public static void afterClass ()
+  {
+    AS4Configuration.setConfig (s_aOldConfig);
+  }
+
+  private static void _await (final CountDownLatch aLatch) throws SMPClientException
+  {
+    try
+    {
+      aLatch.await ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new SMPClientException ("Interrupted", ex);
+    }
+  }
+
+  private static void _waitForHits (final AS4EndpointCache <?> aCache, final long nHits) throws InterruptedException
+  {
+    final long nEnd = System.currentTimeMillis () + 10_000;
+    while (aCache.getHitCount () < nHits)
+    {
+      assertTrue ("Timeout waiting for " + nHits + " hits", System.currentTimeMillis () < nEnd);
+      Thread.sleep (5);
+    }
+  }
+
+  @Test
+  public void testSingleFlight () throws Exception
+  {
+    final int nThreads = 8;
+    final AS4EndpointCache <String> aCache = new AS4EndpointCache <> ("test-sf", null, 10);
+    final AtomicInteger aLoads = new AtomicInteger (0);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      final ICommonsList <Future <String>> aResults = new CommonsArrayList <> ();
+      for (int i = 0; i < nThreads; ++i)
+        aResults.add (aES.submit ( () -> aCache.get ("key", () -> {
+          aLoads.incrementAndGet ();
+          _await (aRelease);
+          return "value";
+        })));
+
+      // All but the loading thread wait for the lookup
+      _waitForHits (aCache, nThreads - 1);
+      aRelease.countDown ();
+
+      for (final Future <String> aResult : aResults)
+        assertEquals ("value", aResult.get (10, TimeUnit.SECONDS));
+      assertEquals (1, aLoads.get ());
+      assertEquals (1, aCache.getMissCount ());
+      assertEquals (nThreads - 1, aCache.getHitCount ());
+    }
+    finally
+    {
+      aRelease.countDown ();
+      aES.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testNegativeTTL () throws Exception
+  {
+    final AS4EndpointCache <String> aCache = new AS4EndpointCache <> ("test-neg", null, 10);
+    final AtomicInteger aLoads = new AtomicInteger (0);
+
+    assertNull (aCache.get ("key", () -> {
+      aLoads.incrementAndGet ();
+      return null;
+    }));
+    assertNull (aCache.get ("key", () -> {
+      aLoads.incrementAndGet ();
+      return null;
+    }));
+    // Cached for the negative TTL
+    assertEquals (1, aLoads.get ());
+
+    Thread.sleep (1_100);
+    assertNull (aCache.get ("key", () -> {
+      aLoads.incrementAndGet ();
+      return null;
+    }));
+    assertEquals (2, aLoads.get ());
+  }
+
+  @Test
+  public void testNotFoundIsCachedNegative () throws Exception
+  {
+    final AS4EndpointCache <String> aCache = new AS4EndpointCache <> ("test-notfound", null, 10);
+    final AtomicInteger aLoads = new AtomicInteger (0);
+    for (int i = 0; i < 2; ++i)
+      try
+      {
+        aCache.get ("key", () -> {
+          aLoads.incrementAndGet ();
+          throw new SMPClientNotFoundException (new HttpResponseException (404, "Not Found"));
+        });
+        fail ();
+      }
+      catch (final SMPClientNotFoundException ex)
+      {
+        // expected
+      }
+    // Cached for the negative TTL
+    assertEquals (1, aLoads.get ());
+    assertEquals (1, aCache.size ());
+
+    Thread.sleep (1_100);
+    assertEquals ("value", aCache.get ("key", () -> {
+      aLoads.incrementAndGet ();
+      return "value";
+    }));
+    assertEquals (2, aLoads.get ());
+  }
+
+  @Test
+  public void testErrorsAreNotCached () throws Exception
+  {
+    final AS4EndpointCache <String> aCache = new AS4EndpointCache <> ("test-err", null, 10);
+    try
+    {
+      aCache.get ("key", () -> {
+        throw new SMPClientException ("Simulated");
+      });
+      fail ();
+    }
+    catch (final SMPClientException ex)
+    {
+      // expected
+    }
+    assertEquals (0, aCache.size ());
+
+    // Loader is invoked again
+    assertEquals ("value", aCache.get ("key", () -> "value"));
+    assertEquals (2, aCache.getMissCount ());
+  }
+
+  @Test
+  public void testErrorReleasesWaitingLookups () throws Exception
+  {
+    final AS4EndpointCache <String> aCache = new AS4EndpointCache <> ("test-error", null, 10);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ExecutorService aES = Executors.newFixedThreadPool (2);
+    try
+    {
+      final Future <String> aLoader = aES.submit ( () -> aCache.get ("key", () -> {
+        _await (aRelease);
+        throw new SimulatedError ();
+      }));
+      // Wait until the loader is running
+      final long nEnd = System.currentTimeMillis () + 10_000;
+      while (aCache.getMissCount () == 0)
+      {
+        assertTrue (System.currentTimeMillis () < nEnd);
+        Thread.sleep (5);
+      }
+      final Future <String> aWaiter = aES.submit ( () -> aCache.get ("key", () -> "other"));
+      _waitForHits (aCache, 1);
+      aRelease.countDown ();
+
+      for (final Future <String> aResult : new CommonsArrayList <> (aLoader, aWaiter))
+        try
+        {
+          aResult.get (10, TimeUnit.SECONDS);
+          fail ();
+        }
+        catch (final ExecutionException ex)
+        {
+          assertTrue (ex.getCause () instanceof SimulatedError);
+        }
+      assertEquals (0, aCache.size ());
+    }
+    finally
+    {
+      aRelease.countDown ();
+      aES.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testLRUBound () throws Exception
+  {
+    final AS4EndpointCache <String> aCache = new AS4EndpointCache <> ("test-lru", null, 2);
+    final AtomicInteger aLoads = new AtomicInteger (0);
+
+    aCache.get ("a", () -> "a" + aLoads.incrementAndGet ());
+    aCache.get ("b", () -> "b" + aLoads.incrementAndGet ());
+    // Access "a" so that "b" is the least recently used entry
+    assertEquals ("a1", aCache.get ("a", () -> "a" + aLoads.incrementAndGet ()));
+    aCache.get ("c", () -> "c" + aLoads.incrementAndGet ());
+    assertEquals (2, aCache.size ());
+    assertEquals (3, aLoads.get ());
+
+    // "a" is still cached, "b" was removed
+    assertEquals ("a1", aCache.get ("a", () -> "a" + aLoads.incrementAndGet ()));
+    assertEquals ("b4", aCache.get ("b", () -> "b" + aLoads.incrementAndGet ()));
+    assertEquals (2, aCache.size ());
+  }
+
+  @Test
+  public void testValidityChangeLimitsTTL () throws Exception
+  {
+    // Each value becomes invalid 200ms after it was loaded
+    final AS4EndpointCache <OffsetDateTime> aCache = new AS4EndpointCache <> ("test-validity", x -> x, 10);
+    final AtomicInteger aLoads = new AtomicInteger (0);
+
+    aCache.get ("key", () -> {
+      aLoads.incrementAndGet ();
+      return OffsetDateTime.now ().plusNanos (TimeUnit.MILLISECONDS.toNanos (200));
+    });
+    aCache.get ("key", () -> {
+      aLoads.incrementAndGet ();
+      return OffsetDateTime.now ().plusNanos (TimeUnit.MILLISECONDS.toNanos (200));
+    });
+    assertEquals (1, aLoads.get ());
+
+    // Expired long before the TTL of 300 seconds
+    Thread.sleep (300);
+    aCache.get ("key", () -> {
+      aLoads.incrementAndGet ();
+      return OffsetDateTime.now ().plusNanos (TimeUnit.MILLISECONDS.toNanos (200));
+    });
+    assertEquals (2, aLoads.get ());
+  }
+
+  @Test
+  public void testGetNextValidityChange ()
+  {
+    final OffsetDateTime aNow = OffsetDateTime.now ();
+    assertNull (AS4EndpointCache.getNextValidityChange (null, null));
+    assertNull (AS4EndpointCache.getNextValidityChange (aNow.minusDays (1), aNow.minusHours (1)));
+    assertEquals (aNow.plusDays (1), AS4EndpointCache.getNextValidityChange (aNow.minusDays (1), aNow.plusDays (1)));
+    assertEquals (aNow.plusHours (1), AS4EndpointCache.getNextValidityChange (aNow.plusHours (1), aNow.plusDays (1)));
+  }
+}
@@ -202,7 +202,7 @@ public final class Phase4ENTSOGSender
                                                                                    aUserMsg,
                                                                                    m_aLocale,
                                                                                    m_sEndpointURL,
-                                                                                   m_aBuildMessageCallback,
+                                                                                   getBuildMessageCallbackForSending (),
                                                                                    m_aOutgoingDumper,
                                                                                    m_aIncomingDumper,
                                                                                    m_aRetryCallback,
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * This class holds the global {@link IAS4CompressionCodec} to be used per
+ * {@link EAS4CompressionMode}. It is used for compressing outgoing and
+ * decompressing incoming attachments. If no custom codec is set, the codec is
+ * created based on the configuration.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public final class AS4CompressionCodecManager
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CompressionCodecManager.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static final Map <EAS4CompressionMode, IAS4CompressionCodec> CODECS = new EnumMap <> (EAS4CompressionMode.class);
+
+  private AS4CompressionCodecManager ()
+  {}
+
+  @Nonnull
+  private static IAS4CompressionCodec _createDefaultCodec (@Nonnull final EAS4CompressionMode eMode)
+  {
+    switch (eMode)
+    {
+      case GZIP:
+      {
+        final int nLevel = AS4Configuration.getCompressionGZipLevel ();
+        final int nBufferSize = AS4Configuration.getCompressionBufferSize ();
+        final IAS4CompressionCodec ret;
+        if (AS4Configuration.isCompressionGZipParallelEnabled ())
+          ret = new AS4ParallelGZipCompressionCodec (nLevel,
+                                                     nBufferSize,
+                                                     AS4Configuration.getCompressionGZipParallelBlockSize (),
+                                                     AS4Configuration.getCompressionGZipParallelThreads ());
+        else
+          ret = new AS4GZipCompressionCodec (nLevel, nBufferSize);
+
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Using default compression codec " + ret + " for " + eMode);
+        return ret;
+      }
+      default:
+        throw new IllegalStateException ("Unsupported compression mode " + eMode);
+    }
+  }
+
+  /**
+   * Get the codec to be used for the provided compression mode. If no codec is
+   * present, the default codec is created from the configuration.
+   *
+   * @param eMode
+   *        The compression mode to use. May not be <code>null</code>.
+   * @return The codec to be used. Never <code>null</code>.
+   */
+  @Nonnull
+  public static IAS4CompressionCodec getCodec (@Nonnull final EAS4CompressionMode eMode)
+  {
+    ValueEnforcer.notNull (eMode, "Mode");
+
+    final IAS4CompressionCodec ret = RW_LOCK.readLockedGet ( () -> CODECS.get (eMode));
+    if (ret != null)
+      return ret;
+
+    return RW_LOCK.writeLockedGet ( () -> CODECS.computeIfAbsent (eMode, AS4CompressionCodecManager::_createDefaultCodec));
+  }
+
+  /**
+   * Set the codec to be used for the provided compression mode.
+   *
+   * @param eMode
+   *        The compression mode to use. May not be <code>null</code>.
+   * @param aCodec
+   *        The codec to be used. May be <code>null</code> to revert to the
+   *        default codec based on the configuration.
+   */
+  public static void setCodec (@Nonnull final EAS4CompressionMode eMode, @Nullable final IAS4CompressionCodec aCodec)
+  {
+    ValueEnforcer.notNull (eMode, "Mode");
+
+    final IAS4CompressionCodec aOld = RW_LOCK.writeLockedGet ( () -> aCodec == null ? CODECS.remove (eMode)
+                                                                                     : CODECS.put (eMode, aCodec));
+    if (aOld instanceof AS4ParallelGZipCompressionCodec && aOld != aCodec)
+      ((AS4ParallelGZipCompressionCodec) aOld).shutdown ();
+  }
+
+  /**
+   * Remove all codecs and shutdown the thread pools of the parallel codecs.
+   * This should be called upon application shutdown. Afterwards the default
+   * codecs are created again on demand.
+   */
+  public static void shutdown ()
+  {
+    final List <IAS4CompressionCodec> aOld = RW_LOCK.writeLockedGet ( () -> {
+      final List <IAS4CompressionCodec> ret = new ArrayList <> (CODECS.values ());
+      CODECS.clear ();
+      return ret;
+    });
+    for (final IAS4CompressionCodec aCodec : aOld)
+      if (aCodec instanceof AS4ParallelGZipCompressionCodec)
+        ((AS4ParallelGZipCompressionCodec) aCodec).shutdown ();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * {@link IAS4CompressionCodec} for GZip based on the JDK
+ * {@link GZIPInputStream} and {@link GZIPOutputStream} with a configurable
+ * compression level and buffer size.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@Immutable
+public class AS4GZipCompressionCodec implements IAS4CompressionCodec
+{
+  private final int m_nLevel;
+  private final int m_nBufferSize;
+
+  /**
+   * Constructor
+   *
+   * @param nLevel
+   *        The compression level from 0 to 9 or -1 for the default level.
+   * @param nBufferSize
+   *        The stream buffer size in bytes. Must be &gt; 0.
+   */
+  public AS4GZipCompressionCodec (final int nLevel, @Nonnegative final int nBufferSize)
+  {
+    ValueEnforcer.isBetweenInclusive (nLevel, "Level", Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION);
+    ValueEnforcer.isGT0 (nBufferSize, "BufferSize");
+    m_nLevel = nLevel;
+    m_nBufferSize = nBufferSize;
+  }
+
+  /**
+   * @return The compression level from 0 to 9 or -1 for the default level.
+   */
+  public final int getLevel ()
+  {
+    return m_nLevel;
+  }
+
+  /**
+   * @return The stream buffer size in bytes. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getBufferSize ()
+  {
+    return m_nBufferSize;
+  }
+
+  @Nonnull
+  public InputStream getDecompressStream (@Nonnull final InputStream aIS) throws IOException
+  {
+    return new GZIPInputStream (aIS, m_nBufferSize);
+  }
+
+  @Nonnull
+  public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
+  {
+    final int nLevel = m_nLevel;
+    return new GZIPOutputStream (aOS, m_nBufferSize)
+    {
+      {
+        def.setLevel (nLevel);
+      }
+    };
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Level", m_nLevel).append ("BufferSize", m_nBufferSize).getToString ();
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Implementation of {@link IAS4IncomingAttachmentFactory} that reads the
+ * content of each incoming MIME part exactly once. Parts up to a configurable
+ * size are kept in memory, larger parts are streamed directly into a temporary
+ * file, without buffering the whole part in a {@link MimeBodyPart} first.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@Immutable
+public class AS4IncomingAttachmentFactoryStreaming implements IAS4IncomingAttachmentFactory
+{
+  // Marker to read the threshold from the configuration upon each call
+  private static final long USE_CONFIGURATION = -1;
+
+  private final long m_nMaxInMemoryBytes;
+
+  /**
+   * Constructor using the in-memory threshold from
+   * {@link AS4Configuration#getIncomingAttachmentInMemoryMaxBytes()}. The
+   * configuration is read upon each call and not when this object is created,
+   * so that later configuration changes are considered.
+   */
+  public AS4IncomingAttachmentFactoryStreaming ()
+  {
+    m_nMaxInMemoryBytes = USE_CONFIGURATION;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxInMemoryBytes
+   *        The maximum number of bytes of an attachment to keep in memory.
+   *        Larger attachments are stored in temporary files. Must be &ge; 0.
+   */
+  public AS4IncomingAttachmentFactoryStreaming (final long nMaxInMemoryBytes)
+  {
+    ValueEnforcer.isGE0 (nMaxInMemoryBytes, "MaxInMemoryBytes");
+    m_nMaxInMemoryBytes = nMaxInMemoryBytes;
+  }
+
+  /**
+   * @return The maximum number of bytes of an attachment to keep in memory.
+   *         If no explicit value was provided in the constructor, the current
+   *         configuration value is returned. Always &ge; 0.
+   */
+  public final long getMaxInMemoryBytes ()
+  {
+    if (m_nMaxInMemoryBytes == USE_CONFIGURATION)
+      return Math.max (0, AS4Configuration.getIncomingAttachmentInMemoryMaxBytes ());
+    return m_nMaxInMemoryBytes;
+  }
+
+  @Nonnull
+  public WSS4JAttachment createAttachment (@Nonnull final MimeBodyPart aBodyPart,
+                                           @Nonnull final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                        MessagingException
+  {
+    // Content was already read by the caller
+    return WSS4JAttachment.createIncomingFileAttachment (aBodyPart, aResHelper);
+  }
+
+  @Override
+  @Nonnull
+  public WSS4JAttachment createAttachment (@Nonnull final InternetHeaders aHeaders,
+                                           @Nonnull @WillNotClose final InputStream aRawContentIS,
+                                           @Nonnull final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                        MessagingException
+  {
+    return WSS4JAttachment.createIncomingFileAttachment (aHeaders, aRawContentIS, aResHelper, getMaxInMemoryBytes ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MaxInMemoryBytes",
+                                                m_nMaxInMemoryBytes == USE_CONFIGURATION ? "from configuration"
+                                                                                         : Long.toString (m_nMaxInMemoryBytes))
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * {@link IAS4CompressionCodec} for GZip that uses
+ * {@link ParallelGZIPOutputStream} to compress large payloads on multiple
+ * cores. The created data is a regular single member GZip stream, so
+ * decompression is done with the regular {@link AS4GZipCompressionCodec}.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class AS4ParallelGZipCompressionCodec extends AS4GZipCompressionCodec
+{
+  private final int m_nBlockSize;
+  private final int m_nThreads;
+  private final ExecutorService m_aExecutor;
+
+  /**
+   * Constructor
+   *
+   * @param nLevel
+   *        The compression level from 0 to 9 or -1 for the default level.
+   * @param nBufferSize
+   *        The stream buffer size in bytes for decompression. Must be &gt; 0.
+   * @param nBlockSize
+   *        The size of the uncompressed blocks being compressed in parallel.
+   *        Must be &gt; 0.
+   * @param nThreads
+   *        The number of compression threads. Must be &gt; 0.
+   */
+  public AS4ParallelGZipCompressionCodec (final int nLevel,
+                                          @Nonnegative final int nBufferSize,
+                                          @Nonnegative final int nBlockSize,
+                                          @Nonnegative final int nThreads)
+  {
+    super (nLevel, nBufferSize);
+    ValueEnforcer.isGT0 (nBlockSize, "BlockSize");
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    m_nBlockSize = nBlockSize;
+    m_nThreads = nThreads;
+    // Daemon threads, so that the JVM shutdown is not blocked
+    m_aExecutor = Executors.newFixedThreadPool (nThreads,
+                                                new BasicThreadFactory.Builder ().namingPattern ("phase4-gzip-%d")
+                                                                                  .daemon (true)
+                                                                                  .build ());
+  }
+
+  /**
+   * @return The size of the uncompressed blocks being compressed in parallel.
+   */
+  @Nonnegative
+  public final int getBlockSize ()
+  {
+    return m_nBlockSize;
+  }
+
+  /**
+   * @return The number of compression threads.
+   */
+  @Nonnegative
+  public final int getThreads ()
+  {
+    return m_nThreads;
+  }
+
+  @Override
+  @Nonnull
+  public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
+  {
+    // Twice the number of threads, so that no thread is idle while the
+    // results are written
+    return new ParallelGZIPOutputStream (aOS, m_aExecutor, getLevel (), m_nBlockSize, m_nThreads * 2);
+  }
+
+  /**
+   * Shutdown the internal thread pool. Afterwards no more compression is
+   * possible.
+   */
+  public void shutdown ()
+  {
+    m_aExecutor.shutdown ();
+  }
+
+  /**
+   * @return <code>true</code> if {@link #shutdown()} was called,
+   *         <code>false</code> otherwise.
+   */
+  public boolean isShutdown ()
+  {
+    return m_aExecutor.isShutdown ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("BlockSize", m_nBlockSize)
+                            .append ("Threads", m_nThreads)
+                            .getToString ();
+  }
+}
@@ -19,8 +19,6 @@ package com.helger.phase4.attachment;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -40,22 +38,7 @@ import com.helger.commons.string.StringHelper;
 public enum EAS4CompressionMode implements IHasID <String>
 {
   /** GZip compression mode */
-  GZIP ("gzip", CMimeType.APPLICATION_GZIP, ".gz")
-  {
-    @Override
-    @Nonnull
-    public InputStream getDecompressStream (@Nonnull final InputStream aIS) throws IOException
-    {
-      return new GZIPInputStream (aIS);
-    }
-
-    @Override
-    @Nonnull
-    public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
-    {
-      return new GZIPOutputStream (aOS);
-    }
-  };
+  GZIP ("gzip", CMimeType.APPLICATION_GZIP, ".gz");
 
   private final String m_sID;
   private final IMimeType m_aMimeType;
@@ -109,6 +92,7 @@ public enum EAS4CompressionMode implements IHasID <String>
 
   /**
    * Get an {@link InputStream} to decompress the provided {@link InputStream}.
+   * Delegates to the codec provided by {@link AS4CompressionCodecManager}.
    *
    * @param aIS
    *        The source {@link InputStream}. May not be <code>null</code>.
@@ -117,10 +101,14 @@ public enum EAS4CompressionMode implements IHasID <String>
    *         In case of IO error
    */
   @Nonnull
-  public abstract InputStream getDecompressStream (@Nonnull InputStream aIS) throws IOException;
+  public InputStream getDecompressStream (@Nonnull final InputStream aIS) throws IOException
+  {
+    return AS4CompressionCodecManager.getCodec (this).getDecompressStream (aIS);
+  }
 
   /**
    * Get an {@link OutputStream} to compress the provided {@link OutputStream}.
+   * Delegates to the codec provided by {@link AS4CompressionCodecManager}.
    *
    * @param aOS
    *        The source {@link OutputStream}. May not be <code>null</code>.
@@ -129,7 +117,10 @@ public enum EAS4CompressionMode implements IHasID <String>
    *         In case of IO error
    */
   @Nonnull
-  public abstract OutputStream getCompressStream (@Nonnull OutputStream aOS) throws IOException;
+  public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
+  {
+    return AS4CompressionCodecManager.getCodec (this).getCompressStream (aOS);
+  }
 
   @Nullable
   public static EAS4CompressionMode getFromMimeTypeStringOrNull (@Nullable final String sMimeType)
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Special {@link DataHandler} for MIME parts that are backed by a file which
+ * already contains the bytes to be transmitted (e.g. uncompressed or already
+ * compressed attachments without encryption). If the target output stream is
+ * backed by a channel (a {@link FileOutputStream} or an output stream that
+ * itself is a {@link WritableByteChannel}), the file content is transferred
+ * with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+ * allows the JDK to use zero-copy transfer. For all other output streams (like
+ * the HTTP stream of Apache HttpClient) the content is copied through a
+ * buffered InputStream as usual, because wrapping the stream into a channel
+ * would copy the data via a heap buffer as well.<br>
+ * Note: this only works with the <code>binary</code> Content-Transfer-Encoding,
+ * as the content is written as-is.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public class FileChannelDataHandler extends KnownLengthDataHandler
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (FileChannelDataHandler.class);
+
+  private final File m_aFile;
+
+  /**
+   * Constructor
+   *
+   * @param aDS
+   *        The data source to be used for all read operations except
+   *        {@link #writeContentTo(OutputStream)}. May not be <code>null</code>.
+   * @param aFile
+   *        The file containing exactly the bytes of the data source. May not be
+   *        <code>null</code>.
+   */
+  public FileChannelDataHandler (@Nonnull final DataSource aDS, @Nonnull final File aFile)
+  {
+    super (aDS, ValueEnforcer.notNull (aFile, "File").length ());
+    m_aFile = aFile;
+  }
+
+  /**
+   * @return The file to be transferred. Never <code>null</code>.
+   */
+  @Nonnull
+  public final File getFile ()
+  {
+    return m_aFile;
+  }
+
+  @Override
+  protected void writeContentTo (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    final WritableByteChannel aDst;
+    if (aOS instanceof FileOutputStream)
+      aDst = ((FileOutputStream) aOS).getChannel ();
+    else
+      if (aOS instanceof WritableByteChannel)
+        aDst = (WritableByteChannel) aOS;
+      else
+      {
+        // No channel available - use the regular copy
+        super.writeContentTo (aOS);
+        return;
+      }
+
+    try (final FileInputStream aFIS = new FileInputStream (m_aFile); final FileChannel aSrc = aFIS.getChannel ())
+    {
+      // Don't close the target channel, as this would close the OutputStream
+      final long nSize = aSrc.size ();
+      long nPos = 0;
+      while (nPos < nSize)
+      {
+        final long nTransferred = aSrc.transferTo (nPos, nSize - nPos, aDst);
+        if (nTransferred <= 0)
+        {
+          // File was truncated in the meantime
+          break;
+        }
+        nPos += nTransferred;
+      }
+
+      if (nPos != nSize)
+        throw new IOException ("Only transferred " + nPos + " of " + nSize + " bytes of file '" + m_aFile.getAbsolutePath () + "'");
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Transferred " + nPos + " bytes from file '" + m_aFile.getAbsolutePath () + "' via FileChannel");
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ()).append ("File", m_aFile).getToString ();
+  }
+}
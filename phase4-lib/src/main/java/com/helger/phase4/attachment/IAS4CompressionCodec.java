@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Pluggable codec that implements a single {@link EAS4CompressionMode}. The
+ * compressed representation must always be compatible to the MIME type of the
+ * compression mode, as this is what is put on the wire.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public interface IAS4CompressionCodec
+{
+  /**
+   * Get an {@link InputStream} to decompress the provided {@link InputStream}.
+   *
+   * @param aIS
+   *        The source {@link InputStream}. May not be <code>null</code>.
+   * @return The decompressing {@link InputStream}
+   * @throws IOException
+   *         In case of IO error
+   */
+  @Nonnull
+  InputStream getDecompressStream (@Nonnull InputStream aIS) throws IOException;
+
+  /**
+   * Get an {@link OutputStream} to compress the provided {@link OutputStream}.
+   *
+   * @param aOS
+   *        The source {@link OutputStream}. May not be <code>null</code>.
+   * @return The compressing {@link OutputStream}
+   * @throws IOException
+   *         In case of IO error
+   */
+  @Nonnull
+  OutputStream getCompressStream (@Nonnull OutputStream aOS) throws IOException;
+}
@@ -17,11 +17,15 @@
 package com.helger.phase4.attachment;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.phase4.util.AS4ResourceHelper;
 
 /**
@@ -51,9 +55,45 @@ public interface IAS4IncomingAttachmentFactory
                                                                                                             MessagingException;
 
   /**
-   * The default instance of {@link IAS4IncomingAttachmentFactory} that uses
-   * {@link WSS4JAttachment#createIncomingFileAttachment(MimeBodyPart, AS4ResourceHelper)}
+   * Create an attachment from the already parsed MIME part headers and the raw
+   * MIME part content stream. This is the method called when parsing incoming
+   * MIME messages. The default implementation reads the whole content into a
+   * {@link MimeBodyPart} and delegates to
+   * {@link #createAttachment(MimeBodyPart, AS4ResourceHelper)} for backwards
+   * compatibility. Implementations should override this method to avoid the
+   * in-memory copy.
+   *
+   * @param aHeaders
+   *        The MIME part headers. Never <code>null</code>.
+   * @param aRawContentIS
+   *        The raw (potentially transfer encoded) MIME part content. Never
+   *        <code>null</code>. Must not be closed by the implementation.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The internal attachment representation. Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @throws MessagingException
+   *         In case MIME part reading fails.
+   * @since 1.4.1
+   */
+  @Nonnull
+  default WSS4JAttachment createAttachment (@Nonnull final InternetHeaders aHeaders,
+                                            @Nonnull @WillNotClose final InputStream aRawContentIS,
+                                            @Nonnull final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                         MessagingException
+  {
+    final MimeBodyPart aBodyPart = new MimeBodyPart (aHeaders, StreamHelper.getAllBytes (aRawContentIS));
+    return createAttachment (aBodyPart, aResHelper);
+  }
+
+  /**
+   * The default instance of {@link IAS4IncomingAttachmentFactory} that streams
+   * the MIME part content exactly once, using
+   * {@link AS4IncomingAttachmentFactoryStreaming}. The in-memory threshold is
+   * read from the configuration upon each call, so creating this instance does
+   * not access the configuration.
    */
   @Nonnull
-  IAS4IncomingAttachmentFactory DEFAULT_INSTANCE = WSS4JAttachment::createIncomingFileAttachment;
+  IAS4IncomingAttachmentFactory DEFAULT_INSTANCE = new AS4IncomingAttachmentFactoryStreaming ();
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.messaging.mime.MimeLengthCountingOutputStream;
+
+/**
+ * Special {@link DataHandler} for MIME parts with the <code>binary</code>
+ * Content-Transfer-Encoding, where the number of bytes is known in advance.
+ * When the MIME message length is determined with a
+ * {@link MimeLengthCountingOutputStream}, the content is not read but only the
+ * length is added. This also ensures, that the content of streams that can
+ * only be read once is not consumed when determining the length.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public class KnownLengthDataHandler extends DataHandler
+{
+  private final long m_nLength;
+
+  /**
+   * Constructor
+   *
+   * @param aDS
+   *        The data source to be used. May not be <code>null</code>.
+   * @param nLength
+   *        The exact number of bytes the data source delivers. Must be &ge; 0.
+   */
+  public KnownLengthDataHandler (@Nonnull final DataSource aDS, @Nonnegative final long nLength)
+  {
+    super (aDS);
+    ValueEnforcer.isGE0 (nLength, "Length");
+    m_nLength = nLength;
+  }
+
+  /**
+   * @return The exact number of bytes of the content. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getLength ()
+  {
+    return m_nLength;
+  }
+
+  /**
+   * Write the content to the provided output stream. Only called if the length
+   * is not just counted.
+   *
+   * @param aOS
+   *        The output stream to write to. Never <code>null</code>.
+   * @throws IOException
+   *         On IO error
+   */
+  protected void writeContentTo (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    super.writeTo (aOS);
+  }
+
+  @Override
+  public final void writeTo (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    if (aOS instanceof MimeLengthCountingOutputStream)
+      ((MimeLengthCountingOutputStream) aOS).skip (getLength ());
+    else
+      writeContentTo (aOS);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Length", m_nLength).getToString ();
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+
+/**
+ * A GZip {@link OutputStream} that splits the uncompressed data into blocks
+ * and deflates the blocks in parallel, similar to <code>pigz</code>. Each
+ * block is primed with the last 32 KB of the previous block and all but the
+ * last block end with a sync flush, so that the result is a single regular
+ * GZip member that can be read by any GZip reader (e.g.
+ * {@link java.util.zip.GZIPInputStream}). The CRC is calculated sequentially
+ * while writing.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@NotThreadSafe
+public class ParallelGZIPOutputStream extends OutputStream
+{
+  /** Same header as written by the JDK GZIPOutputStream */
+  private static final byte [] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+  private static final int DEFLATE_BUFFER_SIZE = 32 * 1024;
+
+  private final OutputStream m_aOS;
+  private final ExecutorService m_aExecutor;
+  private final int m_nLevel;
+  private final int m_nBlockSize;
+  private final int m_nMaxPendingBlocks;
+  private final CRC32 m_aCRC = new CRC32 ();
+  private final Deque <Future <byte []>> m_aPending = new ArrayDeque <> ();
+  private byte [] m_aPrevBlock;
+  private int m_nPrevBlockLen;
+  private byte [] m_aBlock;
+  private int m_nBlockLen;
+  private long m_nTotalBytes;
+  private boolean m_bClosed;
+
+  /**
+   * Constructor. Writes the GZip header immediately.
+   *
+   * @param aOS
+   *        The target stream. May not be <code>null</code>.
+   * @param aExecutor
+   *        The executor to compress the blocks in. May not be
+   *        <code>null</code>.
+   * @param nLevel
+   *        The compression level from 0 to 9 or -1 for the default level.
+   * @param nBlockSize
+   *        The size of the uncompressed blocks. Must be &gt; 0.
+   * @param nMaxPendingBlocks
+   *        The maximum number of blocks being compressed at the same time.
+   *        This limits the memory consumption. Must be &gt; 0.
+   * @throws IOException
+   *         If writing the header fails
+   */
+  public ParallelGZIPOutputStream (@Nonnull @WillClose final OutputStream aOS,
+                                   @Nonnull final ExecutorService aExecutor,
+                                   final int nLevel,
+                                   @Nonnegative final int nBlockSize,
+                                   @Nonnegative final int nMaxPendingBlocks) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    ValueEnforcer.isBetweenInclusive (nLevel, "Level", Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION);
+    ValueEnforcer.isGT0 (nBlockSize, "BlockSize");
+    ValueEnforcer.isGT0 (nMaxPendingBlocks, "MaxPendingBlocks");
+    m_aOS = aOS;
+    m_aExecutor = aExecutor;
+    m_nLevel = nLevel;
+    m_nBlockSize = nBlockSize;
+    m_nMaxPendingBlocks = nMaxPendingBlocks;
+    m_aBlock = new byte [nBlockSize];
+    m_aOS.write (GZIP_HEADER);
+  }
+
+  private void _ensureOpen () throws IOException
+  {
+    if (m_bClosed)
+      throw new IOException ("Stream is already closed");
+  }
+
+  @Nonnull
+  static byte [] deflateBlock (@Nonnull final byte [] aData,
+                               @Nonnegative final int nLen,
+                               @Nullable final byte [] aDict,
+                               @Nonnegative final int nDictLen,
+                               final int nLevel,
+                               final boolean bLast)
+  {
+    // Raw deflate without zlib header
+    final Deflater aDeflater = new Deflater (nLevel, true);
+    try
+    {
+      final NonBlockingByteArrayOutputStream aBOS = new NonBlockingByteArrayOutputStream (nLen / 2 + 64);
+      if (aDict != null && nDictLen > 0)
+      {
+        final int nDictOfs = Math.max (0, nDictLen - DICTIONARY_SIZE);
+        aDeflater.setDictionary (aDict, nDictOfs, nDictLen - nDictOfs);
+      }
+      aDeflater.setInput (aData, 0, nLen);
+
+      final byte [] aBuf = new byte [DEFLATE_BUFFER_SIZE];
+      if (bLast)
+      {
+        aDeflater.finish ();
+        while (!aDeflater.finished ())
+        {
+          final int nDeflated = aDeflater.deflate (aBuf);
+          aBOS.write (aBuf, 0, nDeflated);
+        }
+      }
+      else
+      {
+        // Sync flush to end on a byte boundary without the final bit
+        int nDeflated;
+        do
+        {
+          nDeflated = aDeflater.deflate (aBuf, 0, aBuf.length, Deflater.SYNC_FLUSH);
+          aBOS.write (aBuf, 0, nDeflated);
+        } while (nDeflated == aBuf.length);
+      }
+      return aBOS.toByteArray ();
+    }
+    finally
+    {
+      aDeflater.end ();
+    }
+  }
+
+  @Nonnull
+  private static byte [] _getResult (@Nonnull final Future <byte []> aFuture) throws IOException
+  {
+    try
+    {
+      return aFuture.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ("Interrupted while waiting for compressed block");
+    }
+    catch (final ExecutionException ex)
+    {
+      throw new IOException ("Failed to compress block", ex.getCause ());
+    }
+  }
+
+  private void _writeNextPending () throws IOException
+  {
+    m_aOS.write (_getResult (m_aPending.removeFirst ()));
+  }
+
+  private void _submitBlock () throws IOException
+  {
+    final byte [] aData = m_aBlock;
+    final int nLen = m_nBlockLen;
+    final byte [] aDict = m_aPrevBlock;
+    final int nDictLen = m_nPrevBlockLen;
+    final int nLevel = m_nLevel;
+    m_aPending.addLast (m_aExecutor.submit ( () -> deflateBlock (aData, nLen, aDict, nDictLen, nLevel, false)));
+
+    // Never modify submitted arrays
+    m_aPrevBlock = aData;
+    m_nPrevBlockLen = nLen;
+    m_aBlock = new byte [m_nBlockSize];
+    m_nBlockLen = 0;
+
+    // Limit the number of blocks in memory
+    while (m_aPending.size () > m_nMaxPendingBlocks)
+      _writeNextPending ();
+  }
+
+  @Override
+  public void write (final int b) throws IOException
+  {
+    _ensureOpen ();
+    if (m_nBlockLen == m_nBlockSize)
+      _submitBlock ();
+    m_aBlock[m_nBlockLen++] = (byte) b;
+    m_aCRC.update (b);
+    m_nTotalBytes++;
+  }
+
+  @Override
+  public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+  {
+    ValueEnforcer.isArrayOfsLen (aBuf, nOfs, nLen);
+    _ensureOpen ();
+
+    m_aCRC.update (aBuf, nOfs, nLen);
+    m_nTotalBytes += nLen;
+
+    int nSrcOfs = nOfs;
+    int nRemaining = nLen;
+    while (nRemaining > 0)
+    {
+      // Only submit a full block, if more data is present - the last block is
+      // compressed in close
+      if (m_nBlockLen == m_nBlockSize)
+        _submitBlock ();
+      final int nCopy = Math.min (nRemaining, m_nBlockSize - m_nBlockLen);
+      System.arraycopy (aBuf, nSrcOfs, m_aBlock, m_nBlockLen, nCopy);
+      m_nBlockLen += nCopy;
+      nSrcOfs += nCopy;
+      nRemaining -= nCopy;
+    }
+  }
+
+  /**
+   * Writes all blocks that were already compressed and flushes the underlying
+   * stream. The currently filled block is not flushed, as this would reduce the
+   * compression ratio.
+   */
+  @Override
+  public void flush () throws IOException
+  {
+    _ensureOpen ();
+    while (!m_aPending.isEmpty ())
+      _writeNextPending ();
+    m_aOS.flush ();
+  }
+
+  private void _writeIntLE (final long n) throws IOException
+  {
+    m_aOS.write ((int) (n & 0xff));
+    m_aOS.write ((int) ((n >> 8) & 0xff));
+    m_aOS.write ((int) ((n >> 16) & 0xff));
+    m_aOS.write ((int) ((n >> 24) & 0xff));
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    if (m_bClosed)
+      return;
+    m_bClosed = true;
+
+    try
+    {
+      while (!m_aPending.isEmpty ())
+        _writeNextPending ();
+
+      // Last block is compressed in the calling thread
+      m_aOS.write (deflateBlock (m_aBlock, m_nBlockLen, m_aPrevBlock, m_nPrevBlockLen, m_nLevel, true));
+
+      // Trailer: CRC32 and uncompressed size modulo 2^32
+      _writeIntLE (m_aCRC.getValue ());
+      _writeIntLE (m_nTotalBytes);
+      m_aOS.flush ();
+    }
+    finally
+    {
+      for (final Future <byte []> aFuture : m_aPending)
+        aFuture.cancel (true);
+      m_aPending.clear ();
+      m_aBlock = null;
+      m_aPrevBlock = null;
+      m_aOS.close ();
+    }
+  }
+}
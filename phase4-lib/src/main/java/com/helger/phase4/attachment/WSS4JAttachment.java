@@ -33,8 +33,10 @@ import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.mail.Header;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimeUtility;
 
 import org.apache.wss4j.common.ext.Attachment;
 import org.slf4j.Logger;
@@ -51,12 +53,14 @@ import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.mail.datasource.InputStreamProviderDataSource;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.util.AS4ResourceHelper;
 
@@ -80,6 +84,8 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
   private final AS4ResourceHelper m_aResHelper;
   private IHasInputStream m_aISP;
+  private File m_aSourceFile;
+  private long m_nSourceLength = -1;
   private EContentTransferEncoding m_eCTE = EContentTransferEncoding.BINARY;
   private EAS4CompressionMode m_eCompressionMode;
   private Charset m_aCharset;
@@ -185,6 +191,77 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   {
     ValueEnforcer.notNull (aISP, "InputStreamProvider");
     m_aISP = aISP;
+    m_aSourceFile = null;
+    m_nSourceLength = -1;
+  }
+
+  /**
+   * @return The file that contains exactly the bytes to be transmitted, if the
+   *         source stream provider was set via {@link #setSourceFile(File)}.
+   *         May be <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nullable
+  public final File getSourceFile ()
+  {
+    return m_aSourceFile;
+  }
+
+  /**
+   * Set the source stream provider to read from the provided file and remember
+   * the file, so that it can be transferred without copying when writing the
+   * MIME message.
+   *
+   * @param aFile
+   *        The file containing the (potentially compressed) bytes to be
+   *        transmitted. May not be <code>null</code>.
+   * @since 1.4.1
+   */
+  public void setSourceFile (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    // Set a stream provider that can be read multiple times (opens a new
+    // FileInputStream internally)
+    setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aFile)));
+    m_aSourceFile = aFile;
+  }
+
+  /**
+   * @return The number of bytes the source stream provider delivers or -1 if
+   *         unknown. If a source file is present, the file length is returned.
+   * @since 1.4.1
+   */
+  public final long getSourceLength ()
+  {
+    if (m_aSourceFile != null)
+      return m_aSourceFile.length ();
+    return m_nSourceLength;
+  }
+
+  /**
+   * Set the number of bytes the source stream provider delivers. This is only
+   * needed if no source file is used and must be called after
+   * {@link #setSourceStreamProvider(IHasInputStream)}.
+   *
+   * @param nSourceLength
+   *        The exact number of bytes or -1 if unknown.
+   * @since 1.4.1
+   */
+  public final void setSourceLength (final long nSourceLength)
+  {
+    m_nSourceLength = nSourceLength;
+  }
+
+  /**
+   * @return <code>true</code> if the number of bytes to be transmitted in the
+   *         MIME part is known without reading the source. This is the case if
+   *         the source length is known and the <code>binary</code>
+   *         Content-Transfer-Encoding is used.
+   * @since 1.4.1
+   */
+  public final boolean isTransferLengthKnown ()
+  {
+    return m_eCTE == EContentTransferEncoding.BINARY && getSourceLength () >= 0;
   }
 
   @Nonnull
@@ -288,7 +365,22 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     // headers
     // On some tests the datahandler did reset content-type and transfer
     // encoding, so this is now the correct order
-    aMimeBodyPart.setDataHandler (new DataHandler (_getAsDataSource ()));
+    final DataSource aDS = _getAsDataSource ();
+    if (m_aSourceFile != null &&
+        getContentTransferEncoding () == EContentTransferEncoding.BINARY &&
+        AS4Configuration.isOutgoingAttachmentZeroCopyEnabled ())
+    {
+      // The file content can be written as-is
+      aMimeBodyPart.setDataHandler (new FileChannelDataHandler (aDS, m_aSourceFile));
+    }
+    else
+      if (isTransferLengthKnown ())
+      {
+        // Allows to determine the MIME message length without reading
+        aMimeBodyPart.setDataHandler (new KnownLengthDataHandler (aDS, getSourceLength ()));
+      }
+      else
+        aMimeBodyPart.setDataHandler (new DataHandler (aDS));
 
     // After DataHandler!!
     aMimeBodyPart.setHeader (CHttpHeader.CONTENT_TYPE, getMimeType ());
@@ -312,6 +404,8 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                        .append ("Headers", getHeaders ())
                                        .append ("ResourceManager", m_aResHelper)
                                        .append ("ISP", m_aISP)
+                                       .append ("SourceFile", m_aSourceFile)
+                                       .append ("SourceLength", m_nSourceLength)
                                        .append ("CTE", m_eCTE)
                                        .append ("CM", m_eCompressionMode)
                                        .append ("Charset", m_aCharset)
@@ -433,7 +527,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
     // Set a stream provider that can be read multiple times (opens a new
     // FileInputStream internally)
-    ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
+    ret.setSourceFile (aRealFile);
     return ret;
   }
 
@@ -490,12 +584,13 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
       {
         aOS.write (aSrcData);
       }
-      ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
+      ret.setSourceFile (aRealFile);
     }
     else
     {
       // No compression - use data as-is
       ret.setSourceStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aSrcData)));
+      ret.setSourceLength (aSrcData.length);
     }
     return ret;
   }
@@ -590,18 +685,144 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
       ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
     }
 
+    _addIncomingHeaders (ret, aBodyPart.getAllHeaders ());
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Finished handling of incoming WSS4J attachment");
+
+    return ret;
+  }
+
+  private static void _addIncomingHeaders (@Nonnull final WSS4JAttachment aAttachment,
+                                           @Nonnull final Enumeration <Header> aEnum)
+  {
     // Read all MIME part headers
-    final Enumeration <Header> aEnum = aBodyPart.getAllHeaders ();
     while (aEnum.hasMoreElements ())
     {
       final Header aHeader = aEnum.nextElement ();
-      ret.addHeader (aHeader.getName (), aHeader.getValue ());
+      aAttachment.addHeader (aHeader.getName (), aHeader.getValue ());
     }
 
     // These headers are mandatory and overwrite headers from the MIME body part
-    ret.addHeader (CHttpHeader.CONTENT_DESCRIPTION, CONTENT_DESCRIPTION_ATTACHMENT);
-    ret.addHeader (CHttpHeader.CONTENT_ID, CONTENT_ID_PREFIX + ret.getId () + CONTENT_ID_SUFFIX);
-    ret.addHeader (CHttpHeader.CONTENT_TYPE, ret.getMimeType ());
+    aAttachment.addHeader (CHttpHeader.CONTENT_DESCRIPTION, CONTENT_DESCRIPTION_ATTACHMENT);
+    aAttachment.addHeader (CHttpHeader.CONTENT_ID, CONTENT_ID_PREFIX + aAttachment.getId () + CONTENT_ID_SUFFIX);
+    aAttachment.addHeader (CHttpHeader.CONTENT_TYPE, aAttachment.getMimeType ());
+  }
+
+  /**
+   * Create an incoming attachment from the already parsed MIME part headers and
+   * the raw MIME part content, without creating an intermediate
+   * {@link MimeBodyPart}. The content is read exactly once: it is kept in
+   * memory as long as it does not exceed the provided threshold, and is
+   * otherwise streamed into a temporary file.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aRawContentIS
+   *        The raw (potentially transfer encoded) content of the MIME part. May
+   *        not be <code>null</code>. The stream is read until the end but is not
+   *        closed.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @param nMaxInMemoryBytes
+   *        The maximum number of decoded bytes to keep in memory. Must be
+   *        &ge; 0.
+   * @return The internal attachment representation. Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @throws MessagingException
+   *         In case the Content-Transfer-Encoding is not supported
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static WSS4JAttachment createIncomingFileAttachment (@Nonnull final InternetHeaders aHeaders,
+                                                              @Nonnull @WillNotClose final InputStream aRawContentIS,
+                                                              @Nonnull final AS4ResourceHelper aResHelper,
+                                                              final long nMaxInMemoryBytes) throws MessagingException,
+                                                                                            IOException
+  {
+    ValueEnforcer.notNull (aHeaders, "Headers");
+    ValueEnforcer.notNull (aRawContentIS, "RawContentIS");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+    ValueEnforcer.isGE0 (nMaxInMemoryBytes, "MaxInMemoryBytes");
+
+    // Same default as in MimeBodyPart
+    String sContentType = aHeaders.getHeader (CHttpHeader.CONTENT_TYPE, null);
+    if (StringHelper.hasNoText (sContentType))
+      sContentType = "text/plain";
+
+    final WSS4JAttachment ret = new WSS4JAttachment (aResHelper, sContentType);
+
+    {
+      // Reference in Content-ID header is: "<ID>"
+      // See
+      // http://docs.oasis-open.org/wss-m/wss/v1.1.1/os/wss-SwAProfile-v1.1.1-os.html
+      // chapter 5.2
+      final String sRealContentID = StringHelper.trimStartAndEnd (aHeaders.getHeader (CHttpHeader.CONTENT_ID, null),
+                                                                  '<',
+                                                                  '>');
+      ret.setId (sRealContentID);
+    }
+
+    // Decode the Content-Transfer-Encoding on the fly
+    final String sCTE = aHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, null);
+    final InputStream aContentIS = StringHelper.hasText (sCTE) ? MimeUtility.decode (aRawContentIS, sCTE.trim ())
+                                                               : aRawContentIS;
+
+    // Buffer in memory until the threshold is exceeded
+    final byte [] aBuffer = new byte [16 * CGlobal.BYTES_PER_KILOBYTE];
+    try (final NonBlockingByteArrayOutputStream aMemOS = new NonBlockingByteArrayOutputStream ())
+    {
+      File aTempFile = null;
+      OutputStream aFileOS = null;
+      long nTotalBytes = 0;
+      try
+      {
+        int nRead;
+        while ((nRead = aContentIS.read (aBuffer)) > -1)
+        {
+          nTotalBytes += nRead;
+          if (aFileOS == null && nTotalBytes > nMaxInMemoryBytes)
+          {
+            // Switch to temp file
+            aTempFile = aResHelper.createTempFile ();
+            if (LOGGER.isDebugEnabled ())
+              LOGGER.debug ("Streaming WSS4J attachment to temporary file '" + aTempFile.getAbsolutePath () + "'");
+
+            aFileOS = FileHelper.getBufferedOutputStream (aTempFile);
+            if (aFileOS == null)
+              throw new IOException ("Failed to open temporary file '" + aTempFile.getAbsolutePath () + "' for writing");
+            aMemOS.writeTo (aFileOS);
+            aMemOS.reset ();
+          }
+
+          if (aFileOS != null)
+            aFileOS.write (aBuffer, 0, nRead);
+          else
+            aMemOS.write (aBuffer, 0, nRead);
+        }
+      }
+      finally
+      {
+        StreamHelper.close (aFileOS);
+      }
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Created incoming WSS4J attachment with " + nTotalBytes + " bytes");
+
+      if (aTempFile == null)
+      {
+        // keep small parts in memory
+        final byte [] aData = aMemOS.toByteArray ();
+        ret.setSourceStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aData)));
+      }
+      else
+      {
+        ret.setSourceFile (aTempFile);
+      }
+    }
+
+    _addIncomingHeaders (ret, aHeaders.getAllHeaders ());
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Finished handling of incoming WSS4J attachment");
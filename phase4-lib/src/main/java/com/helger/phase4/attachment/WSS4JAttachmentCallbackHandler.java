@@ -17,10 +17,20 @@
 package com.helger.phase4.attachment;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillNotClose;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.UnsupportedCallbackException;
@@ -28,6 +38,9 @@ import javax.security.auth.callback.UnsupportedCallbackException;
 import org.apache.wss4j.common.ext.Attachment;
 import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.xml.security.algorithms.JCEMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +52,7 @@ import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.random.RandomHelper;
 import com.helger.phase4.util.AS4ResourceHelper;
 
 /**
@@ -52,12 +66,43 @@ import com.helger.phase4.util.AS4ResourceHelper;
 public class WSS4JAttachmentCallbackHandler implements CallbackHandler
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (WSS4JAttachmentCallbackHandler.class);
+  // The tag length used by XML Encryption for AES GCM
+  private static final int GCM_TAG_BITS = 128;
 
   private final ICommonsOrderedMap <String, WSS4JAttachment> m_aAttachmentMap = new CommonsLinkedHashMap <> ();
   private final AS4ResourceHelper m_aResHelper;
+  private final String m_sEncryptionAlgorithmURI;
+  private final SecretKey m_aSymmetricKey;
 
   public WSS4JAttachmentCallbackHandler (@Nullable final Iterable <? extends WSS4JAttachment> aAttachments,
                                          @Nonnull @WillNotClose final AS4ResourceHelper aResHelper)
+  {
+    this (aAttachments, aResHelper, null, null);
+  }
+
+  /**
+   * Constructor to be used for encryption. If the encryption algorithm and the
+   * symmetric key are provided, encrypted attachments of repeatable source
+   * attachments can be read more than once, because they are re-encrypted with
+   * the same key and a new IV. Additionally the length of the encrypted
+   * attachments is determined in advance.
+   *
+   * @param aAttachments
+   *        The attachments to be handled. May be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @param sEncryptionAlgorithmURI
+   *        The XML encryption algorithm URI used to encrypt the attachments.
+   *        May be <code>null</code>.
+   * @param aSymmetricKey
+   *        The symmetric key used to encrypt the attachments. May be
+   *        <code>null</code>.
+   * @since 1.4.1
+   */
+  public WSS4JAttachmentCallbackHandler (@Nullable final Iterable <? extends WSS4JAttachment> aAttachments,
+                                         @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                         @Nullable final String sEncryptionAlgorithmURI,
+                                         @Nullable final SecretKey aSymmetricKey)
   {
     ValueEnforcer.notNull (aResHelper, "ResHelper");
 
@@ -65,6 +110,8 @@ public class WSS4JAttachmentCallbackHandler implements CallbackHandler
       for (final WSS4JAttachment aAttachment : aAttachments)
         m_aAttachmentMap.put (aAttachment.getId (), aAttachment);
     m_aResHelper = aResHelper;
+    m_sEncryptionAlgorithmURI = sEncryptionAlgorithmURI;
+    m_aSymmetricKey = aSymmetricKey;
   }
 
   /**
@@ -100,6 +147,67 @@ public class WSS4JAttachmentCallbackHandler implements CallbackHandler
     throw new IllegalStateException ("Failed to resolve attachment with ID '" + sAttachmentID + "'");
   }
 
+  @Nonnull
+  private static AlgorithmParameterSpec _createParameterSpec (@Nonnull final String sJCEAlgorithm,
+                                                              @Nonnull final byte [] aIV)
+  {
+    if (sJCEAlgorithm.contains ("GCM"))
+      return new GCMParameterSpec (GCM_TAG_BITS, aIV);
+    return new IvParameterSpec (aIV);
+  }
+
+  @Nonnull
+  private Cipher _createEncryptionCipher () throws GeneralSecurityException
+  {
+    final String sJCEAlgorithm = JCEMapper.translateURItoJCEID (m_sEncryptionAlgorithmURI);
+    if (sJCEAlgorithm == null)
+      throw new GeneralSecurityException ("Unsupported encryption algorithm '" + m_sEncryptionAlgorithmURI + "'");
+
+    final byte [] aIV = new byte [JCEMapper.getIVLengthFromURI (m_sEncryptionAlgorithmURI) / 8];
+    RandomHelper.getSecureRandom ().nextBytes (aIV);
+
+    final Cipher aCipher = Cipher.getInstance (sJCEAlgorithm);
+    aCipher.init (Cipher.ENCRYPT_MODE, m_aSymmetricKey, _createParameterSpec (sJCEAlgorithm, aIV));
+    return aCipher;
+  }
+
+  /**
+   * Get the length of the encrypted attachment stream, as created by
+   * {@link AttachmentUtils#setupAttachmentEncryptionStream(Cipher, boolean, Attachment, java.util.Map)}.
+   * That is the IV followed by the cipher text.
+   */
+  private long _getEncryptedLength (@Nonnegative final long nPlainLength) throws GeneralSecurityException
+  {
+    final Cipher aCipher = _createEncryptionCipher ();
+    final int nIVLength = aCipher.getIV ().length;
+    if (aCipher.getAlgorithm ().contains ("GCM"))
+    {
+      // Cipher text has the same length as the plain text plus the tag
+      return nIVLength + nPlainLength + GCM_TAG_BITS / 8;
+    }
+
+    // Block cipher with padding - the padding is always added
+    final int nBlockSize = aCipher.getBlockSize ();
+    return nIVLength + (nPlainLength / nBlockSize + 1) * nBlockSize;
+  }
+
+  @Nonnull
+  private InputStream _createEncryptedStream (@Nonnull final WSS4JAttachment aSrcAttachment)
+  {
+    try
+    {
+      // Only the content is encrypted, so no headers are needed
+      return AttachmentUtils.setupAttachmentEncryptionStream (_createEncryptionCipher (),
+                                                              false,
+                                                              aSrcAttachment,
+                                                              new HashMap <> ());
+    }
+    catch (final GeneralSecurityException | WSSecurityException ex)
+    {
+      throw new IllegalStateException ("Failed to re-encrypt attachment '" + aSrcAttachment.getId () + "'", ex);
+    }
+  }
+
   public void handle (@Nonnull final Callback [] aCallbacks) throws IOException, UnsupportedCallbackException
   {
     for (final Callback aCallback : aCallbacks)
@@ -138,8 +246,31 @@ public class WSS4JAttachmentCallbackHandler implements CallbackHandler
           aEffectiveDecryptedAttachment.setId (sAttachmentID);
           aEffectiveDecryptedAttachment.addHeaders (aResultAttachment.getHeaders ());
           aEffectiveDecryptedAttachment.setCharset (aSrcAttachment.getCharsetOrDefault (null));
-          // Use supplier to ensure stream is opened only when needed
-          aEffectiveDecryptedAttachment.setSourceStreamProvider (HasInputStream.once (aResultAttachment::getSourceStream));
+          if (m_aSymmetricKey != null &&
+              m_sEncryptionAlgorithmURI != null &&
+              aSrcAttachment.isRepeatable () &&
+              aSrcAttachment.getSourceLength () >= 0)
+          {
+            // Outgoing encryption: the first read uses the stream created by
+            // WSS4J, all subsequent reads encrypt the source again
+            final AtomicBoolean aFirstRead = new AtomicBoolean (true);
+            aEffectiveDecryptedAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> aFirstRead.getAndSet (false) ? aResultAttachment.getSourceStream ()
+                                                                                                                                 : _createEncryptedStream (aSrcAttachment)));
+            try
+            {
+              aEffectiveDecryptedAttachment.setSourceLength (_getEncryptedLength (aSrcAttachment.getSourceLength ()));
+            }
+            catch (final GeneralSecurityException ex)
+            {
+              throw new IOException ("Failed to determine the encrypted length of attachment '" + sAttachmentID + "'",
+                                     ex);
+            }
+          }
+          else
+          {
+            // Use supplier to ensure stream is opened only when needed
+            aEffectiveDecryptedAttachment.setSourceStreamProvider (HasInputStream.once (aResultAttachment::getSourceStream));
+          }
 
           // Sanity check
           if (m_aAttachmentMap.containsKey (sAttachmentID))
@@ -83,7 +83,7 @@ public abstract class AbstractAS4Client <IMPLTYPE extends AbstractAS4Client <IMP
   private final AS4SigningParams m_aSigningParams = new AS4SigningParams ();
   private final AS4CryptParams m_aCryptParams = new AS4CryptParams ();
 
-  private IHttpPoster m_aHttpPoster = new BasicHttpPoster ();
+  private IHttpPoster m_aHttpPoster = BasicHttpPoster.createDefaultHttpPoster ();
 
   // For Message Info
   private Supplier <String> m_aMessageIDFactory = createDefaultMessageIDFactory ();
@@ -454,6 +454,8 @@ public abstract class AbstractAS4Client <IMPLTYPE extends AbstractAS4Client <IMP
     // Create a new message ID for each build!
     final String sMessageID = createMessageID ();
     final AS4ClientBuiltMessage aBuiltMsg = buildMessage (sMessageID, aCallback);
+    if (aCallback != null)
+      aCallback.onBeforeTransmission (aBuiltMsg);
     HttpEntity aBuiltEntity = aBuiltMsg.getHttpEntity ();
     final HttpHeaderMap aBuiltHttpHeaders = aBuiltMsg.getCustomHeaders ();
 
@@ -79,4 +79,18 @@ public interface IAS4ClientBuildMessageCallback
    */
   default void onEncryptedMimeMessage (@Nonnull final AS4MimeMessage aMimeMsg)
   {}
+
+  /**
+   * Called after the message was completely built (including signing and
+   * encryption) and right before it is transmitted. This method is called for
+   * all types that are send via
+   * {@link AbstractAS4Client#sendMessageWithRetries(String, org.apache.hc.core5.http.io.HttpClientResponseHandler, IAS4ClientBuildMessageCallback, com.helger.phase4.dump.IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * Throwing an unchecked exception in here prevents the transmission.
+   *
+   * @param aBuiltMsg
+   *        The built message
+   * @since 1.4.1
+   */
+  default void onBeforeTransmission (@Nonnull final AS4ClientBuiltMessage aBuiltMsg)
+  {}
 }
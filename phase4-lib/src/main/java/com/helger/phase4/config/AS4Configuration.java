@@ -61,8 +61,58 @@ public final class AS4Configuration
   public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY = "phase4.wss4j.syncsecurity";
   public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY = false;
 
+  /**
+   * The string property defining how WSS4J actions are synchronized if
+   * {@link #PROPERTY_PHASE4_WSS4J_SYNCSECURITY} is enabled.
+   */
+  public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY_MODE = "phase4.wss4j.syncsecurity.mode";
+
   public static final long DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES = 10;
 
+  public static final long DEFAULT_PHASE4_INCOMING_ATTACHMENT_INMEMORY_MAX_BYTES = 64 * 1024L;
+
+  public static final int DEFAULT_PHASE4_COMPRESSION_GZIP_LEVEL = -1;
+  public static final int DEFAULT_PHASE4_COMPRESSION_BUFFER_SIZE = 8 * 1024;
+  public static final boolean DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL_ENABLED = false;
+  public static final int DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL_BLOCK_SIZE = 1024 * 1024;
+
+  /**
+   * The boolean property to enable the shared, pooled HTTP client for outgoing
+   * messages.
+   */
+  public static final String PROPERTY_PHASE4_HTTP_POOLING_ENABLED = "phase4.http.pooling.enabled";
+  public static final boolean DEFAULT_PHASE4_HTTP_POOLING_ENABLED = false;
+  public static final int DEFAULT_PHASE4_HTTP_POOLING_MAX_TOTAL = 200;
+  public static final int DEFAULT_PHASE4_HTTP_POOLING_MAX_PER_ROUTE = 50;
+  public static final long DEFAULT_PHASE4_HTTP_POOLING_KEEPALIVE_SECONDS = 180;
+  public static final long DEFAULT_PHASE4_HTTP_POOLING_IDLE_EVICTION_SECONDS = 30;
+
+  public static final boolean DEFAULT_PHASE4_METRICS_ENABLED = false;
+
+  public static final int DEFAULT_PHASE4_ASYNC_THREADS = 16;
+  public static final int DEFAULT_PHASE4_ASYNC_QUEUE_CAPACITY = 1000;
+  public static final int DEFAULT_PHASE4_ASYNC_MAX_PER_KEY = 0;
+  public static final String DEFAULT_PHASE4_ASYNC_LIMIT_KEY = "pmode";
+  public static final boolean DEFAULT_PHASE4_ASYNC_VIRTUAL_THREADS = false;
+  public static final long DEFAULT_PHASE4_ASYNC_SHUTDOWN_DRAIN_SECONDS = 30;
+
+  public static final boolean DEFAULT_PHASE4_SMP_CACHE_ENABLED = false;
+  public static final long DEFAULT_PHASE4_SMP_CACHE_TTL_SECONDS = 300;
+  public static final long DEFAULT_PHASE4_SMP_CACHE_NEGATIVE_TTL_SECONDS = 30;
+  public static final int DEFAULT_PHASE4_SMP_CACHE_MAX_SIZE = 10_000;
+
+  public static final int DEFAULT_PHASE4_HTTP_RETRY_SCHEDULER_THREADS = 4;
+  public static final int DEFAULT_PHASE4_HTTP_ASYNC_SEND_THREADS = 16;
+  public static final int DEFAULT_PHASE4_HTTP_ASYNC_SEND_QUEUE_SIZE = 1000;
+  public static final boolean DEFAULT_PHASE4_HTTP_CIRCUITBREAKER_ENABLED = false;
+  public static final int DEFAULT_PHASE4_HTTP_CIRCUITBREAKER_FAILURE_THRESHOLD = 5;
+  public static final long DEFAULT_PHASE4_HTTP_CIRCUITBREAKER_OPEN_SECONDS = 30;
+  public static final boolean DEFAULT_PHASE4_HTTP_HTTP2_ENABLED = false;
+  public static final long DEFAULT_PHASE4_HTTP_HTTP2_RESPONSE_TIMEOUT_SECONDS = 300;
+
+  public static final int DEFAULT_PHASE4_PEPPOL_VALIDATION_THREADS = 8;
+  public static final int DEFAULT_PHASE4_PEPPOL_VALIDATION_QUEUE_SIZE = 1000;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4Configuration.class);
 
   /**
@@ -230,6 +280,21 @@ public final class AS4Configuration
     return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
   }
 
+  /**
+   * @return The ID of the WSS4J synchronization mode to be used, if
+   *         {@link #isWSS4JSynchronizedSecurity()} is <code>true</code>. The
+   *         configuration item is <code>phase4.wss4j.syncsecurity.mode</code>.
+   *         Supported values are <code>lock</code> (the default) to serialize
+   *         all actions and <code>shared</code> to run them in parallel. May be
+   *         <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nullable
+  public static String getWSS4JSynchronizationMode ()
+  {
+    return getConfig ().getAsString (PROPERTY_PHASE4_WSS4J_SYNCSECURITY_MODE);
+  }
+
   /**
    * @return The AS4 profile to use, taken from the configuration item
    *         <code>phase4.profile</code>. May be <code>null</code>.
@@ -253,6 +318,99 @@ public final class AS4Configuration
                                    DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES);
   }
 
+  /**
+   * @return The maximum number of bytes of an incoming attachment that are
+   *         kept in memory. Larger attachments are streamed into a temporary
+   *         file. Taken from the configuration item
+   *         <code>phase4.incoming.attachment.inmemory.maxbytes</code>. By
+   *         default this is
+   *         {@value #DEFAULT_PHASE4_INCOMING_ATTACHMENT_INMEMORY_MAX_BYTES}
+   *         bytes.
+   * @since 1.4.1
+   */
+  public static long getIncomingAttachmentInMemoryMaxBytes ()
+  {
+    return getConfig ().getAsLong ("phase4.incoming.attachment.inmemory.maxbytes",
+                                   DEFAULT_PHASE4_INCOMING_ATTACHMENT_INMEMORY_MAX_BYTES);
+  }
+
+  /**
+   * @return <code>true</code> if outgoing file based attachments that don't
+   *         need to be transformed are written via
+   *         <code>FileChannel.transferTo</code> if the target stream is backed
+   *         by a channel (e.g. when writing the message to a file). The HTTP
+   *         stream is not backed by a channel, so the content is copied
+   *         through a buffered <code>InputStream</code> in that case. Taken
+   *         from the configuration item
+   *         <code>phase4.outgoing.attachment.zerocopy.enabled</code>. Enabled
+   *         by default.
+   * @since 1.4.1
+   */
+  public static boolean isOutgoingAttachmentZeroCopyEnabled ()
+  {
+    return getConfig ().getAsBoolean ("phase4.outgoing.attachment.zerocopy.enabled", true);
+  }
+
+  /**
+   * @return The GZip compression level from 0 (no compression) to 9 (best
+   *         compression) or -1 for the JDK default level. Taken from the
+   *         configuration item <code>phase4.compression.gzip.level</code>.
+   * @since 1.4.1
+   */
+  public static int getCompressionGZipLevel ()
+  {
+    return getConfig ().getAsInt ("phase4.compression.gzip.level", DEFAULT_PHASE4_COMPRESSION_GZIP_LEVEL);
+  }
+
+  /**
+   * @return The buffer size in bytes of the compressing and decompressing
+   *         streams. Taken from the configuration item
+   *         <code>phase4.compression.buffersize</code>.
+   * @since 1.4.1
+   */
+  public static int getCompressionBufferSize ()
+  {
+    return getConfig ().getAsInt ("phase4.compression.buffersize", DEFAULT_PHASE4_COMPRESSION_BUFFER_SIZE);
+  }
+
+  /**
+   * @return <code>true</code> if GZip compression should compress blocks of
+   *         large payloads in parallel. Taken from the configuration item
+   *         <code>phase4.compression.gzip.parallel.enabled</code>. Disabled by
+   *         default.
+   * @since 1.4.1
+   */
+  public static boolean isCompressionGZipParallelEnabled ()
+  {
+    return getConfig ().getAsBoolean ("phase4.compression.gzip.parallel.enabled",
+                                      DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL_ENABLED);
+  }
+
+  /**
+   * @return The size in bytes of the uncompressed blocks that are compressed
+   *         in parallel. Taken from the configuration item
+   *         <code>phase4.compression.gzip.parallel.blocksize</code>.
+   * @since 1.4.1
+   */
+  public static int getCompressionGZipParallelBlockSize ()
+  {
+    return getConfig ().getAsInt ("phase4.compression.gzip.parallel.blocksize",
+                                  DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL_BLOCK_SIZE);
+  }
+
+  /**
+   * @return The number of threads to use for parallel GZip compression. Taken
+   *         from the configuration item
+   *         <code>phase4.compression.gzip.parallel.threads</code>. Defaults to
+   *         the number of available processors.
+   * @since 1.4.1
+   */
+  public static int getCompressionGZipParallelThreads ()
+  {
+    return getConfig ().getAsInt ("phase4.compression.gzip.parallel.threads",
+                                  Runtime.getRuntime ().availableProcessors ());
+  }
+
   /**
    * @return The dumping base path. Taken from the configuration item
    *         <code>phase4.dump.path</code>.
@@ -287,4 +445,311 @@ public final class AS4Configuration
   {
     return getConfig ().getAsString ("phase4.endpoint.address");
   }
+
+  /**
+   * @return <code>true</code> if a shared, pooled HTTP client should be used
+   *         for all outgoing messages that use the default HTTP client
+   *         factory. The configuration item is
+   *         <code>phase4.http.pooling.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 1.4.1
+   */
+  public static boolean isHttpPoolingEnabled ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_HTTP_POOLING_ENABLED);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_HTTP_POOLING_ENABLED);
+  }
+
+  /**
+   * @return The maximum number of pooled HTTP connections in total. Taken from
+   *         the configuration item <code>phase4.http.pooling.maxtotal</code>.
+   * @since 1.4.1
+   */
+  public static int getHttpPoolingMaxTotal ()
+  {
+    return getConfig ().getAsInt ("phase4.http.pooling.maxtotal", DEFAULT_PHASE4_HTTP_POOLING_MAX_TOTAL);
+  }
+
+  /**
+   * @return The maximum number of pooled HTTP connections per route (target
+   *         host). Taken from the configuration item
+   *         <code>phase4.http.pooling.maxperroute</code>.
+   * @since 1.4.1
+   */
+  public static int getHttpPoolingMaxPerRoute ()
+  {
+    return getConfig ().getAsInt ("phase4.http.pooling.maxperroute", DEFAULT_PHASE4_HTTP_POOLING_MAX_PER_ROUTE);
+  }
+
+  /**
+   * @return The maximum number of seconds a pooled HTTP connection is kept
+   *         alive. Taken from the configuration item
+   *         <code>phase4.http.pooling.keepalive.seconds</code>.
+   * @since 1.4.1
+   */
+  public static long getHttpPoolingKeepAliveSeconds ()
+  {
+    return getConfig ().getAsLong ("phase4.http.pooling.keepalive.seconds",
+                                   DEFAULT_PHASE4_HTTP_POOLING_KEEPALIVE_SECONDS);
+  }
+
+  /**
+   * @return The number of seconds after which idle pooled HTTP connections are
+   *         evicted. Taken from the configuration item
+   *         <code>phase4.http.pooling.idleeviction.seconds</code>.
+   * @since 1.4.1
+   */
+  public static long getHttpPoolingIdleEvictionSeconds ()
+  {
+    return getConfig ().getAsLong ("phase4.http.pooling.idleeviction.seconds",
+                                   DEFAULT_PHASE4_HTTP_POOLING_IDLE_EVICTION_SECONDS);
+  }
+
+  /**
+   * @return <code>true</code> if the built-in counters and timers of the
+   *         incoming message pipeline should be collected. Taken from the
+   *         configuration item <code>phase4.metrics.enabled</code>. Disabled by
+   *         default.
+   * @since 1.4.1
+   */
+  public static boolean isMetricsEnabled ()
+  {
+    return getConfig ().getAsBoolean ("phase4.metrics.enabled", DEFAULT_PHASE4_METRICS_ENABLED);
+  }
+
+  /**
+   * @return The number of threads for asynchronous incoming message
+   *         processing. Taken from the configuration item
+   *         <code>phase4.async.threads</code>. Ignored if virtual threads are
+   *         used.
+   * @since 1.4.1
+   */
+  public static int getAsyncThreads ()
+  {
+    return getConfig ().getAsInt ("phase4.async.threads", DEFAULT_PHASE4_ASYNC_THREADS);
+  }
+
+  /**
+   * @return The maximum number of asynchronous processing tasks that may wait
+   *         for execution. If exceeded, the incoming message is rejected with
+   *         an AS4 error. Taken from the configuration item
+   *         <code>phase4.async.queue.capacity</code>.
+   * @since 1.4.1
+   */
+  public static int getAsyncQueueCapacity ()
+  {
+    return getConfig ().getAsInt ("phase4.async.queue.capacity", DEFAULT_PHASE4_ASYNC_QUEUE_CAPACITY);
+  }
+
+  /**
+   * @return The maximum number of asynchronous processing tasks (queued and
+   *         running) per limit key. Values &le; 0 mean unlimited. Taken from
+   *         the configuration item <code>phase4.async.maxperkey</code>.
+   * @see #getAsyncLimitKey()
+   * @since 1.4.1
+   */
+  public static int getAsyncMaxPerKey ()
+  {
+    return getConfig ().getAsInt ("phase4.async.maxperkey", DEFAULT_PHASE4_ASYNC_MAX_PER_KEY);
+  }
+
+  /**
+   * @return The key the per key limit is applied on. Either <code>pmode</code>
+   *         (the PMode ID) or <code>partner</code> (the sending party ID).
+   *         Taken from the configuration item
+   *         <code>phase4.async.limit.key</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static String getAsyncLimitKey ()
+  {
+    return getConfig ().getAsString ("phase4.async.limit.key", DEFAULT_PHASE4_ASYNC_LIMIT_KEY);
+  }
+
+  /**
+   * @return <code>true</code> if asynchronous processing should use virtual
+   *         threads if the runtime supports them. Taken from the configuration
+   *         item <code>phase4.async.virtualthreads</code>.
+   * @since 1.4.1
+   */
+  public static boolean isAsyncVirtualThreads ()
+  {
+    return getConfig ().getAsBoolean ("phase4.async.virtualthreads", DEFAULT_PHASE4_ASYNC_VIRTUAL_THREADS);
+  }
+
+  /**
+   * @return The number of seconds to wait for pending asynchronous processing
+   *         tasks upon server shutdown. Taken from the configuration item
+   *         <code>phase4.async.shutdown.drain.seconds</code>.
+   * @since 1.4.1
+   */
+  public static long getAsyncShutdownDrainSeconds ()
+  {
+    return getConfig ().getAsLong ("phase4.async.shutdown.drain.seconds",
+                                   DEFAULT_PHASE4_ASYNC_SHUTDOWN_DRAIN_SECONDS);
+  }
+
+  /**
+   * @return <code>true</code> if the results of SMP endpoint lookups should be
+   *         cached globally. Taken from the configuration item
+   *         <code>phase4.smp.cache.enabled</code>. Disabled by default.
+   * @since 1.4.1
+   */
+  public static boolean isSMPCacheEnabled ()
+  {
+    return getConfig ().getAsBoolean ("phase4.smp.cache.enabled", DEFAULT_PHASE4_SMP_CACHE_ENABLED);
+  }
+
+  /**
+   * @return The number of seconds a resolved SMP endpoint is cached. Taken from
+   *         the configuration item <code>phase4.smp.cache.ttl.seconds</code>.
+   * @since 1.4.1
+   */
+  public static long getSMPCacheTTLSeconds ()
+  {
+    return getConfig ().getAsLong ("phase4.smp.cache.ttl.seconds", DEFAULT_PHASE4_SMP_CACHE_TTL_SECONDS);
+  }
+
+  /**
+   * @return The number of seconds the information that no SMP endpoint exists
+   *         is cached. Taken from the configuration item
+   *         <code>phase4.smp.cache.negative.ttl.seconds</code>. Use 0 to
+   *         disable negative caching.
+   * @since 1.4.1
+   */
+  public static long getSMPCacheNegativeTTLSeconds ()
+  {
+    return getConfig ().getAsLong ("phase4.smp.cache.negative.ttl.seconds",
+                                   DEFAULT_PHASE4_SMP_CACHE_NEGATIVE_TTL_SECONDS);
+  }
+
+  /**
+   * @return The maximum number of cached SMP endpoint lookups per SMP type.
+   *         Taken from the configuration item
+   *         <code>phase4.smp.cache.maxsize</code>.
+   * @since 1.4.1
+   */
+  public static int getSMPCacheMaxSize ()
+  {
+    return getConfig ().getAsInt ("phase4.smp.cache.maxsize", DEFAULT_PHASE4_SMP_CACHE_MAX_SIZE);
+  }
+
+  /**
+   * @return The number of threads used to schedule the retries of
+   *         asynchronously sent messages. Taken from the configuration item
+   *         <code>phase4.http.retry.scheduler.threads</code>.
+   * @since 1.4.1
+   */
+  public static int getHttpRetrySchedulerThreads ()
+  {
+    return getConfig ().getAsInt ("phase4.http.retry.scheduler.threads", DEFAULT_PHASE4_HTTP_RETRY_SCHEDULER_THREADS);
+  }
+
+  /**
+   * @return The maximum number of threads used to perform the blocking HTTP
+   *         calls of asynchronously sent messages. Taken from the
+   *         configuration item <code>phase4.http.async.send.threads</code>.
+   * @since 1.4.1
+   */
+  public static int getHttpAsyncSendThreads ()
+  {
+    return getConfig ().getAsInt ("phase4.http.async.send.threads", DEFAULT_PHASE4_HTTP_ASYNC_SEND_THREADS);
+  }
+
+  /**
+   * @return The maximum number of asynchronously sent messages that wait for a
+   *         free send thread. If the queue is full, further transmissions fail
+   *         immediately. Taken from the configuration item
+   *         <code>phase4.http.async.send.queuesize</code>.
+   * @since 1.4.1
+   */
+  public static int getHttpAsyncSendQueueSize ()
+  {
+    return getConfig ().getAsInt ("phase4.http.async.send.queuesize", DEFAULT_PHASE4_HTTP_ASYNC_SEND_QUEUE_SIZE);
+  }
+
+  /**
+   * @return <code>true</code> if sending to a destination that failed
+   *         repeatedly should be short-circuited for some time. Taken from the
+   *         configuration item <code>phase4.http.circuitbreaker.enabled</code>.
+   *         Disabled by default.
+   * @since 1.4.1
+   */
+  public static boolean isHttpCircuitBreakerEnabled ()
+  {
+    return getConfig ().getAsBoolean ("phase4.http.circuitbreaker.enabled", DEFAULT_PHASE4_HTTP_CIRCUITBREAKER_ENABLED);
+  }
+
+  /**
+   * @return The number of consecutive failures after which the circuit for a
+   *         destination is opened. Taken from the configuration item
+   *         <code>phase4.http.circuitbreaker.failurethreshold</code>.
+   * @since 1.4.1
+   */
+  public static int getHttpCircuitBreakerFailureThreshold ()
+  {
+    return getConfig ().getAsInt ("phase4.http.circuitbreaker.failurethreshold",
+                                  DEFAULT_PHASE4_HTTP_CIRCUITBREAKER_FAILURE_THRESHOLD);
+  }
+
+  /**
+   * @return The number of seconds an opened circuit stays open before a single
+   *         trial request is let through. Taken from the configuration item
+   *         <code>phase4.http.circuitbreaker.open.seconds</code>.
+   * @since 1.4.1
+   */
+  public static long getHttpCircuitBreakerOpenSeconds ()
+  {
+    return getConfig ().getAsLong ("phase4.http.circuitbreaker.open.seconds",
+                                   DEFAULT_PHASE4_HTTP_CIRCUITBREAKER_OPEN_SECONDS);
+  }
+
+  /**
+   * @return <code>true</code> if outgoing messages should be sent with the
+   *         asynchronous HTTP client that negotiates HTTP/2, so that concurrent
+   *         messages to the same destination share one connection. Taken from
+   *         the configuration item <code>phase4.http.http2.enabled</code>.
+   *         Disabled by default.
+   * @since 1.4.1
+   */
+  public static boolean isHttp2Enabled ()
+  {
+    return getConfig ().getAsBoolean ("phase4.http.http2.enabled", DEFAULT_PHASE4_HTTP_HTTP2_ENABLED);
+  }
+
+  /**
+   * @return The number of seconds to wait for the response of an HTTP/2
+   *         request. Taken from the configuration item
+   *         <code>phase4.http.http2.response.timeout.seconds</code>.
+   * @since 1.4.1
+   */
+  public static long getHttp2ResponseTimeoutSeconds ()
+  {
+    return getConfig ().getAsLong ("phase4.http.http2.response.timeout.seconds",
+                                   DEFAULT_PHASE4_HTTP_HTTP2_RESPONSE_TIMEOUT_SECONDS);
+  }
+
+  /**
+   * @return The number of threads used for the asynchronous and the parallel
+   *         validation of outgoing Peppol documents. Taken from the
+   *         configuration item <code>phase4.peppol.validation.threads</code>.
+   * @since 1.4.1
+   */
+  public static int getPeppolValidationThreads ()
+  {
+    return getConfig ().getAsInt ("phase4.peppol.validation.threads", DEFAULT_PHASE4_PEPPOL_VALIDATION_THREADS);
+  }
+
+  /**
+   * @return The maximum number of validation tasks of outgoing Peppol
+   *         documents that wait for a free validation thread. If the queue is
+   *         full, the validation is performed in the calling thread. Taken from
+   *         the configuration item
+   *         <code>phase4.peppol.validation.queuesize</code>.
+   * @since 1.4.1
+   */
+  public static int getPeppolValidationQueueSize ()
+  {
+    return getConfig ().getAsInt ("phase4.peppol.validation.queuesize", DEFAULT_PHASE4_PEPPOL_VALIDATION_QUEUE_SIZE);
+  }
 }
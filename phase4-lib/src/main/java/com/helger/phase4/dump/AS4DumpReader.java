@@ -16,9 +16,13 @@
  */
 package com.helger.phase4.dump;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnegative;
@@ -31,10 +35,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Node;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.SimpleFileIO;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
@@ -246,4 +254,63 @@ public final class AS4DumpReader
       WebScopeManager.onGlobalEnd ();
     }
   }
+
+  /**
+   * Read all dumps with the provided key from the segment files written by an
+   * {@link AS4DumpSegmentWriter} into the provided directory. The results can
+   * e.g. be passed to
+   * {@link #decryptAS4In(byte[], IAS4CryptoFactory, Consumer, IDecryptedPayloadConsumer)}.
+   *
+   * @param aDirectory
+   *        The directory containing the segment and index files. May not be
+   *        <code>null</code>.
+   * @param sKey
+   *        The key of the dump. That is the AS4 message ID for outgoing dumps
+   *        and the incoming unique ID for incoming dumps. May neither be
+   *        <code>null</code> nor empty.
+   * @return The list of all matching dumps in the order they were written.
+   *         Never <code>null</code> but maybe empty.
+   * @throws IOException
+   *         In case reading fails
+   * @since 1.4.1
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <byte []> readSegmentedDumps (@Nonnull final File aDirectory,
+                                                           @Nonnull @Nonempty final String sKey) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.notEmpty (sKey, "Key");
+
+    final ICommonsList <byte []> ret = new CommonsArrayList <> ();
+    final File [] aIndexFiles = aDirectory.listFiles ( (d, n) -> n.endsWith (AS4DumpSegmentWriter.INDEX_FILE_EXTENSION));
+    if (aIndexFiles != null)
+    {
+      // File names are sortable by creation
+      Arrays.sort (aIndexFiles, Comparator.comparing (File::getName));
+      final String sSuffix = "\t" + sKey;
+      for (final File aIndexFile : aIndexFiles)
+      {
+        final ICommonsList <String> aLines = SimpleFileIO.getAllFileLines (aIndexFile, StandardCharsets.UTF_8);
+        if (aLines == null)
+          continue;
+        try (final RandomAccessFile aRAF = new RandomAccessFile (AS4DumpSegmentWriter.getSegmentFile (aIndexFile), "r"))
+        {
+          for (final String sLine : aLines)
+            if (sLine.endsWith (sSuffix))
+            {
+              final long nOffset = StringHelper.parseLong (sLine.substring (0, sLine.length () - sSuffix.length ()), -1);
+              if (nOffset < 0)
+              {
+                LOGGER.warn ("Ignoring invalid index line '" + sLine + "' in '" + aIndexFile.getAbsolutePath () + "'");
+                continue;
+              }
+              aRAF.seek (nOffset);
+              ret.add (AS4DumpSegmentWriter.readRecord (aRAF, sKey));
+            }
+        }
+      }
+    }
+    return ret;
+  }
 }
@@ -0,0 +1,800 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
+
+/**
+ * A writer that persists dumps asynchronously into rolling segment files. Each
+ * dump is collected in memory while the message is processed and handed over
+ * to a queue when the dump stream is closed. The queue is bounded both by the
+ * number of dumps and by their total size in bytes - dumps larger than the
+ * byte bound are spilled to a temporary file while they are written and are
+ * then copied directly to the segment by the submitting thread. A single
+ * background thread appends the queued dumps in batches to the current segment
+ * file (optionally GZIP compressed) and writes one line per dump into the
+ * index file that belongs to the segment. A new segment is started when the
+ * maximum segment size is reached.<br>
+ * The behaviour if the queue is full is defined by
+ * {@link EAS4DumpBackPressureMode}.<br>
+ * Use {@link AS4DumpReader#readSegmentedDumps(File, String)} to read dumps
+ * back. Instances must be closed upon shutdown.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class AS4DumpSegmentWriter implements Closeable
+{
+  public static final String SEGMENT_FILE_EXTENSION = ".as4seg";
+  public static final String INDEX_FILE_EXTENSION = ".as4idx";
+  public static final long DEFAULT_MAX_SEGMENT_BYTES = 64 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+  public static final long DEFAULT_MAX_QUEUE_BYTES = 64 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final boolean DEFAULT_COMPRESS = false;
+  public static final EAS4DumpBackPressureMode DEFAULT_BACK_PRESSURE_MODE = EAS4DumpBackPressureMode.BLOCK;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DumpSegmentWriter.class);
+  // "AS4D"
+  private static final int RECORD_MAGIC = 0x41533444;
+  private static final byte FLAG_GZIP = 0x01;
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final int WRITE_BUFFER_SIZE = CGlobal.BYTES_PER_MEGABYTE;
+  private static final Record POISON = new Record ("", new byte [0]);
+
+  /**
+   * A single dump in memory. Either a byte array or the buffer it was collected
+   * in, to avoid copying the data.
+   */
+  private static final class Record
+  {
+    private final String m_sKey;
+    private final byte [] m_aData;
+    private final NonBlockingByteArrayOutputStream m_aBuffer;
+
+    Record (@Nonnull final String sKey, @Nonnull final byte [] aData)
+    {
+      m_sKey = sKey;
+      m_aData = aData;
+      m_aBuffer = null;
+    }
+
+    Record (@Nonnull final String sKey, @Nonnull final NonBlockingByteArrayOutputStream aBuffer)
+    {
+      m_sKey = sKey;
+      m_aData = null;
+      m_aBuffer = aBuffer;
+    }
+
+    @Nonnegative
+    int getLength ()
+    {
+      return m_aData != null ? m_aData.length : m_aBuffer.size ();
+    }
+
+    void writeTo (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+    {
+      if (m_aData != null)
+        aOS.write (m_aData);
+      else
+        m_aBuffer.writeTo (aOS);
+    }
+  }
+
+  /**
+   * The output stream handed out to the dumpers. Small dumps are collected in
+   * memory and enqueued upon close. As soon as a dump exceeds the maximum queue
+   * size, it is spilled to a temporary file, that is copied to the segment
+   * upon close.
+   */
+  private final class RecordOutputStream extends OutputStream
+  {
+    private final String m_sKey;
+    private NonBlockingByteArrayOutputStream m_aBuffer = new NonBlockingByteArrayOutputStream ();
+    private File m_aSpillFile;
+    private OutputStream m_aSpillOS;
+    private boolean m_bStreamClosed = false;
+
+    RecordOutputStream (@Nonnull final String sKey)
+    {
+      m_sKey = sKey;
+    }
+
+    private void _spillIfNeeded (@Nonnegative final int nLen) throws IOException
+    {
+      if (m_aBuffer != null && (long) m_aBuffer.size () + nLen > m_nMaxQueueBytes)
+      {
+        // Too large to be kept in memory
+        m_aSpillFile = File.createTempFile ("phase4-dump-", ".tmp", m_aDirectory);
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Spilling dump of '" + m_sKey + "' to '" + m_aSpillFile.getAbsolutePath () + "'");
+
+        // The spill file already contains the final payload
+        final OutputStream aFileOS = new BufferedOutputStream (new FileOutputStream (m_aSpillFile));
+        m_aSpillOS = m_bCompress ? new GZIPOutputStream (aFileOS) : aFileOS;
+        m_aBuffer.writeTo (m_aSpillOS);
+        m_aBuffer = null;
+      }
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      _spillIfNeeded (1);
+      if (m_aBuffer != null)
+        m_aBuffer.write (b);
+      else
+        m_aSpillOS.write (b);
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      _spillIfNeeded (nLen);
+      if (m_aBuffer != null)
+        m_aBuffer.write (aBuf, nOfs, nLen);
+      else
+        m_aSpillOS.write (aBuf, nOfs, nLen);
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (!m_bStreamClosed)
+      {
+        m_bStreamClosed = true;
+        if (m_aBuffer != null)
+          _submit (new Record (m_sKey, m_aBuffer));
+        else
+        {
+          try
+          {
+            m_aSpillOS.close ();
+            _writeSpillFile (m_sKey, m_aSpillFile);
+          }
+          finally
+          {
+            FileOperationManager.INSTANCE.deleteFileIfExisting (m_aSpillFile);
+          }
+        }
+      }
+    }
+  }
+
+  private final File m_aDirectory;
+  private final String m_sFilePrefix;
+  private final long m_nMaxSegmentBytes;
+  private final boolean m_bCompress;
+  private final EAS4DumpBackPressureMode m_eBackPressureMode;
+  private final int m_nMaxQueueBytes;
+  private final BlockingQueue <Record> m_aQueue;
+  // One permit per queued byte
+  private final Semaphore m_aQueueBytes;
+  private final Thread m_aWriterThread;
+  private final AtomicLong m_aDroppedCount = new AtomicLong (0);
+  private volatile boolean m_bClosed = false;
+
+  private final SimpleLock m_aWriteLock = new SimpleLock ();
+  @GuardedBy ("m_aWriteLock")
+  private int m_nSegmentIndex = 0;
+  @GuardedBy ("m_aWriteLock")
+  private DataOutputStream m_aSegmentOS;
+  @GuardedBy ("m_aWriteLock")
+  private Writer m_aIndexWriter;
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aDirectory
+   *        The directory to write the segment files to. May not be
+   *        <code>null</code>.
+   */
+  public AS4DumpSegmentWriter (@Nonnull final File aDirectory)
+  {
+    this (aDirectory, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_QUEUE_CAPACITY, DEFAULT_COMPRESS, DEFAULT_BACK_PRESSURE_MODE);
+  }
+
+  /**
+   * Constructor using {@link #DEFAULT_MAX_QUEUE_BYTES}.
+   *
+   * @param aDirectory
+   *        The directory to write the segment files to. May not be
+   *        <code>null</code>.
+   * @param nMaxSegmentBytes
+   *        The size after which a new segment is started. Must be &gt; 0 and
+   *        &le; {@link Integer#MAX_VALUE}.
+   * @param nQueueCapacity
+   *        The maximum number of dumps waiting to be written. Must be &gt; 0.
+   * @param bCompress
+   *        <code>true</code> to GZIP compress every dump.
+   * @param eBackPressureMode
+   *        What to do if the queue is full. May not be <code>null</code>.
+   */
+  public AS4DumpSegmentWriter (@Nonnull final File aDirectory,
+                               @Nonnegative final long nMaxSegmentBytes,
+                               @Nonnegative final int nQueueCapacity,
+                               final boolean bCompress,
+                               @Nonnull final EAS4DumpBackPressureMode eBackPressureMode)
+  {
+    this (aDirectory, nMaxSegmentBytes, nQueueCapacity, DEFAULT_MAX_QUEUE_BYTES, bCompress, eBackPressureMode);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to write the segment files to. May not be
+   *        <code>null</code>.
+   * @param nMaxSegmentBytes
+   *        The size after which a new segment is started. Must be &gt; 0 and
+   *        &le; {@link Integer#MAX_VALUE}.
+   * @param nQueueCapacity
+   *        The maximum number of dumps waiting to be written. Must be &gt; 0.
+   * @param nMaxQueueBytes
+   *        The maximum total size of the dumps waiting to be written. Larger
+   *        dumps are written directly. Must be &gt; 0 and &le;
+   *        {@link Integer#MAX_VALUE}.
+   * @param bCompress
+   *        <code>true</code> to GZIP compress every dump.
+   * @param eBackPressureMode
+   *        What to do if the queue is full. May not be <code>null</code>.
+   */
+  public AS4DumpSegmentWriter (@Nonnull final File aDirectory,
+                               @Nonnegative final long nMaxSegmentBytes,
+                               @Nonnegative final int nQueueCapacity,
+                               @Nonnegative final long nMaxQueueBytes,
+                               final boolean bCompress,
+                               @Nonnull final EAS4DumpBackPressureMode eBackPressureMode)
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isBetweenInclusive (nMaxSegmentBytes, "MaxSegmentBytes", 1, Integer.MAX_VALUE);
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.isBetweenInclusive (nMaxQueueBytes, "MaxQueueBytes", 1, Integer.MAX_VALUE);
+    ValueEnforcer.notNull (eBackPressureMode, "BackPressureMode");
+
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDirectory);
+    m_aDirectory = aDirectory;
+    // Unique per writer instance, sortable by creation time. The random part
+    // avoids that writers created in the same millisecond overwrite each other
+    m_sFilePrefix = "dump-" +
+                    StringHelper.getLeadingZero (System.currentTimeMillis (), 15) +
+                    "-" +
+                    UUID.randomUUID ().toString () +
+                    "-";
+    m_nMaxSegmentBytes = nMaxSegmentBytes;
+    m_bCompress = bCompress;
+    m_eBackPressureMode = eBackPressureMode;
+    m_nMaxQueueBytes = (int) nMaxQueueBytes;
+    m_aQueue = new ArrayBlockingQueue <> (nQueueCapacity);
+    m_aQueueBytes = new Semaphore (m_nMaxQueueBytes);
+    m_aWriterThread = new BasicThreadFactory.Builder ().namingPattern ("phase4-dump-writer-%d")
+                                                      .daemon (true)
+                                                      .build ()
+                                                      .newThread (this::_runWriter);
+    m_aWriterThread.start ();
+  }
+
+  /**
+   * @return The directory the segment files are written to. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The back-pressure mode used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final EAS4DumpBackPressureMode getBackPressureMode ()
+  {
+    return m_eBackPressureMode;
+  }
+
+  /**
+   * @return The number of dumps that were dropped so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public final long getDroppedCount ()
+  {
+    return m_aDroppedCount.get ();
+  }
+
+  /**
+   * Open a new output stream for a single dump. The data is written to the
+   * segment when the stream is closed.
+   *
+   * @param sKey
+   *        The key under which the dump can be found later. Usually the AS4
+   *        message ID or the incoming unique ID. May neither be
+   *        <code>null</code> nor empty.
+   * @return A new output stream. Never <code>null</code>.
+   */
+  @Nonnull
+  public OutputStream openStream (@Nonnull @Nonempty final String sKey)
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+    return new RecordOutputStream (sKey);
+  }
+
+  private void _drop (@Nonnull final String sKey)
+  {
+    m_aDroppedCount.incrementAndGet ();
+    AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_DUMP_DROPPED);
+    LOGGER.warn ("Dropping dump of '" + sKey + "'");
+  }
+
+  /**
+   * Submit a complete dump for writing, considering the back-pressure mode.
+   *
+   * @param sKey
+   *        The dump key. May neither be <code>null</code> nor empty.
+   * @param aData
+   *        The dump data. May not be <code>null</code>.
+   * @throws IOException
+   *         If the calling thread was interrupted while blocking or if
+   *         spilling failed
+   */
+  public void submit (@Nonnull @Nonempty final String sKey, @Nonnull final byte [] aData) throws IOException
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+    ValueEnforcer.notNull (aData, "Data");
+
+    _submit (new Record (sKey, aData));
+  }
+
+  private void _submit (@Nonnull final Record aRecord) throws IOException
+  {
+    final String sKey = aRecord.m_sKey;
+    if (m_bClosed)
+    {
+      _drop (sKey);
+      return;
+    }
+
+    final int nBytes = aRecord.getLength ();
+    if (nBytes > m_nMaxQueueBytes)
+    {
+      // Too large to be kept in memory - write directly
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Writing dump of '" + sKey + "' with " + nBytes + " bytes directly");
+      _writeDirectly (aRecord);
+      return;
+    }
+
+    boolean bQueued = false;
+    if (m_aQueueBytes.tryAcquire (nBytes))
+    {
+      if (m_aQueue.offer (aRecord))
+        bQueued = true;
+      else
+        m_aQueueBytes.release (nBytes);
+    }
+
+    if (!bQueued)
+      switch (m_eBackPressureMode)
+      {
+        case BLOCK:
+          boolean bAcquired = false;
+          try
+          {
+            m_aQueueBytes.acquire (nBytes);
+            bAcquired = true;
+            m_aQueue.put (aRecord);
+            bQueued = true;
+          }
+          catch (final InterruptedException ex)
+          {
+            if (bAcquired)
+              m_aQueueBytes.release (nBytes);
+            Thread.currentThread ().interrupt ();
+            final InterruptedIOException ex2 = new InterruptedIOException ("Interrupted while queuing dump of '" +
+                                                                           sKey +
+                                                                           "'");
+            ex2.initCause (ex);
+            throw ex2;
+          }
+          break;
+        case DROP:
+          _drop (sKey);
+          break;
+        case SPILL:
+          AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_DUMP_SPILLED);
+          _writeDirectly (aRecord);
+          break;
+        default:
+          throw new IllegalStateException ("Unsupported back-pressure mode " + m_eBackPressureMode);
+      }
+
+    // If the writer was closed in the meantime, the record may have been
+    // queued after the writer thread stopped. If it is still in the queue, it
+    // will never be written.
+    if (bQueued && m_bClosed && m_aQueue.remove (aRecord))
+    {
+      m_aQueueBytes.release (nBytes);
+      _drop (sKey);
+    }
+  }
+
+  @Nonnull
+  private File _getSegmentFile (final int nSegmentIndex)
+  {
+    return new File (m_aDirectory, m_sFilePrefix + StringHelper.getLeadingZero (nSegmentIndex, 6) + SEGMENT_FILE_EXTENSION);
+  }
+
+  @GuardedBy ("m_aWriteLock")
+  private void _closeSegmentLocked ()
+  {
+    StreamHelper.close (m_aSegmentOS);
+    StreamHelper.close (m_aIndexWriter);
+    m_aSegmentOS = null;
+    m_aIndexWriter = null;
+  }
+
+  @GuardedBy ("m_aWriteLock")
+  private void _openSegmentLocked () throws IOException
+  {
+    m_nSegmentIndex++;
+    final File aSegmentFile = _getSegmentFile (m_nSegmentIndex);
+    final File aIndexFile = getIndexFile (aSegmentFile);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Starting new dump segment '" + aSegmentFile.getAbsolutePath () + "'");
+    m_aSegmentOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (aSegmentFile),
+                                                                   WRITE_BUFFER_SIZE));
+    m_aIndexWriter = new OutputStreamWriter (new BufferedOutputStream (new FileOutputStream (aIndexFile)),
+                                             StandardCharsets.UTF_8);
+  }
+
+  @Nonnull
+  private Record _getPayload (@Nonnull final Record aRecord) throws IOException
+  {
+    if (!m_bCompress)
+      return aRecord;
+
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try (final GZIPOutputStream aGZOS = new GZIPOutputStream (aBAOS))
+    {
+      aRecord.writeTo (aGZOS);
+    }
+    return new Record (aRecord.m_sKey, aBAOS);
+  }
+
+  @GuardedBy ("m_aWriteLock")
+  private void _writeRecordLocked (@Nonnull final String sKey,
+                                   @Nonnegative final int nPayloadLength,
+                                   @Nonnull final IThrowingConsumer <? super OutputStream, IOException> aPayloadWriter) throws IOException
+  {
+    // Start a new segment if the current one is full
+    if (m_aSegmentOS != null && m_aSegmentOS.size () + (long) nPayloadLength > m_nMaxSegmentBytes)
+      _closeSegmentLocked ();
+    if (m_aSegmentOS == null)
+      _openSegmentLocked ();
+
+    final int nOffset = m_aSegmentOS.size ();
+    m_aSegmentOS.writeInt (RECORD_MAGIC);
+    m_aSegmentOS.writeUTF (sKey);
+    m_aSegmentOS.writeLong (System.currentTimeMillis ());
+    m_aSegmentOS.writeByte (m_bCompress ? FLAG_GZIP : 0);
+    m_aSegmentOS.writeInt (nPayloadLength);
+    aPayloadWriter.accept (m_aSegmentOS);
+
+    m_aIndexWriter.write (nOffset + "\t" + sKey + "\n");
+  }
+
+  @GuardedBy ("m_aWriteLock")
+  private void _flushLocked () throws IOException
+  {
+    // The index must never point to data that is not yet written
+    if (m_aSegmentOS != null)
+    {
+      m_aSegmentOS.flush ();
+      m_aIndexWriter.flush ();
+    }
+  }
+
+  private void _writeBatch (@Nonnull final ICommonsList <Record> aBatch) throws IOException
+  {
+    // Compress outside of the lock
+    final ICommonsList <Record> aPayloads = new CommonsArrayList <> (aBatch.size ());
+    for (final Record aRecord : aBatch)
+      aPayloads.add (_getPayload (aRecord));
+
+    m_aWriteLock.lock ();
+    try
+    {
+      for (final Record aPayload : aPayloads)
+        _writeRecordLocked (aPayload.m_sKey, aPayload.getLength (), aPayload::writeTo);
+      _flushLocked ();
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+  }
+
+  /**
+   * Write a single record from the submitting thread. If the writer was closed
+   * in the meantime, the record is dropped.
+   */
+  private void _writeDirectly (@Nonnull final Record aRecord) throws IOException
+  {
+    final Record aPayload = _getPayload (aRecord);
+
+    m_aWriteLock.lock ();
+    try
+    {
+      if (m_bClosed)
+        _drop (aRecord.m_sKey);
+      else
+      {
+        _writeRecordLocked (aPayload.m_sKey, aPayload.getLength (), aPayload::writeTo);
+        _flushLocked ();
+      }
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+  }
+
+  /**
+   * Copy a spilled dump from the submitting thread. The file already contains
+   * the (optionally compressed) payload. If the writer was closed in the
+   * meantime, the dump is dropped.
+   */
+  private void _writeSpillFile (@Nonnull final String sKey, @Nonnull final File aSpillFile) throws IOException
+  {
+    final long nLength = aSpillFile.length ();
+    if (nLength > Integer.MAX_VALUE)
+      throw new IOException ("Dump of '" + sKey + "' is too large (" + nLength + " bytes)");
+
+    m_aWriteLock.lock ();
+    try
+    {
+      if (m_bClosed)
+        _drop (sKey);
+      else
+      {
+        _writeRecordLocked (sKey, (int) nLength, aOS -> Files.copy (aSpillFile.toPath (), aOS));
+        _flushLocked ();
+      }
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+  }
+
+  private void _releaseQueueBytes (@Nonnull final ICommonsList <Record> aBatch)
+  {
+    long nBytes = 0;
+    for (final Record aRecord : aBatch)
+      nBytes += aRecord.getLength ();
+    m_aQueueBytes.release ((int) nBytes);
+  }
+
+  private void _runWriter ()
+  {
+    final ICommonsList <Record> aBatch = new CommonsArrayList <> (MAX_BATCH_SIZE);
+    boolean bRunning = true;
+    while (bRunning)
+    {
+      try
+      {
+        aBatch.add (m_aQueue.take ());
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        break;
+      }
+      m_aQueue.drainTo (aBatch, MAX_BATCH_SIZE - 1);
+
+      // Stop after this batch?
+      if (aBatch.removeIf (x -> x == POISON))
+        bRunning = false;
+
+      if (aBatch.isNotEmpty ())
+      {
+        try
+        {
+          _writeBatch (aBatch);
+        }
+        catch (final Throwable t)
+        {
+          // Never let the writer thread die, as submitters would block forever
+          LOGGER.error ("Failed to write " + aBatch.size () + " dumps to '" + m_aDirectory.getAbsolutePath () + "'",
+                        t);
+          // The current segment may end with a partial record
+          m_aWriteLock.locked (this::_closeSegmentLocked);
+        }
+        finally
+        {
+          _releaseQueueBytes (aBatch);
+          aBatch.clear ();
+        }
+      }
+    }
+  }
+
+  /**
+   * Write all pending dumps and close the current segment. Dumps submitted
+   * afterwards are dropped and counted as dropped.
+   */
+  public void close ()
+  {
+    if (m_bClosed)
+      return;
+    m_bClosed = true;
+
+    try
+    {
+      m_aQueue.put (POISON);
+      m_aWriterThread.join ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      LOGGER.warn ("Interrupted while waiting for pending dumps to be written");
+    }
+
+    // Dumps that were queued after the writer thread stopped
+    final ICommonsList <Record> aRest = new CommonsArrayList <> ();
+    m_aQueue.drainTo (aRest);
+    aRest.removeIf (x -> x == POISON);
+    if (aRest.isNotEmpty ())
+    {
+      try
+      {
+        _writeBatch (aRest);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to write " + aRest.size () + " dumps to '" + m_aDirectory.getAbsolutePath () + "'", ex);
+      }
+      finally
+      {
+        _releaseQueueBytes (aRest);
+      }
+    }
+
+    m_aWriteLock.locked (this::_closeSegmentLocked);
+  }
+
+  /**
+   * Get the index file belonging to the provided segment file.
+   *
+   * @param aSegmentFile
+   *        The segment file. May not be <code>null</code>.
+   * @return The index file. Never <code>null</code>.
+   */
+  @Nonnull
+  public static File getIndexFile (@Nonnull final File aSegmentFile)
+  {
+    final String sName = aSegmentFile.getName ();
+    return new File (aSegmentFile.getParentFile (),
+                     StringHelper.trimEnd (sName, SEGMENT_FILE_EXTENSION) + INDEX_FILE_EXTENSION);
+  }
+
+  /**
+   * Get the segment file belonging to the provided index file.
+   *
+   * @param aIndexFile
+   *        The index file. May not be <code>null</code>.
+   * @return The segment file. Never <code>null</code>.
+   */
+  @Nonnull
+  public static File getSegmentFile (@Nonnull final File aIndexFile)
+  {
+    final String sName = aIndexFile.getName ();
+    return new File (aIndexFile.getParentFile (),
+                     StringHelper.trimEnd (sName, INDEX_FILE_EXTENSION) + SEGMENT_FILE_EXTENSION);
+  }
+
+  /**
+   * Read a single dump from a segment. The input must be positioned at the
+   * start of a record, as denoted by the offset in the index file.
+   *
+   * @param aDI
+   *        The data input to read from. May not be <code>null</code>.
+   * @param sExpectedKey
+   *        The key the record must have. May not be <code>null</code>.
+   * @return The uncompressed dump data. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a read error or if the record is invalid
+   */
+  @Nonnull
+  static byte [] readRecord (@Nonnull @WillNotClose final DataInput aDI, @Nonnull final String sExpectedKey) throws IOException
+  {
+    if (aDI.readInt () != RECORD_MAGIC)
+      throw new IOException ("Invalid dump record header");
+    final String sKey = aDI.readUTF ();
+    if (!sKey.equals (sExpectedKey))
+      throw new IOException ("Dump record has key '" + sKey + "' but '" + sExpectedKey + "' was expected");
+    // Timestamp
+    aDI.readLong ();
+    final byte nFlags = aDI.readByte ();
+    final byte [] aPayload = new byte [aDI.readInt ()];
+    aDI.readFully (aPayload);
+
+    if ((nFlags & FLAG_GZIP) == 0)
+      return aPayload;
+
+    try (final InputStream aIS = new GZIPInputStream (new NonBlockingByteArrayInputStream (aPayload)))
+    {
+      return StreamHelper.getAllBytes (aIS);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Directory", m_aDirectory)
+                                       .append ("MaxSegmentBytes", m_nMaxSegmentBytes)
+                                       .append ("Compress", m_bCompress)
+                                       .append ("BackPressureMode", m_eBackPressureMode)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+
+/**
+ * Version of {@link IAS4IncomingDumper} that hands the dumps over to an
+ * {@link AS4DumpSegmentWriter} so that no file IO happens on the request
+ * thread. The dumps are stored under the incoming unique ID of the message
+ * metadata.<br>
+ * Note: the {@link AS4DumpSegmentWriter} is not closed by this class.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public class AS4IncomingDumperSegmented extends AbstractAS4IncomingDumperWithHeaders
+{
+  private final AS4DumpSegmentWriter m_aSegmentWriter;
+
+  /**
+   * Constructor
+   *
+   * @param aSegmentWriter
+   *        The segment writer to use. May not be <code>null</code>.
+   */
+  public AS4IncomingDumperSegmented (@Nonnull final AS4DumpSegmentWriter aSegmentWriter)
+  {
+    ValueEnforcer.notNull (aSegmentWriter, "SegmentWriter");
+    m_aSegmentWriter = aSegmentWriter;
+  }
+
+  /**
+   * @return The segment writer passed in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final AS4DumpSegmentWriter getSegmentWriter ()
+  {
+    return m_aSegmentWriter;
+  }
+
+  @Override
+  @Nullable
+  protected OutputStream openOutputStream (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nonnull final HttpHeaderMap aHttpHeaderMap) throws IOException
+  {
+    return m_aSegmentWriter.openStream (aMessageMetadata.getIncomingUniqueID ());
+  }
+
+  /**
+   * Create a new instance with a new {@link AS4DumpSegmentWriter} with default
+   * settings for the provided directory.
+   *
+   * @param aBaseDirectory
+   *        The absolute directory to be used. May not be <code>null</code>.
+   * @return The created dumper. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4IncomingDumperSegmented createForDirectory (@Nonnull final File aBaseDirectory)
+  {
+    ValueEnforcer.notNull (aBaseDirectory, "BaseDirectory");
+    return new AS4IncomingDumperSegmented (new AS4DumpSegmentWriter (aBaseDirectory));
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+/**
+ * Defines what happens if the queue of an {@link AS4DumpSegmentWriter} is
+ * full.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public enum EAS4DumpBackPressureMode
+{
+  /** Block the calling thread until there is space in the queue */
+  BLOCK,
+  /** Drop the dump and log a warning */
+  DROP,
+  /** Write the dump synchronously on the calling thread */
+  SPILL
+}
@@ -17,12 +17,24 @@
 package com.helger.phase4.duplicate;
 
 import java.time.OffsetDateTime;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.MustBeLocked.ELockType;
 import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.state.EChange;
 import com.helger.commons.state.EContinue;
@@ -31,20 +43,80 @@ import com.helger.dao.DAOException;
 import com.helger.photon.app.dao.AbstractPhotonMapBasedWALDAO;
 
 /**
- * This is the duplicate checker for avoiding duplicate messages.
+ * This is the duplicate checker for avoiding duplicate messages.<br>
+ * Since 1.4.1 the message ID is used for direct lookups in the underlying map
+ * and an additional index, sorted by creation date time, is maintained. That
+ * makes eviction a range operation instead of a full scan. After an eviction
+ * of at least {@link #getSnapshotThreshold()} items, a full snapshot of the
+ * remaining items is written, so that the write ahead log (WAL) does not need
+ * to replay all the deletions on the next startup.
  *
  * @author Philip Helger
  */
 @ThreadSafe
-public class AS4DuplicateManager extends AbstractPhotonMapBasedWALDAO <IAS4DuplicateItem, AS4DuplicateItem> implements IAS4DuplicateManager
+public class AS4DuplicateManager extends AbstractPhotonMapBasedWALDAO <IAS4DuplicateItem, AS4DuplicateItem> implements
+                                 IAS4DuplicateManager
 {
+  public static final int DEFAULT_SNAPSHOT_THRESHOLD = 1000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManager.class);
+
+  // Epoch millis to message IDs
+  @GuardedBy ("m_aRWLock")
+  private final NavigableMap <Long, ICommonsList <String>> m_aTimeIndex = new TreeMap <> ();
+  private int m_nSnapshotThreshold = DEFAULT_SNAPSHOT_THRESHOLD;
+
   public AS4DuplicateManager (@Nullable final String sFilename) throws DAOException
   {
     super (AS4DuplicateItem.class, sFilename);
+
+    // Build the time index from the items read and recovered
+    m_aRWLock.writeLocked ( () -> {
+      for (final IAS4DuplicateItem aItem : getAll ())
+        _addToTimeIndex (aItem);
+    });
+  }
+
+  /**
+   * @return The minimum number of evicted items that trigger a full snapshot.
+   *         Always &gt; 0.
+   * @since 1.4.1
+   */
+  @Nonnegative
+  public final int getSnapshotThreshold ()
+  {
+    return m_aRWLock.readLockedInt ( () -> m_nSnapshotThreshold);
+  }
+
+  /**
+   * Set the minimum number of evicted items that trigger a full snapshot.
+   *
+   * @param nSnapshotThreshold
+   *        The threshold to use. Must be &gt; 0.
+   * @since 1.4.1
+   */
+  public final void setSnapshotThreshold (@Nonnegative final int nSnapshotThreshold)
+  {
+    ValueEnforcer.isGT0 (nSnapshotThreshold, "SnapshotThreshold");
+    m_aRWLock.writeLocked ( () -> m_nSnapshotThreshold = nSnapshotThreshold);
+  }
+
+  private static long _getTimeKey (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    return aItem.getDateTime ().toInstant ().toEpochMilli ();
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _addToTimeIndex (@Nonnull final IAS4DuplicateItem aItem)
+  {
+    m_aTimeIndex.computeIfAbsent (Long.valueOf (_getTimeKey (aItem)), k -> new CommonsArrayList <> ())
+                .add (aItem.getMessageID ());
   }
 
   @Nonnull
-  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  public EContinue registerAndCheck (@Nullable final String sMessageID,
+                                     @Nullable final String sProfileID,
+                                     @Nullable final String sPModeID)
   {
     if (StringHelper.hasNoText (sMessageID))
     {
@@ -55,7 +127,10 @@ public class AS4DuplicateManager extends AbstractPhotonMapBasedWALDAO <IAS4Dupli
     final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
     try
     {
-      m_aRWLock.writeLocked ( () -> internalCreateItem (aItem));
+      m_aRWLock.writeLocked ( () -> {
+        internalCreateItem (aItem);
+        _addToTimeIndex (aItem);
+      });
     }
     catch (final IllegalArgumentException ex)
     {
@@ -65,33 +140,84 @@ public class AS4DuplicateManager extends AbstractPhotonMapBasedWALDAO <IAS4Dupli
     return EContinue.CONTINUE;
   }
 
+  @Nonnull
+  public EChange unregister (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      final AS4DuplicateItem aItem = internalDeleteItem (sMessageID);
+      if (aItem == null)
+        return EChange.UNCHANGED;
+
+      final Long aTimeKey = Long.valueOf (_getTimeKey (aItem));
+      final ICommonsList <String> aMessageIDs = m_aTimeIndex.get (aTimeKey);
+      if (aMessageIDs != null)
+      {
+        aMessageIDs.remove (sMessageID);
+        if (aMessageIDs.isEmpty ())
+          m_aTimeIndex.remove (aTimeKey);
+      }
+      return EChange.CHANGED;
+    });
+  }
+
   @Nonnull
   public EChange clearCache ()
   {
-    return m_aRWLock.writeLockedGet (this::internalRemoveAllItemsNoCallback);
+    return m_aRWLock.writeLockedGet ( () -> {
+      m_aTimeIndex.clear ();
+      return internalRemoveAllItemsNoCallback ();
+    });
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
   {
-    // Get all message IDs to be removed
-    final ICommonsList <String> aEvictItems = getAllMapped (x -> x.getDateTime ().isBefore (aRefDT), IAS4DuplicateItem::getMessageID);
-    if (aEvictItems.isNotEmpty ())
-      // Bulk erase all
-      m_aRWLock.writeLocked ( () -> {
-        for (final String sItemID : aEvictItems)
-          internalDeleteItem (sItemID);
-      });
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    final Long aRefKey = Long.valueOf (aRefDT.toInstant ().toEpochMilli ());
+    final ICommonsList <String> aEvictItems = new CommonsArrayList <> ();
+    final boolean bSnapshot = m_aRWLock.writeLockedBoolean ( () -> {
+      // Range of all items before the reference date time
+      final SortedMap <Long, ICommonsList <String>> aHead = m_aTimeIndex.headMap (aRefKey);
+      for (final ICommonsList <String> aMessageIDs : aHead.values ())
+        for (final String sItemID : aMessageIDs)
+          if (internalDeleteItem (sItemID) != null)
+            aEvictItems.add (sItemID);
+      // Remove the range from the index
+      aHead.clear ();
+      return aEvictItems.size () >= m_nSnapshotThreshold;
+    });
+
+    if (bSnapshot)
+      writeSnapshot ();
     return aEvictItems;
   }
 
+  /**
+   * Write all pending changes into the main file. This creates a snapshot of
+   * the current state and deletes the existing WAL file, so that the startup
+   * time stays bounded.
+   *
+   * @since 1.4.1
+   */
+  public void writeSnapshot ()
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Writing snapshot of AS4 duplicate items");
+    writeToFileOnPendingChanges ();
+  }
+
   @Nullable
   public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
   {
     if (StringHelper.hasNoText (sMessageID))
       return null;
 
-    return findFirst (x -> x.getMessageID ().equals (sMessageID));
+    // The message ID is the ID of the item
+    return getOfID (sMessageID);
   }
 }
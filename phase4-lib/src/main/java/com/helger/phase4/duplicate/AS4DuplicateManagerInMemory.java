@@ -79,6 +79,14 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
     return EContinue.CONTINUE;
   }
 
+  @Nonnull
+  public EChange unregister (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+    return m_aRWLock.writeLockedGet ( () -> m_aMap.removeObject (sMessageID));
+  }
+
   @Nonnull
   public EChange clearCache ()
   {
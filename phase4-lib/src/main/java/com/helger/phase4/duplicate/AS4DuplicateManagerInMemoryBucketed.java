@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * This is an in-memory duplicate checker that does not need a global lock.
+ * Message IDs are stored in a concurrent map, so that inserts of different
+ * message IDs don't block each other. Per entry only the creation time in epoch
+ * milliseconds is stored instead of an {@link OffsetDateTime}.<br>
+ * Additionally every message ID is added to a time bucket of a fixed duration.
+ * {@link #evictAllItemsBefore(OffsetDateTime)} only drops the buckets that are
+ * completely before the reference date time, so there is no need to scan all
+ * entries. As a consequence, items may be retained up to one bucket duration
+ * longer than requested. The bucket duration should therefore be
+ * significantly shorter than the retention time.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class AS4DuplicateManagerInMemoryBucketed implements IAS4DuplicateManager
+{
+  public static final Duration DEFAULT_BUCKET_DURATION = Duration.ofMinutes (1);
+
+  /**
+   * The compact per message ID information.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class Entry
+  {
+    private final long m_nEpochMillis;
+    private final String m_sProfileID;
+    private final String m_sPModeID;
+
+    Entry (final long nEpochMillis, @Nullable final String sProfileID, @Nullable final String sPModeID)
+    {
+      m_nEpochMillis = nEpochMillis;
+      m_sProfileID = sProfileID;
+      m_sPModeID = sPModeID;
+    }
+  }
+
+  private final long m_nBucketMillis;
+  private final Map <String, Entry> m_aMap = new ConcurrentHashMap <> ();
+  private final ConcurrentSkipListMap <Long, Queue <String>> m_aBuckets = new ConcurrentSkipListMap <> ();
+
+  public AS4DuplicateManagerInMemoryBucketed ()
+  {
+    this (DEFAULT_BUCKET_DURATION);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aBucketDuration
+   *        The duration of a single time bucket. May not be <code>null</code>
+   *        and must be at least 1 millisecond.
+   */
+  public AS4DuplicateManagerInMemoryBucketed (@Nonnull final Duration aBucketDuration)
+  {
+    ValueEnforcer.notNull (aBucketDuration, "BucketDuration");
+    m_nBucketMillis = ValueEnforcer.isGT0 (aBucketDuration.toMillis (), "BucketDuration.Millis");
+  }
+
+  /**
+   * @return The duration of a single time bucket. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getBucketDuration ()
+  {
+    return Duration.ofMillis (m_nBucketMillis);
+  }
+
+  /**
+   * @return The number of time buckets currently in use. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getBucketCount ()
+  {
+    return m_aBuckets.size ();
+  }
+
+  private long _getBucketKey (final long nEpochMillis)
+  {
+    return Math.floorDiv (nEpochMillis, m_nBucketMillis);
+  }
+
+  private static long _toEpochMillis (@Nonnull final OffsetDateTime aDT)
+  {
+    return aDT.toInstant ().toEpochMilli ();
+  }
+
+  @Nonnull
+  private static AS4DuplicateItem _toItem (@Nonnull final String sMessageID, @Nonnull final Entry aEntry)
+  {
+    return new AS4DuplicateItem (OffsetDateTime.ofInstant (Instant.ofEpochMilli (aEntry.m_nEpochMillis),
+                                                           ZoneId.systemDefault ()),
+                                 sMessageID,
+                                 aEntry.m_sProfileID,
+                                 aEntry.m_sPModeID);
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID,
+                                     @Nullable final String sProfileID,
+                                     @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    final long nNow = _toEpochMillis (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ());
+    if (m_aMap.putIfAbsent (sMessageID, new Entry (nNow, sProfileID, sPModeID)) != null)
+    {
+      // ID already in use
+      return EContinue.BREAK;
+    }
+
+    // Remember in the time bucket for eviction. If the bucket was evicted
+    // concurrently, the ID may have been added after the eviction iterated
+    // it, so add it to a new bucket as long as the entry is still present.
+    final Long aBucketKey = Long.valueOf (_getBucketKey (nNow));
+    Queue <String> aBucket;
+    do
+    {
+      aBucket = m_aBuckets.computeIfAbsent (aBucketKey, k -> new ConcurrentLinkedQueue <> ());
+      aBucket.add (sMessageID);
+    } while (m_aBuckets.get (aBucketKey) != aBucket && m_aMap.containsKey (sMessageID));
+    return EContinue.CONTINUE;
+  }
+
+  @Nonnull
+  public EChange unregister (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+    // The ID remains in its time bucket, but the eviction ignores missing
+    // entries
+    return EChange.valueOf (m_aMap.remove (sMessageID) != null);
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    if (m_aMap.isEmpty ())
+      return EChange.UNCHANGED;
+    m_aMap.clear ();
+    m_aBuckets.clear ();
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    // All buckets with a smaller key end before the reference date time
+    final long nRefBucketKey = _getBucketKey (_toEpochMillis (aRefDT));
+
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    Map.Entry <Long, Queue <String>> aBucket;
+    while ((aBucket = m_aBuckets.firstEntry ()) != null && aBucket.getKey ().longValue () < nRefBucketKey)
+    {
+      final long nBucketKey = aBucket.getKey ().longValue ();
+      // Only the thread that removed the bucket evicts its content
+      if (m_aBuckets.remove (aBucket.getKey (), aBucket.getValue ()))
+        for (final String sMessageID : aBucket.getValue ())
+        {
+          final Entry aEntry = m_aMap.get (sMessageID);
+          // Don't remove a newer entry of the same message ID (after
+          // clearCache)
+          if (aEntry != null && _getBucketKey (aEntry.m_nEpochMillis) == nBucketKey && m_aMap.remove (sMessageID, aEntry))
+            ret.add (sMessageID);
+        }
+    }
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aMap.isEmpty ();
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    final Entry aEntry = m_aMap.get (sMessageID);
+    return aEntry == null ? null : _toItem (sMessageID, aEntry);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    final ICommonsList <IAS4DuplicateItem> ret = new CommonsArrayList <> (m_aMap.size ());
+    m_aMap.forEach ( (k, v) -> ret.add (_toItem (k, v)));
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BucketMillis", m_nBucketMillis)
+                                       .append ("Size", m_aMap.size ())
+                                       .append ("BucketCount", m_aBuckets.size ())
+                                       .getToString ();
+  }
+}
@@ -80,6 +80,24 @@ public interface IAS4DuplicateManager
   @Nonnull
   EContinue registerAndCheck (@Nullable String sMessageID, @Nullable String sProfileID, @Nullable String sPModeID);
 
+  /**
+   * Remove a message ID that was previously registered with
+   * {@link #registerAndCheck(String, String, String)}. This is needed if the
+   * message was accepted but could not be processed, so that a retry of the
+   * sender is not considered a duplicate.<br>
+   * The default implementation does nothing and should be overridden.
+   *
+   * @param sMessageID
+   *        The message ID to remove. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the message ID was removed.
+   * @since 1.4.1
+   */
+  @Nonnull
+  default EChange unregister (@Nullable final String sMessageID)
+  {
+    return EChange.UNCHANGED;
+  }
+
   /**
    * Remove all entries in the cache.
    *
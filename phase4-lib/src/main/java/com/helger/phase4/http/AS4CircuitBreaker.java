@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
+
+/**
+ * A simple per destination circuit breaker for outgoing HTTP calls. After
+ * {@link #getFailureThreshold()} consecutive failures to the same destination,
+ * the circuit for that destination is opened and calls fail fast for
+ * {@link #getOpenDuration()}. Afterwards a single trial call is permitted
+ * ("half open"). If it succeeds the circuit is closed again, otherwise it is
+ * re-opened.<br>
+ * A destination is identified by scheme, host and port of the URL.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class AS4CircuitBreaker
+{
+  /**
+   * The state of the circuit of a single destination.
+   */
+  public enum EState
+  {
+    /** Calls are permitted */
+    CLOSED,
+    /** Calls fail fast */
+    OPEN,
+    /** A single trial call is in progress */
+    HALF_OPEN;
+  }
+
+  private static final class DestinationState
+  {
+    private EState m_eState = EState.CLOSED;
+    private int m_nConsecutiveFailures = 0;
+    private long m_nOpenUntilNanos = 0;
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CircuitBreaker.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static AS4CircuitBreaker s_aSharedInstance;
+
+  private final int m_nFailureThreshold;
+  private final Duration m_aOpenDuration;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, DestinationState> m_aMap = new CommonsHashMap <> ();
+
+  /**
+   * Constructor
+   *
+   * @param nFailureThreshold
+   *        The number of consecutive failures after which the circuit is
+   *        opened. Must be &gt; 0.
+   * @param aOpenDuration
+   *        The duration the circuit stays open before a trial call is
+   *        permitted. May not be <code>null</code> and must not be negative.
+   */
+  public AS4CircuitBreaker (@Nonnegative final int nFailureThreshold, @Nonnull final Duration aOpenDuration)
+  {
+    ValueEnforcer.isGT0 (nFailureThreshold, "FailureThreshold");
+    ValueEnforcer.notNull (aOpenDuration, "OpenDuration");
+    ValueEnforcer.isFalse (aOpenDuration.isNegative (), "OpenDuration may not be negative");
+    m_nFailureThreshold = nFailureThreshold;
+    m_aOpenDuration = aOpenDuration;
+  }
+
+  /**
+   * @return The number of consecutive failures after which the circuit is
+   *         opened. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getFailureThreshold ()
+  {
+    return m_nFailureThreshold;
+  }
+
+  /**
+   * @return The duration an opened circuit stays open. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getOpenDuration ()
+  {
+    return m_aOpenDuration;
+  }
+
+  /**
+   * Check if a call to the provided destination is currently permitted. If the
+   * open duration of an open circuit passed, this call switches the circuit to
+   * half open and permits exactly one trial call. Each permitted call must be
+   * followed by a call to {@link #onSuccess(String)} or
+   * {@link #onFailure(String)}.
+   *
+   * @param sDestination
+   *        The destination key as created by
+   *        {@link AS4DestinationHelper#getDestinationKey(String)}. May neither
+   *        be <code>null</code> nor empty.
+   * @return <code>true</code> if the call is permitted, <code>false</code> if
+   *         it should fail fast.
+   */
+  public boolean tryAcquirePermission (@Nonnull @Nonempty final String sDestination)
+  {
+    final boolean bPermitted = m_aLock.lockedBoolean ( () -> {
+      final DestinationState aState = m_aMap.get (sDestination);
+      if (aState == null)
+        return true;
+      switch (aState.m_eState)
+      {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (System.nanoTime () - aState.m_nOpenUntilNanos >= 0)
+          {
+            // Let exactly one trial call pass
+            aState.m_eState = EState.HALF_OPEN;
+            return true;
+          }
+          return false;
+        default:
+          // A trial call is already running
+          return false;
+      }
+    });
+    if (!bPermitted)
+      AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_HTTP_CIRCUIT_REJECTED);
+    return bPermitted;
+  }
+
+  /**
+   * Remember a successful call to the provided destination. This closes the
+   * circuit.
+   *
+   * @param sDestination
+   *        The destination key. May neither be <code>null</code> nor empty.
+   */
+  public void onSuccess (@Nonnull @Nonempty final String sDestination)
+  {
+    final EState eOldState = m_aLock.lockedGet ( () -> {
+      // Closed without failures is the same as not being present
+      final DestinationState aState = m_aMap.remove (sDestination);
+      return aState == null ? EState.CLOSED : aState.m_eState;
+    });
+    if (eOldState != EState.CLOSED)
+      LOGGER.info ("Closing the HTTP circuit to '" + sDestination + "'");
+  }
+
+  /**
+   * Remember a failed call to the provided destination. This may open the
+   * circuit.
+   *
+   * @param sDestination
+   *        The destination key. May neither be <code>null</code> nor empty.
+   */
+  public void onFailure (@Nonnull @Nonempty final String sDestination)
+  {
+    final boolean bOpened = m_aLock.lockedBoolean ( () -> {
+      final DestinationState aState = m_aMap.computeIfAbsent (sDestination, k -> new DestinationState ());
+      aState.m_nConsecutiveFailures++;
+      if (aState.m_eState == EState.HALF_OPEN || aState.m_nConsecutiveFailures >= m_nFailureThreshold)
+      {
+        final boolean bWasOpen = aState.m_eState == EState.OPEN;
+        aState.m_eState = EState.OPEN;
+        aState.m_nOpenUntilNanos = System.nanoTime () + m_aOpenDuration.toNanos ();
+        return !bWasOpen;
+      }
+      return false;
+    });
+    if (bOpened)
+    {
+      LOGGER.warn ("Opening the HTTP circuit to '" +
+                   sDestination +
+                   "' for " +
+                   m_aOpenDuration.toMillis () +
+                   " ms after repeated failures");
+      AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_HTTP_CIRCUIT_OPENED);
+    }
+  }
+
+  /**
+   * Get the current state of the circuit to the provided destination. This
+   * does not change the state.
+   *
+   * @param sDestination
+   *        The destination key. May be <code>null</code>.
+   * @return The state and never <code>null</code>.
+   */
+  @Nonnull
+  public EState getState (@Nullable final String sDestination)
+  {
+    return m_aLock.lockedGet ( () -> {
+      final DestinationState aState = m_aMap.get (sDestination);
+      return aState == null ? EState.CLOSED : aState.m_eState;
+    });
+  }
+
+  /**
+   * Close all circuits.
+   */
+  public void reset ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("FailureThreshold", m_nFailureThreshold)
+                                       .append ("OpenDuration", m_aOpenDuration)
+                                       .getToString ();
+  }
+
+  /**
+   * @return The shared circuit breaker instance configured via
+   *         {@link AS4Configuration#getHttpCircuitBreakerFailureThreshold()}
+   *         and {@link AS4Configuration#getHttpCircuitBreakerOpenSeconds()}, or
+   *         <code>null</code> if circuit breaking is disabled in the
+   *         configuration.
+   * @see AS4Configuration#isHttpCircuitBreakerEnabled()
+   */
+  @Nullable
+  public static AS4CircuitBreaker getSharedInstanceIfEnabled ()
+  {
+    if (!AS4Configuration.isHttpCircuitBreakerEnabled ())
+      return null;
+
+    AS4CircuitBreaker ret = RW_LOCK.readLockedGet ( () -> s_aSharedInstance);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        AS4CircuitBreaker aCB = s_aSharedInstance;
+        if (aCB == null)
+        {
+          aCB = new AS4CircuitBreaker (AS4Configuration.getHttpCircuitBreakerFailureThreshold (),
+                                       Duration.ofSeconds (AS4Configuration.getHttpCircuitBreakerOpenSeconds ()));
+          s_aSharedInstance = aCB;
+        }
+        return aCB;
+      });
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Exception thrown if an outgoing HTTP call is not performed, because the
+ * {@link AS4CircuitBreaker} for the destination is open. It is an
+ * {@link IOException} so that it is handled like any other transmission error.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public class AS4CircuitOpenException extends IOException
+{
+  private final String m_sDestination;
+
+  public AS4CircuitOpenException (@Nonnull final String sDestination)
+  {
+    super ("The HTTP circuit to '" + sDestination + "' is open - not sending");
+    m_sDestination = sDestination;
+  }
+
+  /**
+   * @return The destination key of the open circuit. Never <code>null</code>.
+   */
+  @Nonnull
+  public final String getDestination ()
+  {
+    return m_sDestination;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.net.URI;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Helper methods to identify the destination of outgoing HTTP calls. It is
+ * used by the {@link AS4CircuitBreaker} and for grouping transmissions by the
+ * receiving AP.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@Immutable
+public final class AS4DestinationHelper
+{
+  private AS4DestinationHelper ()
+  {}
+
+  /**
+   * Get the key identifying the destination of the provided URL. This consists
+   * of scheme, host and port.
+   *
+   * @param sURL
+   *        The URL to get the destination from. May be <code>null</code>.
+   * @return The destination key. Never <code>null</code>. If the URL cannot be
+   *         parsed, the URL itself is returned. If the URL is
+   *         <code>null</code> or empty, an empty string is returned.
+   */
+  @Nonnull
+  public static String getDestinationKey (@Nullable final String sURL)
+  {
+    if (StringHelper.hasNoText (sURL))
+      return "";
+
+    try
+    {
+      final URI aURI = new URI (sURL);
+      if (StringHelper.hasText (aURI.getHost ()))
+      {
+        final String sScheme = aURI.getScheme () == null ? "" : aURI.getScheme ().toLowerCase ();
+        return sScheme + "://" + aURI.getHost ().toLowerCase () + ":" + aURI.getPort ();
+      }
+    }
+    catch (final Exception ex)
+    {
+      // Fall through
+    }
+    return sURL;
+  }
+}
@@ -19,13 +19,25 @@ package com.helger.phase4.http;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.GuardedBy;
 
+import org.apache.hc.client5.http.HttpResponseException;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
@@ -37,9 +49,15 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.concurrent.ThreadHelper;
 import com.helger.commons.http.CHttp;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.CountingOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.StackTraceHelper;
 import com.helger.commons.string.ToStringGenerator;
@@ -49,9 +67,12 @@ import com.helger.httpclient.HttpClientFactory;
 import com.helger.httpclient.HttpClientManager;
 import com.helger.httpclient.IHttpClientProvider;
 import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
 import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
 import com.helger.phase4.util.MultiOutputStream;
 
 /**
@@ -63,24 +84,268 @@ import com.helger.phase4.util.MultiOutputStream;
  */
 public class BasicHttpPoster implements IHttpPoster
 {
+  public static final boolean DEFAULT_QUOTE_HTTP_HEADERS = false;
   /**
-   * @return The default {@link HttpClientFactory} to be used. Never
+   * The key of the shared pooled HTTP client factory with the default
+   * settings.
+   *
+   * @since 1.4.1
+   */
+  public static final String SHARED_POOLED_HTTP_CLIENT_FACTORY_KEY_DEFAULT = "default";
+  private static final Logger LOGGER = LoggerFactory.getLogger (BasicHttpPoster.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static final ICommonsMap <String, PooledHttpClientFactory> SHARED_POOLED_FACTORIES = new CommonsHashMap <> ();
+  @GuardedBy ("RW_LOCK")
+  private static ScheduledExecutorService s_aSharedRetryScheduler;
+  @GuardedBy ("RW_LOCK")
+  private static ExecutorService s_aSharedSendExecutor;
+
+  /**
+   * Marker class for the non-pooled factories created by
+   * {@link #createDefaultHttpClientFactory()}.
+   */
+  private static final class DefaultHttpClientFactory extends HttpClientFactory
+  {}
+
+  /**
+   * @return The shared {@link PooledHttpClientFactory} with the default HTTP
+   *         client settings and the pool settings from the configuration. It
+   *         is created on first access. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static PooledHttpClientFactory getSharedPooledHttpClientFactory ()
+  {
+    return getSharedPooledHttpClientFactory (SHARED_POOLED_HTTP_CLIENT_FACTORY_KEY_DEFAULT,
+                                             PooledHttpClientFactory::new);
+  }
+
+  /**
+   * Get or create a shared {@link PooledHttpClientFactory} with custom
+   * settings. All factories created this way are closed by
+   * {@link #closeSharedPooledHttpClientFactory()}.
+   *
+   * @param sKey
+   *        The unique key of the shared factory. May neither be
+   *        <code>null</code> nor empty.
+   * @param aFactoryCreator
+   *        The supplier that creates the factory on first access. May not be
+   *        <code>null</code>.
+   * @return The shared factory for the provided key. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static PooledHttpClientFactory getSharedPooledHttpClientFactory (@Nonnull @Nonempty final String sKey,
+                                                                          @Nonnull final Supplier <? extends PooledHttpClientFactory> aFactoryCreator)
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+    ValueEnforcer.notNull (aFactoryCreator, "FactoryCreator");
+
+    PooledHttpClientFactory ret = RW_LOCK.readLockedGet ( () -> SHARED_POOLED_FACTORIES.get (sKey));
+    if (ret == null)
+    {
+      // Try again in write lock
+      ret = RW_LOCK.writeLockedGet ( () -> SHARED_POOLED_FACTORIES.computeIfAbsent (sKey, k -> aFactoryCreator.get ()));
+    }
+    return ret;
+  }
+
+  /**
+   * Close all shared {@link PooledHttpClientFactory} instances that were
+   * created. This should be called upon application shutdown.
+   *
+   * @since 1.4.1
+   */
+  public static void closeSharedPooledHttpClientFactory ()
+  {
+    final ICommonsList <PooledHttpClientFactory> aFactories = RW_LOCK.writeLockedGet ( () -> {
+      final ICommonsList <PooledHttpClientFactory> ret = SHARED_POOLED_FACTORIES.copyOfValues ();
+      SHARED_POOLED_FACTORIES.clear ();
+      return ret;
+    });
+    for (final PooledHttpClientFactory aFactory : aFactories)
+      aFactory.close ();
+  }
+
+  /**
+   * @return The shared scheduler used by
+   *         {@link #sendGenericMessageWithRetriesAsync(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}
+   *         to schedule the retries. The transmissions themselves are
+   *         performed in the {@link #getSharedSendExecutor() shared send
+   *         executor}, so that blocking HTTP calls never delay the retries of
+   *         other messages. It uses daemon threads and is created on first
+   *         access. Never <code>null</code>.
+   * @since 1.4.1
+   * @see AS4Configuration#getHttpRetrySchedulerThreads()
+   */
+  @Nonnull
+  public static ScheduledExecutorService getSharedRetryScheduler ()
+  {
+    ScheduledExecutorService ret = RW_LOCK.readLockedGet ( () -> s_aSharedRetryScheduler);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        ScheduledExecutorService aScheduler = s_aSharedRetryScheduler;
+        if (aScheduler == null)
+        {
+          final ScheduledThreadPoolExecutor aSTPE = new ScheduledThreadPoolExecutor (Math.max (1,
+                                                                                              AS4Configuration.getHttpRetrySchedulerThreads ()),
+                                                                                     new BasicThreadFactory.Builder ().namingPattern ("phase4-http-retry-%d")
+                                                                                                                      .daemon (true)
+                                                                                                                      .build ());
+          // Don't keep cancelled retries in the queue
+          aSTPE.setRemoveOnCancelPolicy (true);
+          aScheduler = aSTPE;
+          s_aSharedRetryScheduler = aScheduler;
+        }
+        return aScheduler;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * @return The shared executor used by
+   *         {@link #sendGenericMessageWithRetriesAsync(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}
+   *         to perform the blocking HTTP calls. The number of threads is
+   *         bounded, additional transmissions wait in a bounded queue. If the
+   *         queue is full, the transmission is rejected with a
+   *         {@link RejectedExecutionException} and the returned future fails.
+   *         It uses daemon threads and is created on first access. Never
    *         <code>null</code>.
+   * @since 1.4.1
+   * @see AS4Configuration#getHttpAsyncSendThreads()
+   * @see AS4Configuration#getHttpAsyncSendQueueSize()
+   */
+  @Nonnull
+  public static ExecutorService getSharedSendExecutor ()
+  {
+    ExecutorService ret = RW_LOCK.readLockedGet ( () -> s_aSharedSendExecutor);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        ExecutorService aExecutor = s_aSharedSendExecutor;
+        if (aExecutor == null)
+        {
+          final int nThreads = Math.max (1, AS4Configuration.getHttpAsyncSendThreads ());
+          final ThreadPoolExecutor aTPE = new ThreadPoolExecutor (nThreads,
+                                                                  nThreads,
+                                                                  60,
+                                                                  TimeUnit.SECONDS,
+                                                                  new LinkedBlockingQueue <> (Math.max (1,
+                                                                                                        AS4Configuration.getHttpAsyncSendQueueSize ())),
+                                                                  new BasicThreadFactory.Builder ().namingPattern ("phase4-http-send-%d")
+                                                                                                    .daemon (true)
+                                                                                                    .build (),
+                                                                  // Fail the transmission if the queue is full
+                                                                  new ThreadPoolExecutor.AbortPolicy ());
+          aTPE.allowCoreThreadTimeOut (true);
+          aExecutor = aTPE;
+          s_aSharedSendExecutor = aExecutor;
+        }
+        return aExecutor;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Shutdown the shared send executor if it was created. Pending
+   * transmissions are not executed any more. This should be called upon
+   * application shutdown.
+   *
+   * @since 1.4.1
+   */
+  public static void shutdownSharedSendExecutor ()
+  {
+    final ExecutorService aExecutor = RW_LOCK.writeLockedGet ( () -> {
+      final ExecutorService ret = s_aSharedSendExecutor;
+      s_aSharedSendExecutor = null;
+      return ret;
+    });
+    if (aExecutor != null)
+      aExecutor.shutdownNow ();
+  }
+
+  /**
+   * Shutdown the shared retry scheduler if it was created. Scheduled retries
+   * are not executed any more. This should be called upon application
+   * shutdown.
+   *
+   * @since 1.4.1
+   */
+  public static void shutdownSharedRetryScheduler ()
+  {
+    final ScheduledExecutorService aScheduler = RW_LOCK.writeLockedGet ( () -> {
+      final ScheduledExecutorService ret = s_aSharedRetryScheduler;
+      s_aSharedRetryScheduler = null;
+      return ret;
+    });
+    if (aScheduler != null)
+      aScheduler.shutdownNow ();
+  }
+
+  /**
+   * @return The default {@link HttpClientFactory} to be used. Never
+   *         <code>null</code>. Since 1.4.1 this is the shared
+   *         {@link PooledHttpClientFactory} if HTTP pooling is enabled in the
+   *         configuration.
    * @since 0.8.3
+   * @see AS4Configuration#isHttpPoolingEnabled()
    */
   @Nonnull
   public static HttpClientFactory createDefaultHttpClientFactory ()
   {
-    return new HttpClientFactory ();
+    if (AS4Configuration.isHttpPoolingEnabled ())
+      return getSharedPooledHttpClientFactory ();
+    return new DefaultHttpClientFactory ();
   }
 
-  public static final boolean DEFAULT_QUOTE_HTTP_HEADERS = false;
-  private static final Logger LOGGER = LoggerFactory.getLogger (BasicHttpPoster.class);
+  /**
+   * Check if the provided {@link HttpClientFactory} was created by
+   * {@link #createDefaultHttpClientFactory()} and therefore uses the default
+   * HTTP client settings.
+   *
+   * @param aHttpClientFactory
+   *        The factory to check. May be <code>null</code>.
+   * @return <code>true</code> if it is a default factory, <code>false</code>
+   *         if it is a custom one.
+   * @since 1.4.1
+   */
+  public static boolean isDefaultHttpClientFactory (@Nullable final HttpClientFactory aHttpClientFactory)
+  {
+    if (aHttpClientFactory == null)
+      return false;
+    if (aHttpClientFactory instanceof DefaultHttpClientFactory)
+      return true;
+    return aHttpClientFactory == RW_LOCK.readLockedGet ( () -> SHARED_POOLED_FACTORIES.get (SHARED_POOLED_HTTP_CLIENT_FACTORY_KEY_DEFAULT));
+  }
+
+  /**
+   * @return A new default HTTP poster. This is a {@link Http2HttpPoster} if
+   *         HTTP/2 is enabled in the configuration, a {@link BasicHttpPoster}
+   *         otherwise. Never <code>null</code>.
+   * @since 1.4.1
+   * @see AS4Configuration#isHttp2Enabled()
+   */
+  @Nonnull
+  public static BasicHttpPoster createDefaultHttpPoster ()
+  {
+    if (AS4Configuration.isHttp2Enabled ())
+      return new Http2HttpPoster ();
+    return new BasicHttpPoster ();
+  }
 
   // By default no special SSL context present
   private HttpClientFactory m_aHttpClientFactory = createDefaultHttpClientFactory ();
   private Consumer <? super HttpPost> m_aHttpCustomizer;
   private boolean m_bQuoteHttpHeaders = DEFAULT_QUOTE_HTTP_HEADERS;
+  // Shared over all instances by default
+  private AS4CircuitBreaker m_aCircuitBreaker = AS4CircuitBreaker.getSharedInstanceIfEnabled ();
 
   public BasicHttpPoster ()
   {}
@@ -124,10 +389,101 @@ public class BasicHttpPoster implements IHttpPoster
     return this;
   }
 
+  /**
+   * @return The circuit breaker to be used. May be <code>null</code> if
+   *         circuit breaking is disabled.
+   * @since 1.4.1
+   */
+  @Nullable
+  public final AS4CircuitBreaker getCircuitBreaker ()
+  {
+    return m_aCircuitBreaker;
+  }
+
+  /**
+   * Set the circuit breaker to be used. By default the shared instance is used
+   * if circuit breaking is enabled in the configuration.
+   *
+   * @param aCircuitBreaker
+   *        The circuit breaker to use. May be <code>null</code> to disable
+   *        circuit breaking.
+   * @return this for chaining
+   * @since 1.4.1
+   * @see AS4CircuitBreaker#getSharedInstanceIfEnabled()
+   */
+  @Nonnull
+  public final BasicHttpPoster setCircuitBreaker (@Nullable final AS4CircuitBreaker aCircuitBreaker)
+  {
+    m_aCircuitBreaker = aCircuitBreaker;
+    return this;
+  }
+
+  /**
+   * Create the HTTP POST request for the provided URL, with the provided
+   * headers and entity. The customizer is invoked and the AS4 HTTP debugging
+   * is performed in here.
+   *
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @return The HTTP POST request. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  protected HttpPost createHttpPost (@Nonnull @Nonempty final String sURL,
+                                     @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                     @Nonnull final HttpEntity aHttpEntity)
+  {
+    final HttpPost aPost = new HttpPost (sURL);
+
+    if (aCustomHttpHeaders != null)
+    {
+      // Always unify line endings
+      // By default quoting is disabled
+      aCustomHttpHeaders.forEachSingleHeader (aPost::addHeader, true, m_bQuoteHttpHeaders);
+    }
+
+    aPost.setEntity (aHttpEntity);
+
+    // Invoke optional customizer
+    if (m_aHttpCustomizer != null)
+      m_aHttpCustomizer.accept (aPost);
+
+    // Debug sending
+    AS4HttpDebug.debug ( () -> {
+      final StringBuilder ret = new StringBuilder ("SEND-START to ").append (sURL).append ("\n");
+      try
+      {
+        for (final Header aHeader : aPost.getHeaders ())
+          ret.append (aHeader.getName ()).append (": ").append (aHeader.getValue ()).append (CHttp.EOL);
+        ret.append (CHttp.EOL);
+        if (aHttpEntity.isRepeatable ())
+          ret.append (EntityUtils.toString (aHttpEntity));
+        else
+          ret.append ("## The payload is marked as 'not repeatable' and is the therefore not printed in debugging");
+      }
+      catch (final Exception ex)
+      {
+        ret.append ("## Exception listing payload: " + ex.getClass ().getName () + " -- " + ex.getMessage ())
+           .append (CHttp.EOL);
+        ret.append ("## ").append (StackTraceHelper.getStackAsString (ex));
+      }
+      return ret.toString ();
+    });
+    return aPost;
+  }
+
   /**
    * Send an arbitrary HTTP POST message to the provided URL, using the
    * contained HttpClientFactory as well as the customizer. Additionally the AS4
    * HTTP debugging is invoked in here.<br>
+   * If the HttpClientFactory is a {@link PooledHttpClientFactory}, the shared
+   * HTTP client of that factory is used. Otherwise a new HTTP client is created
+   * for this call.<br>
    * This method does NOT retry
    *
    * @param <T>
@@ -159,46 +515,15 @@ public class BasicHttpPoster implements IHttpPoster
     if (LOGGER.isInfoEnabled ())
       LOGGER.info ("Starting to transmit AS4 Message to '" + sURL + "'");
 
+    // Use the long-lived shared client, if available
+    final boolean bIsPooled = m_aHttpClientFactory instanceof PooledHttpClientFactory;
+    final HttpClientManager aClientMgr = bIsPooled ? ((PooledHttpClientFactory) m_aHttpClientFactory).getSharedHttpClientManager ()
+                                                   : new HttpClientManager (m_aHttpClientFactory);
+
     IOException aCaughtException = null;
-    try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+    try
     {
-      final HttpPost aPost = new HttpPost (sURL);
-
-      if (aCustomHttpHeaders != null)
-      {
-        // Always unify line endings
-        // By default quoting is disabled
-        aCustomHttpHeaders.forEachSingleHeader (aPost::addHeader, true, m_bQuoteHttpHeaders);
-      }
-
-      aPost.setEntity (aHttpEntity);
-
-      // Invoke optional customizer
-      if (m_aHttpCustomizer != null)
-        m_aHttpCustomizer.accept (aPost);
-
-      // Debug sending
-      AS4HttpDebug.debug ( () -> {
-        final StringBuilder ret = new StringBuilder ("SEND-START to ").append (sURL).append ("\n");
-        try
-        {
-          for (final Header aHeader : aPost.getHeaders ())
-            ret.append (aHeader.getName ()).append (": ").append (aHeader.getValue ()).append (CHttp.EOL);
-          ret.append (CHttp.EOL);
-          if (aHttpEntity.isRepeatable ())
-            ret.append (EntityUtils.toString (aHttpEntity));
-          else
-            ret.append ("## The payload is marked as 'not repeatable' and is the therefore not printed in debugging");
-        }
-        catch (final Exception ex)
-        {
-          ret.append ("## Exception listing payload: " + ex.getClass ().getName () + " -- " + ex.getMessage ())
-             .append (CHttp.EOL);
-          ret.append ("## ").append (StackTraceHelper.getStackAsString (ex));
-        }
-        return ret.toString ();
-      });
-
+      final HttpPost aPost = createHttpPost (sURL, aCustomHttpHeaders, createMetricsCountingHttpEntity (aHttpEntity));
       return aClientMgr.execute (aPost, aResponseHandler);
     }
     catch (final IOException ex)
@@ -208,6 +533,10 @@ public class BasicHttpPoster implements IHttpPoster
     }
     finally
     {
+      // The shared client must stay open
+      if (!bIsPooled)
+        StreamHelper.close (aClientMgr);
+
       aSW.stop ();
       if (LOGGER.isInfoEnabled ())
         LOGGER.info ((aCaughtException != null ? "Failed" : "Finished") +
@@ -219,6 +548,120 @@ public class BasicHttpPoster implements IHttpPoster
     }
   }
 
+  /**
+   * Check if the provided exception indicates a problem of the destination. All
+   * I/O errors and HTTP status codes &ge; 500 are considered a failure of the
+   * destination. HTTP 4xx responses are considered a problem of the request.
+   *
+   * @param ex
+   *        The exception to check. May not be <code>null</code>.
+   * @return <code>true</code> if the destination failed.
+   */
+  private static boolean _isDestinationFailure (@Nonnull final IOException ex)
+  {
+    if (ex instanceof HttpResponseException)
+      return ((HttpResponseException) ex).getStatusCode () >= CHttp.HTTP_INTERNAL_SERVER_ERROR;
+    return true;
+  }
+
+  /**
+   * Send an arbitrary HTTP POST message to the provided URL using
+   * {@link #sendGenericMessage(String, HttpHeaderMap, HttpEntity, HttpClientResponseHandler)}
+   * and update the circuit breaker (if any) with the result. If the circuit to
+   * the destination is open, an {@link AS4CircuitOpenException} is thrown
+   * without sending.<br>
+   * This method does NOT retry
+   *
+   * @param <T>
+   *        Response data type
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The Http response handler that should be used to convert the HTTP
+   *        response to a domain object.
+   * @return The HTTP response. May be <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @since 1.4.1
+   */
+  @Nullable
+  protected <T> T sendGenericMessageWithCircuitBreaker (@Nonnull @Nonempty final String sURL,
+                                                        @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                        @Nonnull final HttpEntity aHttpEntity,
+                                                        @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    final AS4CircuitBreaker aCircuitBreaker = m_aCircuitBreaker;
+    if (aCircuitBreaker == null)
+      return sendGenericMessage (sURL, aCustomHttpHeaders, aHttpEntity, aResponseHandler);
+
+    final String sDestination = AS4DestinationHelper.getDestinationKey (sURL);
+    if (!aCircuitBreaker.tryAcquirePermission (sDestination))
+      throw new AS4CircuitOpenException (sDestination);
+
+    // Only a normal return counts as success
+    boolean bSuccess = false;
+    try
+    {
+      final T ret = sendGenericMessage (sURL, aCustomHttpHeaders, aHttpEntity, aResponseHandler);
+      bSuccess = true;
+      return ret;
+    }
+    catch (final IOException ex)
+    {
+      // Errors on the HTTP level don't count against the destination
+      bSuccess = !_isDestinationFailure (ex);
+      throw ex;
+    }
+    finally
+    {
+      if (bSuccess)
+        aCircuitBreaker.onSuccess (sDestination);
+      else
+        aCircuitBreaker.onFailure (sDestination);
+    }
+  }
+
+  /**
+   * Wrap the provided entity, so that the number of bytes written is added to
+   * the {@link CAS4Metrics#COUNTER_OUTGOING_BYTES} counter. If metrics are
+   * disabled, the source entity is returned unchanged.
+   *
+   * @param aSrcEntity
+   *        The entity to be sent. May not be <code>null</code>.
+   * @return The entity to be sent. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  protected static HttpEntity createMetricsCountingHttpEntity (@Nonnull final HttpEntity aSrcEntity)
+  {
+    if (!AS4MetricsManager.isEnabled ())
+      return aSrcEntity;
+
+    return new HttpEntityWrapper (aSrcEntity)
+    {
+      @Override
+      public void writeTo (@Nonnull @WillNotClose final OutputStream aHttpOS) throws IOException
+      {
+        // Don't close the HTTP output stream
+        final CountingOutputStream aCountingOS = new CountingOutputStream (aHttpOS);
+        try
+        {
+          super.writeTo (aCountingOS);
+          aCountingOS.flush ();
+        }
+        finally
+        {
+          AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_OUTGOING_BYTES, aCountingOS.getBytesWritten ());
+        }
+      }
+    };
+  }
+
   @Nonnull
   protected static HttpEntity createDumpingHttpEntity (@Nullable final IAS4OutgoingDumper aOutgoingDumper,
                                                        @Nonnull final HttpEntity aSrcEntity,
@@ -317,7 +760,12 @@ public class BasicHttpPoster implements IHttpPoster
                                                                        aDumpOSHolder);
 
             // Dump only for the first try - the remaining tries
-            return sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+            return sendGenericMessageWithCircuitBreaker (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+          }
+          catch (final AS4CircuitOpenException ex)
+          {
+            // Fail fast - retrying makes no sense while the circuit is open
+            throw ex;
           }
           catch (final IOException ex)
           {
@@ -363,6 +811,8 @@ public class BasicHttpPoster implements IHttpPoster
                            aDurationBeforeRetry.toMillis () +
                            " ms, than retrying");
 
+            AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_HTTP_RETRIES);
+
             // Sleep and try again afterwards
             ThreadHelper.sleep (aDurationBeforeRetry.toMillis ());
           }
@@ -386,7 +836,7 @@ public class BasicHttpPoster implements IHttpPoster
         try
         {
           // Send without retry
-          return sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+          return sendGenericMessageWithCircuitBreaker (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
         }
         finally
         {
@@ -415,12 +865,392 @@ public class BasicHttpPoster implements IHttpPoster
     }
   }
 
+  /**
+   * The state of a single asynchronous transmission with retries.
+   *
+   * @param <T>
+   *        Response data type
+   */
+  private final class AsyncRetryingSender <T>
+  {
+    private final String m_sURL;
+    private final HttpHeaderMap m_aCustomHttpHeaders;
+    private final HttpEntity m_aHttpEntity;
+    private final String m_sMessageID;
+    private final HttpRetrySettings m_aRetrySettings;
+    private final HttpClientResponseHandler <? extends T> m_aResponseHandler;
+    private final IAS4OutgoingDumper m_aOutgoingDumper;
+    private final IAS4RetryCallback m_aRetryCallback;
+    private final ScheduledExecutorService m_aScheduler;
+    private final Executor m_aSendExecutor;
+    private final int m_nMaxTries;
+    private final CompletableFuture <T> m_aFuture = new CompletableFuture <> ();
+    // Only accessed by one thread at a time, as tries never overlap
+    private Duration m_aDurationBeforeRetry;
+    private boolean m_bDumpStarted = false;
+
+    AsyncRetryingSender (@Nonnull final String sURL,
+                         @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                         @Nonnull final HttpEntity aHttpEntity,
+                         @Nonnull final String sMessageID,
+                         @Nonnull final HttpRetrySettings aRetrySettings,
+                         @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                         @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                         @Nullable final IAS4RetryCallback aRetryCallback,
+                         @Nonnull final ScheduledExecutorService aScheduler,
+                         @Nonnull final Executor aSendExecutor)
+    {
+      m_sURL = sURL;
+      m_aCustomHttpHeaders = aCustomHttpHeaders;
+      m_aHttpEntity = aHttpEntity;
+      m_sMessageID = sMessageID;
+      m_aRetrySettings = aRetrySettings;
+      m_aResponseHandler = aResponseHandler;
+      m_aOutgoingDumper = aOutgoingDumper;
+      m_aRetryCallback = aRetryCallback;
+      m_aScheduler = aScheduler;
+      m_aSendExecutor = aSendExecutor;
+      m_nMaxTries = aRetrySettings.isRetryEnabled () ? 1 + aRetrySettings.getMaxRetries () : 1;
+      m_aDurationBeforeRetry = aRetrySettings.getDurationBeforeRetry ();
+    }
+
+    @Nonnull
+    CompletableFuture <T> getFuture ()
+    {
+      return m_aFuture;
+    }
+
+    void schedule (@Nonnegative final int nTry, final long nDelayMS)
+    {
+      if (nDelayMS <= 0)
+      {
+        _execute (nTry);
+        return;
+      }
+
+      try
+      {
+        // The scheduler only waits - the transmission happens in the send
+        // executor
+        m_aScheduler.schedule ( () -> _execute (nTry), nDelayMS, TimeUnit.MILLISECONDS);
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Scheduler was shut down
+        _finish (null, ex);
+      }
+    }
+
+    private void _execute (@Nonnegative final int nTry)
+    {
+      try
+      {
+        m_aSendExecutor.execute ( () -> _attempt (nTry));
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Executor was shut down
+        _finish (null, ex);
+      }
+    }
+
+    private void _finish (@Nullable final T aResult, @Nullable final Throwable t)
+    {
+      // Add the possibility to close open resources
+      if (m_aOutgoingDumper != null && m_bDumpStarted)
+        try
+        {
+          m_aOutgoingDumper.onEndRequest (EAS4MessageMode.REQUEST, null, null, m_sMessageID);
+        }
+        catch (final Exception ex)
+        {
+          if (LOGGER.isErrorEnabled ())
+            LOGGER.error ("OutgoingDumper.onEndRequest failed. Dumper=" +
+                          m_aOutgoingDumper +
+                          "; MessageID=" +
+                          m_sMessageID,
+                          ex);
+        }
+
+      if (t != null)
+        m_aFuture.completeExceptionally (t);
+      else
+        m_aFuture.complete (aResult);
+    }
+
+    private void _attempt (@Nonnegative final int nTry)
+    {
+      // Cancelled by the caller in the meantime?
+      if (m_aFuture.isDone ())
+      {
+        _finish (null, null);
+        return;
+      }
+
+      if (nTry > 0)
+        if (LOGGER.isInfoEnabled ())
+          LOGGER.info ("Retry #" +
+                       nTry +
+                       "/" +
+                       (m_nMaxTries - 1) +
+                       " for sending message with ID '" +
+                       m_sMessageID +
+                       "'");
+
+      final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
+      try
+      {
+        // Create a new one every time (for new filename, new timestamp, etc.)
+        final HttpEntity aDumpingEntity = createDumpingHttpEntity (m_aOutgoingDumper,
+                                                                   m_aHttpEntity,
+                                                                   m_sMessageID,
+                                                                   m_aCustomHttpHeaders,
+                                                                   nTry,
+                                                                   aDumpOSHolder);
+        if (aDumpOSHolder.isSet ())
+          m_bDumpStarted = true;
+
+        final T aResult = sendGenericMessageWithCircuitBreaker (m_sURL,
+                                                                m_aCustomHttpHeaders,
+                                                                aDumpingEntity,
+                                                                m_aResponseHandler);
+        StreamHelper.close (aDumpOSHolder.get ());
+        _finish (aResult, null);
+      }
+      catch (final IOException ex)
+      {
+        StreamHelper.close (aDumpOSHolder.get ());
+        _onFailure (nTry, ex);
+      }
+      catch (final RuntimeException ex)
+      {
+        StreamHelper.close (aDumpOSHolder.get ());
+        _finish (null, ex);
+      }
+      catch (final Error ex)
+      {
+        // Don't leave the caller waiting forever
+        StreamHelper.close (aDumpOSHolder.get ());
+        _finish (null, ex);
+        throw ex;
+      }
+    }
+
+    private void _onFailure (@Nonnegative final int nTry, @Nonnull final IOException ex)
+    {
+      // Last try or open circuit? -> propagate exception
+      if (nTry == m_nMaxTries - 1 || ex instanceof AS4CircuitOpenException)
+      {
+        _finish (null, ex);
+        return;
+      }
+
+      // After the first retry, increase the waiting time
+      if (nTry > 1)
+        m_aDurationBeforeRetry = HttpRetrySettings.getIncreased (m_aDurationBeforeRetry,
+                                                                 m_aRetrySettings.getRetryIncreaseFactor ());
+
+      if (m_aRetryCallback != null)
+      {
+        final boolean bBreak;
+        try
+        {
+          bBreak = m_aRetryCallback.onBeforeRetry (m_sMessageID,
+                                                   m_sURL,
+                                                   nTry,
+                                                   m_nMaxTries,
+                                                   m_aDurationBeforeRetry.toMillis (),
+                                                   ex)
+                                   .isBreak ();
+        }
+        catch (final RuntimeException ex2)
+        {
+          ex2.addSuppressed (ex);
+          _finish (null, ex2);
+          return;
+        }
+
+        if (bBreak)
+        {
+          // Explicitly interrupt retry
+          if (LOGGER.isWarnEnabled ())
+            LOGGER.warn ("Error sending message '" +
+                         m_sMessageID +
+                         "' to '" +
+                         m_sURL +
+                         ": " +
+                         ex.getClass ().getSimpleName () +
+                         " - " +
+                         ex.getMessage () +
+                         " - retrying was explicitly stopped by the RetryCallback");
+
+          // Propagate Exception as if it would be the last retry
+          _finish (null, ex);
+          return;
+        }
+      }
+
+      if (LOGGER.isWarnEnabled ())
+        LOGGER.warn ("Error sending message '" +
+                     m_sMessageID +
+                     "' to '" +
+                     m_sURL +
+                     "': " +
+                     ex.getClass ().getSimpleName () +
+                     " - " +
+                     ex.getMessage () +
+                     " - scheduling retry in " +
+                     m_aDurationBeforeRetry.toMillis () +
+                     " ms");
+
+      AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_HTTP_RETRIES);
+
+      // No thread is blocked while waiting
+      schedule (nTry + 1, m_aDurationBeforeRetry.toMillis ());
+    }
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}
+   * using the {@link #getSharedRetryScheduler() shared retry scheduler}.
+   *
+   * @param <T>
+   *        Response data type
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        the AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP
+   *        response to a domain object.
+   * @param aOutgoingDumper
+   *        An optional outgoing dumper for this message. May be
+   *        <code>null</code> to use the global one.
+   * @param aRetryCallback
+   *        An optional retry callback that is invoked, before a retry happens.
+   * @return The future with the HTTP response data as indicated by the
+   *         ResponseHandler. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public <T> CompletableFuture <T> sendGenericMessageWithRetriesAsync (@Nonnull final String sURL,
+                                                                       @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                       @Nonnull final HttpEntity aHttpEntity,
+                                                                       @Nonnull final String sMessageID,
+                                                                       @Nonnull final HttpRetrySettings aRetrySettings,
+                                                                       @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                       @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                       @Nullable final IAS4RetryCallback aRetryCallback)
+  {
+    return sendGenericMessageWithRetriesAsync (sURL,
+                                               aCustomHttpHeaders,
+                                               aHttpEntity,
+                                               sMessageID,
+                                               aRetrySettings,
+                                               aResponseHandler,
+                                               aOutgoingDumper,
+                                               aRetryCallback,
+                                               getSharedRetryScheduler (),
+                                               getSharedSendExecutor ());
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * Each try is executed in the provided send executor and retries are
+   * scheduled with the retry delay in the provided scheduler instead of
+   * blocking a thread while waiting. The
+   * {@link IAS4RetryCallback} is invoked in the same way as for the
+   * synchronous version. Cancelling the returned future prevents further
+   * retries.
+   *
+   * @param <T>
+   *        Response data type
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        the AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP
+   *        response to a domain object.
+   * @param aOutgoingDumper
+   *        An optional outgoing dumper for this message. May be
+   *        <code>null</code> to use the global one.
+   * @param aRetryCallback
+   *        An optional retry callback that is invoked, before a retry happens.
+   * @param aScheduler
+   *        The scheduler to wait for the retries in. May not be
+   *        <code>null</code>.
+   * @param aSendExecutor
+   *        The executor to perform the tries in. Should have a bounded number
+   *        of threads. May not be <code>null</code>.
+   * @return The future with the HTTP response data as indicated by the
+   *         ResponseHandler. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public <T> CompletableFuture <T> sendGenericMessageWithRetriesAsync (@Nonnull final String sURL,
+                                                                       @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                       @Nonnull final HttpEntity aHttpEntity,
+                                                                       @Nonnull final String sMessageID,
+                                                                       @Nonnull final HttpRetrySettings aRetrySettings,
+                                                                       @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                       @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                       @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                       @Nonnull final ScheduledExecutorService aScheduler,
+                                                                       @Nonnull final Executor aSendExecutor)
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
+    ValueEnforcer.notNull (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aRetrySettings, "RetrySettings");
+    ValueEnforcer.notNull (aResponseHandler, "ResponseHandler");
+    ValueEnforcer.notNull (aScheduler, "Scheduler");
+    ValueEnforcer.notNull (aSendExecutor, "SendExecutor");
+
+    if (aRetrySettings.isRetryEnabled () && !aHttpEntity.isRepeatable ())
+      throw new IllegalStateException ("If retry is enabled, a repeatable entity must be provided");
+
+    // Parameter or global one - may still be null
+    final IAS4OutgoingDumper aRealOutgoingDumper = aOutgoingDumper != null ? aOutgoingDumper
+                                                                           : AS4DumpManager.getOutgoingDumper ();
+
+    final AsyncRetryingSender <T> aSender = new AsyncRetryingSender <> (sURL,
+                                                                        aCustomHttpHeaders,
+                                                                        aHttpEntity,
+                                                                        sMessageID,
+                                                                        aRetrySettings,
+                                                                        aResponseHandler,
+                                                                        aRealOutgoingDumper,
+                                                                        aRetryCallback,
+                                                                        aScheduler,
+                                                                        aSendExecutor);
+    aSender.schedule (0, 0);
+    return aSender.getFuture ();
+  }
+
   @Override
   public String toString ()
   {
     return new ToStringGenerator (this).append ("HttpClientFactory", m_aHttpClientFactory)
                                        .append ("HttpCustomizer", m_aHttpCustomizer)
                                        .append ("QuoteHttpHeaders", m_bQuoteHttpHeaders)
+                                       .append ("CircuitBreaker", m_aCircuitBreaker)
                                        .getToString ();
   }
 }
@@ -0,0 +1,534 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.net.ssl.SSLContext;
+
+import org.apache.hc.client5.http.ClientProtocolException;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.classic.AbstractClassicEntityConsumer;
+import org.apache.hc.core5.http.nio.support.classic.AbstractClassicEntityProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.ssl.TLS;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * A special {@link BasicHttpPoster} that uses the asynchronous HTTP client and
+ * negotiates HTTP/2 via ALPN. Concurrent requests to the same destination are
+ * multiplexed over a single TLS connection, if the destination supports
+ * HTTP/2 - otherwise HTTP/1.1 is used. The retry, dumping and circuit breaker
+ * handling of {@link BasicHttpPoster} is used unchanged, as only the actual
+ * transmission in
+ * {@link #sendGenericMessage(String, HttpHeaderMap, HttpEntity, HttpClientResponseHandler)}
+ * is replaced.<br>
+ * The asynchronous client is only used if the {@link HttpClientFactory} of
+ * this poster is a default one (see
+ * {@link BasicHttpPoster#isDefaultHttpClientFactory(HttpClientFactory)}) or if
+ * an asynchronous client was set explicitly. If a custom factory is set (e.g.
+ * with a custom SSL context, proxy or timeouts), sending falls back to the
+ * implementation of {@link BasicHttpPoster} so that these settings are
+ * honoured.<br>
+ * Request and response entities are streamed and are never buffered
+ * completely in memory. The customizer is invoked on an {@link HttpPost} and
+ * all headers set there are taken over.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public class Http2HttpPoster extends BasicHttpPoster
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (Http2HttpPoster.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static CloseableHttpAsyncClient s_aSharedHttpAsyncClient;
+  @GuardedBy ("RW_LOCK")
+  private static ExecutorService s_aSharedStreamExecutor;
+
+  // Buffer size between the I/O reactor and the blocking streams
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Create a new started asynchronous HTTP client that negotiates HTTP/2 for
+   * TLS connections.
+   *
+   * @param aSSLContext
+   *        The SSL context to use. May be <code>null</code> to use the system
+   *        default.
+   * @return The started client. Never <code>null</code>. Must be closed by the
+   *         caller.
+   */
+  @Nonnull
+  public static CloseableHttpAsyncClient createHttpAsyncClient (@Nullable final SSLContext aSSLContext)
+  {
+    final TlsStrategy aTlsStrategy = ClientTlsStrategyBuilder.create ()
+                                                             .setSslContext (aSSLContext != null ? aSSLContext
+                                                                                                 : SSLContexts.createSystemDefault ())
+                                                             .setTlsVersions (TLS.V_1_3, TLS.V_1_2)
+                                                             .build ();
+    final PoolingAsyncClientConnectionManager aConnMgr = PoolingAsyncClientConnectionManagerBuilder.create ()
+                                                                                                   .setTlsStrategy (aTlsStrategy)
+                                                                                                   .setMaxConnTotal (AS4Configuration.getHttpPoolingMaxTotal ())
+                                                                                                   .setMaxConnPerRoute (AS4Configuration.getHttpPoolingMaxPerRoute ())
+                                                                                                   .build ();
+    final CloseableHttpAsyncClient ret = HttpAsyncClients.custom ()
+                                                         .setVersionPolicy (HttpVersionPolicy.NEGOTIATE)
+                                                         .setConnectionManager (aConnMgr)
+                                                         .build ();
+    ret.start ();
+    return ret;
+  }
+
+  /**
+   * @return The shared asynchronous HTTP client using the system default SSL
+   *         context. It is created and started on first access. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static CloseableHttpAsyncClient getSharedHttpAsyncClient ()
+  {
+    CloseableHttpAsyncClient ret = RW_LOCK.readLockedGet ( () -> s_aSharedHttpAsyncClient);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        CloseableHttpAsyncClient aClient = s_aSharedHttpAsyncClient;
+        if (aClient == null)
+        {
+          aClient = createHttpAsyncClient (null);
+          s_aSharedHttpAsyncClient = aClient;
+        }
+        return aClient;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * @return The executor that writes request entities and reads response
+   *         entities with blocking streams, decoupled from the I/O reactor
+   *         threads. Created on first access. Never <code>null</code>.
+   */
+  @Nonnull
+  private static ExecutorService _getSharedStreamExecutor ()
+  {
+    ExecutorService ret = RW_LOCK.readLockedGet ( () -> s_aSharedStreamExecutor);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        ExecutorService aExecutor = s_aSharedStreamExecutor;
+        if (aExecutor == null)
+        {
+          // Each running exchange needs at most two threads and the number of
+          // running exchanges is limited by the calling threads
+          aExecutor = Executors.newCachedThreadPool (new BasicThreadFactory.Builder ().namingPattern ("phase4-http2-stream-%d")
+                                                                                      .daemon (true)
+                                                                                      .build ());
+          s_aSharedStreamExecutor = aExecutor;
+        }
+        return aExecutor;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Close the shared asynchronous HTTP client and the shared stream executor
+   * if they were created. This should be called upon application shutdown.
+   */
+  public static void closeSharedHttpAsyncClient ()
+  {
+    final CloseableHttpAsyncClient aClient = RW_LOCK.writeLockedGet ( () -> {
+      final CloseableHttpAsyncClient ret = s_aSharedHttpAsyncClient;
+      s_aSharedHttpAsyncClient = null;
+      return ret;
+    });
+    if (aClient != null)
+      aClient.close (CloseMode.GRACEFUL);
+
+    final ExecutorService aExecutor = RW_LOCK.writeLockedGet ( () -> {
+      final ExecutorService ret = s_aSharedStreamExecutor;
+      s_aSharedStreamExecutor = null;
+      return ret;
+    });
+    if (aExecutor != null)
+      aExecutor.shutdownNow ();
+  }
+
+  private CloseableHttpAsyncClient m_aHttpAsyncClient;
+
+  public Http2HttpPoster ()
+  {}
+
+  /**
+   * @return The asynchronous HTTP client to be used. If none was set
+   *         explicitly, the shared one is used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final CloseableHttpAsyncClient getHttpAsyncClient ()
+  {
+    final CloseableHttpAsyncClient ret = m_aHttpAsyncClient;
+    return ret != null ? ret : getSharedHttpAsyncClient ();
+  }
+
+  /**
+   * Set the asynchronous HTTP client to be used, e.g. with a custom SSL
+   * context. The client must be started and is not closed by this class.
+   *
+   * @param aHttpAsyncClient
+   *        The client to be used. May be <code>null</code> to use the shared
+   *        one.
+   * @return this for chaining
+   * @see #createHttpAsyncClient(SSLContext)
+   */
+  @Nonnull
+  public final Http2HttpPoster setHttpAsyncClient (@Nullable final CloseableHttpAsyncClient aHttpAsyncClient)
+  {
+    m_aHttpAsyncClient = aHttpAsyncClient;
+    return this;
+  }
+
+  /**
+   * @return <code>true</code> if messages are sent with the asynchronous HTTP
+   *         client, <code>false</code> if a custom {@link HttpClientFactory}
+   *         is set and sending falls back to {@link BasicHttpPoster}.
+   */
+  public final boolean isUsingHttpAsyncClient ()
+  {
+    return m_aHttpAsyncClient != null || isDefaultHttpClientFactory (getHttpClientFactory ());
+  }
+
+  /**
+   * An {@link AsyncEntityProducer} that streams a classic {@link HttpEntity}
+   * via a bounded buffer, and keeps its length and content type.
+   */
+  private static final class ClassicEntityProducer implements AsyncEntityProducer
+  {
+    private final HttpEntity m_aHttpEntity;
+    private final AbstractClassicEntityProducer m_aDelegate;
+
+    ClassicEntityProducer (@Nonnull final HttpEntity aHttpEntity, @Nonnull final ExecutorService aExecutor)
+    {
+      m_aHttpEntity = aHttpEntity;
+      final String sContentType = aHttpEntity.getContentType ();
+      m_aDelegate = new AbstractClassicEntityProducer (STREAM_BUFFER_SIZE,
+                                                       StringHelper.hasText (sContentType) ? ContentType.parse (sContentType)
+                                                                                           : null,
+                                                       aExecutor)
+      {
+        @Override
+        protected void produceData (final ContentType aContentType, final OutputStream aOS) throws IOException
+        {
+          // This also writes the dump (if any)
+          aHttpEntity.writeTo (aOS);
+        }
+      };
+    }
+
+    public long getContentLength ()
+    {
+      return m_aHttpEntity.getContentLength ();
+    }
+
+    public String getContentType ()
+    {
+      return m_aHttpEntity.getContentType ();
+    }
+
+    public String getContentEncoding ()
+    {
+      return m_aHttpEntity.getContentEncoding ();
+    }
+
+    public boolean isChunked ()
+    {
+      return m_aHttpEntity.getContentLength () < 0;
+    }
+
+    public Set <String> getTrailerNames ()
+    {
+      return null;
+    }
+
+    public boolean isRepeatable ()
+    {
+      return false;
+    }
+
+    public int available ()
+    {
+      return m_aDelegate.available ();
+    }
+
+    public void produce (final DataStreamChannel aChannel) throws IOException
+    {
+      m_aDelegate.produce (aChannel);
+    }
+
+    public void failed (final Exception ex)
+    {
+      m_aDelegate.failed (ex);
+    }
+
+    public void releaseResources ()
+    {
+      m_aDelegate.releaseResources ();
+    }
+  }
+
+  /**
+   * An {@link AsyncResponseConsumer} that hands the response with a streaming
+   * entity to a classic {@link HttpClientResponseHandler}.
+   *
+   * @param <T>
+   *        Response handler result type
+   */
+  private static final class ClassicResponseConsumer <T> implements AsyncResponseConsumer <T>
+  {
+    private final HttpClientResponseHandler <? extends T> m_aResponseHandler;
+    private final ExecutorService m_aExecutor;
+    private AbstractClassicEntityConsumer <T> m_aEntityConsumer;
+
+    ClassicResponseConsumer (@Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                             @Nonnull final ExecutorService aExecutor)
+    {
+      m_aResponseHandler = aResponseHandler;
+      m_aExecutor = aExecutor;
+    }
+
+    @Nonnull
+    private static BasicClassicHttpResponse _createClassicResponse (@Nonnull final HttpResponse aResponse)
+    {
+      final BasicClassicHttpResponse ret = new BasicClassicHttpResponse (aResponse.getCode (), aResponse.getReasonPhrase ());
+      ret.setVersion (aResponse.getVersion ());
+      ret.setHeaders (aResponse.getHeaders ());
+      return ret;
+    }
+
+    @Nullable
+    private T _handle (@Nonnull final BasicClassicHttpResponse aResponse) throws IOException
+    {
+      try
+      {
+        return m_aResponseHandler.handleResponse (aResponse);
+      }
+      catch (final HttpException ex)
+      {
+        throw new ClientProtocolException (ex.getMessage (), ex);
+      }
+    }
+
+    public void consumeResponse (final HttpResponse aResponse,
+                                 final EntityDetails aEntityDetails,
+                                 final HttpContext aContext,
+                                 final FutureCallback <T> aResultCallback) throws HttpException, IOException
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Received HTTP response " + aResponse.getCode () + " using " + aResponse.getVersion ());
+
+      final BasicClassicHttpResponse aClassicResponse = _createClassicResponse (aResponse);
+      if (aEntityDetails == null)
+      {
+        // No response body
+        aResultCallback.completed (_handle (aClassicResponse));
+        return;
+      }
+
+      m_aEntityConsumer = new AbstractClassicEntityConsumer <T> (STREAM_BUFFER_SIZE, m_aExecutor)
+      {
+        @Override
+        protected T consumeData (final ContentType aContentType, final InputStream aIS) throws IOException
+        {
+          aClassicResponse.setEntity (new InputStreamEntity (aIS, aEntityDetails.getContentLength (), aContentType));
+          return _handle (aClassicResponse);
+        }
+      };
+      m_aEntityConsumer.streamStart (aEntityDetails, aResultCallback);
+    }
+
+    public void informationResponse (final HttpResponse aResponse, final HttpContext aContext)
+    {}
+
+    public void updateCapacity (final CapacityChannel aCapacityChannel) throws IOException
+    {
+      if (m_aEntityConsumer != null)
+        m_aEntityConsumer.updateCapacity (aCapacityChannel);
+    }
+
+    public void consume (final ByteBuffer aSrc) throws IOException
+    {
+      if (m_aEntityConsumer != null)
+        m_aEntityConsumer.consume (aSrc);
+    }
+
+    public void streamEnd (final List <? extends Header> aTrailers) throws HttpException, IOException
+    {
+      if (m_aEntityConsumer != null)
+        m_aEntityConsumer.streamEnd (aTrailers);
+    }
+
+    public void failed (final Exception ex)
+    {
+      if (m_aEntityConsumer != null)
+        m_aEntityConsumer.failed (ex);
+    }
+
+    public void releaseResources ()
+    {
+      if (m_aEntityConsumer != null)
+        m_aEntityConsumer.releaseResources ();
+    }
+  }
+
+  @Override
+  @Nullable
+  public <T> T sendGenericMessage (@Nonnull @Nonempty final String sURL,
+                                   @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                   @Nonnull final HttpEntity aHttpEntity,
+                                   @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
+
+    if (!isUsingHttpAsyncClient ())
+    {
+      // Honour the settings of the custom HttpClientFactory
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("A custom HttpClientFactory is set - using the classic HTTP client");
+      return super.sendGenericMessage (sURL, aCustomHttpHeaders, aHttpEntity, aResponseHandler);
+    }
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Starting to transmit AS4 Message to '" + sURL + "' using the HTTP/2 capable client");
+
+    IOException aCaughtException = null;
+    try
+    {
+      final HttpPost aPost = createHttpPost (sURL, aCustomHttpHeaders, aHttpEntity);
+      final BasicHttpRequest aRequest = new BasicHttpRequest (aPost.getMethod (), URI.create (sURL));
+      for (final Header aHeader : aPost.getHeaders ())
+        aRequest.addHeader (aHeader);
+
+      final ExecutorService aExecutor = _getSharedStreamExecutor ();
+      final Future <T> aFuture = getHttpAsyncClient ().execute (new BasicRequestProducer (aRequest,
+                                                                                          new ClassicEntityProducer (createMetricsCountingHttpEntity (aHttpEntity),
+                                                                                                                     aExecutor)),
+                                                                new ClassicResponseConsumer <T> (aResponseHandler, aExecutor),
+                                                                null);
+      try
+      {
+        return aFuture.get (AS4Configuration.getHttp2ResponseTimeoutSeconds (), TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ex)
+      {
+        aFuture.cancel (true);
+        Thread.currentThread ().interrupt ();
+        final InterruptedIOException ex2 = new InterruptedIOException ("Interrupted while waiting for the response from '" +
+                                                                       sURL +
+                                                                       "'");
+        ex2.initCause (ex);
+        throw ex2;
+      }
+      catch (final TimeoutException ex)
+      {
+        aFuture.cancel (true);
+        throw new IOException ("Timeout waiting for the response from '" + sURL + "'", ex);
+      }
+      catch (final ExecutionException ex)
+      {
+        final Throwable aCause = ex.getCause ();
+        if (aCause instanceof IOException)
+          throw (IOException) aCause;
+        if (aCause instanceof RuntimeException)
+          throw (RuntimeException) aCause;
+        throw new IOException ("Error sending to '" + sURL + "'", aCause);
+      }
+    }
+    catch (final IOException ex)
+    {
+      aCaughtException = ex;
+      throw ex;
+    }
+    finally
+    {
+      aSW.stop ();
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ((aCaughtException != null ? "Failed" : "Finished") +
+                     " transmitting AS4 Message to '" +
+                     sURL +
+                     "' after " +
+                     aSW.getMillis () +
+                     " ms");
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * An object encapsulating the connection pool settings of a
+ * {@link PooledHttpClientFactory}.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@NotThreadSafe
+public class HttpClientPoolSettings
+{
+  public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = AS4Configuration.DEFAULT_PHASE4_HTTP_POOLING_MAX_TOTAL;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = AS4Configuration.DEFAULT_PHASE4_HTTP_POOLING_MAX_PER_ROUTE;
+  public static final Duration DEFAULT_MAX_KEEP_ALIVE = Duration.ofSeconds (AS4Configuration.DEFAULT_PHASE4_HTTP_POOLING_KEEPALIVE_SECONDS);
+  public static final Duration DEFAULT_IDLE_EVICTION = Duration.ofSeconds (AS4Configuration.DEFAULT_PHASE4_HTTP_POOLING_IDLE_EVICTION_SECONDS);
+
+  private int m_nMaxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+  private int m_nMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+  private Duration m_aMaxKeepAlive = DEFAULT_MAX_KEEP_ALIVE;
+  private Duration m_aIdleEviction = DEFAULT_IDLE_EVICTION;
+
+  public HttpClientPoolSettings ()
+  {}
+
+  /**
+   * @return The maximum number of connections in the pool in total. Always
+   *         &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConnectionsTotal ()
+  {
+    return m_nMaxConnectionsTotal;
+  }
+
+  /**
+   * Set the maximum number of connections in the pool in total.
+   *
+   * @param nMaxConnectionsTotal
+   *        New maximum. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpClientPoolSettings setMaxConnectionsTotal (@Nonnegative final int nMaxConnectionsTotal)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsTotal, "MaxConnectionsTotal");
+    m_nMaxConnectionsTotal = nMaxConnectionsTotal;
+    return this;
+  }
+
+  /**
+   * @return The maximum number of connections in the pool per route (target
+   *         host). Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConnectionsPerRoute ()
+  {
+    return m_nMaxConnectionsPerRoute;
+  }
+
+  /**
+   * Set the maximum number of connections in the pool per route (target host).
+   *
+   * @param nMaxConnectionsPerRoute
+   *        New maximum. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpClientPoolSettings setMaxConnectionsPerRoute (@Nonnegative final int nMaxConnectionsPerRoute)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsPerRoute, "MaxConnectionsPerRoute");
+    m_nMaxConnectionsPerRoute = nMaxConnectionsPerRoute;
+    return this;
+  }
+
+  /**
+   * @return The maximum duration a connection is kept alive. If the server
+   *         sends a shorter "Keep-Alive" header, the shorter value is used.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getMaxKeepAlive ()
+  {
+    return m_aMaxKeepAlive;
+  }
+
+  /**
+   * Set the maximum duration a connection is kept alive.
+   *
+   * @param aMaxKeepAlive
+   *        The duration to use. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpClientPoolSettings setMaxKeepAlive (@Nonnull final Duration aMaxKeepAlive)
+  {
+    ValueEnforcer.notNull (aMaxKeepAlive, "MaxKeepAlive");
+    m_aMaxKeepAlive = aMaxKeepAlive;
+    return this;
+  }
+
+  /**
+   * @return The duration after which idle connections are evicted from the
+   *         pool. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getIdleEviction ()
+  {
+    return m_aIdleEviction;
+  }
+
+  /**
+   * Set the duration after which idle connections are evicted from the pool.
+   *
+   * @param aIdleEviction
+   *        The duration to use. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpClientPoolSettings setIdleEviction (@Nonnull final Duration aIdleEviction)
+  {
+    ValueEnforcer.notNull (aIdleEviction, "IdleEviction");
+    m_aIdleEviction = aIdleEviction;
+    return this;
+  }
+
+  public final void assignFrom (@Nonnull final HttpClientPoolSettings aOther)
+  {
+    ValueEnforcer.notNull (aOther, "Other");
+    setMaxConnectionsTotal (aOther.getMaxConnectionsTotal ());
+    setMaxConnectionsPerRoute (aOther.getMaxConnectionsPerRoute ());
+    setMaxKeepAlive (aOther.getMaxKeepAlive ());
+    setIdleEviction (aOther.getIdleEviction ());
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final HttpClientPoolSettings rhs = (HttpClientPoolSettings) o;
+    return m_nMaxConnectionsTotal == rhs.m_nMaxConnectionsTotal &&
+           m_nMaxConnectionsPerRoute == rhs.m_nMaxConnectionsPerRoute &&
+           m_aMaxKeepAlive.equals (rhs.m_aMaxKeepAlive) &&
+           m_aIdleEviction.equals (rhs.m_aIdleEviction);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_nMaxConnectionsTotal)
+                                       .append (m_nMaxConnectionsPerRoute)
+                                       .append (m_aMaxKeepAlive)
+                                       .append (m_aIdleEviction)
+                                       .getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxConnectionsTotal", m_nMaxConnectionsTotal)
+                                       .append ("MaxConnectionsPerRoute", m_nMaxConnectionsPerRoute)
+                                       .append ("MaxKeepAlive", m_aMaxKeepAlive)
+                                       .append ("IdleEviction", m_aIdleEviction)
+                                       .getToString ();
+  }
+
+  /**
+   * @return A new pool settings object, with all values taken from the global
+   *         {@link AS4Configuration}. Never <code>null</code>.
+   */
+  @Nonnull
+  public static HttpClientPoolSettings createFromConfiguration ()
+  {
+    return new HttpClientPoolSettings ().setMaxConnectionsTotal (AS4Configuration.getHttpPoolingMaxTotal ())
+                                        .setMaxConnectionsPerRoute (AS4Configuration.getHttpPoolingMaxPerRoute ())
+                                        .setMaxKeepAlive (Duration.ofSeconds (AS4Configuration.getHttpPoolingKeepAliveSeconds ()))
+                                        .setIdleEviction (Duration.ofSeconds (AS4Configuration.getHttpPoolingIdleEvictionSeconds ()));
+  }
+}
@@ -25,6 +25,8 @@ import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
 import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
@@ -39,7 +41,11 @@ import com.helger.phase4.messaging.mime.AS4MimeMessage;
  */
 public class HttpMimeMessageEntity extends AbstractHttpEntity
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (HttpMimeMessageEntity.class);
+  private static final long LENGTH_NOT_DETERMINED = Long.MIN_VALUE;
+
   private final AS4MimeMessage m_aMsg;
+  private long m_nContentLength = LENGTH_NOT_DETERMINED;
 
   protected HttpMimeMessageEntity (@Nonnull @Nonempty final String sContentType, @Nonnull final AS4MimeMessage aMsg)
   {
@@ -69,10 +75,33 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
     return m_aMsg.isRepeatable ();
   }
 
+  /**
+   * Get the exact length of the MIME message. The length is determined upon
+   * the first call (after all MIME headers were moved to the HTTP headers) and
+   * cached afterwards. If the length can be determined, the message is sent
+   * with a <code>Content-Length</code> header instead of chunked.
+   *
+   * @return The content length or -1 if it is unknown.
+   * @see AS4MimeMessage#getSerializedLength()
+   */
   public long getContentLength ()
   {
-    // length unknown - negative number
-    return -1;
+    long ret = m_nContentLength;
+    if (ret == LENGTH_NOT_DETERMINED)
+    {
+      try
+      {
+        ret = m_aMsg.getSerializedLength ();
+      }
+      catch (final IOException | MessagingException ex)
+      {
+        LOGGER.warn ("Failed to determine the length of the MIME message - sending it chunked", ex);
+        // length unknown - negative number
+        ret = -1;
+      }
+      m_nContentLength = ret;
+    }
+    return ret;
   }
 
   public boolean isStreaming ()
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.Closeable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
+import org.apache.hc.core5.http.config.Registry;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.HttpClientSettings;
+
+/**
+ * A special {@link HttpClientFactory} that keeps a single, long-lived
+ * {@link HttpClientManager} with a pooled connection manager. Compared to the
+ * default mode, where a new HTTP client is created for every message, this
+ * avoids new TCP and TLS handshakes for every message sent to the same
+ * endpoint. TLS sessions are reused, because the same SSL context is used for
+ * all connections.<br>
+ * The {@link BasicHttpPoster} automatically uses the shared client, if an
+ * instance of this class is set as its HTTP client factory. An instance should
+ * be shared between many senders and must be closed explicitly if it is no
+ * longer needed.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class PooledHttpClientFactory extends HttpClientFactory implements Closeable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (PooledHttpClientFactory.class);
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private final HttpClientPoolSettings m_aPoolSettings;
+  private PoolingHttpClientConnectionManager m_aConnectionManager;
+  private HttpClientManager m_aSharedClientMgr;
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor with default HTTP client settings and pool settings from the
+   * configuration.
+   */
+  public PooledHttpClientFactory ()
+  {
+    this (new HttpClientSettings (), HttpClientPoolSettings.createFromConfiguration ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSettings
+   *        The HTTP client settings to use. May not be <code>null</code>.
+   * @param aPoolSettings
+   *        The connection pool settings to use. May not be <code>null</code>.
+   *        The object is copied internally.
+   */
+  public PooledHttpClientFactory (@Nonnull final HttpClientSettings aSettings,
+                                  @Nonnull final HttpClientPoolSettings aPoolSettings)
+  {
+    super (aSettings);
+    ValueEnforcer.notNull (aPoolSettings, "PoolSettings");
+    m_aPoolSettings = new HttpClientPoolSettings ();
+    m_aPoolSettings.assignFrom (aPoolSettings);
+  }
+
+  /**
+   * @return A copy of the pool settings used. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final HttpClientPoolSettings getPoolSettings ()
+  {
+    final HttpClientPoolSettings ret = new HttpClientPoolSettings ();
+    ret.assignFrom (m_aPoolSettings);
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  public HttpClientConnectionManager createConnectionManager (@Nonnull final Registry <ConnectionSocketFactory> aSFR)
+  {
+    final HttpClientConnectionManager ret = super.createConnectionManager (aSFR);
+    if (ret instanceof PoolingHttpClientConnectionManager)
+    {
+      final PoolingHttpClientConnectionManager aPoolingMgr = (PoolingHttpClientConnectionManager) ret;
+      aPoolingMgr.setMaxTotal (m_aPoolSettings.getMaxConnectionsTotal ());
+      aPoolingMgr.setDefaultMaxPerRoute (m_aPoolSettings.getMaxConnectionsPerRoute ());
+      // Remember for statistics
+      m_aRWLock.writeLocked ( () -> m_aConnectionManager = aPoolingMgr);
+    }
+    else
+      LOGGER.warn ("The created HTTP connection manager is not a pooling connection manager: " + ret);
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  public HttpClientBuilder createHttpClientBuilder ()
+  {
+    final long nMaxKeepAliveMillis = m_aPoolSettings.getMaxKeepAlive ().toMillis ();
+    return super.createHttpClientBuilder ()
+                .evictExpiredConnections ()
+                .evictIdleConnections (TimeValue.ofMilliseconds (m_aPoolSettings.getIdleEviction ().toMillis ()))
+                .setKeepAliveStrategy ( (aResponse, aContext) -> {
+                  // Use the value provided by the server, if it is shorter
+                  final TimeValue aServerKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration (aResponse,
+                                                                                                                       aContext);
+                  if (TimeValue.isPositive (aServerKeepAlive) && aServerKeepAlive.toMilliseconds () < nMaxKeepAliveMillis)
+                    return aServerKeepAlive;
+                  return TimeValue.ofMilliseconds (nMaxKeepAliveMillis);
+                });
+  }
+
+  /**
+   * Get the shared HTTP client manager, creating it on first access. The
+   * returned object must NOT be closed by the caller.
+   *
+   * @return The shared HTTP client manager. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If this factory was already closed
+   */
+  @Nonnull
+  public HttpClientManager getSharedHttpClientManager ()
+  {
+    HttpClientManager ret = m_aRWLock.readLockedGet ( () -> m_aSharedClientMgr);
+    if (ret == null)
+    {
+      ret = m_aRWLock.writeLockedGet ( () -> {
+        HttpClientManager aClientMgr = m_aSharedClientMgr;
+        if (aClientMgr == null)
+        {
+          // Try again in write lock
+          if (m_bClosed)
+            throw new IllegalStateException ("The pooled HTTP client factory was already closed");
+          aClientMgr = new HttpClientManager (this);
+          m_aSharedClientMgr = aClientMgr;
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Created new shared pooled HTTP client with " + m_aPoolSettings);
+        }
+        return aClientMgr;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * @return The total statistics of the connection pool or <code>null</code>
+   *         if no client was created so far.
+   */
+  @Nullable
+  public PoolStats getTotalPoolStats ()
+  {
+    final PoolingHttpClientConnectionManager aConnMgr = m_aRWLock.readLockedGet ( () -> m_aConnectionManager);
+    return aConnMgr == null ? null : aConnMgr.getTotalStats ();
+  }
+
+  /**
+   * @return The connection pool statistics per route. Never <code>null</code>
+   *         but maybe empty if no client was created so far.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsMap <HttpRoute, PoolStats> getAllRoutePoolStats ()
+  {
+    final ICommonsMap <HttpRoute, PoolStats> ret = new CommonsHashMap <> ();
+    final PoolingHttpClientConnectionManager aConnMgr = m_aRWLock.readLockedGet ( () -> m_aConnectionManager);
+    if (aConnMgr != null)
+      for (final HttpRoute aRoute : aConnMgr.getRoutes ())
+        ret.put (aRoute, aConnMgr.getStats (aRoute));
+    return ret;
+  }
+
+  /**
+   * @return <code>true</code> if {@link #close()} was called on this factory,
+   *         <code>false</code> otherwise.
+   */
+  public boolean isClosed ()
+  {
+    return m_aRWLock.readLockedBoolean ( () -> m_bClosed);
+  }
+
+  /**
+   * Close the shared HTTP client and all pooled connections. This factory
+   * cannot be used afterwards: subsequent calls to
+   * {@link #getSharedHttpClientManager()} throw an exception instead of
+   * silently creating a new pool that nobody closes.
+   */
+  public void close ()
+  {
+    final HttpClientManager aClientMgr = m_aRWLock.writeLockedGet ( () -> {
+      final HttpClientManager ret = m_aSharedClientMgr;
+      m_aSharedClientMgr = null;
+      m_aConnectionManager = null;
+      m_bClosed = true;
+      return ret;
+    });
+    if (aClientMgr != null)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Closing shared pooled HTTP client");
+      StreamHelper.close (aClientMgr);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("PoolSettings", m_aPoolSettings)
+                            .append ("Closed", m_bClosed)
+                            .getToString ();
+  }
+}
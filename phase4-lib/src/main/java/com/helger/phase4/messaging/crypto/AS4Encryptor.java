@@ -219,10 +219,20 @@ public final class AS4Encryptor
             .add (new WSEncryptionPart (MessageHelperMethods.PREFIX_CID + "Attachments",
                                         AS4Signer.ENCRYPTION_MODE_CONTENT));
 
+    // Generate a session key
+    final KeyGenerator aKeyGen = KeyUtils.getKeyGenerator (WSS4JConstants.AES_128);
+    final SecretKey aSymmetricKey = aKeyGen.generateKey ();
+
     WSS4JAttachmentCallbackHandler aAttachmentCallbackHandler = null;
     if (CollectionHelper.isNotEmpty (aAttachments))
     {
-      aAttachmentCallbackHandler = new WSS4JAttachmentCallbackHandler (aAttachments, aResHelper);
+      // Pass the key, so that the encrypted attachments can be re-created for
+      // retries and their length is known in advance
+      aAttachmentCallbackHandler = new WSS4JAttachmentCallbackHandler (aAttachments,
+                                                                       aResHelper,
+                                                                       aCryptParams.getAlgorithmCrypt ()
+                                                                                   .getAlgorithmURI (),
+                                                                       aSymmetricKey);
       aBuilder.setAttachmentCallbackHandler (aAttachmentCallbackHandler);
     }
 
@@ -232,10 +242,6 @@ public final class AS4Encryptor
     if (aMustUnderstand != null)
       aMustUnderstand.setValue (eSoapVersion.getMustUnderstandValue (bMustUnderstand));
 
-    // Generate a session key
-    final KeyGenerator aKeyGen = KeyUtils.getKeyGenerator (WSS4JConstants.AES_128);
-    final SecretKey aSymmetricKey = aKeyGen.generateKey ();
-
     // Main sign and/or encrypt
     final Document aEncryptedDoc = aBuilder.build (aCryptoFactory.getCrypto (), aSymmetricKey);
 
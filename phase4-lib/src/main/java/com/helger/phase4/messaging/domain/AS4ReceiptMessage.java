@@ -18,9 +18,12 @@ package com.helger.phase4.messaging.domain;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
@@ -28,17 +31,16 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.ebms3header.Ebms3MessageInfo;
 import com.helger.phase4.ebms3header.Ebms3Receipt;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
-import com.helger.phase4.ebms3header.MessagePartNRInformation;
-import com.helger.phase4.ebms3header.NonRepudiationInformation;
-import com.helger.phase4.marshaller.Ebms3WriterBuilder;
 import com.helger.phase4.marshaller.XMLDSigReaderBuilder;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.xml.ChildElementIterator;
+import com.helger.xml.XMLFactory;
 import com.helger.xml.XMLHelper;
 import com.helger.xml.serialize.write.XMLWriter;
 import com.helger.xsds.xmldsig.ReferenceType;
@@ -97,21 +99,37 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
       aNext = XMLHelper.getFirstChildElementOfName (aNext, "Header");
       if (aNext != null)
       {
-        aNext = XMLHelper.getFirstChildElementOfName (aNext, CAS4.WSSE_NS, "Security");
-        if (aNext != null)
-        {
-          aNext = XMLHelper.getFirstChildElementOfName (aNext, CAS4.DS_NS, "Signature");
-          if (aNext != null)
-          {
-            aNext = XMLHelper.getFirstChildElementOfName (aNext, CAS4.DS_NS, "SignedInfo");
-            if (aNext != null)
-            {
-              new ChildElementIterator (aNext).findAll (XMLHelper.filterElementWithNamespaceAndLocalName (CAS4.DS_NS,
-                                                                                                          "Reference"),
-                                                        aDSRefs::add);
-            }
-          }
-        }
+        final Element aSecurity = XMLHelper.getFirstChildElementOfName (aNext, CAS4.WSSE_NS, "Security");
+        aDSRefs.addAll (getAllDSigReferenceElements (aSecurity));
+      }
+    }
+    return aDSRefs;
+  }
+
+  /**
+   * Extract all "ds:Reference" elements from the passed WS-Security header.
+   * This method searches in "{securityHeader}/Signature/SignedInfo".
+   *
+   * @param aSecurityHeader
+   *        The "wsse:Security" element to search in. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list of Reference
+   *         elements.
+   * @since 1.4.1
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <Element> getAllDSigReferenceElements (@Nullable final Element aSecurityHeader)
+  {
+    final ICommonsList <Element> aDSRefs = new CommonsArrayList <> ();
+    Element aNext = XMLHelper.getFirstChildElementOfName (aSecurityHeader, CAS4.DS_NS, "Signature");
+    if (aNext != null)
+    {
+      aNext = XMLHelper.getFirstChildElementOfName (aNext, CAS4.DS_NS, "SignedInfo");
+      if (aNext != null)
+      {
+        new ChildElementIterator (aNext).findAll (XMLHelper.filterElementWithNamespaceAndLocalName (CAS4.DS_NS,
+                                                                                                    "Reference"),
+                                                  aDSRefs::add);
       }
     }
     return aDSRefs;
@@ -154,6 +172,40 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
     return ret;
   }
 
+  /**
+   * Create the "ebbp:NonRepudiationInformation" element from the passed
+   * "ds:Reference" nodes. The nodes are copied as they are, so no JAXB
+   * round-trip is needed.
+   *
+   * @param aDSigReferences
+   *        The "ds:Reference" nodes to include. May not be <code>null</code>.
+   * @return The created element. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static Element createNonRepudiationInformation (@Nonnull final Iterable <? extends Node> aDSigReferences)
+  {
+    ValueEnforcer.notNull (aDSigReferences, "DSigReferences");
+
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eNRI = (Element) aDoc.appendChild (aDoc.createElementNS (CAS4.EBBP_NS,
+                                                                          "ebbp:NonRepudiationInformation"));
+    eNRI.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:ebbp", CAS4.EBBP_NS);
+    for (final Node aRef : aDSigReferences)
+    {
+      final Element eMessagePart = (Element) eNRI.appendChild (aDoc.createElementNS (CAS4.EBBP_NS,
+                                                                                    "ebbp:MessagePartNRInformation"));
+      final Element eRef = (Element) eMessagePart.appendChild (aDoc.importNode (aRef, true));
+      // The namespace declaration is usually on the ds:Signature element
+      final String sPrefix = eRef.getPrefix ();
+      if (StringHelper.hasText (sPrefix) && !eRef.hasAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, sPrefix))
+        eRef.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                             XMLConstants.XMLNS_ATTRIBUTE + ":" + sPrefix,
+                             eRef.getNamespaceURI ());
+    }
+    return eNRI;
+  }
+
   /**
    * This method creates a receipt message.
    *
@@ -169,6 +221,8 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
    * @param bShouldUseNonRepudiation
    *        If NonRepudiation should be used or not
    * @return AS4ReceiptMessage
+   * @see #createWithDSigReferences(ESoapVersion, String, Ebms3UserMessage,
+   *      Iterable, boolean)
    */
   @Nonnull
   public static AS4ReceiptMessage create (@Nonnull final ESoapVersion eSoapVersion,
@@ -178,7 +232,40 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
                                           @Nonnull final boolean bShouldUseNonRepudiation)
   {
     // Only for signed messages
-    final ICommonsList <ReferenceType> aDSRefs = getAllDSigReferences (aSoapDocument);
+    return createWithDSigReferences (eSoapVersion,
+                                     sMessageID,
+                                     aEbms3UserMessage,
+                                     getAllDSigReferenceNodes (aSoapDocument),
+                                     bShouldUseNonRepudiation);
+  }
+
+  /**
+   * This method creates a receipt message from already extracted "ds:Reference"
+   * nodes, e.g. the ones captured during the signature verification.
+   *
+   * @param eSoapVersion
+   *        SOAP Version which should be used
+   * @param sMessageID
+   *        Message ID to use. May neither be <code>null</code> nor empty.
+   * @param aEbms3UserMessage
+   *        The received usermessage which should be responded too
+   * @param aDSigReferences
+   *        The "ds:Reference" nodes of the received message signature. If
+   *        present and the following parameter is true NonRepudiation will be
+   *        used. May be <code>null</code>.
+   * @param bShouldUseNonRepudiation
+   *        If NonRepudiation should be used or not
+   * @return AS4ReceiptMessage
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static AS4ReceiptMessage createWithDSigReferences (@Nonnull final ESoapVersion eSoapVersion,
+                                                            @Nonnull @Nonempty final String sMessageID,
+                                                            @Nullable final Ebms3UserMessage aEbms3UserMessage,
+                                                            @Nullable final Iterable <? extends Node> aDSigReferences,
+                                                            final boolean bShouldUseNonRepudiation)
+  {
+    final boolean bHasDSigRefs = aDSigReferences != null && aDSigReferences.iterator ().hasNext ();
 
     final Ebms3SignalMessage aSignalMessage = new Ebms3SignalMessage ();
 
@@ -193,24 +280,13 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
     }
 
     final Ebms3Receipt aEbms3Receipt = new Ebms3Receipt ();
-    if (aDSRefs.isNotEmpty () && bShouldUseNonRepudiation)
+    if (bHasDSigRefs && bShouldUseNonRepudiation)
     {
-      final NonRepudiationInformation aNonRepudiationInformation = new NonRepudiationInformation ();
-      for (final ReferenceType aRef : aDSRefs)
-      {
-        // Add to NR response
-        final MessagePartNRInformation aMessagePartNRInformation = new MessagePartNRInformation ();
-        aMessagePartNRInformation.setReference (aRef);
-        aNonRepudiationInformation.addMessagePartNRInformation (aMessagePartNRInformation);
-      }
-
-      aEbms3Receipt.addAny (Ebms3WriterBuilder.nonRepudiationInformation ()
-                                              .getAsDocument (aNonRepudiationInformation)
-                                              .getDocumentElement ());
+      aEbms3Receipt.addAny (createNonRepudiationInformation (aDSigReferences));
     }
     else
     {
-      if (aDSRefs.isEmpty ())
+      if (!bHasDSigRefs)
         LOGGER.info ("Found no ds:Reference elements in the source message, hence returning the source UserMessage in the Receipt");
       else
         LOGGER.info ("Non-repudiation is disabled, hence returning the source UserMessage in the Receipt");
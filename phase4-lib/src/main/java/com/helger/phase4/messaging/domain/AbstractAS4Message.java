@@ -18,25 +18,28 @@ package com.helger.phase4.messaging.domain;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
+import javax.xml.transform.dom.DOMResult;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.commons.traits.IGenericImplTrait;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
 import com.helger.phase4.marshaller.Ebms3WriterBuilder;
 import com.helger.phase4.soap.ESoapVersion;
-import com.helger.phase4.soap11.Soap11Body;
-import com.helger.phase4.soap11.Soap11Envelope;
-import com.helger.phase4.soap11.Soap11Header;
-import com.helger.phase4.soap12.Soap12Body;
-import com.helger.phase4.soap12.Soap12Envelope;
-import com.helger.phase4.soap12.Soap12Header;
+import com.helger.xml.ChildElementIterator;
+import com.helger.xml.XMLFactory;
 
 /**
  * Abstract AS4 message implementation
@@ -100,43 +103,103 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
     return thisAsT ();
   }
 
+  private static void _ensureNamespaceDeclared (@Nonnull final Element aElement,
+                                                @Nullable final String sPrefix,
+                                                @Nullable final String sNamespaceURI)
+  {
+    if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals (sNamespaceURI))
+      return;
+
+    // The "xml" prefix is implicitly bound
+    final String sLocalName = StringHelper.hasText (sPrefix) ? sPrefix : XMLConstants.XMLNS_ATTRIBUTE;
+    if (XMLConstants.XML_NS_PREFIX.equals (sLocalName))
+      return;
+
+    // An empty namespace URI only needs an undeclaration of the default
+    // namespace (for unprefixed elements)
+    final String sRealNamespaceURI = StringHelper.getNotNull (sNamespaceURI);
+    if (sRealNamespaceURI.isEmpty () && StringHelper.hasText (sPrefix))
+      return;
+
+    // Search the declaration in the current element and all ancestors
+    Node aCur = aElement;
+    while (aCur instanceof Element)
+    {
+      final Element eCur = (Element) aCur;
+      if (eCur.hasAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, sLocalName))
+      {
+        if (sRealNamespaceURI.equals (eCur.getAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, sLocalName)))
+          return;
+        // Bound to a different namespace URI - redeclare
+        break;
+      }
+      aCur = aCur.getParentNode ();
+    }
+
+    // No default namespace in scope
+    if (sRealNamespaceURI.isEmpty () && !(aCur instanceof Element))
+      return;
+
+    aElement.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                             StringHelper.hasText (sPrefix) ? XMLConstants.XMLNS_ATTRIBUTE + ":" + sPrefix
+                                                            : XMLConstants.XMLNS_ATTRIBUTE,
+                             sRealNamespaceURI);
+  }
+
+  /**
+   * Add all namespace declarations that are required but not explicitly
+   * present in the DOM. This is what the JAXB marshaller did implicitly with
+   * the payload, and it is required so that the canonicalization on signing
+   * creates the same output as the receiver does on the serialized message.
+   */
+  private static void _fixupNamespaceDeclarations (@Nonnull final Element aElement)
+  {
+    _ensureNamespaceDeclared (aElement, aElement.getPrefix (), aElement.getNamespaceURI ());
+
+    // Copy the attributes, as the map is live and declarations may be added
+    final NamedNodeMap aAttrMap = aElement.getAttributes ();
+    final ICommonsList <Node> aAttrs = new CommonsArrayList <> (aAttrMap.getLength ());
+    for (int i = 0; i < aAttrMap.getLength (); ++i)
+      aAttrs.add (aAttrMap.item (i));
+    for (final Node aAttr : aAttrs)
+      if (aAttr.getNamespaceURI () != null)
+        _ensureNamespaceDeclared (aElement, aAttr.getPrefix (), aAttr.getNamespaceURI ());
+
+    for (final Element aChild : new ChildElementIterator (aElement))
+      _fixupNamespaceDeclarations (aChild);
+  }
+
   @Nonnull
   public final Document getAsSoapDocument (@Nullable final Node aPayload)
   {
-    // Convert to DOM Node
-    final Document aEbms3Document = Ebms3WriterBuilder.ebms3Messaging ().getAsDocument (m_aMessaging);
-    if (aEbms3Document == null)
+    // Build the SOAP envelope directly as DOM (single pass) instead of
+    // marshalling the EBMS3 header to a separate document and the JAXB SOAP
+    // envelope afterwards
+    final String sSoapNS = m_eSoapVersion.getNamespaceURI ();
+    final String sSoapPrefix = m_eSoapVersion.getNamespacePrefix ();
+
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eEnvelope = (Element) aDoc.appendChild (aDoc.createElementNS (sSoapNS, sSoapPrefix + ":Envelope"));
+    eEnvelope.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                              XMLConstants.XMLNS_ATTRIBUTE + ":" + sSoapPrefix,
+                              sSoapNS);
+    final String sHeaderName = sSoapPrefix + ":" + m_eSoapVersion.getHeaderElementName ();
+    final Element eHeader = (Element) eEnvelope.appendChild (aDoc.createElementNS (sSoapNS, sHeaderName));
+    final String sBodyName = sSoapPrefix + ":" + m_eSoapVersion.getBodyElementName ();
+    final Element eBody = (Element) eEnvelope.appendChild (aDoc.createElementNS (sSoapNS, sBodyName));
+
+    // Marshal the EBMS3 header directly into the SOAP header
+    if (Ebms3WriterBuilder.ebms3Messaging ().write (m_aMessaging, new DOMResult (eHeader)).isFailure ())
       throw new IllegalStateException ("Failed to write EBMS3 Messaging to XML");
 
     final Node aRealPayload = aPayload instanceof Document ? ((Document) aPayload).getDocumentElement () : aPayload;
-
-    switch (m_eSoapVersion)
+    if (aRealPayload != null)
     {
-      case SOAP_11:
-      {
-        // Creating SOAP 11 Envelope
-        final Soap11Envelope aSoapEnv = new Soap11Envelope ();
-        aSoapEnv.setHeader (new Soap11Header ());
-        aSoapEnv.setBody (new Soap11Body ());
-        aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
-        if (aRealPayload != null)
-          aSoapEnv.getBody ().addAny (aRealPayload);
-        return Ebms3WriterBuilder.soap11 ().getAsDocument (aSoapEnv);
-      }
-      case SOAP_12:
-      {
-        // Creating SOAP 12 Envelope
-        final Soap12Envelope aSoapEnv = new Soap12Envelope ();
-        aSoapEnv.setHeader (new Soap12Header ());
-        aSoapEnv.setBody (new Soap12Body ());
-        aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
-        if (aRealPayload != null)
-          aSoapEnv.getBody ().addAny (aRealPayload);
-        return Ebms3WriterBuilder.soap12 ().getAsDocument (aSoapEnv);
-      }
-      default:
-        throw new IllegalStateException ("Unsupported SOAP version " + m_eSoapVersion);
+      final Node aImported = eBody.appendChild (aDoc.importNode (aRealPayload, true));
+      if (aImported instanceof Element)
+        _fixupNamespaceDeclarations ((Element) aImported);
     }
+    return aDoc;
   }
 
   @Override
@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.messaging.mime;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 import javax.annotation.Nonnull;
@@ -35,17 +36,39 @@ import com.helger.commons.string.ToStringGenerator;
 public class AS4MimeMessage extends MimeMessage
 {
   private final boolean m_bIsRepeatable;
+  private final boolean m_bIsLengthComputable;
 
   public AS4MimeMessage (@Nullable final Session aSession, final boolean bIsRepeatable)
+  {
+    this (aSession, bIsRepeatable, bIsRepeatable);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSession
+   *        The mail session to use. May be <code>null</code>.
+   * @param bIsRepeatable
+   *        <code>true</code> if the message can be written more than once.
+   * @param bIsLengthComputable
+   *        <code>true</code> if the serialized length can be determined without
+   *        consuming any content that can only be read once.
+   * @since 1.4.1
+   */
+  public AS4MimeMessage (@Nullable final Session aSession,
+                         final boolean bIsRepeatable,
+                         final boolean bIsLengthComputable)
   {
     super (aSession);
     m_bIsRepeatable = bIsRepeatable;
+    m_bIsLengthComputable = bIsLengthComputable;
   }
 
   public AS4MimeMessage (@Nullable final Session aSession, @Nonnull final InputStream aIS) throws MessagingException
   {
     super (aSession, aIS);
     m_bIsRepeatable = false;
+    m_bIsLengthComputable = false;
   }
 
   public final boolean isRepeatable ()
@@ -53,9 +76,48 @@ public class AS4MimeMessage extends MimeMessage
     return m_bIsRepeatable;
   }
 
+  /**
+   * @return <code>true</code> if the serialized length of this message can be
+   *         determined in advance via {@link #getSerializedLength()}.
+   * @since 1.4.1
+   */
+  public final boolean isLengthComputable ()
+  {
+    return m_bIsLengthComputable;
+  }
+
+  /**
+   * Determine the exact number of bytes {@link #writeTo(java.io.OutputStream)}
+   * will create. Parts with a known length (see
+   * {@link com.helger.phase4.attachment.KnownLengthDataHandler}) are not read;
+   * all other parts are serialized once without keeping the result.<br>
+   * Note: the message must not be modified afterwards, as this would change
+   * the length.
+   *
+   * @return The serialized length in bytes or -1 if the length cannot be
+   *         determined.
+   * @throws IOException
+   *         On IO error
+   * @throws MessagingException
+   *         On MIME error
+   * @since 1.4.1
+   */
+  public long getSerializedLength () throws IOException, MessagingException
+  {
+    if (!m_bIsLengthComputable)
+      return -1;
+
+    final MimeLengthCountingOutputStream aCounter = new MimeLengthCountingOutputStream ();
+    writeTo (aCounter);
+    return aCounter.getLength ();
+  }
+
   @Override
   public String toString ()
   {
-    return ToStringGenerator.getDerived (super.toString ()).append ("IsRepeatable", m_bIsRepeatable).getToString ();
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("IsRepeatable", m_bIsRepeatable)
+                            .append ("IsLengthComputable", m_bIsLengthComputable)
+                            .getToString ();
   }
 }
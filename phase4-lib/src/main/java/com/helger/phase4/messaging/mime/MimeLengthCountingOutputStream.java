@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.mime;
+
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A special {@link OutputStream} that discards all data and only counts the
+ * number of bytes. It is used to determine the serialized length of a MIME
+ * message. Parts that know their length in advance (like
+ * {@link com.helger.phase4.attachment.KnownLengthDataHandler}) can call
+ * {@link #skip(long)} instead of writing their content.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@NotThreadSafe
+public class MimeLengthCountingOutputStream extends OutputStream
+{
+  private long m_nLength = 0;
+
+  public MimeLengthCountingOutputStream ()
+  {}
+
+  @Override
+  public void write (final int b)
+  {
+    m_nLength++;
+  }
+
+  @Override
+  public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen)
+  {
+    m_nLength += nLen;
+  }
+
+  /**
+   * Count the provided number of bytes without writing them.
+   *
+   * @param nBytes
+   *        The number of bytes to be counted. Must be &ge; 0.
+   */
+  public void skip (@Nonnegative final long nBytes)
+  {
+    ValueEnforcer.isGE0 (nBytes, "Bytes");
+    m_nLength += nBytes;
+  }
+
+  /**
+   * @return The number of bytes counted so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getLength ()
+  {
+    return m_nLength;
+  }
+}
@@ -109,16 +109,22 @@ public final class MimeMessageCreator
     }
 
     boolean bIsRepeatable = true;
+    boolean bIsLengthComputable = true;
     if (aEncryptedAttachments != null)
       for (final WSS4JAttachment aEncryptedAttachment : aEncryptedAttachments)
       {
         aEncryptedAttachment.addToMimeMultipart (aMimeMultipart);
         if (!aEncryptedAttachment.isRepeatable ())
+        {
           bIsRepeatable = false;
+          // The length can still be determined without reading the content
+          if (!aEncryptedAttachment.isTransferLengthKnown ())
+            bIsLengthComputable = false;
+        }
       }
 
     // Build main message
-    final AS4MimeMessage aMsg = new AS4MimeMessage ((Session) null, bIsRepeatable);
+    final AS4MimeMessage aMsg = new AS4MimeMessage ((Session) null, bIsRepeatable, bIsLengthComputable);
     aMsg.setContent (aMimeMultipart);
     aMsg.saveChanges ();
     return aMsg;
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillCloseWhenClosed;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.stream.CountingInputStream;
+
+/**
+ * A {@link CountingInputStream} that adds the number of read bytes to a
+ * counter of the {@link AS4MetricsManager} when it is closed.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public class AS4MetricsCountingInputStream extends CountingInputStream
+{
+  private final String m_sCounterName;
+  private boolean m_bReported = false;
+
+  public AS4MetricsCountingInputStream (@Nonnull @WillCloseWhenClosed final InputStream aSourceIS,
+                                        @Nonnull @Nonempty final String sCounterName)
+  {
+    super (aSourceIS);
+    ValueEnforcer.notEmpty (sCounterName, "CounterName");
+    m_sCounterName = sCounterName;
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    try
+    {
+      super.close ();
+    }
+    finally
+    {
+      if (!m_bReported)
+      {
+        m_bReported = true;
+        AS4MetricsManager.incrementCounter (m_sCounterName, getBytesRead ());
+      }
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.metrics;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.lang.ServiceLoaderHelper;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * This class holds the global {@link IAS4MetricsRegistry}. If metrics are
+ * enabled in the configuration, the first {@link IAS4MetricsRegistry} found via
+ * SPI is used, falling back to a new {@link AS4MetricsRegistryInMemory}. If
+ * metrics are disabled, all recording methods of this class are no-ops.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public final class AS4MetricsManager
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4MetricsManager.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  // Volatile so that the recording methods don't need to acquire the lock
+  @GuardedBy ("RW_LOCK")
+  private static volatile boolean s_bInitialized = false;
+  @GuardedBy ("RW_LOCK")
+  private static volatile IAS4MetricsRegistry s_aRegistry;
+
+  private AS4MetricsManager ()
+  {}
+
+  @Nullable
+  private static IAS4MetricsRegistry _createDefaultRegistry ()
+  {
+    if (!AS4Configuration.isMetricsEnabled ())
+      return null;
+
+    IAS4MetricsRegistry ret = ServiceLoaderHelper.getFirstSPIImplementation (IAS4MetricsRegistry.class);
+    if (ret == null)
+      ret = new AS4MetricsRegistryInMemory ();
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Using metrics registry " + ret);
+    return ret;
+  }
+
+  /**
+   * @return The metrics registry currently in use. May be <code>null</code> if
+   *         metrics are disabled.
+   */
+  @Nullable
+  public static IAS4MetricsRegistry getRegistry ()
+  {
+    if (s_bInitialized)
+      return s_aRegistry;
+
+    return RW_LOCK.writeLockedGet ( () -> {
+      if (!s_bInitialized)
+      {
+        s_aRegistry = _createDefaultRegistry ();
+        s_bInitialized = true;
+      }
+      return s_aRegistry;
+    });
+  }
+
+  /**
+   * Set the metrics registry to be globally used. This overrides the
+   * configuration.
+   *
+   * @param aRegistry
+   *        The new registry. May be <code>null</code> to disable metrics.
+   */
+  public static void setRegistry (@Nullable final IAS4MetricsRegistry aRegistry)
+  {
+    RW_LOCK.writeLocked ( () -> {
+      s_aRegistry = aRegistry;
+      s_bInitialized = true;
+    });
+  }
+
+  /**
+   * @return <code>true</code> if a metrics registry is present and metrics are
+   *         collected.
+   */
+  public static boolean isEnabled ()
+  {
+    return getRegistry () != null;
+  }
+
+  /**
+   * @return The start time stamp to be passed to
+   *         {@link #stopTimer(String, long)}.
+   */
+  public static long startTimer ()
+  {
+    return System.nanoTime ();
+  }
+
+  /**
+   * Record the time elapsed since the provided start time stamp.
+   *
+   * @param sName
+   *        The timer name. May neither be <code>null</code> nor empty.
+   * @param nStartNanos
+   *        The start time stamp as returned by {@link #startTimer()}.
+   */
+  public static void stopTimer (@Nonnull @Nonempty final String sName, final long nStartNanos)
+  {
+    final IAS4MetricsRegistry aRegistry = getRegistry ();
+    if (aRegistry != null)
+      aRegistry.recordTime (sName, Math.max (System.nanoTime () - nStartNanos, 0));
+  }
+
+  /**
+   * Increment the provided counter by one.
+   *
+   * @param sName
+   *        The counter name. May neither be <code>null</code> nor empty.
+   */
+  public static void incrementCounter (@Nonnull @Nonempty final String sName)
+  {
+    incrementCounter (sName, 1);
+  }
+
+  /**
+   * Increment the provided counter.
+   *
+   * @param sName
+   *        The counter name. May neither be <code>null</code> nor empty.
+   * @param nDelta
+   *        The value to add. Must be &ge; 0.
+   */
+  public static void incrementCounter (@Nonnull @Nonempty final String sName, @Nonnegative final long nDelta)
+  {
+    final IAS4MetricsRegistry aRegistry = getRegistry ();
+    if (aRegistry != null)
+      aRegistry.incrementCounter (sName, nDelta);
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsTreeMap;
+import com.helger.commons.collection.impl.ICommonsSortedMap;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Default in-memory implementation of {@link IAS4MetricsRegistry}. Counters
+ * and timers are kept in striped adders so that concurrent updates from many
+ * request threads don't contend. Use {@link #getAllCounters()} and
+ * {@link #getAllTimers()} to expose the values, e.g. to a monitoring servlet.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class AS4MetricsRegistryInMemory implements IAS4MetricsRegistry
+{
+  /**
+   * A point in time snapshot of a single timer.
+   *
+   * @author Philip Helger
+   */
+  public static final class TimerSnapshot
+  {
+    private final long m_nCount;
+    private final long m_nTotalNanos;
+    private final long m_nMaxNanos;
+
+    TimerSnapshot (final long nCount, final long nTotalNanos, final long nMaxNanos)
+    {
+      m_nCount = nCount;
+      m_nTotalNanos = nTotalNanos;
+      m_nMaxNanos = nMaxNanos;
+    }
+
+    /**
+     * @return The number of recorded executions. Always &ge; 0.
+     */
+    @Nonnegative
+    public long getCount ()
+    {
+      return m_nCount;
+    }
+
+    /**
+     * @return The sum of all recorded durations in nano seconds.
+     */
+    @Nonnegative
+    public long getTotalNanos ()
+    {
+      return m_nTotalNanos;
+    }
+
+    /**
+     * @return The longest recorded duration in nano seconds.
+     */
+    @Nonnegative
+    public long getMaxNanos ()
+    {
+      return m_nMaxNanos;
+    }
+
+    /**
+     * @return The average duration in nano seconds or 0 if nothing was
+     *         recorded.
+     */
+    @Nonnegative
+    public long getAverageNanos ()
+    {
+      return m_nCount == 0 ? 0 : m_nTotalNanos / m_nCount;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (null).append ("Count", m_nCount)
+                                         .append ("TotalNanos", m_nTotalNanos)
+                                         .append ("MaxNanos", m_nMaxNanos)
+                                         .getToString ();
+    }
+  }
+
+  private static final class Timer
+  {
+    private final LongAdder m_aCount = new LongAdder ();
+    private final LongAdder m_aTotalNanos = new LongAdder ();
+    private final LongAccumulator m_aMaxNanos = new LongAccumulator (Math::max, 0);
+
+    void record (final long nDurationNanos)
+    {
+      m_aCount.increment ();
+      m_aTotalNanos.add (nDurationNanos);
+      m_aMaxNanos.accumulate (nDurationNanos);
+    }
+
+    @Nonnull
+    TimerSnapshot getSnapshot ()
+    {
+      return new TimerSnapshot (m_aCount.sum (), m_aTotalNanos.sum (), m_aMaxNanos.get ());
+    }
+  }
+
+  private final Map <String, LongAdder> m_aCounters = new ConcurrentHashMap <> ();
+  private final Map <String, Timer> m_aTimers = new ConcurrentHashMap <> ();
+
+  public AS4MetricsRegistryInMemory ()
+  {}
+
+  public void incrementCounter (@Nonnull @Nonempty final String sName, @Nonnegative final long nDelta)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.isGE0 (nDelta, "Delta");
+
+    m_aCounters.computeIfAbsent (sName, k -> new LongAdder ()).add (nDelta);
+  }
+
+  public void recordTime (@Nonnull @Nonempty final String sName, @Nonnegative final long nDurationNanos)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.isGE0 (nDurationNanos, "DurationNanos");
+
+    m_aTimers.computeIfAbsent (sName, k -> new Timer ()).record (nDurationNanos);
+  }
+
+  /**
+   * Get the current value of the counter with the provided name.
+   *
+   * @param sName
+   *        The counter name. May be <code>null</code>.
+   * @return 0 if no such counter exists.
+   */
+  @Nonnegative
+  public long getCounterValue (@Nullable final String sName)
+  {
+    final LongAdder aCounter = sName == null ? null : m_aCounters.get (sName);
+    return aCounter == null ? 0 : aCounter.sum ();
+  }
+
+  /**
+   * @return A snapshot of all counters, sorted by name. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSortedMap <String, Long> getAllCounters ()
+  {
+    final ICommonsSortedMap <String, Long> ret = new CommonsTreeMap <> ();
+    for (final Map.Entry <String, LongAdder> aEntry : m_aCounters.entrySet ())
+      ret.put (aEntry.getKey (), Long.valueOf (aEntry.getValue ().sum ()));
+    return ret;
+  }
+
+  /**
+   * Get a snapshot of the timer with the provided name.
+   *
+   * @param sName
+   *        The timer name. May be <code>null</code>.
+   * @return <code>null</code> if no such timer exists.
+   */
+  @Nullable
+  public TimerSnapshot getTimer (@Nullable final String sName)
+  {
+    final Timer aTimer = sName == null ? null : m_aTimers.get (sName);
+    return aTimer == null ? null : aTimer.getSnapshot ();
+  }
+
+  /**
+   * @return A snapshot of all timers, sorted by name. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSortedMap <String, TimerSnapshot> getAllTimers ()
+  {
+    final ICommonsSortedMap <String, TimerSnapshot> ret = new CommonsTreeMap <> ();
+    for (final Map.Entry <String, Timer> aEntry : m_aTimers.entrySet ())
+      ret.put (aEntry.getKey (), aEntry.getValue ().getSnapshot ());
+    return ret;
+  }
+
+  /**
+   * Reset all counters and timers.
+   */
+  public void reset ()
+  {
+    m_aCounters.clear ();
+    m_aTimers.clear ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Counters", getAllCounters ())
+                                       .append ("Timers", getAllTimers ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.metrics;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Constants for the names of the counters and timers collected by phase4.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@Immutable
+public final class CAS4Metrics
+{
+  /** Timer for parsing the MIME structure of an incoming message */
+  public static final String TIMER_INCOMING_MIME_PARSING = "phase4.incoming.mime.parsing";
+  /** Timer for parsing the SOAP part of an incoming message into a DOM */
+  public static final String TIMER_INCOMING_SOAP_PARSING = "phase4.incoming.soap.parsing";
+  /**
+   * Prefix for the timers of the SOAP header element processors. The local
+   * name of the handled header element is appended.
+   */
+  public static final String TIMER_PREFIX_INCOMING_SOAP_HEADER = "phase4.incoming.soapheader.";
+  /** Timer for the WSS4J signature verification and decryption */
+  public static final String TIMER_INCOMING_WSS4J = "phase4.incoming.wss4j";
+  /** Timer for resolving the PMode of an incoming message */
+  public static final String TIMER_INCOMING_PMODE_RESOLUTION = "phase4.incoming.pmode.resolution";
+  /** Timer for the duplicate check of an incoming message */
+  public static final String TIMER_INCOMING_DUPLICATE_CHECK = "phase4.incoming.duplicate.check";
+  /**
+   * Prefix for the timers of the message processor SPI invocations. The class
+   * name of the SPI implementation is appended.
+   */
+  public static final String TIMER_PREFIX_INCOMING_SPI = "phase4.incoming.spi.";
+  /** Timer for signing the synchronous or asynchronous response */
+  public static final String TIMER_RESPONSE_SIGNING = "phase4.response.signing";
+  /** Timer for sending the asynchronous response */
+  public static final String TIMER_RESPONSE_ASYNC_SENDING = "phase4.response.async.sending";
+  /** Timer for the time asynchronous processing tasks wait for execution */
+  public static final String TIMER_ASYNC_QUEUE_WAIT = "phase4.async.queue.wait";
+  /** Timer for the execution of asynchronous processing tasks */
+  public static final String TIMER_ASYNC_EXECUTION = "phase4.async.execution";
+  /**
+   * Prefix for the timers of outgoing pull requests. The MPC is appended.
+   */
+  public static final String TIMER_PREFIX_PULL_LATENCY = "phase4.pull.latency.";
+
+  /** Counter for the number of incoming messages */
+  public static final String COUNTER_INCOMING_MESSAGES = "phase4.incoming.messages";
+  /** Counter for the number of detected incoming duplicates */
+  public static final String COUNTER_INCOMING_DUPLICATES = "phase4.incoming.duplicates";
+  /** Counter for the number of bytes read from incoming messages */
+  public static final String COUNTER_INCOMING_BYTES = "phase4.incoming.bytes";
+  /** Counter for the number of bytes written in synchronous responses */
+  public static final String COUNTER_RESPONSE_BYTES = "phase4.response.bytes";
+  /**
+   * Counter for the number of bytes written in outgoing HTTP requests. This
+   * covers the messages sent by the client and the asynchronous responses.
+   */
+  public static final String COUNTER_OUTGOING_BYTES = "phase4.outgoing.bytes";
+  /** Counter for the number of rejected asynchronous processing tasks */
+  public static final String COUNTER_ASYNC_REJECTED = "phase4.async.rejected";
+  /**
+   * Prefix for the counter of SMP cache hits. The SMP type is appended.
+   */
+  public static final String COUNTER_PREFIX_SMP_CACHE_HITS = "phase4.smp.cache.hits.";
+  /**
+   * Prefix for the counter of SMP cache misses. The SMP type is appended.
+   */
+  public static final String COUNTER_PREFIX_SMP_CACHE_MISSES = "phase4.smp.cache.misses.";
+  /** Counter for the number of retries of outgoing HTTP calls */
+  public static final String COUNTER_HTTP_RETRIES = "phase4.http.retries";
+  /** Counter for the number of times an HTTP circuit was opened */
+  public static final String COUNTER_HTTP_CIRCUIT_OPENED = "phase4.http.circuit.opened";
+  /** Counter for the number of HTTP calls rejected by an open circuit */
+  public static final String COUNTER_HTTP_CIRCUIT_REJECTED = "phase4.http.circuit.rejected";
+  /** Counter for the number of dumps dropped because the writer was busy */
+  public static final String COUNTER_DUMP_DROPPED = "phase4.dump.dropped";
+  /**
+   * Counter for the number of dumps written on the calling thread because the
+   * writer was busy
+   */
+  public static final String COUNTER_DUMP_SPILLED = "phase4.dump.spilled";
+  /**
+   * Prefix for the counter of pull requests that returned a User Message. The
+   * MPC is appended.
+   */
+  public static final String COUNTER_PREFIX_PULL_RECEIVED = "phase4.pull.received.";
+  /**
+   * Prefix for the counter of pull requests that found an empty MPC. The MPC
+   * is appended.
+   */
+  public static final String COUNTER_PREFIX_PULL_EMPTY = "phase4.pull.empty.";
+  /**
+   * Prefix for the counter of pull requests that were answered with neither a
+   * User Message nor an error. The MPC is appended.
+   */
+  public static final String COUNTER_PREFIX_PULL_NO_MESSAGE = "phase4.pull.nomessage.";
+  /**
+   * Prefix for the counter of failed pull requests. The MPC is appended.
+   */
+  public static final String COUNTER_PREFIX_PULL_ERRORS = "phase4.pull.errors.";
+
+  private CAS4Metrics ()
+  {}
+}
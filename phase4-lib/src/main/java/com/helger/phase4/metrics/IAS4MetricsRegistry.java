@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.metrics;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.IsSPIInterface;
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * Registry for the counters and timers collected by phase4. The first
+ * implementation found via SPI is used if metrics are enabled by the
+ * configuration, otherwise {@link AS4MetricsRegistryInMemory} is used.
+ * Implementations must be thread-safe, as they are invoked concurrently from
+ * all request threads.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ * @see AS4MetricsManager
+ * @see CAS4Metrics
+ */
+@IsSPIInterface
+public interface IAS4MetricsRegistry
+{
+  /**
+   * Increment the counter with the provided name.
+   *
+   * @param sName
+   *        The counter name. May neither be <code>null</code> nor empty.
+   * @param nDelta
+   *        The value to add to the counter. Must be &ge; 0.
+   */
+  void incrementCounter (@Nonnull @Nonempty String sName, @Nonnegative long nDelta);
+
+  /**
+   * Record the duration of a single execution of the timed action with the
+   * provided name.
+   *
+   * @param sName
+   *        The timer name. May neither be <code>null</code> nor empty.
+   * @param nDurationNanos
+   *        The duration in nano seconds. Must be &ge; 0.
+   */
+  void recordTime (@Nonnull @Nonempty String sName, @Nonnegative long nDurationNanos);
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc.store;
+
+import java.io.Closeable;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.state.EChange;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+
+/**
+ * Interface for a message store that keeps the user messages per MPC (Message
+ * Partition Channel) until they are pulled by the receiver. Messages of one
+ * MPC are delivered in FIFO order. A delivered message becomes invisible for
+ * other consumers until it is either acknowledged (by a receipt) or until the
+ * visibility timeout elapsed, in which case it is delivered again.<br>
+ * Only the ebMS user message is stored. Payload attachments are provided via
+ * an {@link IMPCPayloadResolver} when the message is pulled.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public interface IMPCMessageStore extends Closeable
+{
+  /**
+   * Add a new user message to the end of the provided MPC.
+   *
+   * @param sMPCID
+   *        The ID of the MPC to add the message to. May neither be
+   *        <code>null</code> nor empty.
+   * @param aUserMessage
+   *        The user message to be pulled. Must contain a message ID. May not
+   *        be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the message was added,
+   *         {@link EChange#UNCHANGED} if a message with the same ID is already
+   *         contained.
+   */
+  @Nonnull
+  EChange enqueue (@Nonnull @Nonempty String sMPCID, @Nonnull Ebms3UserMessage aUserMessage);
+
+  /**
+   * Get the next message of the provided MPC. The message is not removed, but
+   * becomes invisible until it is acknowledged or the visibility timeout
+   * elapsed.
+   *
+   * @param sMPCID
+   *        The ID of the MPC to receive from. May be <code>null</code>.
+   * @return <code>null</code> if no message is available.
+   */
+  @Nullable
+  MPCStoredMessage receive (@Nullable String sMPCID);
+
+  /**
+   * Acknowledge a message, so that it is removed from the store. This is
+   * usually called when the receipt for the message arrives.
+   *
+   * @param sMessageID
+   *        The AS4 message ID of the message. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the message was removed,
+   *         {@link EChange#UNCHANGED} if no such message is contained.
+   */
+  @Nonnull
+  EChange acknowledge (@Nullable String sMessageID);
+
+  /**
+   * Remove all messages that exceeded the retention period, independent of
+   * whether they were delivered or not.
+   *
+   * @return The number of removed messages. Always &ge; 0.
+   */
+  @Nonnegative
+  int purgeExpired ();
+
+  /**
+   * @param sMPCID
+   *        The ID of the MPC to check. May be <code>null</code>.
+   * @return The number of messages that are contained in the provided MPC and
+   *         that are not yet acknowledged. Always &ge; 0.
+   */
+  @Nonnegative
+  int getMessageCount (@Nullable String sMPCID);
+
+  /**
+   * @return The number of not yet acknowledged messages in all MPCs. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  int getTotalMessageCount ();
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc.store;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Callback to provide the payload attachments of a user message that is
+ * returned from an {@link IMPCMessageStore}. The store only keeps the ebMS
+ * user message, so the payloads referenced via <code>cid:</code> in the
+ * PartInfo elements must be provided by the application.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@FunctionalInterface
+public interface IMPCPayloadResolver
+{
+  /**
+   * Get all payload attachments of the provided stored message.
+   *
+   * @param aStoredMessage
+   *        The stored message that is about to be returned. Never
+   *        <code>null</code>.
+   * @param aUserMessage
+   *        The parsed user message of the stored message. Never
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource helper of the current request, to be used for the
+   *        creation of the attachments. Never <code>null</code>.
+   * @return The attachments. The content ID of each attachment must match the
+   *         <code>cid:</code> reference in the PartInfo. May be
+   *         <code>null</code> if there are none.
+   * @throws Exception
+   *         If the payloads cannot be provided. The message is delivered again
+   *         after the visibility timeout.
+   */
+  @Nullable
+  ICommonsList <WSS4JAttachment> getAllPayloadAttachments (@Nonnull MPCStoredMessage aStoredMessage,
+                                                           @Nonnull Ebms3UserMessage aUserMessage,
+                                                           @Nonnull AS4ResourceHelper aResHelper) throws Exception;
+}
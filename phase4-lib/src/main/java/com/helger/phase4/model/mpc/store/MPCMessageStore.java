@@ -0,0 +1,662 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.CountingInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+
+/**
+ * Default implementation of {@link IMPCMessageStore}. All messages are kept in
+ * an in-memory index (one FIFO queue per MPC plus a map by message ID), so that
+ * enqueuing, receiving and acknowledging are O(1) operations. Each MPC has its
+ * own lock, so for in-memory stores consumers of different MPCs don't block
+ * each other.<br>
+ * If a journal file is provided, every change is appended to that file and the
+ * index is rebuilt from it upon startup. All MPCs share this single journal and
+ * each change is written and flushed while the lock of the MPC is held. With a
+ * journal, changes of different MPCs are therefore serialized on the journal
+ * writes. Messages that were delivered but not
+ * acknowledged before a restart are delivered again. The journal is compacted
+ * upon startup and when {@link #purgeExpired()} finds that most of the journal
+ * is garbage.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class MPCMessageStore implements IMPCMessageStore
+{
+  public static final Duration DEFAULT_VISIBILITY_TIMEOUT = Duration.ofMinutes (5);
+  public static final Duration DEFAULT_RETENTION = Duration.ofDays (7);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (MPCMessageStore.class);
+
+  private static final byte RECORD_ENQUEUE = 1;
+  private static final byte RECORD_DELIVER = 2;
+  private static final byte RECORD_ACK = 3;
+  private static final byte RECORD_PURGE = 4;
+  // Minimum number of obsolete records before compacting
+  private static final int COMPACTION_MIN_GARBAGE = 1000;
+
+  private enum EState
+  {
+    READY,
+    IN_FLIGHT,
+    REMOVED
+  }
+
+  private static final class Entry
+  {
+    private final long m_nSeq;
+    private final String m_sMPCID;
+    private final String m_sMessageID;
+    private final long m_nEnqueueMillis;
+    private final byte [] m_aData;
+    // All mutable fields are guarded by the lock of the MPC queue
+    private EState m_eState = EState.READY;
+    private int m_nDeliveryCount;
+    private long m_nVisibleAgainMillis;
+
+    Entry (final long nSeq,
+           @Nonnull final String sMPCID,
+           @Nonnull final String sMessageID,
+           final long nEnqueueMillis,
+           @Nonnull final byte [] aData)
+    {
+      m_nSeq = nSeq;
+      m_sMPCID = sMPCID;
+      m_sMessageID = sMessageID;
+      m_nEnqueueMillis = nEnqueueMillis;
+      m_aData = aData;
+    }
+  }
+
+  private static final class MPCQueue
+  {
+    private final SimpleLock m_aLock = new SimpleLock ();
+    // Messages in FIFO order
+    @GuardedBy ("m_aLock")
+    private final ArrayDeque <Entry> m_aReady = new ArrayDeque <> ();
+    // Delivered messages ordered by the time they become visible again
+    @GuardedBy ("m_aLock")
+    private final ArrayDeque <Entry> m_aInFlight = new ArrayDeque <> ();
+  }
+
+  private final File m_aJournalFile;
+  private final long m_nVisibilityTimeoutMillis;
+  private final long m_nRetentionMillis;
+  private final Map <String, MPCQueue> m_aQueues = new ConcurrentHashMap <> ();
+  private final Map <String, Entry> m_aEntries = new ConcurrentHashMap <> ();
+  private final AtomicLong m_aSeq = new AtomicLong (0);
+
+  private final SimpleLock m_aJournalLock = new SimpleLock ();
+  @GuardedBy ("m_aJournalLock")
+  private DataOutputStream m_aJournalOS;
+  @GuardedBy ("m_aJournalLock")
+  private long m_nJournalGarbage = 0;
+
+  /**
+   * Create an in-memory store with the default settings.
+   */
+  public MPCMessageStore ()
+  {
+    this (null, DEFAULT_VISIBILITY_TIMEOUT, DEFAULT_RETENTION);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aJournalFile
+   *        The journal file to use. If it exists, its content is read. May be
+   *        <code>null</code> in which case the messages are kept in memory
+   *        only.
+   * @param aVisibilityTimeout
+   *        The duration after which a delivered but not acknowledged message
+   *        is delivered again. May not be <code>null</code>.
+   * @param aRetention
+   *        The duration after which a message is removed by
+   *        {@link #purgeExpired()} and no longer delivered. May not be
+   *        <code>null</code>.
+   * @throws UncheckedIOException
+   *         If the journal cannot be read or written
+   */
+  public MPCMessageStore (@Nullable final File aJournalFile,
+                          @Nonnull final Duration aVisibilityTimeout,
+                          @Nonnull final Duration aRetention)
+  {
+    ValueEnforcer.notNull (aVisibilityTimeout, "VisibilityTimeout");
+    ValueEnforcer.isTrue (!aVisibilityTimeout.isNegative () && !aVisibilityTimeout.isZero (),
+                          "VisibilityTimeout must be positive");
+    ValueEnforcer.notNull (aRetention, "Retention");
+    ValueEnforcer.isTrue (!aRetention.isNegative () && !aRetention.isZero (), "Retention must be positive");
+
+    m_aJournalFile = aJournalFile;
+    m_nVisibilityTimeoutMillis = aVisibilityTimeout.toMillis ();
+    m_nRetentionMillis = aRetention.toMillis ();
+
+    if (aJournalFile != null)
+    {
+      try
+      {
+        _replayJournal ();
+        // Start with a clean journal
+        m_aJournalLock.lock ();
+        try
+        {
+          _compactLocked ();
+        }
+        finally
+        {
+          m_aJournalLock.unlock ();
+        }
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException ("Failed to open MPC message store journal '" +
+                                        aJournalFile.getAbsolutePath () +
+                                        "'",
+                                        ex);
+      }
+    }
+  }
+
+  /**
+   * @return The journal file used or <code>null</code> if this is an in-memory
+   *         store.
+   */
+  @Nullable
+  public final File getJournalFile ()
+  {
+    return m_aJournalFile;
+  }
+
+  @Nonnull
+  private static String _getEffectiveMPCID (@Nullable final String sMPCID)
+  {
+    return StringHelper.hasText (sMPCID) ? sMPCID : CAS4.DEFAULT_MPC_ID;
+  }
+
+  @Nonnull
+  private MPCQueue _getOrCreateQueue (@Nonnull final String sMPCID)
+  {
+    return m_aQueues.computeIfAbsent (sMPCID, k -> new MPCQueue ());
+  }
+
+  private boolean _isExpired (@Nonnull final Entry aEntry, final long nNowMillis)
+  {
+    return aEntry.m_nEnqueueMillis + m_nRetentionMillis <= nNowMillis;
+  }
+
+  // Journal handling
+
+  @Nonnull
+  private static DataOutputStream _openJournalForAppend (@Nonnull final File aFile) throws IOException
+  {
+    return new DataOutputStream (new BufferedOutputStream (new FileOutputStream (aFile, true)));
+  }
+
+  private static void _writeEnqueue (@Nonnull final DataOutputStream aDOS, @Nonnull final Entry aEntry) throws IOException
+  {
+    aDOS.writeByte (RECORD_ENQUEUE);
+    aDOS.writeUTF (aEntry.m_sMessageID);
+    aDOS.writeUTF (aEntry.m_sMPCID);
+    aDOS.writeLong (aEntry.m_nEnqueueMillis);
+    aDOS.writeInt (aEntry.m_nDeliveryCount);
+    aDOS.writeInt (aEntry.m_aData.length);
+    aDOS.write (aEntry.m_aData);
+  }
+
+  private void _journal (final byte nRecordType, @Nonnull final Entry aEntry)
+  {
+    if (m_aJournalFile == null)
+      return;
+
+    // Called with the MPC lock held, so that the journal order matches the
+    // in-memory order. All MPCs wait for this shared lock.
+
+    m_aJournalLock.lock ();
+    try
+    {
+      if (m_aJournalOS == null)
+        throw new IllegalStateException ("The MPC message store was already closed");
+
+      if (nRecordType == RECORD_ENQUEUE)
+        _writeEnqueue (m_aJournalOS, aEntry);
+      else
+      {
+        m_aJournalOS.writeByte (nRecordType);
+        m_aJournalOS.writeUTF (aEntry.m_sMessageID);
+        m_nJournalGarbage++;
+      }
+      // Hand over to the OS, so that the data survives a process crash
+      m_aJournalOS.flush ();
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to write to MPC message store journal '" +
+                                      m_aJournalFile.getAbsolutePath () +
+                                      "'",
+                                      ex);
+    }
+    finally
+    {
+      m_aJournalLock.unlock ();
+    }
+  }
+
+  private void _replayJournal () throws IOException
+  {
+    if (!m_aJournalFile.exists ())
+      return;
+
+    // Read into a temporary map that keeps the insertion order
+    final Map <String, Entry> aEntries = new LinkedHashMap <> ();
+    long nValidBytes = 0;
+    try (final CountingInputStream aCIS = new CountingInputStream (new BufferedInputStream (new FileInputStream (m_aJournalFile)));
+         final DataInputStream aDIS = new DataInputStream (aCIS))
+    {
+      while (true)
+      {
+        final int nRecordType = aDIS.read ();
+        if (nRecordType < 0)
+          break;
+
+        final String sMessageID = aDIS.readUTF ();
+        switch (nRecordType)
+        {
+          case RECORD_ENQUEUE:
+          {
+            final String sMPCID = aDIS.readUTF ();
+            final long nEnqueueMillis = aDIS.readLong ();
+            final int nDeliveryCount = aDIS.readInt ();
+            final byte [] aData = new byte [aDIS.readInt ()];
+            aDIS.readFully (aData);
+            // Duplicates may occur when compacting concurrently
+            if (!aEntries.containsKey (sMessageID))
+            {
+              final Entry aEntry = new Entry (m_aSeq.incrementAndGet (), sMPCID, sMessageID, nEnqueueMillis, aData);
+              aEntry.m_nDeliveryCount = nDeliveryCount;
+              aEntries.put (sMessageID, aEntry);
+            }
+            break;
+          }
+          case RECORD_DELIVER:
+          {
+            final Entry aEntry = aEntries.get (sMessageID);
+            if (aEntry != null)
+              aEntry.m_nDeliveryCount++;
+            break;
+          }
+          case RECORD_ACK:
+          case RECORD_PURGE:
+            aEntries.remove (sMessageID);
+            break;
+          default:
+            throw new IOException ("Unsupported journal record type " + nRecordType + " at offset " + nValidBytes);
+        }
+        nValidBytes = aCIS.getBytesRead ();
+      }
+    }
+    catch (final EOFException ex)
+    {
+      // Incomplete last record, e.g. after a crash. It is removed when
+      // compacting
+      LOGGER.warn ("MPC message store journal '" +
+                   m_aJournalFile.getAbsolutePath () +
+                   "' ends with an incomplete record - ignoring everything after offset " +
+                   nValidBytes);
+    }
+
+    // Rebuild the index - everything is ready for (re-)delivery
+    for (final Entry aEntry : aEntries.values ())
+    {
+      m_aEntries.put (aEntry.m_sMessageID, aEntry);
+      _getOrCreateQueue (aEntry.m_sMPCID).m_aReady.addLast (aEntry);
+    }
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Restored " + aEntries.size () + " message(s) from MPC message store journal");
+  }
+
+  @GuardedBy ("m_aJournalLock")
+  private void _compactLocked () throws IOException
+  {
+    StreamHelper.close (m_aJournalOS);
+    m_aJournalOS = null;
+
+    // Write all live entries in their original order to a new file
+    final ICommonsList <Entry> aLiveEntries = new CommonsArrayList <> (m_aEntries.values ());
+    aLiveEntries.sort (Comparator.comparingLong (x -> x.m_nSeq));
+
+    final File aTempFile = new File (m_aJournalFile.getParentFile (), m_aJournalFile.getName () + ".tmp");
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aTempFile.getAbsoluteFile ().getParentFile ());
+    try (final FileOutputStream aFOS = new FileOutputStream (aTempFile);
+         final DataOutputStream aDOS = new DataOutputStream (new BufferedOutputStream (aFOS)))
+    {
+      for (final Entry aEntry : aLiveEntries)
+        _writeEnqueue (aDOS, aEntry);
+      aDOS.flush ();
+      // Make sure the new journal is complete before replacing the old one
+      aFOS.getFD ().sync ();
+    }
+    Files.move (aTempFile.toPath (),
+                m_aJournalFile.toPath (),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+    m_aJournalOS = _openJournalForAppend (m_aJournalFile);
+    m_nJournalGarbage = 0;
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Compacted MPC message store journal to " + aLiveEntries.size () + " message(s)");
+  }
+
+  /**
+   * Rewrite the journal so that it only contains the messages that are still
+   * contained. Does nothing for in-memory stores.
+   *
+   * @throws UncheckedIOException
+   *         If the journal cannot be written
+   */
+  public void compact ()
+  {
+    if (m_aJournalFile == null)
+      return;
+
+    m_aJournalLock.lock ();
+    try
+    {
+      if (m_aJournalOS == null)
+        throw new IllegalStateException ("The MPC message store was already closed");
+      _compactLocked ();
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to compact MPC message store journal '" +
+                                      m_aJournalFile.getAbsolutePath () +
+                                      "'",
+                                      ex);
+    }
+    finally
+    {
+      m_aJournalLock.unlock ();
+    }
+  }
+
+  // Store API
+
+  @Nonnull
+  public EChange enqueue (@Nonnull @Nonempty final String sMPCID, @Nonnull final Ebms3UserMessage aUserMessage)
+  {
+    ValueEnforcer.notEmpty (sMPCID, "MPCID");
+    ValueEnforcer.notNull (aUserMessage, "UserMessage");
+    ValueEnforcer.notNull (aUserMessage.getMessageInfo (), "UserMessage.MessageInfo");
+    final String sMessageID = aUserMessage.getMessageInfo ().getMessageId ();
+    ValueEnforcer.notEmpty (sMessageID, "UserMessage.MessageInfo.MessageId");
+
+    final byte [] aData = MPCStoredMessage.serializeUserMessage (aUserMessage);
+    if (aData == null)
+      throw new IllegalArgumentException ("Failed to serialize the UserMessage with ID '" + sMessageID + "'");
+
+    final Entry aEntry = new Entry (m_aSeq.incrementAndGet (), sMPCID, sMessageID, System.currentTimeMillis (), aData);
+    if (m_aEntries.putIfAbsent (sMessageID, aEntry) != null)
+      return EChange.UNCHANGED;
+
+    final MPCQueue aQueue = _getOrCreateQueue (sMPCID);
+    aQueue.m_aLock.lock ();
+    try
+    {
+      // Journal while holding the MPC lock, so that an ACK can never be
+      // journaled before the ENQUEUE
+      _journal (RECORD_ENQUEUE, aEntry);
+      aQueue.m_aReady.addLast (aEntry);
+    }
+    catch (final RuntimeException ex)
+    {
+      m_aEntries.remove (sMessageID);
+      throw ex;
+    }
+    finally
+    {
+      aQueue.m_aLock.unlock ();
+    }
+    return EChange.CHANGED;
+  }
+
+  @GuardedBy ("aQueue.m_aLock")
+  private void _removeLocked (@Nonnull final Entry aEntry, final byte nRecordType)
+  {
+    aEntry.m_eState = EState.REMOVED;
+    m_aEntries.remove (aEntry.m_sMessageID);
+    _journal (nRecordType, aEntry);
+  }
+
+  @Nullable
+  public MPCStoredMessage receive (@Nullable final String sMPCID)
+  {
+    final MPCQueue aQueue = m_aQueues.get (_getEffectiveMPCID (sMPCID));
+    if (aQueue == null)
+      return null;
+
+    final long nNow = System.currentTimeMillis ();
+    Entry aFound = null;
+
+    aQueue.m_aLock.lock ();
+    try
+    {
+      // First check for messages that need to be delivered again
+      Entry aHead;
+      while ((aHead = aQueue.m_aInFlight.peekFirst ()) != null)
+      {
+        if (aHead.m_eState != EState.IN_FLIGHT)
+        {
+          // Already acknowledged or purged
+          aQueue.m_aInFlight.pollFirst ();
+          continue;
+        }
+        if (aHead.m_nVisibleAgainMillis > nNow)
+        {
+          // All others become visible even later
+          break;
+        }
+        aQueue.m_aInFlight.pollFirst ();
+        if (_isExpired (aHead, nNow))
+        {
+          _removeLocked (aHead, RECORD_PURGE);
+          continue;
+        }
+        aFound = aHead;
+        break;
+      }
+
+      if (aFound == null)
+      {
+        // Take the next new message
+        while ((aHead = aQueue.m_aReady.pollFirst ()) != null)
+        {
+          if (aHead.m_eState != EState.READY)
+            continue;
+          if (_isExpired (aHead, nNow))
+          {
+            _removeLocked (aHead, RECORD_PURGE);
+            continue;
+          }
+          aFound = aHead;
+          break;
+        }
+      }
+
+      if (aFound == null)
+        return null;
+
+      aFound.m_eState = EState.IN_FLIGHT;
+      aFound.m_nDeliveryCount++;
+      aFound.m_nVisibleAgainMillis = nNow + m_nVisibilityTimeoutMillis;
+      aQueue.m_aInFlight.addLast (aFound);
+      _journal (RECORD_DELIVER, aFound);
+
+      return new MPCStoredMessage (aFound.m_sMPCID,
+                                   aFound.m_sMessageID,
+                                   aFound.m_nEnqueueMillis,
+                                   aFound.m_nDeliveryCount,
+                                   aFound.m_aData);
+    }
+    finally
+    {
+      aQueue.m_aLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  public EChange acknowledge (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+
+    final Entry aEntry = m_aEntries.get (sMessageID);
+    if (aEntry == null)
+      return EChange.UNCHANGED;
+
+    final MPCQueue aQueue = _getOrCreateQueue (aEntry.m_sMPCID);
+    aQueue.m_aLock.lock ();
+    try
+    {
+      if (aEntry.m_eState == EState.REMOVED)
+        return EChange.UNCHANGED;
+      // The entry is lazily removed from the queues
+      _removeLocked (aEntry, RECORD_ACK);
+    }
+    finally
+    {
+      aQueue.m_aLock.unlock ();
+    }
+    return EChange.CHANGED;
+  }
+
+  @Nonnegative
+  public int purgeExpired ()
+  {
+    final long nNow = System.currentTimeMillis ();
+    int ret = 0;
+    for (final Entry aEntry : m_aEntries.values ())
+      if (_isExpired (aEntry, nNow))
+      {
+        final MPCQueue aQueue = _getOrCreateQueue (aEntry.m_sMPCID);
+        aQueue.m_aLock.lock ();
+        try
+        {
+          if (aEntry.m_eState != EState.REMOVED)
+          {
+            _removeLocked (aEntry, RECORD_PURGE);
+            ret++;
+          }
+        }
+        finally
+        {
+          aQueue.m_aLock.unlock ();
+        }
+      }
+
+    if (ret > 0 && LOGGER.isInfoEnabled ())
+      LOGGER.info ("Purged " + ret + " expired message(s) from the MPC message store");
+
+    // Compact if the journal contains mostly garbage
+    if (m_aJournalFile != null)
+    {
+      final boolean bCompact = m_aJournalLock.lockedGet ( () -> m_aJournalOS != null &&
+                                                                m_nJournalGarbage >= COMPACTION_MIN_GARBAGE &&
+                                                                m_nJournalGarbage > m_aEntries.size ());
+      if (bCompact)
+        compact ();
+    }
+    return ret;
+  }
+
+  @Nonnegative
+  public int getMessageCount (@Nullable final String sMPCID)
+  {
+    final String sRealMPCID = _getEffectiveMPCID (sMPCID);
+    int ret = 0;
+    for (final Entry aEntry : m_aEntries.values ())
+      if (aEntry.m_sMPCID.equals (sRealMPCID))
+        ret++;
+    return ret;
+  }
+
+  @Nonnegative
+  public int getTotalMessageCount ()
+  {
+    return m_aEntries.size ();
+  }
+
+  public void close ()
+  {
+    m_aJournalLock.locked ( () -> {
+      StreamHelper.close (m_aJournalOS);
+      m_aJournalOS = null;
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("JournalFile", m_aJournalFile)
+                                       .append ("VisibilityTimeoutMillis", m_nVisibilityTimeoutMillis)
+                                       .append ("RetentionMillis", m_nRetentionMillis)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc.store;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.marshaller.Ebms3ReaderBuilder;
+import com.helger.phase4.marshaller.Ebms3WriterBuilder;
+
+/**
+ * A single message as delivered by an {@link IMPCMessageStore}. The user
+ * message is kept in its serialized form.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@Immutable
+public final class MPCStoredMessage
+{
+  private final String m_sMPCID;
+  private final String m_sMessageID;
+  private final long m_nEnqueueMillis;
+  private final int m_nDeliveryCount;
+  private final byte [] m_aUserMessageBytes;
+
+  public MPCStoredMessage (@Nonnull @Nonempty final String sMPCID,
+                           @Nonnull @Nonempty final String sMessageID,
+                           final long nEnqueueMillis,
+                           @Nonnegative final int nDeliveryCount,
+                           @Nonnull final byte [] aUserMessageBytes)
+  {
+    ValueEnforcer.notEmpty (sMPCID, "MPCID");
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.isGE0 (nDeliveryCount, "DeliveryCount");
+    ValueEnforcer.notNull (aUserMessageBytes, "UserMessageBytes");
+    m_sMPCID = sMPCID;
+    m_sMessageID = sMessageID;
+    m_nEnqueueMillis = nEnqueueMillis;
+    m_nDeliveryCount = nDeliveryCount;
+    m_aUserMessageBytes = aUserMessageBytes;
+  }
+
+  /**
+   * @return The ID of the MPC the message was enqueued to. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getMPCID ()
+  {
+    return m_sMPCID;
+  }
+
+  /**
+   * @return The AS4 message ID of the user message. Neither <code>null</code>
+   *         nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The time the message was enqueued in milliseconds since the epoch.
+   */
+  public long getEnqueueMillis ()
+  {
+    return m_nEnqueueMillis;
+  }
+
+  /**
+   * @return How often the message was delivered including this delivery. 1 for
+   *         the first delivery, &gt; 1 for re-deliveries.
+   */
+  @Nonnegative
+  public int getDeliveryCount ()
+  {
+    return m_nDeliveryCount;
+  }
+
+  /**
+   * @return <code>true</code> if this message was already delivered before
+   *         without being acknowledged.
+   */
+  public boolean isRedelivery ()
+  {
+    return m_nDeliveryCount > 1;
+  }
+
+  /**
+   * @return A copy of the serialized user message. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public byte [] getUserMessageBytes ()
+  {
+    return m_aUserMessageBytes.clone ();
+  }
+
+  /**
+   * @return The parsed user message or <code>null</code> if parsing failed.
+   */
+  @Nullable
+  public Ebms3UserMessage getAsUserMessage ()
+  {
+    return parseUserMessage (m_aUserMessageBytes);
+  }
+
+  /**
+   * Serialize a user message so that it can be stored.
+   *
+   * @param aUserMessage
+   *        The user message to serialize. May not be <code>null</code>.
+   * @return The serialized bytes or <code>null</code> if serialization failed.
+   */
+  @Nullable
+  public static byte [] serializeUserMessage (@Nonnull final Ebms3UserMessage aUserMessage)
+  {
+    ValueEnforcer.notNull (aUserMessage, "UserMessage");
+    final Ebms3Messaging aMessaging = new Ebms3Messaging ();
+    aMessaging.addUserMessage (aUserMessage);
+    return Ebms3WriterBuilder.ebms3Messaging ().getAsBytes (aMessaging);
+  }
+
+  /**
+   * Parse a user message serialized with
+   * {@link #serializeUserMessage(Ebms3UserMessage)}.
+   *
+   * @param aBytes
+   *        The serialized bytes. May not be <code>null</code>.
+   * @return The user message or <code>null</code> if parsing failed.
+   */
+  @Nullable
+  public static Ebms3UserMessage parseUserMessage (@Nonnull final byte [] aBytes)
+  {
+    ValueEnforcer.notNull (aBytes, "Bytes");
+    final Ebms3Messaging aMessaging = Ebms3ReaderBuilder.ebms3Messaging ().read (aBytes);
+    return aMessaging != null && aMessaging.hasUserMessageEntries () ? aMessaging.getUserMessageAtIndex (0) : null;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MPCID", m_sMPCID)
+                                       .append ("MessageID", m_sMessageID)
+                                       .append ("EnqueueMillis", m_nEnqueueMillis)
+                                       .append ("DeliveryCount", m_nDeliveryCount)
+                                       .append ("UserMessageBytes#", m_aUserMessageBytes.length)
+                                       .getToString ();
+  }
+}
@@ -149,6 +149,23 @@ public interface IPModeManager
   @Nullable
   IPMode getPModeOfID (@Nullable String sID);
 
+  /**
+   * Get an immutable lookup index over all contained PModes. Implementations
+   * should cache the index and only rebuild it if the PModes change and let
+   * {@link #getPModeOfID(String)} and
+   * {@link #getPModeOfServiceAndAction(String, String)} use it. The default
+   * implementation creates a new index on every call, so single lookups
+   * should use these two methods instead of this one.
+   *
+   * @return The lookup index. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  default PModeLookupIndex getLookupIndex ()
+  {
+    return new PModeLookupIndex (getAll ());
+  }
+
   /**
    * @return A non-<code>null</code> but maybe empty list of all contained
    *         PModes.
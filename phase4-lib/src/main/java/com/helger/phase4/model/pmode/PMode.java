@@ -22,8 +22,11 @@ import javax.annotation.Nullable;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.commons.type.ObjectType;
@@ -40,7 +43,7 @@ import com.helger.tenancy.AbstractBusinessObject;
  */
 @Nonnull
 @MustImplementEqualsAndHashcode
-public class PMode extends AbstractBusinessObject implements IPMode
+public class PMode extends AbstractBusinessObject implements IPMode, ICloneable <PMode>
 {
   public static final ObjectType OT = new ObjectType ("as4.pmode");
 
@@ -305,6 +308,35 @@ public class PMode extends AbstractBusinessObject implements IPMode
     return EChange.CHANGED;
   }
 
+  /**
+   * @return A deep copy of this PMode with the same ID and object data. Never
+   *         <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public PMode getClone ()
+  {
+    final StubObject aObject = new StubObject (getID (),
+                                               getCreationDateTime (),
+                                               getCreationUserID (),
+                                               getLastModificationDateTime (),
+                                               getLastModificationUserID (),
+                                               getDeletionDateTime (),
+                                               getDeletionUserID (),
+                                               new CommonsLinkedHashMap <> (attrs ()));
+    return new PMode (aObject,
+                      m_aInitiator == null ? null : m_aInitiator.getClone (),
+                      m_aResponder == null ? null : m_aResponder.getClone (),
+                      m_sAgreement,
+                      m_eMEP,
+                      m_eMEPBinding,
+                      m_aLeg1 == null ? null : m_aLeg1.getClone (),
+                      m_aLeg2 == null ? null : m_aLeg2.getClone (),
+                      m_aPayloadService == null ? null : m_aPayloadService.getClone (),
+                      m_aPModeReceptionAwareness == null ? null : m_aPModeReceptionAwareness.getClone ());
+  }
+
   @Override
   public boolean equals (final Object o)
   {
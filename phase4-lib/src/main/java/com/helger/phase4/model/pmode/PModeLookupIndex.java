@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * An immutable snapshot of the PModes of a PMode manager, optimized for the
+ * lookups performed for every incoming message. The index is created once
+ * and is replaced as a whole when the underlying PModes change, so lookups
+ * require neither locking nor object allocation.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@Immutable
+public final class PModeLookupIndex
+{
+  private final ICommonsMap <String, IPMode> m_aByID = new CommonsHashMap <> ();
+  // Service to action to the first matching PMode (based on leg 1)
+  private final ICommonsMap <String, ICommonsMap <String, IPMode>> m_aByServiceAndAction = new CommonsHashMap <> ();
+
+  /**
+   * Constructor
+   *
+   * @param aPModes
+   *        The PModes to be indexed. May not be <code>null</code>. If
+   *        multiple PModes share the same service and action, the first one
+   *        wins - same as for {@link IPModeManager#findFirst(java.util.function.Predicate)}.
+   */
+  public PModeLookupIndex (@Nonnull final Iterable <? extends IPMode> aPModes)
+  {
+    ValueEnforcer.notNull (aPModes, "PModes");
+    for (final IPMode aPMode : aPModes)
+    {
+      m_aByID.put (aPMode.getID (), aPMode);
+
+      final PModeLeg aLeg = aPMode.getLeg1 ();
+      if (aLeg != null)
+      {
+        final PModeLegBusinessInformation aBI = aLeg.getBusinessInfo ();
+        if (aBI != null)
+          m_aByServiceAndAction.computeIfAbsent (aBI.getService (), k -> new CommonsHashMap <> ())
+                               .putIfAbsent (aBI.getAction (), aPMode);
+      }
+    }
+  }
+
+  /**
+   * @return The number of indexed PModes. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aByID.size ();
+  }
+
+  /**
+   * Find the PMode with the provided ID
+   *
+   * @param sID
+   *        The ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  public IPMode getPModeOfID (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+    return m_aByID.get (sID);
+  }
+
+  /**
+   * Find the PMode with the provided ID, initiator ID and responder ID.
+   *
+   * @param sID
+   *        PMode ID to search. May be <code>null</code>.
+   * @param sInitiatorID
+   *        Initiator ID to search. May be <code>null</code>.
+   * @param sResponderID
+   *        Responder ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  public IPMode getPModeOfID (@Nullable final String sID,
+                              @Nullable final String sInitiatorID,
+                              @Nullable final String sResponderID)
+  {
+    final IPMode ret = getPModeOfID (sID);
+    return ret != null && ret.hasInitiatorID (sInitiatorID) && ret.hasResponderID (sResponderID) ? ret : null;
+  }
+
+  /**
+   * Find the first PMode that has the provided service and action in leg 1.
+   *
+   * @param sService
+   *        The service to be searched. May be <code>null</code>.
+   * @param sAction
+   *        The action to be searched. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    final ICommonsMap <String, IPMode> aByAction = m_aByServiceAndAction.get (sService);
+    return aByAction == null ? null : aByAction.get (sAction);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("ByID", m_aByID)
+                                       .append ("ByServiceAndAction", m_aByServiceAndAction)
+                                       .getToString ();
+  }
+}
@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.model.pmode;
 
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
@@ -44,6 +45,9 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (PModeManager.class);
 
+  // Lazily created; reset on every modification
+  private final AtomicReference <PModeLookupIndex> m_aLookupIndex = new AtomicReference <> ();
+
   public PModeManager (@Nullable final String sFilename) throws DAOException
   {
     super (PMode.class, sFilename);
@@ -65,6 +69,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   private void _createPModeLocked (@Nonnull final PMode aPMode)
   {
     internalCreateItem (aPMode);
+    m_aLookupIndex.set (null);
     AuditHelper.onAuditCreateSuccess (PMode.OT, aPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
@@ -115,6 +120,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
       internalUpdateItem (aExistingPMode);
+      m_aLookupIndex.set (null);
     }
     finally
     {
@@ -180,6 +186,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
         return EChange.UNCHANGED;
       }
       internalMarkItemDeleted (aDeletedPMode);
+      m_aLookupIndex.set (null);
     }
     finally
     {
@@ -207,6 +214,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     try
     {
       internalDeleteItem (sPModeID);
+      m_aLookupIndex.set (null);
     }
     finally
     {
@@ -217,9 +225,31 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  public PModeLookupIndex getLookupIndex ()
+  {
+    PModeLookupIndex ret = m_aLookupIndex.get ();
+    if (ret == null)
+    {
+      // Build it in the read lock, so that no concurrent modification can
+      // invalidate it in between
+      ret = m_aRWLock.readLockedGet ( () -> {
+        final PModeLookupIndex aNewIndex = new PModeLookupIndex (getAll ());
+        return m_aLookupIndex.compareAndSet (null, aNewIndex) ? aNewIndex : m_aLookupIndex.get ();
+      });
+    }
+    return ret;
+  }
+
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sID)
   {
-    return getOfID (sID);
+    return getLookupIndex ().getPModeOfID (sID);
+  }
+
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return getLookupIndex ().getPModeOfServiceAndAction (sService, sAction);
   }
 }
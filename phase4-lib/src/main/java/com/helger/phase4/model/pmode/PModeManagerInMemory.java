@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.model.pmode;
 
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
@@ -54,6 +55,8 @@ public class PModeManagerInMemory implements IPModeManager
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   @GuardedBy ("m_aRWLock")
   private final ICommonsMap <String, PMode> m_aMap = new CommonsHashMap <> ();
+  // Lazily created; reset on every modification
+  private final AtomicReference <PModeLookupIndex> m_aLookupIndex = new AtomicReference <> ();
 
   public PModeManagerInMemory ()
   {}
@@ -77,6 +80,7 @@ public class PModeManagerInMemory implements IPModeManager
     if (m_aMap.containsKey (sID))
       throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
     m_aMap.put (sID, aPMode);
+    m_aLookupIndex.set (null);
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Created PMode with ID '" + aPMode.getID () + "'");
@@ -117,6 +121,7 @@ public class PModeManagerInMemory implements IPModeManager
         return EChange.UNCHANGED;
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
+      m_aLookupIndex.set (null);
     }
     finally
     {
@@ -174,6 +179,7 @@ public class PModeManagerInMemory implements IPModeManager
     {
       if (BusinessObjectHelper.setDeletionNow (aDeletedPMode).isUnchanged ())
         return EChange.UNCHANGED;
+      m_aLookupIndex.set (null);
     }
     finally
     {
@@ -197,6 +203,7 @@ public class PModeManagerInMemory implements IPModeManager
     try
     {
       m_aMap.remove (sPModeID);
+      m_aLookupIndex.set (null);
     }
     finally
     {
@@ -214,10 +221,32 @@ public class PModeManagerInMemory implements IPModeManager
     return m_aRWLock.readLockedGet ( () -> m_aMap.get (sID));
   }
 
+  @Nonnull
+  public PModeLookupIndex getLookupIndex ()
+  {
+    PModeLookupIndex ret = m_aLookupIndex.get ();
+    if (ret == null)
+    {
+      // Build it in the read lock, so that no concurrent modification can
+      // invalidate it in between
+      ret = m_aRWLock.readLockedGet ( () -> {
+        final PModeLookupIndex aNewIndex = new PModeLookupIndex (m_aMap.values ());
+        return m_aLookupIndex.compareAndSet (null, aNewIndex) ? aNewIndex : m_aLookupIndex.get ();
+      });
+    }
+    return ret;
+  }
+
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sID)
   {
-    return getOfID (sID);
+    return getLookupIndex ().getPModeOfID (sID);
+  }
+
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return getLookupIndex ().getPModeOfServiceAndAction (sService, sAction);
   }
 
   @Nullable
@@ -25,9 +25,11 @@ import javax.annotation.concurrent.NotThreadSafe;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
 import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
@@ -39,7 +41,7 @@ import com.helger.commons.string.ToStringGenerator;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeParty implements IHasID <String>, Serializable
+public class PModeParty implements IHasID <String>, Serializable, ICloneable <PModeParty>
 {
   /** Optional ID type */
   private String m_sIDType;
@@ -243,6 +245,13 @@ public class PModeParty implements IHasID <String>, Serializable
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeParty getClone ()
+  {
+    return new PModeParty (m_sIDType, m_sIDValue, m_sRole, m_sUserName, m_sPassword);
+  }
+
   @Override
   public boolean equals (final Object o)
   {
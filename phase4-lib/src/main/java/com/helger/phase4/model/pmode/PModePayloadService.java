@@ -23,15 +23,17 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModePayloadService implements Serializable
+public class PModePayloadService implements Serializable, ICloneable <PModePayloadService>
 {
   private EAS4CompressionMode m_eCompressionMode;
 
@@ -84,6 +86,13 @@ public class PModePayloadService implements Serializable
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModePayloadService getClone ()
+  {
+    return new PModePayloadService (m_eCompressionMode);
+  }
+
   @Override
   public boolean equals (final Object o)
   {
@@ -25,14 +25,16 @@ import javax.annotation.concurrent.NotThreadSafe;
 import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.state.ETriState;
 import com.helger.commons.string.ToStringGenerator;
 
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeReceptionAwareness implements Serializable
+public class PModeReceptionAwareness implements Serializable, ICloneable <PModeReceptionAwareness>
 {
   public static final boolean DEFAULT_RECEPTION_AWARENESS = true;
   public static final boolean DEFAULT_RETRY = true;
@@ -259,6 +261,17 @@ public class PModeReceptionAwareness implements Serializable
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeReceptionAwareness getClone ()
+  {
+    return new PModeReceptionAwareness (m_eReceptionAwareness,
+                                        m_eRetry,
+                                        m_nMaxRetries,
+                                        m_nRetryIntervalMS,
+                                        m_eDuplicateDetection);
+  }
+
   @Override
   public boolean equals (final Object o)
   {
@@ -23,8 +23,10 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.string.ToStringGenerator;
 
@@ -35,7 +37,7 @@ import com.helger.commons.string.ToStringGenerator;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeLeg implements Serializable
+public class PModeLeg implements Serializable, ICloneable <PModeLeg>
 {
   private PModeLegProtocol m_aProtocol;
   private PModeLegBusinessInformation m_aBusinessInfo;
@@ -159,6 +161,17 @@ public class PModeLeg implements Serializable
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeLeg getClone ()
+  {
+    return new PModeLeg (m_aProtocol == null ? null : m_aProtocol.getClone (),
+                         m_aBusinessInfo == null ? null : m_aBusinessInfo.getClone (),
+                         m_aErrorHandling == null ? null : m_aErrorHandling.getClone (),
+                         m_aReliability == null ? null : m_aReliability.getClone (),
+                         m_aSecurity == null ? null : m_aSecurity.getClone ());
+  }
+
   @Override
   public boolean equals (final Object o)
   {
@@ -17,6 +17,7 @@
 package com.helger.phase4.model.pmode.leg;
 
 import java.io.Serializable;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -24,12 +25,14 @@ import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
@@ -41,7 +44,7 @@ import com.helger.commons.string.ToStringGenerator;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeLegBusinessInformation implements Serializable
+public class PModeLegBusinessInformation implements Serializable, ICloneable <PModeLegBusinessInformation>
 {
   /**
    * Name of the service to which the User message is intended to be delivered.
@@ -247,6 +250,23 @@ public class PModeLegBusinessInformation implements Serializable
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeLegBusinessInformation getClone ()
+  {
+    final PModeLegBusinessInformation ret = new PModeLegBusinessInformation ();
+    ret.m_sServiceValue = m_sServiceValue;
+    ret.m_sServiceType = m_sServiceType;
+    ret.m_sAction = m_sAction;
+    for (final Map.Entry <String, PModeProperty> aEntry : m_aProperties.entrySet ())
+      ret.m_aProperties.put (aEntry.getKey (), aEntry.getValue ().getClone ());
+    for (final Map.Entry <String, PModePayloadProfile> aEntry : m_aPayloadProfiles.entrySet ())
+      ret.m_aPayloadProfiles.put (aEntry.getKey (), aEntry.getValue ().getClone ());
+    ret.m_aPayloadProfileMaxKB = m_aPayloadProfileMaxKB;
+    ret.m_sMPCID = m_sMPCID;
+    return ret;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
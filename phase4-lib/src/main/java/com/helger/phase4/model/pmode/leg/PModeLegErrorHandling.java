@@ -24,8 +24,10 @@ import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.state.ETriState;
 import com.helger.commons.string.ToStringGenerator;
@@ -39,7 +41,7 @@ import com.helger.commons.string.ToStringGenerator;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeLegErrorHandling implements Serializable
+public class PModeLegErrorHandling implements Serializable, ICloneable <PModeLegErrorHandling>
 {
   public static final boolean DEFAULT_REPORT_AS_RESPONSE = false;
   public static final boolean DEFAULT_REPORT_PROCESS_ERROR_NOTIFY_CONSUMER = false;
@@ -259,6 +261,20 @@ public class PModeLegErrorHandling implements Serializable
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeLegErrorHandling getClone ()
+  {
+    final PModeLegErrorHandling ret = new PModeLegErrorHandling ();
+    ret.m_aReportSenderErrorsTo = m_aReportSenderErrorsTo == null ? null : m_aReportSenderErrorsTo.getClone ();
+    ret.m_aReportReceiverErrorsTo = m_aReportReceiverErrorsTo == null ? null : m_aReportReceiverErrorsTo.getClone ();
+    ret.m_eReportAsResponse = m_eReportAsResponse;
+    ret.m_eReportProcessErrorNotifyConsumer = m_eReportProcessErrorNotifyConsumer;
+    ret.m_eReportProcessErrorNotifyProducer = m_eReportProcessErrorNotifyProducer;
+    ret.m_eReportDeliveryFailuresNotifyProducer = m_eReportDeliveryFailuresNotifyProducer;
+    return ret;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
@@ -25,8 +25,10 @@ import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
@@ -40,7 +42,7 @@ import com.helger.phase4.soap.ESoapVersion;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeLegProtocol implements Serializable
+public class PModeLegProtocol implements Serializable, ICloneable <PModeLegProtocol>
 {
   /**
    * the value of this parameter represents the address (endpoint URL) of the
@@ -111,6 +113,16 @@ public class PModeLegProtocol implements Serializable
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeLegProtocol getClone ()
+  {
+    final PModeLegProtocol ret = new PModeLegProtocol ();
+    ret.m_sAddress = m_sAddress;
+    ret.m_eSoapVersion = m_eSoapVersion;
+    return ret;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
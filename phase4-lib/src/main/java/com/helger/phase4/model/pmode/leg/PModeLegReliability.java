@@ -30,6 +30,7 @@ import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.state.ETriState;
 import com.helger.commons.string.StringHelper;
@@ -42,7 +43,7 @@ import com.helger.commons.string.ToStringGenerator;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeLegReliability implements Serializable
+public class PModeLegReliability implements Serializable, ICloneable <PModeLegReliability>
 {
   public static final boolean DEFAULT_TERMINATE_GROUP = false;
   public static final boolean DEFAULT_START_GROUP = false;
@@ -421,6 +422,24 @@ public class PModeLegReliability implements Serializable
     return EChange.CHANGED;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeLegReliability getClone ()
+  {
+    final PModeLegReliability ret = new PModeLegReliability ();
+    ret.m_eAtLeastOnceContract = m_eAtLeastOnceContract;
+    ret.m_eAtLeastOnceAckOnDelivery = m_eAtLeastOnceAckOnDelivery;
+    ret.m_sAtLeastOnceContractAcksTo = m_sAtLeastOnceContractAcksTo;
+    ret.m_eAtLeastOnceContractAckResponse = m_eAtLeastOnceContractAckResponse;
+    ret.m_sAtLeastOnceReplyPattern = m_sAtLeastOnceReplyPattern;
+    ret.m_eAtMostOnceContract = m_eAtMostOnceContract;
+    ret.m_eInOrderContract = m_eInOrderContract;
+    ret.m_eStartGroup = m_eStartGroup;
+    ret.m_aCorrelation.addAll (m_aCorrelation);
+    ret.m_eTerminateGroup = m_eTerminateGroup;
+    return ret;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
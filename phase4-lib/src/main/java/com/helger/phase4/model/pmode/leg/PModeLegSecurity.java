@@ -30,6 +30,7 @@ import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.state.EChange;
 import com.helger.commons.state.ETriState;
 import com.helger.commons.string.StringHelper;
@@ -46,7 +47,7 @@ import com.helger.phase4.wss.EWSSVersion;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeLegSecurity implements Serializable
+public class PModeLegSecurity implements Serializable, ICloneable <PModeLegSecurity>
 {
   public static final boolean DEFAULT_USERNAME_TOKEN_DIGEST = false;
   public static final boolean DEFAULT_USERNAME_TOKEN_NONCE = false;
@@ -771,6 +772,34 @@ public class PModeLegSecurity implements Serializable
     setUsernameTokenCreated (ETriState.UNDEFINED);
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeLegSecurity getClone ()
+  {
+    final PModeLegSecurity ret = new PModeLegSecurity ();
+    ret.m_eWSSVersion = m_eWSSVersion;
+    ret.m_aX509SignElements.addAll (m_aX509SignElements);
+    ret.m_aX509SignAttachments.addAll (m_aX509SignAttachments);
+    ret.m_sX509SignatureCertificate = m_sX509SignatureCertificate;
+    ret.m_eX509SignatureHashFunction = m_eX509SignatureHashFunction;
+    ret.m_eX509SignatureAlgorithm = m_eX509SignatureAlgorithm;
+    ret.m_aX509EncryptionEncryptElements.addAll (m_aX509EncryptionEncryptElements);
+    ret.m_aX509EncryptionEncryptAttachments.addAll (m_aX509EncryptionEncryptAttachments);
+    ret.m_sX509EncryptionCertificate = m_sX509EncryptionCertificate;
+    ret.m_eX509EncryptionAlgorithm = m_eX509EncryptionAlgorithm;
+    ret.m_aX509EncryptionMinimumStrength = m_aX509EncryptionMinimumStrength;
+    ret.m_sUsernameTokenUsername = m_sUsernameTokenUsername;
+    ret.m_sUsernameTokenPassword = m_sUsernameTokenPassword;
+    ret.m_eUsernameTokenDigest = m_eUsernameTokenDigest;
+    ret.m_eUsernameTokenNonce = m_eUsernameTokenNonce;
+    ret.m_eUsernameTokenCreated = m_eUsernameTokenCreated;
+    ret.m_ePModeAuthorize = m_ePModeAuthorize;
+    ret.m_eSendReceipt = m_eSendReceipt;
+    ret.m_eSendReceiptReplyPattern = m_eSendReceiptReplyPattern;
+    ret.m_eSendReceiptNonRepudiation = m_eSendReceiptNonRepudiation;
+    return ret;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
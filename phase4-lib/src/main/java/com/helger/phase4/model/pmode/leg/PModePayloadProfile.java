@@ -25,8 +25,10 @@ import javax.annotation.concurrent.NotThreadSafe;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.name.IHasName;
 import com.helger.commons.state.EChange;
@@ -48,7 +50,7 @@ import com.helger.commons.string.ToStringGenerator;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModePayloadProfile implements IHasName, IMandatoryIndicator, Serializable
+public class PModePayloadProfile implements IHasName, IMandatoryIndicator, Serializable, ICloneable <PModePayloadProfile>
 {
   public static final boolean DEFAULT_MANDATORY = false;
 
@@ -265,6 +267,20 @@ public class PModePayloadProfile implements IHasName, IMandatoryIndicator, Seria
     return setMandatory (EMandatory.valueOf (bMandatory));
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModePayloadProfile getClone ()
+  {
+    final PModePayloadProfile ret = new PModePayloadProfile ();
+    ret.m_sName = m_sName;
+    // Treated as immutable
+    ret.m_aMimeType = m_aMimeType;
+    ret.m_sXSDFilename = m_sXSDFilename;
+    ret.m_aMaxSizeKB = m_aMaxSizeKB;
+    ret.m_eMandatory = m_eMandatory;
+    return ret;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
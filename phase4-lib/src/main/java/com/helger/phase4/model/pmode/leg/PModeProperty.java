@@ -28,8 +28,10 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.lang.ICloneable;
 import com.helger.commons.name.IHasName;
 import com.helger.commons.state.EChange;
 import com.helger.commons.state.EMandatory;
@@ -51,7 +53,7 @@ import com.helger.commons.text.IHasDescription;
  */
 @NotThreadSafe
 @MustImplementEqualsAndHashcode
-public class PModeProperty implements IHasName, IHasDescription, IMandatoryIndicator, Serializable
+public class PModeProperty implements IHasName, IHasDescription, IMandatoryIndicator, Serializable, ICloneable <PModeProperty>
 {
   public static final String DATA_TYPE_STRING = "string";
   public static final boolean DEFAULT_MANDATORY = false;
@@ -218,6 +220,18 @@ public class PModeProperty implements IHasName, IHasDescription, IMandatoryIndic
     return setMandatory (EMandatory.valueOf (bMandatory));
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public PModeProperty getClone ()
+  {
+    final PModeProperty ret = new PModeProperty ();
+    ret.m_sName = m_sName;
+    ret.m_sDescription = m_sDescription;
+    ret.m_sDataType = m_sDataType;
+    ret.m_eMandatory = m_eMandatory;
+    return ret;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
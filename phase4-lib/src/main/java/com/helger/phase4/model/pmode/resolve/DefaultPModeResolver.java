@@ -16,20 +16,31 @@
  */
 package com.helger.phase4.model.pmode.resolve;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.pmode.DefaultPMode;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.model.pmode.PMode;
 import com.helger.phase4.profile.IAS4Profile;
 
 /**
  * Default implementation of {@link IPModeResolver} using the fixed ID only. If
- * no ID is provided the default pmode is used.
+ * no ID is provided the default pmode is used.<br>
+ * Since v1.4.1 the PMode templates created by the default profile are cached
+ * per profile, initiator, responder and address, so that they are not
+ * re-created for every message. Each call returns a deep copy (see
+ * {@link PMode#getClone()}) of the cached template, so callers may modify the
+ * returned PMode.
  *
  * @author bayerlma
  * @author Philip Helger
@@ -37,8 +48,25 @@ import com.helger.phase4.profile.IAS4Profile;
 public class DefaultPModeResolver implements IPModeResolver
 {
   public static final IPModeResolver DEFAULT_PMODE_RESOLVER = new DefaultPModeResolver (false);
+  /**
+   * The maximum number of cached profile PMode templates. If exceeded, the
+   * least recently used template is removed.
+   *
+   * @since 1.4.1
+   */
+  public static final int MAX_TEMPLATE_CACHE_SIZE = 1000;
 
   private final boolean m_bUseDefaultAsFallback;
+  private final SimpleLock m_aTemplateCacheLock = new SimpleLock ();
+  @GuardedBy ("m_aTemplateCacheLock")
+  private final Map <String, PMode> m_aTemplateCache = new LinkedHashMap <String, PMode> (16, 0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry (final Map.Entry <String, PMode> aEldest)
+    {
+      return size () > MAX_TEMPLATE_CACHE_SIZE;
+    }
+  };
 
   public DefaultPModeResolver (final boolean bUseDefaultAsFallback)
   {
@@ -50,6 +78,41 @@ public class DefaultPModeResolver implements IPModeResolver
     return m_bUseDefaultAsFallback;
   }
 
+  /**
+   * Remove all cached profile PMode templates. This must be called if a
+   * profile is changed at runtime.
+   *
+   * @since 1.4.1
+   */
+  public final void clearTemplateCache ()
+  {
+    m_aTemplateCacheLock.locked (m_aTemplateCache::clear);
+  }
+
+  @Nullable
+  private PMode _getOrCreatePModeTemplate (@Nonnull final IAS4Profile aProfile,
+                                            @Nonnull @Nonempty final String sInitiatorID,
+                                            @Nonnull @Nonempty final String sResponderID,
+                                            @Nullable final String sAddress)
+  {
+    final String sKey = aProfile.getID () + '\n' + sInitiatorID + '\n' + sResponderID + '\n' + sAddress;
+    final PMode aCached = m_aTemplateCacheLock.lockedGet ( () -> m_aTemplateCache.get (sKey));
+    if (aCached != null)
+    {
+      // Hand out a new copy, as PModes are mutable
+      return aCached.getClone ();
+    }
+
+    final PMode ret = aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
+    if (ret != null)
+    {
+      // Store a copy, so that the cached object is never shared
+      final PMode aTemplate = ret.getClone ();
+      m_aTemplateCacheLock.locked ( () -> m_aTemplateCache.put (sKey, aTemplate));
+    }
+    return ret;
+  }
+
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sPModeID,
                               @Nonnull final String sService,
@@ -78,7 +141,7 @@ public class DefaultPModeResolver implements IPModeResolver
     // Use default pmode based on profile
     final IAS4Profile aProfile = MetaAS4Manager.getProfileMgr ().getDefaultProfileOrNull ();
     if (aProfile != null)
-      return aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
+      return _getOrCreatePModeTemplate (aProfile, sInitiatorID, sResponderID, sAddress);
 
     if (!m_bUseDefaultAsFallback)
     {
@@ -54,6 +54,7 @@ import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
 import com.helger.phase4.servlet.AS4IncomingHandler;
 import com.helger.phase4.servlet.AS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.IAS4MessageState;
 import com.helger.phase4.servlet.IAS4IncomingProfileSelector;
 import com.helger.phase4.util.Phase4Exception;
 
@@ -185,6 +186,47 @@ public final class AS4BidirectionalClientHelper
                                                                                                                            Phase4Exception,
                                                                                                                            WSSecurityException,
                                                                                                                            MessagingException
+  {
+    sendAS4PullRequestAndReceiveAS4UserMessage (aCryptoFactory,
+                                                aPModeResolver,
+                                                aIAF,
+                                                aIncomingProfileSelector,
+                                                aClientPullRequest,
+                                                aLocale,
+                                                sURL,
+                                                aBuildMessageCallback,
+                                                aOutgoingDumper,
+                                                aIncomingDumper,
+                                                aRetryCallback,
+                                                aResponseConsumer,
+                                                aUserMsgConsumer,
+                                                null);
+  }
+
+  /**
+   * Send a pull request and handle the response. The response is either a
+   * User Message, or a Signal Message (e.g. an EBMS:0006 error if the MPC is
+   * empty).
+   *
+   * @since 1.4.1
+   */
+  public static void sendAS4PullRequestAndReceiveAS4UserMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                                 @Nonnull final IPModeResolver aPModeResolver,
+                                                                 @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                                 @Nonnull final IAS4IncomingProfileSelector aIncomingProfileSelector,
+                                                                 @Nonnull final AS4ClientPullRequestMessage aClientPullRequest,
+                                                                 @Nonnull final Locale aLocale,
+                                                                 @Nonnull final String sURL,
+                                                                 @Nullable final IAS4ClientBuildMessageCallback aBuildMessageCallback,
+                                                                 @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                 @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                                 @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                 @Nullable final IAS4RawResponseConsumer aResponseConsumer,
+                                                                 @Nullable final IAS4UserMessageConsumer aUserMsgConsumer,
+                                                                 @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer) throws IOException,
+                                                                                                                               Phase4Exception,
+                                                                                                                               WSSecurityException,
+                                                                                                                               MessagingException
   {
     if (LOGGER.isInfoEnabled ())
       LOGGER.info ("Sending AS4 PullRequest to '" +
@@ -225,21 +267,37 @@ public final class AS4BidirectionalClientHelper
     {
       final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
 
-      // Read response as EBMS3 User Message
+      // Read response as EBMS3 User Message or Signal Message
       // Read it in any case to ensure signature validation etc. happens
-      final Ebms3UserMessage aUserMessage = AS4IncomingHandler.parseUserMessage (aCryptoFactory,
-                                                                                 aPModeResolver,
-                                                                                 aIAF,
-                                                                                 aIncomingProfileSelector,
-                                                                                 aClientPullRequest.getAS4ResourceHelper (),
-                                                                                 null,
-                                                                                 aLocale,
-                                                                                 aMessageMetadata,
-                                                                                 aWrappedResponse.get (),
-                                                                                 aResponseEntity.getResponse (),
-                                                                                 aIncomingDumper);
-      if (aUserMessage != null && aUserMsgConsumer != null)
-        aUserMsgConsumer.handleUserMessage (aUserMessage);
+      final IAS4MessageState aState = AS4IncomingHandler.parseUserOrSignalMessage (aCryptoFactory,
+                                                                                   aPModeResolver,
+                                                                                   aIAF,
+                                                                                   aIncomingProfileSelector,
+                                                                                   aClientPullRequest.getAS4ResourceHelper (),
+                                                                                   null,
+                                                                                   aLocale,
+                                                                                   aMessageMetadata,
+                                                                                   aWrappedResponse.get (),
+                                                                                   aResponseEntity.getResponse (),
+                                                                                   aIncomingDumper);
+      if (aState != null)
+      {
+        final Ebms3UserMessage aUserMessage = aState.getEbmsUserMessage ();
+        final Ebms3SignalMessage aSignalMessage = aState.getEbmsSignalMessage ();
+        if (aUserMessage != null)
+        {
+          if (aUserMsgConsumer != null)
+            aUserMsgConsumer.handleUserMessage (aUserMessage);
+        }
+        else
+          if (aSignalMessage != null)
+          {
+            if (aSignalMsgConsumer != null)
+              aSignalMsgConsumer.handleSignalMessage (aSignalMessage);
+          }
+          else
+            LOGGER.warn ("A Message state is present, but it contains neither a UserMessage nor a SignalMessage.");
+      }
     }
     else
       LOGGER.info ("AS4 ResponseEntity is empty");
@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.mutable.MutableBoolean;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.phase4.client.IAS4SignalMessageConsumer;
+import com.helger.phase4.client.IAS4UserMessageConsumer;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Periodically sends pull requests for an arbitrary number of MPC and endpoint
+ * combinations ("targets"). Each target is polled by at most one thread at a
+ * time, and the total number of concurrent pull requests is limited by the
+ * number of threads of this poller.<br>
+ * The polling interval adapts to the traffic of each target:
+ * <ul>
+ * <li>If a User Message was received, the target is polled again immediately,
+ * because more messages may be waiting.</li>
+ * <li>Otherwise, e.g. if the MPC is empty (EBMS:0006) or the pull request
+ * failed, the delay until the next pull request starts with the minimum
+ * back-off and is multiplied with the back-off factor for every subsequent
+ * pull request without a User Message, up to the maximum back-off.</li>
+ * </ul>
+ * For every pull request the latency is recorded in the timer
+ * {@link CAS4Metrics#TIMER_PREFIX_PULL_LATENCY} and the outcome is counted
+ * per MPC.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class AS4PullPoller implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_CONCURRENT_PULLS = 4;
+  public static final Duration DEFAULT_MIN_BACK_OFF = Duration.ofSeconds (1);
+  public static final Duration DEFAULT_MAX_BACK_OFF = Duration.ofMinutes (5);
+  public static final double DEFAULT_BACK_OFF_FACTOR = 2d;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4PullPoller.class);
+
+  private static final class PullTarget
+  {
+    private final String m_sTargetID;
+    private final String m_sMPC;
+    private final Callable <EAS4PullResult> m_aPullAction;
+    // Current back-off in milliseconds; 0 if messages are flowing
+    private volatile long m_nBackOffMillis = 0;
+    private volatile boolean m_bRemoved = false;
+
+    PullTarget (@Nonnull final String sTargetID,
+                @Nonnull final String sMPC,
+                @Nonnull final Callable <EAS4PullResult> aPullAction)
+    {
+      m_sTargetID = sTargetID;
+      m_sMPC = sMPC;
+      m_aPullAction = aPullAction;
+    }
+  }
+
+  private final int m_nMaxConcurrentPulls;
+  private final long m_nMinBackOffMillis;
+  private final long m_nMaxBackOffMillis;
+  private final double m_dBackOffFactor;
+  private final ScheduledThreadPoolExecutor m_aExecutor;
+  private final Map <String, PullTarget> m_aTargets = new ConcurrentHashMap <> ();
+  private volatile boolean m_bClosed = false;
+
+  /**
+   * Constructor using the default settings.
+   */
+  public AS4PullPoller ()
+  {
+    this (DEFAULT_MAX_CONCURRENT_PULLS, DEFAULT_MIN_BACK_OFF, DEFAULT_MAX_BACK_OFF, DEFAULT_BACK_OFF_FACTOR);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxConcurrentPulls
+   *        The maximum number of pull requests executed at the same time. Must
+   *        be &gt; 0.
+   * @param aMinBackOff
+   *        The delay after the first empty or failed pull request. May not be
+   *        <code>null</code> and must be &gt; 0.
+   * @param aMaxBackOff
+   *        The maximum delay between two pull requests of the same target. May
+   *        not be <code>null</code> and must be &ge; the minimum back-off.
+   * @param dBackOffFactor
+   *        The factor the delay is multiplied with for every subsequent empty
+   *        or failed pull request. Must be &ge; 1.
+   */
+  public AS4PullPoller (@Nonnegative final int nMaxConcurrentPulls,
+                        @Nonnull final Duration aMinBackOff,
+                        @Nonnull final Duration aMaxBackOff,
+                        final double dBackOffFactor)
+  {
+    ValueEnforcer.isGT0 (nMaxConcurrentPulls, "MaxConcurrentPulls");
+    ValueEnforcer.notNull (aMinBackOff, "MinBackOff");
+    ValueEnforcer.isGT0 (aMinBackOff.toMillis (), "MinBackOff");
+    ValueEnforcer.notNull (aMaxBackOff, "MaxBackOff");
+    ValueEnforcer.isTrue (aMaxBackOff.compareTo (aMinBackOff) >= 0, "MaxBackOff must be >= MinBackOff");
+    ValueEnforcer.isTrue (dBackOffFactor >= 1, "BackOffFactor must be >= 1");
+
+    m_nMaxConcurrentPulls = nMaxConcurrentPulls;
+    m_nMinBackOffMillis = aMinBackOff.toMillis ();
+    m_nMaxBackOffMillis = aMaxBackOff.toMillis ();
+    m_dBackOffFactor = dBackOffFactor;
+
+    m_aExecutor = new ScheduledThreadPoolExecutor (nMaxConcurrentPulls,
+                                                   new BasicThreadFactory.Builder ().namingPattern ("phase4-pull-%d")
+                                                                                     .daemon (true)
+                                                                                     .build ());
+    m_aExecutor.setRemoveOnCancelPolicy (true);
+    m_aExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+  }
+
+  /**
+   * @return The maximum number of pull requests executed at the same time.
+   */
+  @Nonnegative
+  public final int getMaxConcurrentPulls ()
+  {
+    return m_nMaxConcurrentPulls;
+  }
+
+  /**
+   * @return <code>true</code> if this poller was closed.
+   */
+  public final boolean isClosed ()
+  {
+    return m_bClosed;
+  }
+
+  /**
+   * Calculate the next back-off based on the current one.
+   *
+   * @param nCurrentMillis
+   *        The current back-off in milliseconds. 0 if the last pull request
+   *        received a message.
+   * @return The new back-off in milliseconds.
+   */
+  final long getNextBackOffMillis (final long nCurrentMillis)
+  {
+    if (nCurrentMillis <= 0)
+      return m_nMinBackOffMillis;
+    return (long) Math.min (m_nMaxBackOffMillis, nCurrentMillis * m_dBackOffFactor);
+  }
+
+  private void _schedule (@Nonnull final PullTarget aTarget, final long nDelayMillis)
+  {
+    if (m_bClosed || aTarget.m_bRemoved)
+      return;
+    try
+    {
+      m_aExecutor.schedule ( () -> _poll (aTarget), nDelayMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Closed concurrently
+      LOGGER.debug ("Failed to schedule pull request for target '" + aTarget.m_sTargetID + "'");
+    }
+  }
+
+  private void _poll (@Nonnull final PullTarget aTarget)
+  {
+    if (m_bClosed || aTarget.m_bRemoved)
+      return;
+
+    EAS4PullResult eResult;
+    final long nStart = AS4MetricsManager.startTimer ();
+    try
+    {
+      eResult = aTarget.m_aPullAction.call ();
+      if (eResult == null)
+        eResult = EAS4PullResult.FAILURE;
+    }
+    catch (final Exception ex)
+    {
+      LOGGER.warn ("Error sending pull request for target '" + aTarget.m_sTargetID + "'", ex);
+      eResult = EAS4PullResult.FAILURE;
+    }
+    finally
+    {
+      AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_PREFIX_PULL_LATENCY + aTarget.m_sMPC, nStart);
+    }
+
+    switch (eResult)
+    {
+      case MESSAGE_RECEIVED:
+        AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_PREFIX_PULL_RECEIVED + aTarget.m_sMPC);
+        break;
+      case EMPTY:
+        AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_PREFIX_PULL_EMPTY + aTarget.m_sMPC);
+        break;
+      case NO_MESSAGE:
+        AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_PREFIX_PULL_NO_MESSAGE + aTarget.m_sMPC);
+        break;
+      default:
+        AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_PREFIX_PULL_ERRORS + aTarget.m_sMPC);
+        break;
+    }
+
+    // More messages may be waiting - pull again immediately
+    final long nNextMillis = eResult.isMessageReceived () ? 0 : getNextBackOffMillis (aTarget.m_nBackOffMillis);
+    aTarget.m_nBackOffMillis = nNextMillis;
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Pull request for target '" +
+                    aTarget.m_sTargetID +
+                    "' resulted in " +
+                    eResult +
+                    " - next pull in " +
+                    nNextMillis +
+                    " ms");
+    _schedule (aTarget, nNextMillis);
+  }
+
+  /**
+   * Add a new target that is polled until it is removed or this poller is
+   * closed. The first pull request is sent immediately.
+   *
+   * @param sTargetID
+   *        The unique ID of the target. May neither be <code>null</code> nor
+   *        empty.
+   * @param sMPC
+   *        The MPC to pull from. Used for the metrics. May neither be
+   *        <code>null</code> nor empty.
+   * @param aPullAction
+   *        The action that sends a single pull request and returns the
+   *        outcome. May not be <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If a target with the same ID is already present
+   * @throws IllegalStateException
+   *         If this poller is already closed
+   * @see #createPullAction(String, Supplier, IAS4UserMessageConsumer)
+   */
+  public void addTarget (@Nonnull @Nonempty final String sTargetID,
+                         @Nonnull @Nonempty final String sMPC,
+                         @Nonnull final Callable <EAS4PullResult> aPullAction)
+  {
+    ValueEnforcer.notEmpty (sTargetID, "TargetID");
+    ValueEnforcer.notEmpty (sMPC, "MPC");
+    ValueEnforcer.notNull (aPullAction, "PullAction");
+    if (m_bClosed)
+      throw new IllegalStateException ("The pull poller is already closed");
+
+    final PullTarget aTarget = new PullTarget (sTargetID, sMPC, aPullAction);
+    if (m_aTargets.putIfAbsent (sTargetID, aTarget) != null)
+      throw new IllegalArgumentException ("Another pull target with ID '" + sTargetID + "' is already present");
+
+    LOGGER.info ("Added pull target '" + sTargetID + "' for MPC '" + sMPC + "'");
+    _schedule (aTarget, 0);
+  }
+
+  /**
+   * Add a new target that is polled using pull request builders until it is
+   * removed or this poller is closed. The first pull request is sent
+   * immediately.
+   *
+   * @param sTargetID
+   *        The unique ID of the target. May neither be <code>null</code> nor
+   *        empty.
+   * @param sMPC
+   *        The MPC to pull from. May neither be <code>null</code> nor empty.
+   * @param aBuilderFactory
+   *        The factory for a fully configured pull request builder. Called
+   *        once per pull request. The MPC and the User Message consumer of the
+   *        builder are overwritten. May not be <code>null</code>.
+   * @param aUserMsgConsumer
+   *        The consumer for the received User Messages. May not be
+   *        <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If a target with the same ID is already present
+   * @throws IllegalStateException
+   *         If this poller is already closed
+   */
+  public void addTarget (@Nonnull @Nonempty final String sTargetID,
+                         @Nonnull @Nonempty final String sMPC,
+                         @Nonnull final Supplier <? extends AbstractAS4PullRequestBuilder <?>> aBuilderFactory,
+                         @Nonnull final IAS4UserMessageConsumer aUserMsgConsumer)
+  {
+    addTarget (sTargetID, sMPC, createPullAction (sMPC, aBuilderFactory, aUserMsgConsumer));
+  }
+
+  /**
+   * Remove the target with the provided ID. A pull request that is currently
+   * executed for the target is not interrupted, but no further pull requests
+   * are sent.
+   *
+   * @param sTargetID
+   *        The ID of the target to remove. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the target was removed.
+   */
+  @Nonnull
+  public EChange removeTarget (@Nullable final String sTargetID)
+  {
+    if (sTargetID == null)
+      return EChange.UNCHANGED;
+
+    final PullTarget aTarget = m_aTargets.remove (sTargetID);
+    if (aTarget == null)
+      return EChange.UNCHANGED;
+
+    // The scheduled task stops on the next execution
+    aTarget.m_bRemoved = true;
+    LOGGER.info ("Removed pull target '" + sTargetID + "'");
+    return EChange.CHANGED;
+  }
+
+  /**
+   * @return The IDs of all contained targets. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllTargetIDs ()
+  {
+    return new CommonsArrayList <> (m_aTargets.keySet ());
+  }
+
+  /**
+   * Get the current back-off of the provided target.
+   *
+   * @param sTargetID
+   *        The ID of the target. May be <code>null</code>.
+   * @return <code>null</code> if no such target is present.
+   *         {@link Duration#ZERO} if the last pull request received a message.
+   */
+  @Nullable
+  public Duration getCurrentBackOff (@Nullable final String sTargetID)
+  {
+    final PullTarget aTarget = sTargetID == null ? null : m_aTargets.get (sTargetID);
+    return aTarget == null ? null : Duration.ofMillis (aTarget.m_nBackOffMillis);
+  }
+
+  /**
+   * Stop polling all targets. Currently executed pull requests are given 30
+   * seconds to finish.
+   */
+  @Override
+  public void close ()
+  {
+    if (m_bClosed)
+      return;
+    m_bClosed = true;
+    m_aTargets.clear ();
+    m_aExecutor.shutdown ();
+    try
+    {
+      if (!m_aExecutor.awaitTermination (30, TimeUnit.SECONDS))
+      {
+        LOGGER.warn ("Not all pull requests finished within 30 seconds - interrupting them");
+        m_aExecutor.shutdownNow ();
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      LOGGER.warn ("Interrupted while waiting for pull requests");
+      m_aExecutor.shutdownNow ();
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  /**
+   * Check if the provided Signal Message only contains EBMS:0006 errors,
+   * indicating that the pulled MPC is empty.
+   *
+   * @param aSignalMsg
+   *        The received Signal Message. May be <code>null</code>.
+   * @return <code>true</code> if at least one error is contained and all
+   *         errors are {@link EEbmsError#EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL}.
+   */
+  public static boolean isEmptyMPCResponse (@Nullable final Ebms3SignalMessage aSignalMsg)
+  {
+    if (aSignalMsg == null || aSignalMsg.getError ().isEmpty ())
+      return false;
+    for (final Ebms3Error aError : aSignalMsg.getError ())
+      if (!EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.getErrorCode ().equals (aError.getErrorCode ()))
+        return false;
+    return true;
+  }
+
+  /**
+   * Create a pull action that uses a new pull request builder for each pull
+   * request.
+   *
+   * @param sMPC
+   *        The MPC to pull from. May neither be <code>null</code> nor empty.
+   * @param aBuilderFactory
+   *        The factory for a fully configured pull request builder. The MPC
+   *        and the User Message consumer of the builder are overwritten. A
+   *        configured Signal Message consumer is retained. May not be
+   *        <code>null</code>.
+   * @param aUserMsgConsumer
+   *        The consumer for the received User Messages. May not be
+   *        <code>null</code>.
+   * @return The pull action. Never <code>null</code>.
+   */
+  @Nonnull
+  public static Callable <EAS4PullResult> createPullAction (@Nonnull @Nonempty final String sMPC,
+                                                            @Nonnull final Supplier <? extends AbstractAS4PullRequestBuilder <?>> aBuilderFactory,
+                                                            @Nonnull final IAS4UserMessageConsumer aUserMsgConsumer)
+  {
+    ValueEnforcer.notEmpty (sMPC, "MPC");
+    ValueEnforcer.notNull (aBuilderFactory, "BuilderFactory");
+    ValueEnforcer.notNull (aUserMsgConsumer, "UserMsgConsumer");
+
+    return () -> {
+      final AbstractAS4PullRequestBuilder <?> aBuilder = aBuilderFactory.get ();
+      if (aBuilder == null)
+        throw new IllegalStateException ("The builder factory returned no builder");
+
+      final MutableBoolean aReceived = new MutableBoolean (false);
+      final Wrapper <Ebms3SignalMessage> aSignalMsgKeeper = new Wrapper <> ();
+      final IAS4SignalMessageConsumer aOldSignalMsgConsumer = aBuilder.m_aSignalMsgConsumer;
+      aBuilder.mpc (sMPC)
+              .userMsgConsumer (aUserMsg -> {
+                aReceived.set (true);
+                aUserMsgConsumer.handleUserMessage (aUserMsg);
+              })
+              .signalMsgConsumer (aSignalMsg -> {
+                aSignalMsgKeeper.set (aSignalMsg);
+                if (aOldSignalMsgConsumer != null)
+                  aOldSignalMsgConsumer.handleSignalMessage (aSignalMsg);
+              });
+
+      if (aBuilder.sendMessage ().isFailure ())
+        return EAS4PullResult.FAILURE;
+      if (aReceived.booleanValue ())
+        return EAS4PullResult.MESSAGE_RECEIVED;
+
+      final Ebms3SignalMessage aSignalMsg = aSignalMsgKeeper.get ();
+      if (aSignalMsg == null || aSignalMsg.getError ().isEmpty ())
+        return EAS4PullResult.NO_MESSAGE;
+      return isEmptyMPCResponse (aSignalMsg) ? EAS4PullResult.EMPTY : EAS4PullResult.FAILURE;
+    };
+  }
+
+  /**
+   * Create a User Message consumer that puts all received User Messages into
+   * the provided queue, so that they can be processed by other threads. If the
+   * queue is full, the pulling thread blocks until space is available.
+   *
+   * @param aQueue
+   *        The queue to fill. May not be <code>null</code>.
+   * @return The User Message consumer. Never <code>null</code>.
+   */
+  @Nonnull
+  public static IAS4UserMessageConsumer createQueueConsumer (@Nonnull final BlockingQueue <? super Ebms3UserMessage> aQueue)
+  {
+    ValueEnforcer.notNull (aQueue, "Queue");
+    return aUserMsg -> {
+      try
+      {
+        aQueue.put (aUserMsg);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new Phase4Exception ("Interrupted while queuing the pulled User Message", ex);
+      }
+    };
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxConcurrentPulls", m_nMaxConcurrentPulls)
+                                       .append ("MinBackOffMillis", m_nMinBackOffMillis)
+                                       .append ("MaxBackOffMillis", m_nMaxBackOffMillis)
+                                       .append ("BackOffFactor", m_dBackOffFactor)
+                                       .append ("Targets", m_aTargets.size ())
+                                       .getToString ();
+  }
+}
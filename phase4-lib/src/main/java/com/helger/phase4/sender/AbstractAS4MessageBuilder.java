@@ -41,6 +41,7 @@ import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.http.BasicHttpPoster;
 import com.helger.phase4.http.HttpRetrySettings;
 import com.helger.phase4.http.IHttpPoster;
 import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
@@ -80,6 +81,8 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   private IAS4IncomingAttachmentFactory m_aIAF;
   private IAS4IncomingProfileSelector m_aIncomingProfileSelector;
   private IAS4SenderInterrupt m_aSenderInterrupt;
+  // Set by prepareMessage and reset by sendPreparedMessage
+  private boolean m_bPrepared = false;
 
   protected IAS4ClientBuildMessageCallback m_aBuildMessageCallback;
   protected IAS4OutgoingDumper m_aOutgoingDumper;
@@ -101,7 +104,7 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     // Set default values
     try
     {
-      httpClientFactory (new HttpClientFactory ());
+      httpClientFactory (BasicHttpPoster.createDefaultHttpClientFactory ());
       cryptoFactory (AS4CryptoFactoryProperties.getDefaultInstance ());
       soapVersion (ESoapVersion.SOAP_12);
       pmodeResolver (DefaultPModeResolver.DEFAULT_PMODE_RESOLVER);
@@ -553,6 +556,22 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     return ESuccess.SUCCESS;
   }
 
+  /**
+   * Get the build message callback to be used for the transmission. Override
+   * this method to wrap the configured callback for a single transmission,
+   * without modifying the callback set via
+   * {@link #buildMessageCallback(IAS4ClientBuildMessageCallback)}.
+   *
+   * @return The build message callback to be used. May be <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nullable
+  @OverrideOnDemand
+  protected IAS4ClientBuildMessageCallback getBuildMessageCallbackForSending ()
+  {
+    return m_aBuildMessageCallback;
+  }
+
   /**
    * Internal method that is invoked after the required fields are checked but
    * before sending takes place. This is e.g. the perfect place to add custom
@@ -574,32 +593,33 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   protected abstract void mainSendMessage () throws Phase4Exception;
 
   /**
-   * Synchronously send the AS4 message. First the internal "finishFields"
-   * method is called, to ensure all dynamic fields are filled - on failure this
-   * methods exits. Afterwards {@link #isEveryRequiredFieldSet()} is called to
-   * check that all mandatory elements are set - on failure this methods exits.
-   * Afterwards "customizeBeforeSending" is called to make final adjustments to
-   * the message. As the very last step, the customizable sender interrupt is
-   * invoked which may prevent the main message sending. As the last step
-   * "mainSendMessage" is invoked and "SUCCESS" is returned.<br>
-   * Note: since 0.13.0 this common implementation is in place.
+   * Prepare the AS4 message for sending without actually sending it. First the
+   * internal "finishFields" method is called, to ensure all dynamic fields are
+   * filled - on failure this methods exits. Afterwards
+   * {@link #isEveryRequiredFieldSet()} is called to check that all mandatory
+   * elements are set - on failure this methods exits. Afterwards
+   * "customizeBeforeSending" is called to make final adjustments to the
+   * message. As the very last step, the customizable sender interrupt is
+   * invoked which may prevent the main message sending.<br>
+   * On success, {@link #sendPreparedMessage()} must be called to perform the
+   * transmission. This split allows to perform preparation and transmission in
+   * different threads.
    *
    * @return {@link ESuccess#FAILURE} if not all mandatory parameters are set or
-   *         if sending failed, {@link ESuccess#SUCCESS} upon success. Never
-   *         <code>null</code>. This result code does not reflect the semantics
-   *         of a semantically correct message exchange or not. It just states,
-   *         if the message was sent or nor. The rest needs to be determined
-   *         separately.
+   *         if the sender interrupt prevented sending, {@link ESuccess#SUCCESS}
+   *         upon success. Never <code>null</code>.
    * @throws Phase4Exception
    *         In case of any error
-   * @see #isEveryRequiredFieldSet()
-   * @see #senderInterrupt()
+   * @see #sendMessage()
+   * @since 1.4.1
    */
   @Nonnull
-  public final ESuccess sendMessage () throws Phase4Exception
+  public final ESuccess prepareMessage () throws Phase4Exception
   {
     if (LOGGER.isDebugEnabled ())
-      LOGGER.debug ("About to send the AS4 message");
+      LOGGER.debug ("About to prepare the AS4 message");
+
+    m_bPrepared = false;
 
     // Pre required field check
     if (finishFields ().isFailure ())
@@ -626,12 +646,66 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
         return ESuccess.FAILURE;
       }
 
+    m_bPrepared = true;
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Synchronously send an AS4 message that was successfully prepared with
+   * {@link #prepareMessage()}.
+   *
+   * @throws IllegalStateException
+   *         If the message was not prepared successfully before
+   * @throws Phase4Exception
+   *         In case of any error
+   * @since 1.4.1
+   */
+  public final void sendPreparedMessage () throws Phase4Exception
+  {
+    if (!m_bPrepared)
+      throw new IllegalStateException ("The AS4 message was not successfully prepared before");
+
+    // Each preparation allows for one transmission
+    m_bPrepared = false;
+
     // Main sending
     mainSendMessage ();
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Finished main AS4 message sending without exception");
+  }
+
+  /**
+   * Synchronously send the AS4 message. First the internal "finishFields"
+   * method is called, to ensure all dynamic fields are filled - on failure this
+   * methods exits. Afterwards {@link #isEveryRequiredFieldSet()} is called to
+   * check that all mandatory elements are set - on failure this methods exits.
+   * Afterwards "customizeBeforeSending" is called to make final adjustments to
+   * the message. As the very last step, the customizable sender interrupt is
+   * invoked which may prevent the main message sending. As the last step
+   * "mainSendMessage" is invoked and "SUCCESS" is returned.<br>
+   * Note: since 0.13.0 this common implementation is in place.<br>
+   * Note: since 1.4.1 this is a combination of {@link #prepareMessage()} and
+   * {@link #sendPreparedMessage()}.
+   *
+   * @return {@link ESuccess#FAILURE} if not all mandatory parameters are set or
+   *         if sending failed, {@link ESuccess#SUCCESS} upon success. Never
+   *         <code>null</code>. This result code does not reflect the semantics
+   *         of a semantically correct message exchange or not. It just states,
+   *         if the message was sent or nor. The rest needs to be determined
+   *         separately.
+   * @throws Phase4Exception
+   *         In case of any error
+   * @see #isEveryRequiredFieldSet()
+   * @see #senderInterrupt()
+   */
+  @Nonnull
+  public final ESuccess sendMessage () throws Phase4Exception
+  {
+    if (prepareMessage ().isFailure ())
+      return ESuccess.FAILURE;
 
+    sendPreparedMessage ();
     return ESuccess.SUCCESS;
   }
 }
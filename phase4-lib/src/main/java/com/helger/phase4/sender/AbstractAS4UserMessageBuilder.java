@@ -30,8 +30,10 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.functional.IThrowingSupplier;
 import com.helger.commons.id.IHasID;
 import com.helger.commons.lang.EnumHelper;
+import com.helger.commons.state.ESuccess;
 import com.helger.commons.state.ISuccessIndicator;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.wrapper.Wrapper;
@@ -374,6 +376,17 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     return thisAsT ();
   }
 
+  /**
+   * @return The currently set receiver AS4 endpoint URL. May be
+   *         <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nullable
+  public final String endpointURL ()
+  {
+    return m_sEndpointURL;
+  }
+
   /**
    * Set an receiver AS4 endpoint URL, independent of its usability.
    *
@@ -710,6 +723,39 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
    */
   @Nonnull
   public final ESimpleUserMessageSendResult sendMessageAndCheckForReceipt (@Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    return _sendAndCheckForReceipt (this::sendMessage, aExceptionConsumer);
+  }
+
+  /**
+   * Same as {@link #sendMessageAndCheckForReceipt(Consumer)} but for a message
+   * that was already successfully prepared using {@link #prepareMessage()}.
+   * <br>
+   * Note: this method is not thread-safe, because it changes the signal message
+   * consumer internally.
+   *
+   * @param aExceptionConsumer
+   *        An optional Consumer that takes an eventually thrown
+   *        {@link Phase4Exception}. May be <code>null</code>.
+   * @return {@link ESimpleUserMessageSendResult#SUCCESS} only if HTTP
+   *         transmission was successful and if a positive AS4 Receipt was
+   *         returned. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the message was not prepared successfully before
+   * @since 1.4.1
+   */
+  @Nonnull
+  public final ESimpleUserMessageSendResult sendPreparedMessageAndCheckForReceipt (@Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    return _sendAndCheckForReceipt ( () -> {
+      sendPreparedMessage ();
+      return ESuccess.SUCCESS;
+    }, aExceptionConsumer);
+  }
+
+  @Nonnull
+  private ESimpleUserMessageSendResult _sendAndCheckForReceipt (@Nonnull final IThrowingSupplier <? extends ISuccessIndicator, Phase4Exception> aSender,
+                                                               @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
   {
     final IAS4SignalMessageConsumer aOld = m_aSignalMsgConsumer;
     try
@@ -722,7 +768,7 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
       };
 
       // Main sending
-      if (sendMessage ().isFailure ())
+      if (aSender.get ().isFailure ())
       {
         // Parameters are missing/incorrect
         return ESimpleUserMessageSendResult.INVALID_PARAMETERS;
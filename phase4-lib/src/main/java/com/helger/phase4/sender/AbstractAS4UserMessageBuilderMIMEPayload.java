@@ -126,7 +126,7 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
                                                                                  aUserMsg,
                                                                                  m_aLocale,
                                                                                  m_sEndpointURL,
-                                                                                 m_aBuildMessageCallback,
+                                                                                 getBuildMessageCallbackForSending (),
                                                                                  m_aOutgoingDumper,
                                                                                  m_aIncomingDumper,
                                                                                  m_aRetryCallback,
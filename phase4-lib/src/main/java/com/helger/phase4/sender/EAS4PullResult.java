@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+/**
+ * The outcome of a single pull request executed by an {@link AS4PullPoller}.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public enum EAS4PullResult
+{
+  /** A User Message was received - more messages may be waiting */
+  MESSAGE_RECEIVED,
+  /** The MPC is empty (EBMS:0006) */
+  EMPTY,
+  /**
+   * The pull request was answered, but with neither a User Message nor an
+   * error (e.g. an empty response)
+   */
+  NO_MESSAGE,
+  /** The pull request failed or was answered with an error */
+  FAILURE;
+
+  /**
+   * @return <code>true</code> if this is {@link #MESSAGE_RECEIVED}.
+   */
+  public boolean isMessageReceived ()
+  {
+    return this == MESSAGE_RECEIVED;
+  }
+}
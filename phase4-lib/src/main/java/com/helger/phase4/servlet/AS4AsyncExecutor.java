@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.mutable.MutableBoolean;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
+
+/**
+ * A bounded executor for the asynchronous processing of incoming messages
+ * (leg 1 of asynchronous MEP bindings). In contrast to a shared worker pool it
+ * offers:
+ * <ul>
+ * <li>A maximum number of waiting tasks - additional tasks are rejected</li>
+ * <li>An optional maximum number of tasks per key (PMode ID or partner ID), so
+ * that a single partner cannot occupy all resources</li>
+ * <li>Draining of the pending tasks on shutdown</li>
+ * <li>Optional usage of virtual threads, if supported by the runtime</li>
+ * </ul>
+ * The global instance is created from the configuration and shutdown in
+ * {@link AS4ServerInitializer#shutdownAS4Server()}.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class AS4AsyncExecutor
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4AsyncExecutor.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static AS4AsyncExecutor s_aInstance;
+
+  private final int m_nThreads;
+  private final int m_nQueueCapacity;
+  private final int m_nMaxPerKey;
+  private final boolean m_bVirtualThreads;
+  private final ExecutorService m_aExecutor;
+  // Limits the number of queued and running tasks
+  private final Semaphore m_aCapacity;
+  private final AtomicInteger m_aRunning = new AtomicInteger (0);
+  private final Map <String, Integer> m_aPerKeyCount = new ConcurrentHashMap <> ();
+  private volatile boolean m_bShutdown = false;
+
+  @Nullable
+  private static ExecutorService _createVirtualThreadExecutor ()
+  {
+    try
+    {
+      // Java 21+ only - therefore via reflection
+      final Method aMethod = java.util.concurrent.Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) aMethod.invoke (null);
+    }
+    catch (final ReflectiveOperationException | RuntimeException ex)
+    {
+      LOGGER.warn ("Virtual threads are not supported by this Java runtime - using platform threads instead");
+      return null;
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nThreads
+   *        The number of processing threads. Must be &gt; 0. Ignored if virtual
+   *        threads are used.
+   * @param nQueueCapacity
+   *        The maximum number of tasks waiting for execution. Must be &ge; 0.
+   * @param nMaxPerKey
+   *        The maximum number of queued and running tasks per key. Values
+   *        &le; 0 mean unlimited.
+   * @param bVirtualThreads
+   *        <code>true</code> to use virtual threads if available.
+   */
+  public AS4AsyncExecutor (@Nonnegative final int nThreads,
+                           @Nonnegative final int nQueueCapacity,
+                           final int nMaxPerKey,
+                           final boolean bVirtualThreads)
+  {
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    ValueEnforcer.isGE0 (nQueueCapacity, "QueueCapacity");
+    m_nThreads = nThreads;
+    m_nQueueCapacity = nQueueCapacity;
+    m_nMaxPerKey = nMaxPerKey;
+
+    final ExecutorService aVirtualExecutor = bVirtualThreads ? _createVirtualThreadExecutor () : null;
+    m_bVirtualThreads = aVirtualExecutor != null;
+    if (aVirtualExecutor != null)
+    {
+      m_aExecutor = aVirtualExecutor;
+    }
+    else
+    {
+      // Daemon threads, so that the JVM shutdown is not blocked. The queue is
+      // bounded by the capacity semaphore
+      final ThreadPoolExecutor aTPE = new ThreadPoolExecutor (nThreads,
+                                                              nThreads,
+                                                              60,
+                                                              TimeUnit.SECONDS,
+                                                              new LinkedBlockingQueue <> (),
+                                                              new BasicThreadFactory.Builder ().namingPattern ("phase4-async-%d")
+                                                                                                .daemon (true)
+                                                                                                .build ());
+      aTPE.allowCoreThreadTimeOut (true);
+      m_aExecutor = aTPE;
+    }
+    // With virtual threads every task runs immediately, so only the queue
+    // capacity limits the number of tasks
+    m_aCapacity = new Semaphore (m_bVirtualThreads ? Math.max (nQueueCapacity, 1) : nThreads + nQueueCapacity);
+  }
+
+  /**
+   * @return The number of processing threads. Irrelevant if virtual threads
+   *         are used.
+   */
+  @Nonnegative
+  public final int getThreads ()
+  {
+    return m_nThreads;
+  }
+
+  /**
+   * @return The maximum number of tasks waiting for execution.
+   */
+  @Nonnegative
+  public final int getQueueCapacity ()
+  {
+    return m_nQueueCapacity;
+  }
+
+  /**
+   * @return The maximum number of tasks per key. Values &le; 0 mean unlimited.
+   */
+  public final int getMaxPerKey ()
+  {
+    return m_nMaxPerKey;
+  }
+
+  /**
+   * @return <code>true</code> if virtual threads are used.
+   */
+  public final boolean isVirtualThreads ()
+  {
+    return m_bVirtualThreads;
+  }
+
+  /**
+   * @return The number of tasks currently being executed.
+   */
+  @Nonnegative
+  public int getRunningCount ()
+  {
+    return m_aRunning.get ();
+  }
+
+  /**
+   * @return The number of tasks currently waiting for execution.
+   */
+  @Nonnegative
+  public int getQueueDepth ()
+  {
+    if (m_aExecutor instanceof ThreadPoolExecutor)
+      return ((ThreadPoolExecutor) m_aExecutor).getQueue ().size ();
+    return 0;
+  }
+
+  /**
+   * @return <code>true</code> if this executor was shutdown.
+   */
+  public boolean isShutdown ()
+  {
+    return m_bShutdown;
+  }
+
+  private boolean _acquireKey (@Nonnull final String sKey)
+  {
+    if (m_nMaxPerKey <= 0)
+      return true;
+
+    final MutableBoolean aAcquired = new MutableBoolean (false);
+    m_aPerKeyCount.compute (sKey, (k, v) -> {
+      final int nCount = v == null ? 0 : v.intValue ();
+      if (nCount >= m_nMaxPerKey)
+        return v;
+      aAcquired.set (true);
+      return Integer.valueOf (nCount + 1);
+    });
+    return aAcquired.booleanValue ();
+  }
+
+  private void _releaseKey (@Nonnull final String sKey)
+  {
+    if (m_nMaxPerKey > 0)
+      m_aPerKeyCount.computeIfPresent (sKey, (k, v) -> v.intValue () <= 1 ? null : Integer.valueOf (v.intValue () - 1));
+  }
+
+  @Nonnull
+  private static RejectedExecutionException _reject (@Nonnull final String sMsg)
+  {
+    AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_ASYNC_REJECTED);
+    return new RejectedExecutionException (sMsg);
+  }
+
+  /**
+   * Submit a new task for asynchronous processing.
+   *
+   * @param sKey
+   *        The key (PMode ID or partner ID) the task is accounted to. May
+   *        neither be <code>null</code> nor empty.
+   * @param aRunnable
+   *        The task to execute. May not be <code>null</code>.
+   * @return The future that is completed after execution. Never
+   *         <code>null</code>.
+   * @throws RejectedExecutionException
+   *         If the task cannot be accepted because the capacity or the per key
+   *         limit is exhausted or if the executor was shutdown.
+   */
+  @Nonnull
+  public CompletableFuture <Void> submit (@Nonnull @Nonempty final String sKey,
+                                          @Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+
+    if (m_bShutdown)
+      throw _reject ("The asynchronous processing executor was shutdown");
+    if (!m_aCapacity.tryAcquire ())
+      throw _reject ("The asynchronous processing queue is full");
+    if (!_acquireKey (sKey))
+    {
+      m_aCapacity.release ();
+      throw _reject ("The asynchronous processing limit of " + m_nMaxPerKey + " for '" + sKey + "' is exhausted");
+    }
+
+    final CompletableFuture <Void> ret = new CompletableFuture <> ();
+    final long nQueueStart = AS4MetricsManager.startTimer ();
+    try
+    {
+      m_aExecutor.execute ( () -> {
+        AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_ASYNC_QUEUE_WAIT, nQueueStart);
+        m_aRunning.incrementAndGet ();
+        final long nStart = AS4MetricsManager.startTimer ();
+        try
+        {
+          aRunnable.run ();
+          ret.complete (null);
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.error ("Error in asynchronous processing of '" + sKey + "'", ex);
+          ret.completeExceptionally (ex);
+        }
+        finally
+        {
+          AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_ASYNC_EXECUTION, nStart);
+          m_aRunning.decrementAndGet ();
+          _releaseKey (sKey);
+          m_aCapacity.release ();
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      _releaseKey (sKey);
+      m_aCapacity.release ();
+      AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_ASYNC_REJECTED);
+      throw ex;
+    }
+    return ret;
+  }
+
+  /**
+   * Shutdown the executor. No new tasks are accepted, and the pending tasks are
+   * given the provided time to finish.
+   *
+   * @param nDrainSeconds
+   *        The maximum number of seconds to wait for the pending tasks. Must be
+   *        &ge; 0.
+   * @return <code>true</code> if all pending tasks finished in time.
+   */
+  public boolean shutdown (@Nonnegative final long nDrainSeconds)
+  {
+    m_bShutdown = true;
+    m_aExecutor.shutdown ();
+    try
+    {
+      if (m_aExecutor.awaitTermination (nDrainSeconds, TimeUnit.SECONDS))
+        return true;
+      LOGGER.warn ("Not all asynchronous processing tasks finished within " +
+                   nDrainSeconds +
+                   " seconds - interrupting them");
+    }
+    catch (final InterruptedException ex)
+    {
+      LOGGER.warn ("Interrupted while waiting for asynchronous processing tasks");
+      Thread.currentThread ().interrupt ();
+    }
+    m_aExecutor.shutdownNow ();
+    return false;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Threads", m_nThreads)
+                                       .append ("QueueCapacity", m_nQueueCapacity)
+                                       .append ("MaxPerKey", m_nMaxPerKey)
+                                       .append ("VirtualThreads", m_bVirtualThreads)
+                                       .getToString ();
+  }
+
+  /**
+   * @return The global instance, created from the configuration on first
+   *         usage. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4AsyncExecutor getInstance ()
+  {
+    final AS4AsyncExecutor ret = RW_LOCK.readLockedGet ( () -> s_aInstance);
+    if (ret != null)
+      return ret;
+
+    return RW_LOCK.writeLockedGet ( () -> {
+      if (s_aInstance == null)
+      {
+        s_aInstance = new AS4AsyncExecutor (AS4Configuration.getAsyncThreads (),
+                                            AS4Configuration.getAsyncQueueCapacity (),
+                                            AS4Configuration.getAsyncMaxPerKey (),
+                                            AS4Configuration.isAsyncVirtualThreads ());
+        if (LOGGER.isInfoEnabled ())
+          LOGGER.info ("Created asynchronous processing executor " + s_aInstance);
+      }
+      return s_aInstance;
+    });
+  }
+
+  /**
+   * Shutdown the global instance, if present, and wait for the pending tasks
+   * as configured. The next call to {@link #getInstance()} creates a new
+   * instance.
+   */
+  public static void shutdownInstance ()
+  {
+    final AS4AsyncExecutor aOld = RW_LOCK.writeLockedGet ( () -> {
+      final AS4AsyncExecutor ret = s_aInstance;
+      s_aInstance = null;
+      return ret;
+    });
+    if (aOld != null)
+      aOld.shutdown (AS4Configuration.getAsyncShutdownDrainSeconds ());
+  }
+}
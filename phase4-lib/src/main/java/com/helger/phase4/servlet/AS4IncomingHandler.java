@@ -28,7 +28,8 @@ import javax.annotation.Nullable;
 import javax.annotation.WillClose;
 import javax.annotation.WillNotClose;
 import javax.mail.MessagingException;
-import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeUtility;
 import javax.xml.namespace.QName;
 
 import org.apache.hc.core5.http.Header;
@@ -50,10 +51,12 @@ import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.CountingInputStream;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.wrapper.Wrapper;
 import com.helger.phase4.attachment.AS4DecompressException;
@@ -73,6 +76,8 @@ import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.AS4Helper;
 import com.helger.phase4.model.pmode.IPMode;
@@ -174,6 +179,11 @@ public class AS4IncomingHandler
     final ICommonsList <WSS4JAttachment> aIncomingAttachments = new CommonsArrayList <> ();
     final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
 
+    // Count the read bytes only if metrics are enabled
+    final CountingInputStream aCountingIS = AS4MetricsManager.isEnabled () ? new CountingInputStream (aPayloadIS)
+                                                                           : null;
+    final InputStream aRealPayloadIS = aCountingIS != null ? aCountingIS : aPayloadIS;
+
     if (aPlainContentType.equals (AS4RequestHandler.MT_MULTIPART_RELATED))
     {
       // MIME message
@@ -187,9 +197,10 @@ public class AS4IncomingHandler
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("MIME Boundary: '" + sBoundary + "'");
 
+      final long nMimeStart = AS4MetricsManager.startTimer ();
       // Ensure the stream gets closed correctly
       try (final InputStream aRequestIS = AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
-                                                                                          aPayloadIS,
+                                                                                          aRealPayloadIS,
                                                                                           aMessageMetadata,
                                                                                           aHttpHeaders,
                                                                                           aDumpOSHolder))
@@ -211,8 +222,8 @@ public class AS4IncomingHandler
 
           try (final MultipartItemInputStream aBodyPartIS = aMulti.createInputStream ())
           {
-            // Read headers AND content
-            final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
+            // Read only the headers - the content is streamed afterwards
+            final InternetHeaders aPartHeaders = new InternetHeaders (aBodyPartIS);
 
             if (nIndex == 0)
             {
@@ -221,9 +232,21 @@ public class AS4IncomingHandler
                 LOGGER.debug ("Parsing first MIME part as SOAP document");
 
               // Read SOAP document
-              aSoapDocument = DOMReader.readXMLDOM (aBodyPart.getInputStream ());
+              final String sCTE = aPartHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, null);
+              final InputStream aSoapIS = StringHelper.hasText (sCTE) ? MimeUtility.decode (aBodyPartIS, sCTE.trim ())
+                                                                      : aBodyPartIS;
+              final long nSoapStart = AS4MetricsManager.startTimer ();
+              try
+              {
+                aSoapDocument = DOMReader.readXMLDOM (aSoapIS);
+              }
+              finally
+              {
+                AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_INCOMING_SOAP_PARSING, nSoapStart);
+              }
 
-              IMimeType aPlainPartMT = MimeTypeParser.safeParseMimeType (aBodyPart.getContentType ());
+              IMimeType aPlainPartMT = MimeTypeParser.safeParseMimeType (aPartHeaders.getHeader (CHttpHeader.CONTENT_TYPE,
+                                                                                                 null));
               if (aPlainPartMT != null)
                 aPlainPartMT = aPlainPartMT.getCopyWithoutParameters ();
 
@@ -246,13 +269,17 @@ public class AS4IncomingHandler
               if (LOGGER.isDebugEnabled ())
                 LOGGER.debug ("Parsing MIME part #" + nIndex + " as attachment");
 
-              final WSS4JAttachment aAttachment = aIAF.createAttachment (aBodyPart, aResHelper);
+              final WSS4JAttachment aAttachment = aIAF.createAttachment (aPartHeaders, aBodyPartIS, aResHelper);
               aIncomingAttachments.add (aAttachment);
             }
           }
           nIndex++;
         }
       }
+      finally
+      {
+        AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_INCOMING_MIME_PARSING, nMimeStart);
+      }
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Read MIME message with " + aIncomingAttachments.size () + " attachment(s)");
     }
@@ -263,11 +290,19 @@ public class AS4IncomingHandler
 
       // Expect plain SOAP - read whole request to DOM
       // Note: this may require a huge amount of memory for large requests
-      aSoapDocument = DOMReader.readXMLDOM (AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
-                                                                                            aPayloadIS,
-                                                                                            aMessageMetadata,
-                                                                                            aHttpHeaders,
-                                                                                            aDumpOSHolder));
+      final long nSoapStart = AS4MetricsManager.startTimer ();
+      try
+      {
+        aSoapDocument = DOMReader.readXMLDOM (AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
+                                                                                              aRealPayloadIS,
+                                                                                              aMessageMetadata,
+                                                                                              aHttpHeaders,
+                                                                                              aDumpOSHolder));
+      }
+      finally
+      {
+        AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_INCOMING_SOAP_PARSING, nSoapStart);
+      }
 
       if (LOGGER.isDebugEnabled ())
       {
@@ -294,6 +329,12 @@ public class AS4IncomingHandler
       }
     }
 
+    if (aCountingIS != null)
+    {
+      AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_INCOMING_MESSAGES);
+      AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_INCOMING_BYTES, aCountingIS.getBytesRead ());
+    }
+
     try
     {
       if (aSoapDocument == null)
@@ -391,12 +432,22 @@ public class AS4IncomingHandler
       try
       {
         // Process element
-        if (aProcessor.processHeaderElement (aSoapDocument,
-                                             aHeader.getNode (),
-                                             aIncomingAttachments,
-                                             aState,
-                                             aErrorList)
-                      .isSuccess ())
+        final long nProcessorStart = AS4MetricsManager.startTimer ();
+        final ESuccess eSuccess;
+        try
+        {
+          eSuccess = aProcessor.processHeaderElement (aSoapDocument,
+                                                      aHeader.getNode (),
+                                                      aIncomingAttachments,
+                                                      aState,
+                                                      aErrorList);
+        }
+        finally
+        {
+          AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_PREFIX_INCOMING_SOAP_HEADER + aQName.getLocalPart (),
+                                       nProcessorStart);
+        }
+        if (eSuccess.isSuccess ())
         {
           // Mark header as processed (for mustUnderstand check)
           aHeader.setProcessed (true);
@@ -780,6 +831,67 @@ public class AS4IncomingHandler
     return aRetWrapper.get ();
   }
 
+  /**
+   * Parse the provided response, that may either contain a User Message or a
+   * Signal Message.
+   *
+   * @param aCryptoFactory
+   *        Crypto factory to use. May not be <code>null</code>.
+   * @param aPModeResolver
+   *        PMode resolver to use. May not be <code>null</code>.
+   * @param aIAF
+   *        Incoming attachment factory to use. May not be <code>null</code>.
+   * @param aAS4ProfileSelector
+   *        Incoming profile selector to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        Resource helper to use. May not be <code>null</code>.
+   * @param aSendingPMode
+   *        The PMode of the sent message, used as fallback. May be
+   *        <code>null</code>.
+   * @param aLocale
+   *        Locale to use. May not be <code>null</code>.
+   * @param aMessageMetadata
+   *        The metadata of the response. May not be <code>null</code>.
+   * @param aHttpResponse
+   *        The HTTP response. May not be <code>null</code>.
+   * @param aResponsePayload
+   *        The response payload. May not be <code>null</code>.
+   * @param aIncomingDumper
+   *        The incoming dumper to use. May be <code>null</code>.
+   * @return The parsed message state. May be <code>null</code>. Use
+   *         {@link IAS4MessageState#getEbmsUserMessage()} and
+   *         {@link IAS4MessageState#getEbmsSignalMessage()} to determine the
+   *         type of the message.
+   * @throws Phase4Exception
+   *         In case of error
+   * @since 1.4.1
+   */
+  @Nullable
+  public static IAS4MessageState parseUserOrSignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                           @Nonnull final IPModeResolver aPModeResolver,
+                                                           @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                           @Nonnull final IAS4IncomingProfileSelector aAS4ProfileSelector,
+                                                           @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                           @Nullable final IPMode aSendingPMode,
+                                                           @Nonnull final Locale aLocale,
+                                                           @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                           @Nonnull final HttpResponse aHttpResponse,
+                                                           @Nonnull final byte [] aResponsePayload,
+                                                           @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
+  {
+    return _parseMessage (aCryptoFactory,
+                          aPModeResolver,
+                          aIAF,
+                          aAS4ProfileSelector,
+                          aResHelper,
+                          aSendingPMode,
+                          aLocale,
+                          aMessageMetadata,
+                          aHttpResponse,
+                          aResponsePayload,
+                          aIncomingDumper);
+  }
+
   @Nullable
   public static Ebms3SignalMessage parseSignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
                                                        @Nonnull final IPModeResolver aPModeResolver,
@@ -31,6 +31,7 @@ import org.apache.wss4j.dom.WSConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
@@ -77,6 +78,7 @@ public final class AS4MessageState extends AttributeContainerAny <String> implem
   private static final String KEY_EFFECTIVE_PMODE_LEG_NUMBER = "phase4.pmode.effective.leg.number";
   private static final String KEY_WSS4J_SECURITY_ACTIONS = "phase4.soap.wss4j-security-actions";
   private static final String KEY_WSS4J_EXCEPTION = "phase4.soap.wss4j-exception";
+  private static final String KEY_VERIFIED_DSIG_REFERENCES = "phase4.soap.verified.dsig.references";
   private static final String KEY_PHASE4_PROFILE_ID = "phase4.profile.id";
   private static final String KEY_AS4_MESSAGE_ID = "phase4.message.id";
   private static final String KEY_AS4_REF_TO_MESSAGE_ID = "phase4.ref.to.message.id";
@@ -311,6 +313,17 @@ public final class AS4MessageState extends AttributeContainerAny <String> implem
     putIn (KEY_WSS4J_EXCEPTION, aException);
   }
 
+  @Nullable
+  public ICommonsList <Element> getVerifiedDSigReferences ()
+  {
+    return getCastedValue (KEY_VERIFIED_DSIG_REFERENCES);
+  }
+
+  public void setVerifiedDSigReferences (@Nullable final ICommonsList <Element> aRefs)
+  {
+    putIn (KEY_VERIFIED_DSIG_REFERENCES, aRefs);
+  }
+
   @Nullable
   public String getProfileID ()
   {
@@ -22,6 +22,7 @@ import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
@@ -59,9 +60,11 @@ import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptParams;
 import com.helger.phase4.crypto.AS4SigningParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
@@ -91,6 +94,9 @@ import com.helger.phase4.messaging.domain.EAS4MessageType;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.messaging.mime.AS4MimeMessage;
 import com.helger.phase4.messaging.mime.MimeMessageCreator;
+import com.helger.phase4.metrics.AS4MetricsCountingInputStream;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.EMEPBinding;
 import com.helger.phase4.model.MEPHelper;
@@ -109,7 +115,6 @@ import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.AS4XMLHelper;
 import com.helger.phase4.util.Phase4Exception;
-import com.helger.photon.app.PhotonWorkerPool;
 import com.helger.web.scope.IRequestWebScopeWithoutResponse;
 import com.helger.xml.serialize.write.XMLWriter;
 
@@ -167,11 +172,12 @@ public class AS4RequestHandler implements AutoCloseable
     public void applyToResponse (@Nonnull final IAS4ResponseAbstraction aHttpResponse,
                                  @Nullable final IAS4OutgoingDumper aOutgoingDumper)
     {
-      final String sXML = AS4XMLHelper.serializeXML (m_aDoc);
+      // Serialize once - the same bytes are used for response and dumper
       final Charset aCharset = AS4XMLHelper.XWS.getCharset ();
-      final byte [] aXMLBytes = sXML.getBytes (aCharset);
+      final byte [] aXMLBytes = AS4XMLHelper.serializeXMLBytes (m_aDoc);
       aHttpResponse.setContent (aXMLBytes, aCharset);
       aHttpResponse.setMimeType (m_aMimeType);
+      AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_RESPONSE_BYTES, aXMLBytes.length);
 
       if (aOutgoingDumper != null)
       {
@@ -252,7 +258,15 @@ public class AS4RequestHandler implements AutoCloseable
           throw new IllegalStateException ("Failed to get MIME input stream", ex);
         }
       });
-      aHttpResponse.setContent (m_aHttpHeaders, aContent);
+      // The dumper below reads the content as well, so count only the bytes
+      // read for the response
+      final IHasInputStream aResponseContent;
+      if (AS4MetricsManager.isEnabled ())
+        aResponseContent = HasInputStream.multiple ( () -> new AS4MetricsCountingInputStream (aContent.getInputStream (),
+                                                                                              CAS4Metrics.COUNTER_RESPONSE_BYTES));
+      else
+        aResponseContent = aContent;
+      aHttpResponse.setContent (m_aHttpHeaders, aResponseContent);
       aHttpResponse.setMimeType (MT_MULTIPART_RELATED);
 
       if (aOutgoingDumper != null)
@@ -683,25 +697,34 @@ public class AS4RequestHandler implements AutoCloseable
           // Main processing
           final AS4MessageProcessorResult aResult;
           final ICommonsList <Ebms3Error> aProcessingErrorMessages = new CommonsArrayList <> ();
-          if (bIsUserMessage)
-          {
-            aResult = aProcessor.processAS4UserMessage (m_aMessageMetadata,
-                                                        aHttpHeaders,
-                                                        aEbmsUserMessage,
-                                                        aPMode,
-                                                        aPayloadNode,
-                                                        aDecryptedAttachments,
-                                                        aState,
-                                                        aProcessingErrorMessages);
-          }
-          else
+          final long nStart = AS4MetricsManager.startTimer ();
+          try
           {
-            aResult = aProcessor.processAS4SignalMessage (m_aMessageMetadata,
+            if (bIsUserMessage)
+            {
+              aResult = aProcessor.processAS4UserMessage (m_aMessageMetadata,
                                                           aHttpHeaders,
-                                                          aEbmsSignalMessage,
+                                                          aEbmsUserMessage,
                                                           aPMode,
+                                                          aPayloadNode,
+                                                          aDecryptedAttachments,
                                                           aState,
                                                           aProcessingErrorMessages);
+            }
+            else
+            {
+              aResult = aProcessor.processAS4SignalMessage (m_aMessageMetadata,
+                                                            aHttpHeaders,
+                                                            aEbmsSignalMessage,
+                                                            aPMode,
+                                                            aState,
+                                                            aProcessingErrorMessages);
+            }
+          }
+          finally
+          {
+            AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_PREFIX_INCOMING_SPI + aProcessor.getClass ().getName (),
+                                         nStart);
           }
 
           // Result returned?
@@ -1059,6 +1082,72 @@ public class AS4RequestHandler implements AutoCloseable
     return true;
   }
 
+  /**
+   * Submit the asynchronous processing of a message. If the executor rejects
+   * the task, the message ID is removed from the duplicate manager again, so
+   * that the retry of the sender is not rejected as a duplicate.
+   *
+   * @param aExecutor
+   *        The executor to use. May not be <code>null</code>.
+   * @param aDuplicateMgr
+   *        The duplicate manager the message ID was registered in. May not be
+   *        <code>null</code>.
+   * @param sAsyncKey
+   *        The key for the per key limit. May neither be <code>null</code> nor
+   *        empty.
+   * @param sMessageID
+   *        The ID of the message to be processed. May be <code>null</code>.
+   * @param aRunnable
+   *        The processing task. May not be <code>null</code>.
+   * @return <code>null</code> if the task was rejected.
+   */
+  @Nullable
+  static CompletableFuture <Void> submitAsyncOrUnregister (@Nonnull final AS4AsyncExecutor aExecutor,
+                                                           @Nonnull final IAS4DuplicateManager aDuplicateMgr,
+                                                           @Nonnull @Nonempty final String sAsyncKey,
+                                                           @Nullable final String sMessageID,
+                                                           @Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+  {
+    try
+    {
+      return aExecutor.submit (sAsyncKey, aRunnable);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      LOGGER.error ("Rejecting asynchronous processing of message '" + sMessageID + "': " + ex.getMessage ());
+      // The message was not processed, so the retry must be accepted
+      aDuplicateMgr.unregister (sMessageID);
+      return null;
+    }
+  }
+
+  /**
+   * Determine the key for the per key limit of the asynchronous processing.
+   *
+   * @param aPMode
+   *        The PMode in use. May not be <code>null</code>.
+   * @param aEbmsUserMessage
+   *        The incoming user message. May be <code>null</code>.
+   * @return The sending party ID if configured and available, the PMode ID
+   *         otherwise.
+   */
+  @Nonnull
+  @Nonempty
+  private static String _getAsyncLimitKey (@Nonnull final IPMode aPMode, @Nullable final Ebms3UserMessage aEbmsUserMessage)
+  {
+    if ("partner".equalsIgnoreCase (AS4Configuration.getAsyncLimitKey ()) &&
+        aEbmsUserMessage != null &&
+        aEbmsUserMessage.getPartyInfo () != null &&
+        aEbmsUserMessage.getPartyInfo ().getFrom () != null &&
+        aEbmsUserMessage.getPartyInfo ().getFrom ().hasPartyIdEntries ())
+    {
+      final String sPartyID = aEbmsUserMessage.getPartyInfo ().getFrom ().getPartyIdAtIndex (0).getValue ();
+      if (StringHelper.hasText (sPartyID))
+        return sPartyID;
+    }
+    return aPMode.getID ();
+  }
+
   /**
    * If the PModeLegSecurity has set a Sign and Digest Algorithm the message
    * will be signed, else the message will be returned as it is.
@@ -1090,14 +1179,22 @@ public class AS4RequestHandler implements AutoCloseable
     {
       // Sign
       final boolean bMustUnderstand = true;
-      ret = AS4Signer.createSignedMessage (m_aCryptoFactory,
-                                           aDocToBeSigned,
-                                           eSoapVersion,
-                                           sMessagingID,
-                                           aResponseAttachments,
-                                           m_aResHelper,
-                                           bMustUnderstand,
-                                           aSigningParams.getClone ());
+      final long nStart = AS4MetricsManager.startTimer ();
+      try
+      {
+        ret = AS4Signer.createSignedMessage (m_aCryptoFactory,
+                                             aDocToBeSigned,
+                                             eSoapVersion,
+                                             sMessagingID,
+                                             aResponseAttachments,
+                                             m_aResHelper,
+                                             bMustUnderstand,
+                                             aSigningParams.getClone ());
+      }
+      finally
+      {
+        AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_RESPONSE_SIGNING, nStart);
+      }
     }
     else
     {
@@ -1150,12 +1247,26 @@ public class AS4RequestHandler implements AutoCloseable
                                                              @Nullable final Ebms3UserMessage aUserMessage,
                                                              @Nullable final ICommonsList <WSS4JAttachment> aResponseAttachments) throws WSSecurityException
   {
-    final AS4ReceiptMessage aReceiptMessage = AS4ReceiptMessage.create (eSoapVersion,
-                                                                        sResponseMessageID,
-                                                                        aUserMessage,
-                                                                        aSoapDocument,
-                                                                        _isSendNonRepudiationInformation (aEffectiveLeg))
-                                                               .setMustUnderstand (true);
+    final boolean bSendNRI = _isSendNonRepudiationInformation (aEffectiveLeg);
+    final AS4ReceiptMessage aReceiptMessage;
+    if (aState.hasVerifiedDSigReferences ())
+    {
+      // Use the references captured during signature verification
+      aReceiptMessage = AS4ReceiptMessage.createWithDSigReferences (eSoapVersion,
+                                                                    sResponseMessageID,
+                                                                    aUserMessage,
+                                                                    aState.getVerifiedDSigReferences (),
+                                                                    bSendNRI);
+    }
+    else
+    {
+      aReceiptMessage = AS4ReceiptMessage.create (eSoapVersion,
+                                                  sResponseMessageID,
+                                                  aUserMessage,
+                                                  aSoapDocument,
+                                                  bSendNRI);
+    }
+    aReceiptMessage.setMustUnderstand (true);
 
     // We've got our response
     final Document aResponseDoc = aReceiptMessage.getAsSoapDocument ();
@@ -1318,13 +1429,23 @@ public class AS4RequestHandler implements AutoCloseable
                       sProfileID +
                       "'");
 
-      final boolean bIsDuplicate = MetaAS4Manager.getIncomingDuplicateMgr ()
-                                                 .registerAndCheck (sMessageID,
-                                                                    sProfileID,
-                                                                    aPMode == null ? null : aPMode.getID ())
-                                                 .isBreak ();
+      final long nStart = AS4MetricsManager.startTimer ();
+      final boolean bIsDuplicate;
+      try
+      {
+        bIsDuplicate = MetaAS4Manager.getIncomingDuplicateMgr ()
+                                     .registerAndCheck (sMessageID,
+                                                        sProfileID,
+                                                        aPMode == null ? null : aPMode.getID ())
+                                     .isBreak ();
+      }
+      finally
+      {
+        AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_INCOMING_DUPLICATE_CHECK, nStart);
+      }
       if (bIsDuplicate)
       {
+        AS4MetricsManager.incrementCounter (CAS4Metrics.COUNTER_INCOMING_DUPLICATES);
         if (LOGGER.isErrorEnabled ())
           LOGGER.error ("Not invoking SPIs, because message with Message ID '" +
                         sMessageID +
@@ -1479,38 +1600,59 @@ public class AS4RequestHandler implements AutoCloseable
                                   sResponseMessageID);
 
           // invoke client with new document
-          final BasicHttpPoster aSender = new BasicHttpPoster ();
+          // Uses the shared pooled or HTTP/2 client, if enabled in the
+          // configuration
+          final BasicHttpPoster aSender = BasicHttpPoster.createDefaultHttpPoster ();
           final Document aAsyncResponse;
-          if (true)
+          final long nStart = AS4MetricsManager.startTimer ();
+          try
           {
-            final HttpHeaderMap aResponseHttpHeaders = null;
-            // TODO make async send parameters customizable
-            final HttpRetrySettings aRetrySettings = new HttpRetrySettings ();
-            aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
-                                                                    aResponseHttpHeaders,
-                                                                    aHttpEntity,
-                                                                    sMessageID,
-                                                                    aRetrySettings,
-                                                                    new ResponseHandlerXml (),
-                                                                    m_aOutgoingDumper,
-                                                                    m_aRetryCallback);
+            if (true)
+            {
+              final HttpHeaderMap aResponseHttpHeaders = null;
+              // TODO make async send parameters customizable
+              final HttpRetrySettings aRetrySettings = new HttpRetrySettings ();
+              aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
+                                                                      aResponseHttpHeaders,
+                                                                      aHttpEntity,
+                                                                      sMessageID,
+                                                                      aRetrySettings,
+                                                                      new ResponseHandlerXml (),
+                                                                      m_aOutgoingDumper,
+                                                                      m_aRetryCallback);
+            }
+            else
+            {
+              aAsyncResponse = aSender.sendGenericMessage (sAsyncResponseURL,
+                                                           null,
+                                                           aHttpEntity,
+                                                           new ResponseHandlerXml ());
+            }
           }
-          else
+          finally
           {
-            aAsyncResponse = aSender.sendGenericMessage (sAsyncResponseURL,
-                                                         null,
-                                                         aHttpEntity,
-                                                         new ResponseHandlerXml ());
+            AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_RESPONSE_ASYNC_SENDING, nStart);
           }
           AS4HttpDebug.debug ( () -> "SEND-RESPONSE [async sent] received: " +
                                      XMLWriter.getNodeAsString (aAsyncResponse,
                                                                 AS4HttpDebug.getDebugXMLWriterSettings ()));
         };
 
-        final CompletableFuture <Void> aFuture = PhotonWorkerPool.getInstance ()
-                                                                 .runThrowing (CAS4.LIB_NAME + " async processing", r);
+        // Use the bounded asynchronous executor
+        final String sAsyncKey = _getAsyncLimitKey (aPMode, aEbmsUserMessage);
+        final CompletableFuture <Void> aFuture = submitAsyncOrUnregister (AS4AsyncExecutor.getInstance (),
+                                                                         MetaAS4Manager.getIncomingDuplicateMgr (),
+                                                                         sAsyncKey,
+                                                                         sMessageID,
+                                                                         r);
+        if (aFuture == null)
+        {
+          aErrorMessagesTarget.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale,
+                                                                           sMessageID,
+                                                                           "The message cannot be processed at the moment - please retry later"));
+        }
 
-        if (m_aSoapProcessingFinalizedCB != null)
+        if (aFuture != null && m_aSoapProcessingFinalizedCB != null)
         {
           // Give the outside world the possibility to get notified when the
           // processing is done
@@ -1581,16 +1723,24 @@ public class AS4RequestHandler implements AutoCloseable
                 (aPMode.getMEPBinding ().equals (EMEPBinding.PULL_PUSH) && aSPIResult.hasPullReturnUserMsg ()) ||
                 (aPMode.getMEPBinding ().equals (EMEPBinding.PUSH_PULL) && aSPIResult.hasPullReturnUserMsg ()))
             {
-              // TODO would be nice to have attachments here I guess
               final AS4UserMessage aResponseUserMsg = new AS4UserMessage (eSoapVersion,
                                                                           aSPIResult.getPullReturnUserMsg ());
 
               sResponseMessageID = aResponseUserMsg.getEbms3UserMessage ().getMessageInfo ().getMessageId ();
-              ret = new AS4ResponseFactoryXML (m_aMessageMetadata,
-                                               aState,
-                                               sResponseMessageID,
-                                               aResponseUserMsg.getAsSoapDocument (),
-                                               eSoapVersion.getMimeType ());
+              if (aResponseAttachments.isEmpty ())
+                ret = new AS4ResponseFactoryXML (m_aMessageMetadata,
+                                                 aState,
+                                                 sResponseMessageID,
+                                                 aResponseUserMsg.getAsSoapDocument (),
+                                                 eSoapVersion.getMimeType ());
+              else
+              {
+                // Return the payloads provided by the processors
+                final AS4MimeMessage aMimeMsg = MimeMessageCreator.generateMimeMessage (eSoapVersion,
+                                                                                        aResponseUserMsg.getAsSoapDocument (),
+                                                                                        aResponseAttachments);
+                ret = new AS4ResponseFactoryMIME (m_aMessageMetadata, aState, sResponseMessageID, aMimeMsg);
+              }
             }
             else
               if (aEbmsUserMessage != null)
@@ -23,7 +23,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.attachment.AS4CompressionCodecManager;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.http.BasicHttpPoster;
+import com.helger.phase4.http.Http2HttpPoster;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.servlet.mgr.AS4DuplicateCleanupJob;
 import com.helger.quartz.TriggerKey;
@@ -77,7 +80,9 @@ public final class AS4ServerInitializer
   }
 
   /**
-   * Call this method to shutdown the AS4 server. This unschedules the jobs.
+   * Call this method to shutdown the AS4 server. This unschedules the jobs,
+   * drains the pending asynchronous processing tasks and closes the shared
+   * pooled HTTP client (if any).
    *
    * @since 0.10.3
    */
@@ -87,5 +92,19 @@ public final class AS4ServerInitializer
       AS4DuplicateCleanupJob.unschedule (s_aTriggerKey);
       s_aTriggerKey = null;
     });
+
+    // Wait for pending asynchronous processing - it may still send responses
+    AS4AsyncExecutor.shutdownInstance ();
+
+    // Stop pending asynchronous retries
+    BasicHttpPoster.shutdownSharedRetryScheduler ();
+    BasicHttpPoster.shutdownSharedSendExecutor ();
+
+    // Close all pooled HTTP connections
+    BasicHttpPoster.closeSharedPooledHttpClientFactory ();
+    Http2HttpPoster.closeSharedHttpAsyncClient ();
+
+    // Stop the compression threads
+    AS4CompressionCodecManager.shutdown ();
   }
 }
@@ -26,6 +26,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.collection.impl.ICommonsList;
@@ -396,6 +397,33 @@ public interface IAS4MessageState
     return getSoapWSS4JException () != null;
   }
 
+  /**
+   * @return The <code>ds:Reference</code> elements of the incoming message
+   *         signature, captured after the signature was successfully verified.
+   *         Used to build the non-repudiation information of the Receipt. May
+   *         be <code>null</code> if the incoming message was not signed. The
+   *         default implementation always returns <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nullable
+  default ICommonsList <Element> getVerifiedDSigReferences ()
+  {
+    return null;
+  }
+
+  /**
+   * @return <code>true</code> if at least one verified
+   *         <code>ds:Reference</code> element is present, <code>false</code>
+   *         if not.
+   * @see #getVerifiedDSigReferences()
+   * @since 1.4.1
+   */
+  default boolean hasVerifiedDSigReferences ()
+  {
+    final ICommonsList <Element> aRefs = getVerifiedDSigReferences ();
+    return aRefs != null && aRefs.isNotEmpty ();
+  }
+
   /**
    * @return The phase4 profile ID to be used. May be <code>null</code>.
    * @since v0.9.7
@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.lang.ClassHelper;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.quartz.DisallowConcurrentExecution;
 import com.helger.quartz.IJobExecutionContext;
@@ -39,7 +40,10 @@ import com.helger.schedule.quartz.trigger.JDK8TriggerBuilder;
 import com.helger.web.scope.util.AbstractScopeAwareJob;
 
 /**
- * A special job, that removes all entries
+ * A special job, that removes all entries older than the configured number of
+ * minutes from the incoming duplicate manager. The job runs every minute. With
+ * {@link com.helger.phase4.duplicate.AS4DuplicateManagerInMemoryBucketed} each
+ * run only drops the time buckets that expired since the last run.
  *
  * @author Philip Helger
  */
@@ -60,10 +64,16 @@ public final class AS4DuplicateCleanupJob extends AbstractScopeAwareJob
     final long nMins = aJobDataMap.getAsLong (KEY_MINUTES);
     final OffsetDateTime aOldDT = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().minusMinutes (nMins);
 
-    final ICommonsList <String> aEvicted = MetaAS4Manager.getIncomingDuplicateMgr ().evictAllItemsBefore (aOldDT);
+    final IAS4DuplicateManager aDuplicateMgr = MetaAS4Manager.getIncomingDuplicateMgr ();
+    final ICommonsList <String> aEvicted = aDuplicateMgr.evictAllItemsBefore (aOldDT);
     if (aEvicted.isNotEmpty ())
       if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("Evicted " + aEvicted.size () + " incoming duplicate message IDs before " + aOldDT.toString ());
+        LOGGER.debug ("Evicted " +
+                      aEvicted.size () +
+                      " incoming duplicate message IDs before " +
+                      aOldDT.toString () +
+                      " from " +
+                      aDuplicateMgr);
   }
 
   /**
@@ -60,6 +60,8 @@ import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
 import com.helger.phase4.marshaller.Ebms3ReaderBuilder;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.mpc.IMPC;
 import com.helger.phase4.model.mpc.IMPCManager;
@@ -307,13 +309,21 @@ public class SOAPHeaderElementProcessorExtractEbms3Messaging implements ISOAPHea
         // Get responder address from properties file (may be null)
         final String sAddress = AS4Configuration.getThisEndpointAddress ();
 
-        aPMode = m_aPModeResolver.getPModeOfID (sPModeID,
-                                                aCollaborationInfo.getService ().getValue (),
-                                                aCollaborationInfo.getAction (),
-                                                sInitiatorID,
-                                                sResponderID,
-                                                sAgreementRef,
-                                                sAddress);
+        final long nStart = AS4MetricsManager.startTimer ();
+        try
+        {
+          aPMode = m_aPModeResolver.getPModeOfID (sPModeID,
+                                                  aCollaborationInfo.getService ().getValue (),
+                                                  aCollaborationInfo.getAction (),
+                                                  sInitiatorID,
+                                                  sResponderID,
+                                                  sAgreementRef,
+                                                  sAddress);
+        }
+        finally
+        {
+          AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_INCOMING_PMODE_RESOLUTION, nStart);
+        }
 
         // Should be screened by the XSD conversion already
         if (aPMode == null)
@@ -60,6 +60,9 @@ import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.messaging.domain.AS4ReceiptMessage;
+import com.helger.phase4.metrics.AS4MetricsManager;
+import com.helger.phase4.metrics.CAS4Metrics;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.servlet.AS4MessageState;
@@ -93,6 +96,7 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
 
   @Nonnull
   private ESuccess _verifyAndDecrypt (@Nonnull final Document aSOAPDoc,
+                                      @Nonnull final Element aSecurityNode,
                                       @Nonnull final ICommonsList <WSS4JAttachment> aAttachments,
                                       @Nonnull final AS4MessageState aState,
                                       @Nonnull final ErrorList aErrorList,
@@ -156,6 +160,11 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       // this determines if a signature check or a decryption happened
       aState.setSoapWSS4JSecurityActions (nWSS4JSecurityActions);
 
+      // Remember the verified references for the non-repudiation information
+      // of the Receipt, so that they don't need to be searched again
+      if ((nWSS4JSecurityActions & WSConstants.SIGN) == WSConstants.SIGN)
+        aState.setVerifiedDSigReferences (AS4ReceiptMessage.getAllDSigReferenceElements (aSecurityNode));
+
       final X509Certificate aUsedCert;
       if (aCertSet.size () > 1)
       {
@@ -413,23 +422,33 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       }
 
       final ESuccess eSuccess;
-      if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+      final long nStart = AS4MetricsManager.startTimer ();
+      try
       {
-        // Use static WSSConfig creation
-        eSuccess = WSSSynchronizer.call ( () -> _verifyAndDecrypt (aSOAPDoc,
-                                                                   aAttachments,
-                                                                   aState,
-                                                                   aErrorList,
-                                                                   WSSConfigManager::createStaticWSSConfig));
+        if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+        {
+          // Use static WSSConfig creation
+          eSuccess = WSSSynchronizer.call ( () -> _verifyAndDecrypt (aSOAPDoc,
+                                                                     aSecurityNode,
+                                                                     aAttachments,
+                                                                     aState,
+                                                                     aErrorList,
+                                                                     WSSConfigManager::createStaticWSSConfig));
+        }
+        else
+        {
+          // Use instance WSSConfig creation
+          eSuccess = _verifyAndDecrypt (aSOAPDoc,
+                                        aSecurityNode,
+                                        aAttachments,
+                                        aState,
+                                        aErrorList,
+                                        WSSConfigManager.getInstance ()::createWSSConfig);
+        }
       }
-      else
+      finally
       {
-        // Use instance WSSConfig creation
-        eSuccess = _verifyAndDecrypt (aSOAPDoc,
-                                      aAttachments,
-                                      aState,
-                                      aErrorList,
-                                      WSSConfigManager.getInstance ()::createWSSConfig);
+        AS4MetricsManager.stopTimer (CAS4Metrics.TIMER_INCOMING_WSS4J, nStart);
       }
       if (eSuccess.isFailure ())
         return ESuccess.FAILURE;
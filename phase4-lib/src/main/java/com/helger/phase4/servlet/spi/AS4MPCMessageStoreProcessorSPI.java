@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.spi;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3PartInfo;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.model.mpc.store.IMPCMessageStore;
+import com.helger.phase4.model.mpc.store.IMPCPayloadResolver;
+import com.helger.phase4.model.mpc.store.MPCStoredMessage;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.servlet.IAS4MessageState;
+
+/**
+ * An {@link IAS4ServletMessageProcessorSPI} implementation that answers pull
+ * requests from an {@link IMPCMessageStore} and acknowledges the pulled
+ * messages when the corresponding receipt arrives. User messages are not
+ * handled by this class.<br>
+ * The store only contains the ebMS user message. If it references payload
+ * attachments, they are provided by the {@link IMPCPayloadResolver} and are
+ * returned together with the user message.<br>
+ * This class is not registered automatically. Add it to the processor
+ * supplier of the {@link com.helger.phase4.servlet.AS4RequestHandler} as the
+ * first processor, because a pull request with an empty MPC is answered with
+ * an error.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public class AS4MPCMessageStoreProcessorSPI implements IAS4ServletMessageProcessorSPI
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4MPCMessageStoreProcessorSPI.class);
+
+  private final transient IMPCMessageStore m_aStore;
+  private final transient IMPCPayloadResolver m_aPayloadResolver;
+
+  /**
+   * Constructor for stores that only contain messages without attachments.
+   *
+   * @param aStore
+   *        The message store to use. May not be <code>null</code>.
+   */
+  public AS4MPCMessageStoreProcessorSPI (@Nonnull final IMPCMessageStore aStore)
+  {
+    this (aStore, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aStore
+   *        The message store to use. May not be <code>null</code>.
+   * @param aPayloadResolver
+   *        The resolver for the payload attachments of the stored messages.
+   *        May be <code>null</code> if no stored message references
+   *        attachments.
+   */
+  public AS4MPCMessageStoreProcessorSPI (@Nonnull final IMPCMessageStore aStore,
+                                         @Nullable final IMPCPayloadResolver aPayloadResolver)
+  {
+    ValueEnforcer.notNull (aStore, "Store");
+    m_aStore = aStore;
+    m_aPayloadResolver = aPayloadResolver;
+  }
+
+  /**
+   * @return The message store passed in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IMPCMessageStore getStore ()
+  {
+    return m_aStore;
+  }
+
+  /**
+   * @return The payload resolver passed in the constructor. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final IMPCPayloadResolver getPayloadResolver ()
+  {
+    return m_aPayloadResolver;
+  }
+
+  /**
+   * Get the content IDs of all attachments referenced by the provided user
+   * message.
+   *
+   * @param aUserMessage
+   *        The user message to check. May not be <code>null</code>.
+   * @return The content IDs without the <code>cid:</code> prefix. Never
+   *         <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <String> getAllReferencedAttachmentIDs (@Nonnull final Ebms3UserMessage aUserMessage)
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    if (aUserMessage.getPayloadInfo () != null)
+      for (final Ebms3PartInfo aPartInfo : aUserMessage.getPayloadInfo ().getPartInfo ())
+      {
+        final String sHref = aPartInfo.getHref ();
+        if (sHref != null && sHref.startsWith (MessageHelperMethods.PREFIX_CID))
+          ret.add (StringHelper.trimStart (sHref, MessageHelperMethods.PREFIX_CID));
+      }
+    return ret;
+  }
+
+  @Nullable
+  private ICommonsList <WSS4JAttachment> _resolvePayloads (@Nonnull final MPCStoredMessage aStoredMsg,
+                                                           @Nonnull final Ebms3UserMessage aUserMsg,
+                                                           @Nonnull final IAS4MessageState aState) throws Exception
+  {
+    final ICommonsList <String> aAttachmentIDs = getAllReferencedAttachmentIDs (aUserMsg);
+    if (aAttachmentIDs.isEmpty ())
+      return null;
+
+    if (m_aPayloadResolver == null)
+      throw new IllegalStateException ("The stored UserMessage references attachments but no payload resolver is present");
+
+    final ICommonsList <WSS4JAttachment> ret = m_aPayloadResolver.getAllPayloadAttachments (aStoredMsg,
+                                                                                            aUserMsg,
+                                                                                            aState.getResourceHelper ());
+    for (final String sAttachmentID : aAttachmentIDs)
+      if (ret == null || !ret.containsAny (x -> EqualsHelper.equals (x.getId (), sAttachmentID)))
+        throw new IllegalStateException ("The payload resolver provided no attachment with content ID '" +
+                                         sAttachmentID +
+                                         "'");
+    return ret;
+  }
+
+  @Nonnull
+  public AS4MessageProcessorResult processAS4UserMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                          @Nonnull final HttpHeaderMap aHttpHeaders,
+                                                          @Nonnull final Ebms3UserMessage aUserMessage,
+                                                          @Nonnull final IPMode aPMode,
+                                                          @Nullable final Node aPayload,
+                                                          @Nullable final ICommonsList <WSS4JAttachment> aIncomingAttachments,
+                                                          @Nonnull final IAS4MessageState aState,
+                                                          @Nonnull final ICommonsList <Ebms3Error> aProcessingErrorMessages)
+  {
+    // Nothing to do
+    return AS4MessageProcessorResult.createSuccess ();
+  }
+
+  @Nonnull
+  public AS4SignalMessageProcessorResult processAS4SignalMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                                  @Nonnull final HttpHeaderMap aHttpHeaders,
+                                                                  @Nonnull final Ebms3SignalMessage aSignalMessage,
+                                                                  @Nullable final IPMode aPMode,
+                                                                  @Nonnull final IAS4MessageState aState,
+                                                                  @Nonnull final ICommonsList <Ebms3Error> aProcessingErrorMessages)
+  {
+    if (aSignalMessage.getPullRequest () != null)
+    {
+      final String sMPCID = aSignalMessage.getPullRequest ().getMpc ();
+      final MPCStoredMessage aStoredMsg = m_aStore.receive (sMPCID);
+      if (aStoredMsg == null)
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("No message available in MPC '" + sMPCID + "'");
+        // Results in an EmptyMessagePartitionChannel error
+        return AS4SignalMessageProcessorResult.createSuccess ();
+      }
+
+      final Ebms3UserMessage aUserMsg = aStoredMsg.getAsUserMessage ();
+      if (aUserMsg == null)
+        return AS4SignalMessageProcessorResult.createFailure ("Failed to read the stored UserMessage '" +
+                                                              aStoredMsg.getMessageID () +
+                                                              "' of MPC '" +
+                                                              sMPCID +
+                                                              "'");
+
+      final ICommonsList <WSS4JAttachment> aAttachments;
+      try
+      {
+        aAttachments = _resolvePayloads (aStoredMsg, aUserMsg, aState);
+      }
+      catch (final Exception ex)
+      {
+        // The message is delivered again after the visibility timeout
+        LOGGER.error ("Failed to resolve the payloads of UserMessage '" + aStoredMsg.getMessageID () + "'", ex);
+        return AS4SignalMessageProcessorResult.createFailure ("Failed to resolve the payloads of the stored UserMessage '" +
+                                                              aStoredMsg.getMessageID () +
+                                                              "' of MPC '" +
+                                                              sMPCID +
+                                                              "'");
+      }
+
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Returning UserMessage '" +
+                     aStoredMsg.getMessageID () +
+                     "' from MPC '" +
+                     sMPCID +
+                     "'" +
+                     (aStoredMsg.isRedelivery () ? " (delivery " + aStoredMsg.getDeliveryCount () + ")" : ""));
+      return AS4SignalMessageProcessorResult.createSuccess (aAttachments, null, aUserMsg);
+    }
+
+    if (aSignalMessage.getReceipt () != null && aSignalMessage.getMessageInfo () != null)
+    {
+      final String sRefToMessageID = aSignalMessage.getMessageInfo ().getRefToMessageId ();
+      if (m_aStore.acknowledge (sRefToMessageID).isChanged ())
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Acknowledged pulled UserMessage '" + sRefToMessageID + "'");
+    }
+    return AS4SignalMessageProcessorResult.createSuccess ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Store", m_aStore)
+                                       .append ("PayloadResolver", m_aPayloadResolver)
+                                       .getToString ();
+  }
+}
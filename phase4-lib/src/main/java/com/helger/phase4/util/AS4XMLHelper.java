@@ -16,9 +16,15 @@
  */
 package com.helger.phase4.util;
 
+import java.io.OutputStream;
+
 import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
 import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -27,6 +33,8 @@ import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.NonBlockingStringWriter;
 import com.helger.phase4.marshaller.Ebms3NamespaceHandler;
 import com.helger.xml.serialize.write.EXMLSerializeIndent;
@@ -49,6 +57,10 @@ public final class AS4XMLHelper
     XWS.setSerializeXMLDeclaration (EXMLSerializeXMLDeclaration.EMIT_NO_STANDALONE);
   }
 
+  // Neither TransformerFactory nor Transformer are thread-safe, so each thread
+  // reuses its own Transformer instead of looking up the factory on every call
+  private static final ThreadLocal <Transformer> RT_TRANSFORMER = ThreadLocal.withInitial (AS4XMLHelper::_createTransformer);
+
   private AS4XMLHelper ()
   {}
 
@@ -59,25 +71,50 @@ public final class AS4XMLHelper
   }
 
   @Nonnull
-  private static String _serializeRT (@Nonnull final Node aNode)
+  private static Transformer _createTransformer ()
   {
     try
     {
       final TransformerFactory tf = TransformerFactory.newInstance ();
       tf.setAttribute (XMLConstants.ACCESS_EXTERNAL_DTD, "");
       tf.setAttribute (XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
-      final Transformer aTransformer = tf.newTransformer ();
+      return tf.newTransformer ();
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      throw new IllegalStateException ("Failed to create XML Transformer", ex);
+    }
+  }
 
-      try (final NonBlockingStringWriter aSW = new NonBlockingStringWriter ())
-      {
-        aTransformer.transform (new DOMSource (aNode), new StreamResult (aSW));
-        return aSW.getAsString ();
-      }
+  private static void _serializeRT (@Nonnull final Node aNode, @Nonnull final Result aResult, final boolean bBinary)
+  {
+    final Transformer aTransformer = RT_TRANSFORMER.get ();
+    try
+    {
+      // The declared encoding must match the bytes written
+      if (bBinary)
+        aTransformer.setOutputProperty (OutputKeys.ENCODING, XWS.getCharset ().name ());
+      aTransformer.transform (new DOMSource (aNode), aResult);
     }
     catch (final TransformerException ex)
     {
       throw new IllegalStateException ("Failed to serialize XML", ex);
     }
+    finally
+    {
+      // Restore the initial state for the next usage in this thread
+      aTransformer.reset ();
+    }
+  }
+
+  @Nonnull
+  private static String _serializeRT (@Nonnull final Node aNode)
+  {
+    try (final NonBlockingStringWriter aSW = new NonBlockingStringWriter ())
+    {
+      _serializeRT (aNode, new StreamResult (aSW), false);
+      return aSW.getAsString ();
+    }
   }
 
   @Nonnull
@@ -89,4 +126,45 @@ public final class AS4XMLHelper
       return _serializeRT (aNode);
     return _serializePh (aNode);
   }
+
+  /**
+   * Serialize the provided node directly to the provided output stream, using
+   * the charset of {@link #XWS}. This avoids the intermediate String of
+   * {@link #serializeXML(Node)}.
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>. The
+   *        stream is not closed.
+   * @since 1.4.1
+   */
+  public static void serializeXML (@Nonnull final Node aNode, @Nonnull @WillNotClose final OutputStream aOS)
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    // Use runtime serialization otherwise XMLDsig signature wont work
+    _serializeRT (aNode, new StreamResult (aOS), true);
+  }
+
+  /**
+   * Serialize the provided node to a byte array, using the charset of
+   * {@link #XWS}. The result is identical to
+   * <code>serializeXML (aNode).getBytes (XWS.getCharset ())</code>.
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>.
+   * @return The serialized bytes. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public static byte [] serializeXMLBytes (@Nonnull final Node aNode)
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      serializeXML (aNode, aBAOS);
+      return aBAOS.getBufferOrCopy ();
+    }
+  }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.wss;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Specifies how {@link WSSSynchronizer} protects the WSS4J operations, if
+ * synchronized security is enabled.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+public enum EWSSSynchronizationMode implements IHasID <String>
+{
+  /**
+   * All WSS4J operations are serialized on one global lock. The
+   * {@link org.apache.wss4j.dom.engine.WSSConfig} is initialized and cleaned up
+   * around every single operation. This is the backwards compatible default.
+   */
+  GLOBAL_LOCK ("lock"),
+  /**
+   * WSS4J operations run in parallel. The
+   * {@link org.apache.wss4j.dom.engine.WSSConfig} is initialized when the
+   * first operation starts and cleaned up when the last running operation
+   * finished.
+   */
+  SHARED ("shared");
+
+  public static final EWSSSynchronizationMode DEFAULT = GLOBAL_LOCK;
+
+  private final String m_sID;
+
+  EWSSSynchronizationMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EWSSSynchronizationMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EWSSSynchronizationMode.class, sID);
+  }
+
+  @Nullable
+  public static EWSSSynchronizationMode getFromIDOrDefault (@Nullable final String sID,
+                                                           @Nullable final EWSSSynchronizationMode eDefault)
+  {
+    return EnumHelper.getFromIDOrDefault (EWSSSynchronizationMode.class, sID, eDefault);
+  }
+}
@@ -17,10 +17,14 @@
 package com.helger.phase4.wss;
 
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.wss4j.dom.engine.WSSConfig;
@@ -32,6 +36,14 @@ import com.helger.phase4.config.AS4Configuration;
 /**
  * A helper class to run all WSS stuff in a lock. {@link WSSConfig#init()} and
  * {@link WSSConfig#cleanUp()} is called for every invocation.<br>
+ * Since 1.4.1 the mode can be chosen via
+ * {@link AS4Configuration#getWSS4JSynchronizationMode()}: in mode
+ * {@link EWSSSynchronizationMode#SHARED} the invocations run in parallel and
+ * {@link WSSConfig#init()} is only called by the first concurrent invocation
+ * and {@link WSSConfig#cleanUp()} only by the last one. Invocations in
+ * different modes exclude each other, so that an invocation in mode
+ * {@link EWSSSynchronizationMode#GLOBAL_LOCK} never cleans up the
+ * configuration while shared invocations are running.<br>
  * Note: this class may only be invoked if
  * {@link AS4Configuration#isWSS4JSynchronizedSecurity()} returns
  * <code>true</code>.
@@ -42,11 +54,48 @@ import com.helger.phase4.config.AS4Configuration;
 @ThreadSafe
 public final class WSSSynchronizer
 {
-  private static final Lock s_aLock = new ReentrantLock ();
+  // Exclusive for the global lock mode, shared for the shared mode
+  private static final ReadWriteLock s_aRWLock = new ReentrantReadWriteLock ();
+
+  // Only guards the init/cleanup transitions of the shared mode
+  private static final Lock s_aSharedLock = new ReentrantLock ();
+  @GuardedBy ("s_aSharedLock")
+  private static int s_nSharedActiveCount = 0;
 
   private WSSSynchronizer ()
   {}
 
+  /**
+   * @return The synchronization mode to be used, based on the configuration.
+   *         Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static EWSSSynchronizationMode getSynchronizationMode ()
+  {
+    return EWSSSynchronizationMode.getFromIDOrDefault (AS4Configuration.getWSS4JSynchronizationMode (),
+                                                       EWSSSynchronizationMode.DEFAULT);
+  }
+
+  /**
+   * @return The number of currently running invocations in mode
+   *         {@link EWSSSynchronizationMode#SHARED}. Always &ge; 0.
+   * @since 1.4.1
+   */
+  @Nonnegative
+  public static int getSharedActiveCount ()
+  {
+    s_aSharedLock.lock ();
+    try
+    {
+      return s_nSharedActiveCount;
+    }
+    finally
+    {
+      s_aSharedLock.unlock ();
+    }
+  }
+
   /**
    * A wrapper around {@link #call(IThrowingSupplier)} swallowing the return
    * value
@@ -66,10 +115,52 @@ public final class WSSSynchronizer
   @Nullable
   public static <T, EX extends Exception> T call (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
   {
+    return call (getSynchronizationMode (), aSupplier);
+  }
+
+  /**
+   * Run the provided supplier with the provided synchronization mode. Calls in
+   * mode {@link EWSSSynchronizationMode#GLOBAL_LOCK} wait until all running
+   * calls in mode {@link EWSSSynchronizationMode#SHARED} are finished and vice
+   * versa. Note: a call in mode {@link EWSSSynchronizationMode#GLOBAL_LOCK} may
+   * not be nested inside a call in mode {@link EWSSSynchronizationMode#SHARED}.
+   *
+   * @param <T>
+   *        Return type
+   * @param <EX>
+   *        Exception type
+   * @param eMode
+   *        The synchronization mode to use. May not be <code>null</code>.
+   * @param aSupplier
+   *        The supplier to be invoked. May not be <code>null</code>.
+   * @return The result of the supplier. May be <code>null</code>.
+   * @throws EX
+   *         If the supplier throws an exception
+   * @since 1.4.1
+   */
+  @Nullable
+  public static <T, EX extends Exception> T call (@Nonnull final EWSSSynchronizationMode eMode,
+                                                  @Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    ValueEnforcer.notNull (eMode, "Mode");
     ValueEnforcer.notNull (aSupplier, "Supplier");
 
-    // Lock
-    s_aLock.lock ();
+    switch (eMode)
+    {
+      case SHARED:
+        return _callShared (aSupplier);
+      case GLOBAL_LOCK:
+      default:
+        return _callGlobalLock (aSupplier);
+    }
+  }
+
+  @Nullable
+  private static <T, EX extends Exception> T _callGlobalLock (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    // Lock exclusively
+    final Lock aLock = s_aRWLock.writeLock ();
+    aLock.lock ();
     try
     {
       // Register
@@ -87,7 +178,55 @@ public final class WSSSynchronizer
     finally
     {
       // Unlock
-      s_aLock.unlock ();
+      aLock.unlock ();
+    }
+  }
+
+  @Nullable
+  private static <T, EX extends Exception> T _callShared (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    // Exclude invocations in the global lock mode
+    final Lock aLock = s_aRWLock.readLock ();
+    aLock.lock ();
+    try
+    {
+      s_aSharedLock.lock ();
+      try
+      {
+        // Register only for the first active invocation
+        if (s_nSharedActiveCount == 0)
+          WSSConfig.init ();
+        s_nSharedActiveCount++;
+      }
+      finally
+      {
+        s_aSharedLock.unlock ();
+      }
+
+      try
+      {
+        // Run outside of the count lock
+        return aSupplier.get ();
+      }
+      finally
+      {
+        s_aSharedLock.lock ();
+        try
+        {
+          // Unregister only after the last active invocation
+          s_nSharedActiveCount--;
+          if (s_nSharedActiveCount == 0)
+            WSSConfig.cleanUp ();
+        }
+        finally
+        {
+          s_aSharedLock.unlock ();
+        }
+      }
+    }
+    finally
+    {
+      aLock.unlock ();
     }
   }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4CompressionCodecManager}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CompressionCodecManagerTest
+{
+  @Test
+  public void testShutdown ()
+  {
+    final AS4ParallelGZipCompressionCodec aCodec = new AS4ParallelGZipCompressionCodec (-1, 8192, 64 * 1024, 2);
+    try
+    {
+      AS4CompressionCodecManager.setCodec (EAS4CompressionMode.GZIP, aCodec);
+      assertSame (aCodec, AS4CompressionCodecManager.getCodec (EAS4CompressionMode.GZIP));
+      assertFalse (aCodec.isShutdown ());
+
+      AS4CompressionCodecManager.shutdown ();
+      assertTrue (aCodec.isShutdown ());
+
+      // The default codec is created again on demand
+      assertNotSame (aCodec, AS4CompressionCodecManager.getCodec (EAS4CompressionMode.GZIP));
+    }
+    finally
+    {
+      AS4CompressionCodecManager.shutdown ();
+    }
+  }
+}
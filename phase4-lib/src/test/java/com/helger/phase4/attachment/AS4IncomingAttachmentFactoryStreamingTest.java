@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Base64;
+
+import javax.annotation.Nonnull;
+import javax.mail.internet.InternetHeaders;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.random.RandomHelper;
+import com.helger.config.Config;
+import com.helger.config.IConfig;
+import com.helger.config.source.EConfigSourceType;
+import com.helger.config.source.MultiConfigurationValueProvider;
+import com.helger.config.source.appl.ConfigurationSourceFunction;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4IncomingAttachmentFactoryStreaming}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4IncomingAttachmentFactoryStreamingTest
+{
+  @Nonnull
+  private static InternetHeaders _createHeaders (final String sCTE)
+  {
+    final InternetHeaders ret = new InternetHeaders ();
+    ret.addHeader (CHttpHeader.CONTENT_TYPE, "application/octet-stream");
+    ret.addHeader (CHttpHeader.CONTENT_ID, "<phase4@att1>");
+    if (sCTE != null)
+      ret.addHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, sCTE);
+    return ret;
+  }
+
+  @Nonnull
+  private static byte [] _createPayload (final int nLength)
+  {
+    final byte [] ret = new byte [nLength];
+    RandomHelper.getRandom ().nextBytes (ret);
+    return ret;
+  }
+
+  @Test
+  public void testDefaultThreshold ()
+  {
+    assertEquals (AS4Configuration.getIncomingAttachmentInMemoryMaxBytes (),
+                  new AS4IncomingAttachmentFactoryStreaming ().getMaxInMemoryBytes ());
+  }
+
+  @Test
+  public void testDefaultThresholdIsReadLazily ()
+  {
+    final AS4IncomingAttachmentFactoryStreaming aFactory = new AS4IncomingAttachmentFactoryStreaming ();
+
+    final StringMap aMap = new StringMap ();
+    aMap.put ("phase4.incoming.attachment.inmemory.maxbytes", "4711");
+    final MultiConfigurationValueProvider aVP = AS4Configuration.createPhase4ValueProvider ();
+    aVP.addConfigurationSource (new ConfigurationSourceFunction (aMap::getAsString),
+                                EConfigSourceType.RESOURCE.getDefaultPriority () + 20);
+    final IConfig aOldConfig = AS4Configuration.setConfig (new Config (aVP));
+    try
+    {
+      // Created before the configuration change
+      assertEquals (4711, aFactory.getMaxInMemoryBytes ());
+      assertEquals (4711,
+                    ((AS4IncomingAttachmentFactoryStreaming) IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE).getMaxInMemoryBytes ());
+      // Explicit values are not affected
+      assertEquals (1000, new AS4IncomingAttachmentFactoryStreaming (1000).getMaxInMemoryBytes ());
+    }
+    finally
+    {
+      AS4Configuration.setConfig (aOldConfig);
+    }
+  }
+
+  @Test
+  public void testInMemory () throws Exception
+  {
+    final byte [] aPayload = _createPayload (1000);
+    final AS4IncomingAttachmentFactoryStreaming aFactory = new AS4IncomingAttachmentFactoryStreaming (1000);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = aFactory.createAttachment (_createHeaders (null),
+                                                                    new NonBlockingByteArrayInputStream (aPayload),
+                                                                    aResHelper);
+      assertNotNull (aAttachment);
+      assertEquals ("phase4@att1", aAttachment.getId ());
+      assertNull (aAttachment.getSourceFile ());
+      assertTrue (aResHelper.getAllTempFiles ().isEmpty ());
+
+      // Can be read more than once
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+
+  @Test
+  public void testTempFile () throws Exception
+  {
+    // Larger than the internal buffer, so that the switch happens in between
+    final byte [] aPayload = _createPayload (100_000);
+    final AS4IncomingAttachmentFactoryStreaming aFactory = new AS4IncomingAttachmentFactoryStreaming (1000);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = aFactory.createAttachment (_createHeaders (null),
+                                                                    new NonBlockingByteArrayInputStream (aPayload),
+                                                                    aResHelper);
+      assertNotNull (aAttachment);
+      assertNotNull (aAttachment.getSourceFile ());
+      assertEquals (1, aResHelper.getAllTempFiles ().size ());
+      assertEquals (aPayload.length, aAttachment.getSourceFile ().length ());
+
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+
+  @Test
+  public void testBase64 () throws Exception
+  {
+    final byte [] aPayload = _createPayload (5000);
+    final byte [] aEncoded = Base64.getMimeEncoder ().encode (aPayload);
+    // The threshold applies to the decoded bytes
+    final AS4IncomingAttachmentFactoryStreaming aFactory = new AS4IncomingAttachmentFactoryStreaming (aPayload.length);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = aFactory.createAttachment (_createHeaders ("base64"),
+                                                                    new NonBlockingByteArrayInputStream (aEncoded),
+                                                                    aResHelper);
+      assertNull (aAttachment.getSourceFile ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+
+    // And the same with a temporary file
+    final AS4IncomingAttachmentFactoryStreaming aFactory2 = new AS4IncomingAttachmentFactoryStreaming (100);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = aFactory2.createAttachment (_createHeaders ("base64"),
+                                                                     new NonBlockingByteArrayInputStream (aEncoded),
+                                                                     aResHelper);
+      assertNotNull (aAttachment.getSourceFile ());
+      assertEquals (aPayload.length, aAttachment.getSourceFile ().length ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+}
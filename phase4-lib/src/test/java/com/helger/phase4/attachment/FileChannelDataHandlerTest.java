@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import javax.annotation.Nonnull;
+import javax.mail.internet.MimeMultipart;
+
+import org.junit.Test;
+
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.random.RandomHelper;
+import com.helger.mail.cte.EContentTransferEncoding;
+import com.helger.phase4.messaging.mime.MimeLengthCountingOutputStream;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link FileChannelDataHandler}.
+ *
+ * @author Philip Helger
+ */
+public final class FileChannelDataHandlerTest
+{
+  /**
+   * An output stream that is also a channel, and remembers which API was used.
+   */
+  private static final class ChannelOutputStream extends OutputStream implements WritableByteChannel
+  {
+    private final NonBlockingByteArrayOutputStream m_aBAOS = new NonBlockingByteArrayOutputStream ();
+    private int m_nStreamWrites = 0;
+    private int m_nChannelWrites = 0;
+
+    @Override
+    public void write (final int b)
+    {
+      m_nStreamWrites++;
+      m_aBAOS.write (b);
+    }
+
+    public int write (@Nonnull final ByteBuffer aSrc)
+    {
+      m_nChannelWrites++;
+      final int ret = aSrc.remaining ();
+      final byte [] aBytes = new byte [ret];
+      aSrc.get (aBytes);
+      m_aBAOS.write (aBytes, 0, ret);
+      return ret;
+    }
+
+    public boolean isOpen ()
+    {
+      return true;
+    }
+
+    @Override
+    public void close () throws IOException
+    {}
+  }
+
+  @Nonnull
+  private static File _createFile (@Nonnull final AS4ResourceHelper aResHelper, final int nLength) throws Exception
+  {
+    final byte [] aPayload = new byte [nLength];
+    RandomHelper.getRandom ().nextBytes (aPayload);
+    final File ret = aResHelper.createTempFile ();
+    SimpleFileIO.writeFile (ret, aPayload);
+    return ret;
+  }
+
+  @Nonnull
+  private static DataHandler _addToMimeMultipart (@Nonnull final WSS4JAttachment aAttachment) throws Exception
+  {
+    final MimeMultipart aMimeMultipart = new MimeMultipart ();
+    aAttachment.addToMimeMultipart (aMimeMultipart);
+    assertEquals (1, aMimeMultipart.getCount ());
+    return aMimeMultipart.getBodyPart (0).getDataHandler ();
+  }
+
+  @Nonnull
+  private static byte [] _getWrittenBytes (@Nonnull final DataHandler aDH) throws Exception
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aDH.writeTo (aBAOS);
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Test
+  public void testWriteTo () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final File aFile = _createFile (aResHelper, 100_000);
+      final byte [] aExpected = SimpleFileIO.getAllFileBytes (aFile);
+      final FileChannelDataHandler aDH = new FileChannelDataHandler (new FileDataSource (aFile), aFile);
+      assertSame (aFile, aDH.getFile ());
+      assertEquals (aFile.length (), aDH.getLength ());
+
+      // Arbitrary OutputStream (regular copy) - write twice to ensure it is
+      // repeatable
+      for (int i = 0; i < 2; ++i)
+        assertArrayEquals (aExpected, _getWrittenBytes (aDH));
+
+      // FileOutputStream - channel to channel
+      final File aTarget = aResHelper.createTempFile ();
+      try (final FileOutputStream aFOS = new FileOutputStream (aTarget))
+      {
+        aDH.writeTo (aFOS);
+      }
+      assertArrayEquals (aExpected, SimpleFileIO.getAllFileBytes (aTarget));
+
+      // OutputStream that is a channel
+      try (final ChannelOutputStream aCOS = new ChannelOutputStream ())
+      {
+        aDH.writeTo (aCOS);
+        assertArrayEquals (aExpected, aCOS.m_aBAOS.toByteArray ());
+        assertTrue (aCOS.m_nChannelWrites > 0);
+        assertEquals (0, aCOS.m_nStreamWrites);
+      }
+
+      // Length counting - content is not read
+      try (final MimeLengthCountingOutputStream aCOS = new MimeLengthCountingOutputStream ())
+      {
+        aDH.writeTo (aCOS);
+        assertEquals (aFile.length (), aCOS.getLength ());
+      }
+    }
+  }
+
+  @Test
+  public void testEmptyFile () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final File aFile = _createFile (aResHelper, 0);
+      final FileChannelDataHandler aDH = new FileChannelDataHandler (new FileDataSource (aFile), aFile);
+      assertEquals (0, aDH.getLength ());
+      assertEquals (0, _getWrittenBytes (aDH).length);
+    }
+  }
+
+  @Test
+  public void testFileBackedAttachment () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final File aFile = _createFile (aResHelper, 10_000);
+
+      // Uncompressed - the source file itself is transferred
+      WSS4JAttachment aAttachment = WSS4JAttachment.createOutgoingFileAttachment (aFile,
+                                                                                  null,
+                                                                                  "a.bin",
+                                                                                  CMimeType.APPLICATION_OCTET_STREAM,
+                                                                                  null,
+                                                                                  null,
+                                                                                  aResHelper);
+      assertSame (aFile, aAttachment.getSourceFile ());
+      DataHandler aDH = _addToMimeMultipart (aAttachment);
+      assertTrue (aDH instanceof FileChannelDataHandler);
+      assertSame (aFile, ((FileChannelDataHandler) aDH).getFile ());
+      assertArrayEquals (SimpleFileIO.getAllFileBytes (aFile), _getWrittenBytes (aDH));
+
+      // Compressed - the temporary file with the compressed content is
+      // transferred
+      aAttachment = WSS4JAttachment.createOutgoingFileAttachment (aFile,
+                                                                  null,
+                                                                  "a.bin",
+                                                                  CMimeType.APPLICATION_OCTET_STREAM,
+                                                                  EAS4CompressionMode.GZIP,
+                                                                  null,
+                                                                  aResHelper);
+      final File aCompressedFile = aAttachment.getSourceFile ();
+      assertNotEquals (aFile, aCompressedFile);
+      aDH = _addToMimeMultipart (aAttachment);
+      assertTrue (aDH instanceof FileChannelDataHandler);
+      assertSame (aCompressedFile, ((FileChannelDataHandler) aDH).getFile ());
+      assertArrayEquals (SimpleFileIO.getAllFileBytes (aCompressedFile), _getWrittenBytes (aDH));
+    }
+  }
+
+  @Test
+  public void testFallback () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final File aFile = _createFile (aResHelper, 10_000);
+      final byte [] aPayload = SimpleFileIO.getAllFileBytes (aFile);
+
+      // In-memory attachment - no file present
+      WSS4JAttachment aAttachment = WSS4JAttachment.createOutgoingFileAttachment (aPayload,
+                                                                                  null,
+                                                                                  "a.bin",
+                                                                                  CMimeType.APPLICATION_OCTET_STREAM,
+                                                                                  null,
+                                                                                  null,
+                                                                                  aResHelper);
+      assertNull (aAttachment.getSourceFile ());
+      DataHandler aDH = _addToMimeMultipart (aAttachment);
+      assertFalse (aDH instanceof FileChannelDataHandler);
+      assertTrue (aDH instanceof KnownLengthDataHandler);
+      assertArrayEquals (aPayload, _getWrittenBytes (aDH));
+
+      // File backed but not binary - content must be encoded
+      aAttachment = WSS4JAttachment.createOutgoingFileAttachment (aFile,
+                                                                  null,
+                                                                  "a.bin",
+                                                                  CMimeType.APPLICATION_OCTET_STREAM,
+                                                                  null,
+                                                                  null,
+                                                                  aResHelper);
+      aAttachment.setContentTransferEncoding (EContentTransferEncoding.BASE64);
+      aDH = _addToMimeMultipart (aAttachment);
+      assertFalse (aDH instanceof FileChannelDataHandler);
+
+      // File backed but replaced afterwards (e.g. by encryption)
+      aAttachment = WSS4JAttachment.createOutgoingFileAttachment (aFile,
+                                                                  null,
+                                                                  "a.bin",
+                                                                  CMimeType.APPLICATION_OCTET_STREAM,
+                                                                  null,
+                                                                  null,
+                                                                  aResHelper);
+      final byte [] aOther = new byte [] { 1, 2, 3 };
+      aAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aOther)));
+      assertNull (aAttachment.getSourceFile ());
+      aDH = _addToMimeMultipart (aAttachment);
+      assertFalse (aDH instanceof FileChannelDataHandler);
+      assertArrayEquals (aOther, _getWrittenBytes (aDH));
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link ParallelGZIPOutputStream}.
+ *
+ * @author Philip Helger
+ */
+public final class ParallelGZIPOutputStreamTest
+{
+  private static ExecutorService s_aES;
+
+  @BeforeClass
+  public static void beforeClass ()
+  {
+    s_aES = Executors.newFixedThreadPool (4);
+  }
+
+  @AfterClass
+  public static void afterClass ()
+  {
+    s_aES.shutdown ();
+  }
+
+  @Nonnull
+  private static byte [] _createData (final int nSize)
+  {
+    // Compressible but not trivial data
+    final Random aRandom = new Random (nSize);
+    final byte [] ret = new byte [nSize];
+    for (int i = 0; i < nSize; ++i)
+      ret[i] = (byte) ('a' + aRandom.nextInt (8));
+    return ret;
+  }
+
+  private static void _testRoundtrip (@Nonnull final byte [] aSrc, final int nBlockSize) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aCompressedOS = new NonBlockingByteArrayOutputStream ();
+    try (final OutputStream aOS = new ParallelGZIPOutputStream (aCompressedOS,
+                                                                s_aES,
+                                                                Deflater.DEFAULT_COMPRESSION,
+                                                                nBlockSize,
+                                                                3))
+    {
+      // Write in chunks not matching the block size
+      int nOfs = 0;
+      while (nOfs < aSrc.length)
+      {
+        final int nLen = Math.min (777, aSrc.length - nOfs);
+        aOS.write (aSrc, nOfs, nLen);
+        nOfs += nLen;
+      }
+    }
+
+    // Must be readable with the standard JDK reader
+    try (final InputStream aIS = new GZIPInputStream (new NonBlockingByteArrayInputStream (aCompressedOS.toByteArray ())))
+    {
+      assertArrayEquals (aSrc, StreamHelper.getAllBytes (aIS));
+    }
+  }
+
+  @Test
+  public void testEmpty () throws IOException
+  {
+    _testRoundtrip (new byte [0], 1024);
+  }
+
+  @Test
+  public void testSingleBlock () throws IOException
+  {
+    _testRoundtrip (_createData (1000), 1024);
+    _testRoundtrip (_createData (1024), 1024);
+  }
+
+  @Test
+  public void testMultipleBlocks () throws IOException
+  {
+    _testRoundtrip (_createData (1025), 1024);
+    _testRoundtrip (_createData (100 * 1024), 1024);
+    _testRoundtrip (_createData (1024 * 1024 + 17), 64 * 1024);
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.annotation.Nonnull;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import javax.security.auth.callback.Callback;
+
+import org.apache.wss4j.common.ext.Attachment;
+import org.apache.wss4j.common.ext.AttachmentResultCallback;
+import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.xml.security.Init;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.random.RandomHelper;
+import com.helger.mail.cte.EContentTransferEncoding;
+import com.helger.phase4.crypto.ECryptoAlgorithmCrypt;
+import com.helger.phase4.http.HttpMimeMessageEntity;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.messaging.mime.MimeMessageCreator;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link WSS4JAttachmentCallbackHandler}.
+ *
+ * @author Philip Helger
+ */
+public final class WSS4JAttachmentCallbackHandlerTest
+{
+  private static final ESoapVersion SOAP_VERSION = ESoapVersion.SOAP_12;
+  // Empty, partial block, full block and multiple blocks
+  private static final int [] PLAIN_LENGTHS = { 0, 1, 16, 4096, 10_005 };
+
+  @BeforeClass
+  public static void beforeClass ()
+  {
+    Init.init ();
+  }
+
+  @Nonnull
+  private static Document _createSoapDocument ()
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eEnvelope = (Element) aDoc.appendChild (aDoc.createElementNS (SOAP_VERSION.getNamespaceURI (),
+                                                                                "S:Envelope"));
+    eEnvelope.appendChild (aDoc.createElementNS (SOAP_VERSION.getNamespaceURI (), "S:Body"));
+    return aDoc;
+  }
+
+  @Nonnull
+  private static Cipher _createCipher (@Nonnull final String sAlgorithmURI,
+                                       final int nMode,
+                                       @Nonnull final SecretKey aKey,
+                                       @Nonnull final byte [] aIV) throws Exception
+  {
+    final String sJCEAlgorithm = JCEMapper.translateURItoJCEID (sAlgorithmURI);
+    final Cipher ret = Cipher.getInstance (sJCEAlgorithm);
+    ret.init (nMode,
+              aKey,
+              sJCEAlgorithm.contains ("GCM") ? new GCMParameterSpec (128, aIV) : new IvParameterSpec (aIV));
+    return ret;
+  }
+
+  private static int _getIVLength (@Nonnull final String sAlgorithmURI)
+  {
+    return JCEMapper.getIVLengthFromURI (sAlgorithmURI) / 8;
+  }
+
+  /**
+   * Emulate what WSS4J does when encrypting an attachment: encrypt the source
+   * with a new IV and pass the result to the callback handler.
+   */
+  private static void _encryptLikeWSS4J (@Nonnull final WSS4JAttachmentCallbackHandler aHandler,
+                                         @Nonnull final WSS4JAttachment aSrcAttachment,
+                                         @Nonnull final String sAlgorithmURI,
+                                         @Nonnull final SecretKey aKey) throws Exception
+  {
+    final byte [] aIV = new byte [_getIVLength (sAlgorithmURI)];
+    RandomHelper.getSecureRandom ().nextBytes (aIV);
+    final Cipher aCipher = _createCipher (sAlgorithmURI, Cipher.ENCRYPT_MODE, aKey, aIV);
+
+    final Attachment aResultAttachment = new Attachment ();
+    aResultAttachment.setId (aSrcAttachment.getId ());
+    aResultAttachment.setMimeType (aSrcAttachment.getMimeType ());
+    aResultAttachment.setSourceStream (AttachmentUtils.setupAttachmentEncryptionStream (aCipher,
+                                                                                        false,
+                                                                                        aSrcAttachment,
+                                                                                        new HashMap <> ()));
+
+    final AttachmentResultCallback aCallback = new AttachmentResultCallback ();
+    aCallback.setAttachmentId (aSrcAttachment.getId ());
+    aCallback.setAttachment (aResultAttachment);
+    aHandler.handle (new Callback [] { aCallback });
+  }
+
+  @Nonnull
+  private static byte [] _decrypt (@Nonnull final String sAlgorithmURI,
+                                   @Nonnull final SecretKey aKey,
+                                   @Nonnull final byte [] aEncrypted) throws Exception
+  {
+    // The IV is followed by the cipher text
+    final int nIVLength = _getIVLength (sAlgorithmURI);
+    final byte [] aIV = Arrays.copyOf (aEncrypted, nIVLength);
+    final Cipher aCipher = _createCipher (sAlgorithmURI, Cipher.DECRYPT_MODE, aKey, aIV);
+    return aCipher.doFinal (aEncrypted, nIVLength, aEncrypted.length - nIVLength);
+  }
+
+  private static void _testRoundTrip (@Nonnull final ECryptoAlgorithmCrypt eAlgorithm,
+                                      @Nonnull final byte [] aPlain,
+                                      final boolean bFileBacked) throws Exception
+  {
+    final String sAlgorithmURI = eAlgorithm.getAlgorithmURI ();
+    final SecretKey aKey = KeyUtils.getKeyGenerator (sAlgorithmURI).generateKey ();
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aSrcAttachment;
+      if (bFileBacked)
+      {
+        final File aFile = aResHelper.createTempFile ();
+        SimpleFileIO.writeFile (aFile, aPlain);
+        aSrcAttachment = WSS4JAttachment.createOutgoingFileAttachment (aFile,
+                                                                       null,
+                                                                       "a.bin",
+                                                                       CMimeType.APPLICATION_OCTET_STREAM,
+                                                                       null,
+                                                                       null,
+                                                                       aResHelper);
+      }
+      else
+        aSrcAttachment = WSS4JAttachment.createOutgoingFileAttachment (aPlain,
+                                                                       null,
+                                                                       "a.bin",
+                                                                       CMimeType.APPLICATION_OCTET_STREAM,
+                                                                       null,
+                                                                       null,
+                                                                       aResHelper);
+
+      final WSS4JAttachmentCallbackHandler aHandler = new WSS4JAttachmentCallbackHandler (new CommonsArrayList <> (aSrcAttachment),
+                                                                                          aResHelper,
+                                                                                          sAlgorithmURI,
+                                                                                          aKey);
+      _encryptLikeWSS4J (aHandler, aSrcAttachment, sAlgorithmURI, aKey);
+
+      // Same as in AS4Encryptor
+      final ICommonsList <WSS4JAttachment> aEncryptedAttachments = aHandler.getAllResponseAttachments ();
+      assertEquals (1, aEncryptedAttachments.size ());
+      for (final WSS4JAttachment aAttachment : aEncryptedAttachments)
+      {
+        aAttachment.overwriteMimeType (CMimeType.APPLICATION_OCTET_STREAM.getAsString ());
+        aAttachment.setContentTransferEncoding (EContentTransferEncoding.BINARY);
+        assertTrue (aAttachment.isRepeatable ());
+        assertTrue (aAttachment.isTransferLengthKnown ());
+      }
+
+      final AS4MimeMessage aMimeMsg = MimeMessageCreator.generateMimeMessage (SOAP_VERSION,
+                                                                              _createSoapDocument (),
+                                                                              aEncryptedAttachments);
+      assertTrue (aMimeMsg.isRepeatable ());
+      assertTrue (aMimeMsg.isLengthComputable ());
+
+      // Same as when sending
+      MessageHelperMethods.getAndRemoveAllHeaders (aMimeMsg);
+      final HttpMimeMessageEntity aEntity = HttpMimeMessageEntity.create (aMimeMsg);
+      final long nLength = aEntity.getContentLength ();
+      assertTrue (nLength > 0);
+
+      // Write twice: the first write uses the WSS4J stream, the second one
+      // encrypts the source again
+      final byte [] [] aIVs = new byte [2] [];
+      for (int i = 0; i < 2; ++i)
+        try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+        {
+          aEntity.writeTo (aBAOS);
+          final byte [] aWritten = aBAOS.toByteArray ();
+          assertEquals (eAlgorithm + "/" + aPlain.length, nLength, aWritten.length);
+
+          final MimeMultipart aMultipart = new MimeMultipart (new ByteArrayDataSource (aWritten,
+                                                                                        aEntity.getContentType ()));
+          assertEquals (2, aMultipart.getCount ());
+          final byte [] aEncrypted = StreamHelper.getAllBytes (aMultipart.getBodyPart (1).getInputStream ());
+          assertArrayEquals (aPlain, _decrypt (sAlgorithmURI, aKey, aEncrypted));
+          aIVs[i] = Arrays.copyOf (aEncrypted, _getIVLength (sAlgorithmURI));
+        }
+
+      // A fresh IV must be used for each encryption
+      assertFalse (Arrays.equals (aIVs[0], aIVs[1]));
+    }
+  }
+
+  @Test
+  public void testEncryptedRoundTrip () throws Exception
+  {
+    for (final ECryptoAlgorithmCrypt eAlgorithm : ECryptoAlgorithmCrypt.values ())
+      for (final int nLength : PLAIN_LENGTHS)
+      {
+        final byte [] aPlain = new byte [nLength];
+        RandomHelper.getRandom ().nextBytes (aPlain);
+        _testRoundTrip (eAlgorithm, aPlain, false);
+        _testRoundTrip (eAlgorithm, aPlain, true);
+      }
+  }
+}
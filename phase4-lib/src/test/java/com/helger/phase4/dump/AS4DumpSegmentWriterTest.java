@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+
+/**
+ * Test class for class {@link AS4DumpSegmentWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DumpSegmentWriterTest
+{
+  private static void _testRoundtrip (@Nonnull final File aDir, final boolean bCompress) throws Exception
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    // Small segments to enforce rolling
+    try (final AS4DumpSegmentWriter aWriter = new AS4DumpSegmentWriter (aDir,
+                                                                        1024,
+                                                                        4,
+                                                                        bCompress,
+                                                                        EAS4DumpBackPressureMode.BLOCK))
+    {
+      for (int i = 0; i < 50; ++i)
+        try (final OutputStream aOS = aWriter.openStream ("msg-" + (i % 10)))
+        {
+          aOS.write (("Dump " + i + " of message " + (i % 10)).getBytes (StandardCharsets.UTF_8));
+        }
+    }
+
+    final File [] aIndexFiles = aDir.listFiles ( (d, n) -> n.endsWith (AS4DumpSegmentWriter.INDEX_FILE_EXTENSION));
+    assertTrue (aIndexFiles.length > 1);
+
+    for (int nMsg = 0; nMsg < 10; ++nMsg)
+    {
+      final ICommonsList <byte []> aDumps = AS4DumpReader.readSegmentedDumps (aDir, "msg-" + nMsg);
+      assertEquals (5, aDumps.size ());
+      for (int j = 0; j < 5; ++j)
+        assertArrayEquals (("Dump " + (j * 10 + nMsg) + " of message " + nMsg).getBytes (StandardCharsets.UTF_8),
+                           aDumps.get (j));
+    }
+    assertTrue (AS4DumpReader.readSegmentedDumps (aDir, "msg-1x").isEmpty ());
+  }
+
+  @Test
+  public void testRoundtrip () throws Exception
+  {
+    _testRoundtrip (new File ("target/dump-segments/plain"), false);
+  }
+
+  @Test
+  public void testRoundtripCompressed () throws Exception
+  {
+    _testRoundtrip (new File ("target/dump-segments/gzip"), true);
+  }
+
+  @Test
+  public void testDropAfterClose () throws Exception
+  {
+    final File aDir = new File ("target/dump-segments/closed");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    final AS4DumpSegmentWriter aWriter = new AS4DumpSegmentWriter (aDir,
+                                                                   1024,
+                                                                   1,
+                                                                   false,
+                                                                   EAS4DumpBackPressureMode.DROP);
+    aWriter.close ();
+    aWriter.submit ("late", new byte [] { 1, 2, 3 });
+    assertEquals (1, aWriter.getDroppedCount ());
+    assertTrue (AS4DumpReader.readSegmentedDumps (aDir, "late").isEmpty ());
+  }
+
+  @Test
+  public void testLargeDumpWrittenDirectly () throws Exception
+  {
+    final File aDir = new File ("target/dump-segments/large");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    // The dump exceeds the byte bound of the queue
+    final byte [] aData = new byte [100];
+    try (final AS4DumpSegmentWriter aWriter = new AS4DumpSegmentWriter (aDir,
+                                                                        1024,
+                                                                        10,
+                                                                        16,
+                                                                        false,
+                                                                        EAS4DumpBackPressureMode.DROP))
+    {
+      aWriter.submit ("large", aData);
+      assertEquals (0, aWriter.getDroppedCount ());
+      // Already written before closing
+      assertEquals (1, AS4DumpReader.readSegmentedDumps (aDir, "large").size ());
+    }
+    assertArrayEquals (aData, AS4DumpReader.readSegmentedDumps (aDir, "large").getFirst ());
+  }
+
+  private static void _testLargeStreamSpilled (@Nonnull final File aDir, final boolean bCompress) throws Exception
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    final byte [] aData = new byte [1000];
+    for (int i = 0; i < aData.length; ++i)
+      aData[i] = (byte) i;
+    try (final AS4DumpSegmentWriter aWriter = new AS4DumpSegmentWriter (aDir,
+                                                                        4096,
+                                                                        10,
+                                                                        16,
+                                                                        bCompress,
+                                                                        EAS4DumpBackPressureMode.DROP))
+    {
+      try (final OutputStream aOS = aWriter.openStream ("large"))
+      {
+        for (int i = 0; i < aData.length; i += 10)
+          aOS.write (aData, i, 10);
+        // The dump exceeds the byte bound and is therefore not kept in memory
+        assertEquals (1, aDir.listFiles ( (d, n) -> n.endsWith (".tmp")).length);
+      }
+      assertEquals (0, aWriter.getDroppedCount ());
+      // Already written before closing, and the spill file is gone
+      assertEquals (1, AS4DumpReader.readSegmentedDumps (aDir, "large").size ());
+      assertEquals (0, aDir.listFiles ( (d, n) -> n.endsWith (".tmp")).length);
+    }
+    assertArrayEquals (aData, AS4DumpReader.readSegmentedDumps (aDir, "large").getFirst ());
+  }
+
+  @Test
+  public void testLargeStreamSpilled () throws Exception
+  {
+    _testLargeStreamSpilled (new File ("target/dump-segments/spill-plain"), false);
+  }
+
+  @Test
+  public void testLargeStreamSpilledCompressed () throws Exception
+  {
+    _testLargeStreamSpilled (new File ("target/dump-segments/spill-gzip"), true);
+  }
+
+  @Test
+  public void testMultipleWritersSameDirectory () throws Exception
+  {
+    final File aDir = new File ("target/dump-segments/multi");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    // Created in the same millisecond most of the time
+    final AS4DumpSegmentWriter aWriter1 = new AS4DumpSegmentWriter (aDir);
+    final AS4DumpSegmentWriter aWriter2 = new AS4DumpSegmentWriter (aDir);
+    aWriter1.submit ("w1", new byte [] { 1 });
+    aWriter2.submit ("w2", new byte [] { 2 });
+    aWriter1.close ();
+    aWriter2.close ();
+
+    assertArrayEquals (new byte [] { 1 }, AS4DumpReader.readSegmentedDumps (aDir, "w1").getFirst ());
+    assertArrayEquals (new byte [] { 2 }, AS4DumpReader.readSegmentedDumps (aDir, "w2").getFirst ());
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.datetime.PDTFactory;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerInMemoryBucketed}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerInMemoryBucketedTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final AS4DuplicateManagerInMemoryBucketed aMgr = new AS4DuplicateManagerInMemoryBucketed (Duration.ofSeconds (1));
+    assertTrue (aMgr.isEmpty ());
+
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isBreak ());
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    // No message ID
+    assertTrue (aMgr.registerAndCheck (null, null, null).isContinue ());
+    assertEquals (2, aMgr.size ());
+    assertEquals (2, aMgr.getAll ().size ());
+
+    final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("a");
+    assertNotNull (aItem);
+    assertEquals ("a", aItem.getMessageID ());
+    assertEquals ("profile", aItem.getProfileID ());
+    assertEquals ("pmode", aItem.getPModeID ());
+    assertNull (aMgr.getItemOfMessageID ("c"));
+
+    // Nothing is old enough
+    final OffsetDateTime aNow = PDTFactory.getCurrentOffsetDateTime ();
+    assertTrue (aMgr.evictAllItemsBefore (aNow.minusMinutes (1)).isEmpty ());
+    assertEquals (2, aMgr.size ());
+
+    // Everything is old enough
+    final ICommonsList <String> aEvicted = aMgr.evictAllItemsBefore (aNow.plusMinutes (1));
+    assertEquals (2, aEvicted.size ());
+    assertTrue (aEvicted.contains ("a"));
+    assertTrue (aEvicted.contains ("b"));
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (0, aMgr.getBucketCount ());
+
+    // Can be registered again
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+    assertFalse (aMgr.isEmpty ());
+    assertTrue (aMgr.clearCache ().isChanged ());
+    assertTrue (aMgr.isEmpty ());
+    assertTrue (aMgr.clearCache ().isUnchanged ());
+  }
+
+  @Test
+  public void testUnregister ()
+  {
+    final AS4DuplicateManagerInMemoryBucketed aMgr = new AS4DuplicateManagerInMemoryBucketed (Duration.ofSeconds (1));
+    assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+    assertTrue (aMgr.unregister ("a").isChanged ());
+    assertTrue (aMgr.unregister ("a").isUnchanged ());
+    assertTrue (aMgr.unregister (null).isUnchanged ());
+    assertTrue (aMgr.isEmpty ());
+
+    // Can be registered again and is evicted only once
+    assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+    final ICommonsList <String> aEvicted = aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ()
+                                                                               .plusMinutes (1));
+    assertEquals (1, aEvicted.size ());
+    assertTrue (aMgr.isEmpty ());
+  }
+
+  @Test
+  public void testConcurrentRegisterAndEvict () throws Exception
+  {
+    // Very short buckets, so that buckets are evicted while IDs are added
+    final AS4DuplicateManagerInMemoryBucketed aMgr = new AS4DuplicateManagerInMemoryBucketed (Duration.ofMillis (1));
+    final AtomicBoolean aRunning = new AtomicBoolean (true);
+    final ExecutorService aES = Executors.newFixedThreadPool (5);
+    try
+    {
+      aES.submit ( () -> {
+        while (aRunning.get ())
+          aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plusSeconds (1));
+      });
+      final ICommonsList <Future <?>> aRegistrations = new CommonsArrayList <> ();
+      for (int t = 0; t < 4; ++t)
+      {
+        final int nThread = t;
+        aRegistrations.add (aES.submit ( () -> {
+          for (int i = 0; i < 5_000; ++i)
+            aMgr.registerAndCheck ("id-" + nThread + "-" + i, null, null);
+        }));
+      }
+      for (final Future <?> aFuture : aRegistrations)
+        aFuture.get ();
+    }
+    finally
+    {
+      aRunning.set (false);
+      aES.shutdown ();
+      assertTrue (aES.awaitTermination (1, TimeUnit.MINUTES));
+    }
+
+    // No entry may be left without a bucket
+    aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plusMinutes (1));
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (0, aMgr.getBucketCount ());
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.OffsetDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.dao.DAOException;
+import com.helger.phase4.AS4TestRule;
+import com.helger.photon.app.io.WebFileIO;
+
+/**
+ * Test class for class {@link AS4DuplicateManager}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerTest
+{
+  private static final String TEST_FILENAME_PREFIX = "test-duplicates-";
+
+  // The data directory of the current test - set while the AS4 rule is active
+  private File m_aDataDir;
+
+  // The cleanup is the outer rule, so that it runs after pending DAO writes
+  // were flushed by the AS4 rule
+  @Rule
+  public final TestRule m_aTestRule = RuleChain.outerRule (new ExternalResource ()
+  {
+    @Override
+    protected void after ()
+    {
+      _deleteTestFiles ();
+    }
+  }).around (new AS4TestRule ());
+
+  private void _deleteTestFiles ()
+  {
+    if (m_aDataDir != null)
+    {
+      final File [] aFiles = m_aDataDir.listFiles ( (d, n) -> n.startsWith (TEST_FILENAME_PREFIX));
+      if (aFiles != null)
+        for (final File aFile : aFiles)
+          FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+    }
+  }
+
+  @Test
+  public void testLookupByID () throws DAOException
+  {
+    final AS4DuplicateManager aMgr = new AS4DuplicateManager (null);
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isBreak ());
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    // No message ID
+    assertTrue (aMgr.registerAndCheck (null, null, null).isContinue ());
+    assertEquals (2, aMgr.getAll ().size ());
+
+    final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("a");
+    assertNotNull (aItem);
+    assertEquals ("a", aItem.getMessageID ());
+    assertEquals ("profile", aItem.getProfileID ());
+    assertEquals ("pmode", aItem.getPModeID ());
+    assertNotNull (aMgr.getItemOfMessageID ("b"));
+    assertNull (aMgr.getItemOfMessageID ("c"));
+    assertNull (aMgr.getItemOfMessageID (null));
+    assertNull (aMgr.getItemOfMessageID (""));
+  }
+
+  @Test
+  public void testRangeEviction () throws DAOException
+  {
+    final AS4DuplicateManager aMgr = new AS4DuplicateManager (null);
+    assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    // Make sure the next item has a later time stamp
+    ThreadHelper.sleep (20);
+    assertTrue (aMgr.registerAndCheck ("c", null, null).isContinue ());
+    final OffsetDateTime aRefDT = aMgr.getItemOfMessageID ("c").getDateTime ();
+
+    // Nothing is old enough
+    assertTrue (aMgr.evictAllItemsBefore (aRefDT.minusMinutes (1)).isEmpty ());
+    assertEquals (3, aMgr.getAll ().size ());
+
+    // The reference date time itself is excluded
+    ICommonsList <String> aEvicted = aMgr.evictAllItemsBefore (aRefDT);
+    assertEquals (2, aEvicted.size ());
+    assertTrue (aEvicted.contains ("a"));
+    assertTrue (aEvicted.contains ("b"));
+    assertNull (aMgr.getItemOfMessageID ("a"));
+    assertNotNull (aMgr.getItemOfMessageID ("c"));
+
+    // Evicted IDs can be registered again
+    assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+
+    aEvicted = aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plusMinutes (1));
+    assertEquals (2, aEvicted.size ());
+    assertTrue (aEvicted.contains ("a"));
+    assertTrue (aEvicted.contains ("c"));
+    assertTrue (aMgr.getAll ().isEmpty ());
+  }
+
+  @Test
+  public void testUnregister () throws DAOException
+  {
+    final AS4DuplicateManager aMgr = new AS4DuplicateManager (null);
+    assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    assertTrue (aMgr.unregister ("a").isChanged ());
+    assertTrue (aMgr.unregister ("a").isUnchanged ());
+    assertTrue (aMgr.unregister (null).isUnchanged ());
+    assertNull (aMgr.getItemOfMessageID ("a"));
+
+    // Unregistered items are no longer part of the time index
+    assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+    final ICommonsList <String> aEvicted = aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ()
+                                                                               .plusMinutes (1));
+    assertEquals (2, aEvicted.size ());
+    assertTrue (aEvicted.contains ("a"));
+    assertTrue (aEvicted.contains ("b"));
+    assertTrue (aMgr.getAll ().isEmpty ());
+
+    // Clear cache also clears the index
+    assertTrue (aMgr.registerAndCheck ("c", null, null).isContinue ());
+    assertTrue (aMgr.clearCache ().isChanged ());
+    assertTrue (aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plusMinutes (1)).isEmpty ());
+  }
+
+  @Test
+  public void testIndexRebuiltAfterReload () throws DAOException
+  {
+    // Relative to the data directory below target/
+    m_aDataDir = WebFileIO.getDataIO ().getBasePathFile ();
+    final String sFilename = TEST_FILENAME_PREFIX + System.nanoTime () + ".xml";
+    final AS4DuplicateManager aMgr = new AS4DuplicateManager (sFilename);
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    aMgr.writeSnapshot ();
+
+    // Read everything from the file again
+    final AS4DuplicateManager aMgr2 = new AS4DuplicateManager (sFilename);
+    assertEquals (2, aMgr2.getAll ().size ());
+    final IAS4DuplicateItem aItem = aMgr2.getItemOfMessageID ("a");
+    assertNotNull (aItem);
+    assertEquals ("profile", aItem.getProfileID ());
+    assertTrue (aMgr2.registerAndCheck ("a", null, null).isBreak ());
+
+    // The time index was rebuilt from the read items
+    final ICommonsList <String> aEvicted = aMgr2.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ()
+                                                                                .plusMinutes (1));
+    assertEquals (2, aEvicted.size ());
+    assertTrue (aEvicted.contains ("a"));
+    assertTrue (aEvicted.contains ("b"));
+    assertTrue (aMgr2.getAll ().isEmpty ());
+  }
+
+  @Test
+  public void testSnapshotThreshold () throws DAOException
+  {
+    final AtomicInteger aSnapshots = new AtomicInteger (0);
+    final AS4DuplicateManager aMgr = new AS4DuplicateManager (null)
+    {
+      @Override
+      public void writeSnapshot ()
+      {
+        aSnapshots.incrementAndGet ();
+        super.writeSnapshot ();
+      }
+    };
+    assertEquals (AS4DuplicateManager.DEFAULT_SNAPSHOT_THRESHOLD, aMgr.getSnapshotThreshold ());
+    aMgr.setSnapshotThreshold (2);
+    assertEquals (2, aMgr.getSnapshotThreshold ());
+
+    // Below the threshold
+    assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+    assertEquals (1, aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plusMinutes (1)).size ());
+    assertEquals (0, aSnapshots.get ());
+
+    // Reaching the threshold
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    assertTrue (aMgr.registerAndCheck ("c", null, null).isContinue ());
+    assertEquals (2, aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plusMinutes (1)).size ());
+    assertEquals (1, aSnapshots.get ());
+
+    // Nothing evicted
+    assertTrue (aMgr.evictAllItemsBefore (PDTFactory.getCurrentOffsetDateTime ().plusMinutes (1)).isEmpty ());
+    assertEquals (1, aSnapshots.get ());
+  }
+}
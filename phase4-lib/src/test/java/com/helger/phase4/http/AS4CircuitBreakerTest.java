@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.state.EContinue;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+import com.helger.phase4.client.IAS4RetryCallback;
+
+/**
+ * Test class for class {@link AS4CircuitBreaker}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CircuitBreakerTest
+{
+  @Test
+  public void testStateTransitions ()
+  {
+    final String sDest = "http://localhost:8080";
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (2, Duration.ofMillis (50));
+    assertEquals (AS4CircuitBreaker.EState.CLOSED, aCB.getState (sDest));
+
+    assertTrue (aCB.tryAcquirePermission (sDest));
+    aCB.onFailure (sDest);
+    assertEquals (AS4CircuitBreaker.EState.CLOSED, aCB.getState (sDest));
+    assertTrue (aCB.tryAcquirePermission (sDest));
+    aCB.onFailure (sDest);
+    assertEquals (AS4CircuitBreaker.EState.OPEN, aCB.getState (sDest));
+    assertFalse (aCB.tryAcquirePermission (sDest));
+
+    // Other destinations are not affected
+    assertTrue (aCB.tryAcquirePermission ("http://localhost:8081"));
+
+    ThreadHelper.sleep (100);
+    // Exactly one trial call
+    assertTrue (aCB.tryAcquirePermission (sDest));
+    assertEquals (AS4CircuitBreaker.EState.HALF_OPEN, aCB.getState (sDest));
+    assertFalse (aCB.tryAcquirePermission (sDest));
+
+    // Failed trial re-opens
+    aCB.onFailure (sDest);
+    assertEquals (AS4CircuitBreaker.EState.OPEN, aCB.getState (sDest));
+
+    ThreadHelper.sleep (100);
+    assertTrue (aCB.tryAcquirePermission (sDest));
+    aCB.onSuccess (sDest);
+    assertEquals (AS4CircuitBreaker.EState.CLOSED, aCB.getState (sDest));
+    assertTrue (aCB.tryAcquirePermission (sDest));
+  }
+
+  @Test
+  public void testAsyncRetriesWithOpenCircuit () throws Exception
+  {
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (1, Duration.ofMinutes (1));
+    final BasicHttpPoster aPoster = new BasicHttpPoster ().setCircuitBreaker (aCB);
+    final AtomicInteger aRetries = new AtomicInteger (0);
+
+    final HttpRetrySettings aRetrySettings = new HttpRetrySettings ().setMaxRetries (2)
+                                                                     .setDurationBeforeRetry (Duration.ofMillis (10));
+    final IAS4RetryCallback aRetryCallback = (sMessageID, sURL, nTry, nMaxTries, nRetryIntervalMS, ex) -> {
+      aRetries.incrementAndGet ();
+      return EContinue.CONTINUE;
+    };
+
+    // Nothing is listening on port 1
+    final CompletableFuture <byte []> aFuture = aPoster.sendGenericMessageWithRetriesAsync ("http://localhost:1/as4",
+                                                                                           null,
+                                                                                           new ByteArrayEntity ("x".getBytes (StandardCharsets.UTF_8),
+                                                                                                                ContentType.TEXT_PLAIN),
+                                                                                           "msgid",
+                                                                                           aRetrySettings,
+                                                                                           new ResponseHandlerByteArray (),
+                                                                                           null,
+                                                                                           aRetryCallback);
+    try
+    {
+      aFuture.get (30, TimeUnit.SECONDS);
+      fail ();
+    }
+    catch (final ExecutionException ex)
+    {
+      // The retries were rejected by the open circuit
+      assertTrue (ex.getCause () instanceof AS4CircuitOpenException);
+    }
+    assertEquals (2, aRetries.get ());
+    assertEquals (AS4CircuitBreaker.EState.OPEN,
+                  aCB.getState (AS4DestinationHelper.getDestinationKey ("http://localhost:1")));
+  }
+}
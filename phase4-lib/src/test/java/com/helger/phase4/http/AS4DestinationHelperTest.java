@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4DestinationHelper}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DestinationHelperTest
+{
+  @Test
+  public void testDestinationKey ()
+  {
+    assertEquals ("https://example.org:-1", AS4DestinationHelper.getDestinationKey ("https://Example.org/as4"));
+    assertEquals ("http://example.org:8080", AS4DestinationHelper.getDestinationKey ("http://example.org:8080/a?b=c"));
+    assertEquals ("no url", AS4DestinationHelper.getDestinationKey ("no url"));
+    assertEquals ("", AS4DestinationHelper.getDestinationKey (null));
+    assertEquals ("", AS4DestinationHelper.getDestinationKey (""));
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.junit.Test;
+
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.state.EContinue;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+
+/**
+ * Test class for class {@link BasicHttpPoster}.
+ *
+ * @author Philip Helger
+ */
+public final class BasicHttpPosterTest
+{
+  private static final byte [] RESPONSE = "ok".getBytes (StandardCharsets.UTF_8);
+
+  private static final class SimulatedError extends Error
+  {}
+
+  /**
+   * Poster that blocks for all URLs containing "block" and answers directly
+   * otherwise.
+   */
+  private static final class MockPoster extends BasicHttpPoster
+  {
+    private final CountDownLatch m_aBlock;
+
+    MockPoster (@Nonnull final CountDownLatch aBlock)
+    {
+      m_aBlock = aBlock;
+    }
+
+    @Override
+    @SuppressWarnings ("unchecked")
+    public <T> T sendGenericMessage (@Nonnull final String sURL,
+                                     @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                     @Nonnull final HttpEntity aHttpEntity,
+                                     @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+    {
+      if (sURL.contains ("block"))
+        try
+        {
+          m_aBlock.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          throw new IOException (ex);
+        }
+      if (sURL.contains ("error"))
+        throw new SimulatedError ();
+      return (T) RESPONSE;
+    }
+  }
+
+  @Nonnull
+  private static HttpEntity _createEntity ()
+  {
+    return new ByteArrayEntity ("x".getBytes (StandardCharsets.UTF_8), ContentType.TEXT_PLAIN);
+  }
+
+  @Test
+  public void testBlockingSendsDontBlockScheduler () throws Exception
+  {
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    final MockPoster aPoster = new MockPoster (aBlock);
+    final ScheduledExecutorService aScheduler = Executors.newScheduledThreadPool (1);
+    final ExecutorService aSendExecutor = Executors.newFixedThreadPool (2);
+    try
+    {
+      // Occupies one send thread
+      final CompletableFuture <byte []> aBlocked = aPoster.sendGenericMessageWithRetriesAsync ("http://localhost/block",
+                                                                                              null,
+                                                                                              _createEntity (),
+                                                                                              "msg1",
+                                                                                              new HttpRetrySettings (),
+                                                                                              new ResponseHandlerByteArray (),
+                                                                                              null,
+                                                                                              null,
+                                                                                              aScheduler,
+                                                                                              aSendExecutor);
+      // The only scheduler thread is still available
+      final CompletableFuture <byte []> aOther = aPoster.sendGenericMessageWithRetriesAsync ("http://localhost/other",
+                                                                                            null,
+                                                                                            _createEntity (),
+                                                                                            "msg2",
+                                                                                            new HttpRetrySettings (),
+                                                                                            new ResponseHandlerByteArray (),
+                                                                                            null,
+                                                                                            null,
+                                                                                            aScheduler,
+                                                                                            aSendExecutor);
+      assertArrayEquals (RESPONSE, aOther.get (10, TimeUnit.SECONDS));
+      assertFalse (aBlocked.isDone ());
+
+      aBlock.countDown ();
+      assertArrayEquals (RESPONSE, aBlocked.get (10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      aBlock.countDown ();
+      aScheduler.shutdownNow ();
+      aSendExecutor.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testErrorIsCircuitBreakerFailure () throws Exception
+  {
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (1, Duration.ofMinutes (1));
+    final MockPoster aPoster = new MockPoster (new CountDownLatch (0));
+    aPoster.setCircuitBreaker (aCB);
+
+    try
+    {
+      aPoster.sendGenericMessageWithCircuitBreaker ("http://localhost/error",
+                                                    null,
+                                                    _createEntity (),
+                                                    new ResponseHandlerByteArray ());
+      fail ();
+    }
+    catch (final SimulatedError ex)
+    {
+      // expected
+    }
+    assertEquals (AS4CircuitBreaker.EState.OPEN,
+                  aCB.getState (AS4DestinationHelper.getDestinationKey ("http://localhost/error")));
+  }
+
+  @Test
+  public void testOpenCircuitIsNotRetried () throws Exception
+  {
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (1, Duration.ofMinutes (1));
+    aCB.onFailure (AS4DestinationHelper.getDestinationKey ("http://localhost/other"));
+    final MockPoster aPoster = new MockPoster (new CountDownLatch (0));
+    aPoster.setCircuitBreaker (aCB);
+
+    final HttpRetrySettings aRetrySettings = new HttpRetrySettings ().setMaxRetries (5)
+                                                                     .setDurationBeforeRetry (Duration.ofMinutes (1));
+    final AtomicInteger aRetries = new AtomicInteger (0);
+
+    // Synchronous
+    try
+    {
+      aPoster.sendGenericMessageWithRetries ("http://localhost/other",
+                                             null,
+                                             _createEntity (),
+                                             "msg1",
+                                             aRetrySettings,
+                                             new ResponseHandlerByteArray (),
+                                             null,
+                                             (sMessageID, sURL, nTry, nMaxTries, nRetryIntervalMS, ex) -> {
+                                               aRetries.incrementAndGet ();
+                                               return EContinue.CONTINUE;
+                                             });
+      fail ();
+    }
+    catch (final AS4CircuitOpenException ex)
+    {
+      // expected
+    }
+    assertEquals (0, aRetries.get ());
+
+    // Asynchronous
+    final ScheduledExecutorService aScheduler = Executors.newScheduledThreadPool (1);
+    final ExecutorService aSendExecutor = Executors.newFixedThreadPool (1);
+    try
+    {
+      final CompletableFuture <byte []> aFuture = aPoster.sendGenericMessageWithRetriesAsync ("http://localhost/other",
+                                                                                             null,
+                                                                                             _createEntity (),
+                                                                                             "msg2",
+                                                                                             aRetrySettings,
+                                                                                             new ResponseHandlerByteArray (),
+                                                                                             null,
+                                                                                             (sMessageID,
+                                                                                              sURL,
+                                                                                              nTry,
+                                                                                              nMaxTries,
+                                                                                              nRetryIntervalMS,
+                                                                                              ex) -> {
+                                                                                               aRetries.incrementAndGet ();
+                                                                                               return EContinue.CONTINUE;
+                                                                                             },
+                                                                                             aScheduler,
+                                                                                             aSendExecutor);
+      try
+      {
+        aFuture.get (10, TimeUnit.SECONDS);
+        fail ();
+      }
+      catch (final ExecutionException ex)
+      {
+        assertTrue (ex.getCause () instanceof AS4CircuitOpenException);
+      }
+      assertEquals (0, aRetries.get ());
+    }
+    finally
+    {
+      aScheduler.shutdownNow ();
+      aSendExecutor.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testSharedPooledHttpClientFactories ()
+  {
+    try
+    {
+      final PooledHttpClientFactory aDefault = BasicHttpPoster.getSharedPooledHttpClientFactory ();
+      assertSame (aDefault, BasicHttpPoster.getSharedPooledHttpClientFactory ());
+      assertTrue (BasicHttpPoster.isDefaultHttpClientFactory (aDefault));
+
+      final PooledHttpClientFactory aCustom = BasicHttpPoster.getSharedPooledHttpClientFactory ("test",
+                                                                                                PooledHttpClientFactory::new);
+      assertNotSame (aDefault, aCustom);
+      assertSame (aCustom, BasicHttpPoster.getSharedPooledHttpClientFactory ("test", () -> {
+        throw new IllegalStateException ("Must not be called");
+      }));
+      assertFalse (BasicHttpPoster.isDefaultHttpClientFactory (aCustom));
+
+      // Closing removes all shared factories
+      BasicHttpPoster.closeSharedPooledHttpClientFactory ();
+      assertNotSame (aCustom, BasicHttpPoster.getSharedPooledHttpClientFactory ("test", PooledHttpClientFactory::new));
+      assertNotSame (aDefault, BasicHttpPoster.getSharedPooledHttpClientFactory ());
+    }
+    finally
+    {
+      BasicHttpPoster.closeSharedPooledHttpClientFactory ();
+    }
+  }
+}
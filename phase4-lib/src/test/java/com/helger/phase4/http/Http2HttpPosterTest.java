@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.httpclient.HttpClientFactory;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for class {@link Http2HttpPoster}.
+ *
+ * @author Philip Helger
+ */
+public final class Http2HttpPosterTest
+{
+  @AfterClass
+  public static void afterClass ()
+  {
+    Http2HttpPoster.closeSharedHttpAsyncClient ();
+  }
+
+  @Test
+  public void testIsUsingHttpAsyncClient ()
+  {
+    final Http2HttpPoster aPoster = new Http2HttpPoster ();
+    assertTrue (aPoster.isUsingHttpAsyncClient ());
+
+    // Default factories don't change anything
+    aPoster.setHttpClientFactory (BasicHttpPoster.createDefaultHttpClientFactory ());
+    assertTrue (aPoster.isUsingHttpAsyncClient ());
+
+    // Custom factories fall back to the classic client
+    aPoster.setHttpClientFactory (new HttpClientFactory ());
+    assertFalse (aPoster.isUsingHttpAsyncClient ());
+
+    // Unless an asynchronous client is set explicitly
+    aPoster.setHttpAsyncClient (Http2HttpPoster.getSharedHttpAsyncClient ());
+    assertTrue (aPoster.isUsingHttpAsyncClient ());
+  }
+
+  @Test
+  public void testStreamingRoundTrip () throws Exception
+  {
+    // Echo the request content length and number of bytes received
+    final HttpServer aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    aServer.createContext ("/as4", aExchange -> {
+      long nCount = 0;
+      try (final InputStream aIS = aExchange.getRequestBody ())
+      {
+        final byte [] aBuf = new byte [8192];
+        int nRead;
+        while ((nRead = aIS.read (aBuf)) >= 0)
+          nCount += nRead;
+      }
+      final byte [] aResponse = (aExchange.getRequestHeaders ().getFirst ("Content-Length") + "/" + nCount).getBytes (StandardCharsets.UTF_8);
+      aExchange.getResponseHeaders ().add ("Content-Type", "text/plain");
+      aExchange.sendResponseHeaders (200, aResponse.length);
+      try (final OutputStream aOS = aExchange.getResponseBody ())
+      {
+        aOS.write (aResponse);
+      }
+    });
+    aServer.start ();
+    try
+    {
+      final byte [] aPayload = new byte [4 * 1024 * 1024];
+      Arrays.fill (aPayload, (byte) 'x');
+
+      final Http2HttpPoster aPoster = new Http2HttpPoster ();
+      final String sResponse = aPoster.sendGenericMessage ("http://localhost:" + aServer.getAddress ().getPort () + "/as4",
+                                                           null,
+                                                           new ByteArrayEntity (aPayload, ContentType.APPLICATION_OCTET_STREAM),
+                                                           aHttpResponse -> {
+                                                             assertEquals (200, aHttpResponse.getCode ());
+                                                             return new String (StreamHelper.getAllBytes (aHttpResponse.getEntity ()
+                                                                                                                       .getContent ()),
+                                                                                StandardCharsets.UTF_8);
+                                                           });
+      assertEquals (aPayload.length + "/" + aPayload.length, sResponse);
+    }
+    finally
+    {
+      aServer.stop (0);
+    }
+  }
+}
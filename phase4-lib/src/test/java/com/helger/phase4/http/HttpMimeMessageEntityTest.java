@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.messaging.mime.MimeMessageCreator;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link HttpMimeMessageEntity}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpMimeMessageEntityTest
+{
+  @Test
+  public void testContentLength () throws Exception
+  {
+    final ESoapVersion eSoapVersion = ESoapVersion.SOAP_12;
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eEnvelope = (Element) aDoc.appendChild (aDoc.createElementNS (eSoapVersion.getNamespaceURI (),
+                                                                                "S:Envelope"));
+    eEnvelope.appendChild (aDoc.createElementNS (eSoapVersion.getNamespaceURI (), "S:Body"))
+             .appendChild (aDoc.createTextNode ("Grüße"));
+
+    final File aFile = new ClassPathResource ("attachment/test-img.jpg").getAsFile ();
+    assertTrue (aFile.exists ());
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final ICommonsList <WSS4JAttachment> aAttachments = new CommonsArrayList <> ();
+      aAttachments.add (WSS4JAttachment.createOutgoingFileAttachment ("in memory".getBytes (StandardCharsets.UTF_8),
+                                                                      null,
+                                                                      "a.txt",
+                                                                      CMimeType.TEXT_PLAIN,
+                                                                      null,
+                                                                      StandardCharsets.UTF_8,
+                                                                      aResHelper));
+      aAttachments.add (WSS4JAttachment.createOutgoingFileAttachment (aFile,
+                                                                      null,
+                                                                      "b.jpg",
+                                                                      CMimeType.IMAGE_JPG,
+                                                                      null,
+                                                                      null,
+                                                                      aResHelper));
+      aAttachments.add (WSS4JAttachment.createOutgoingFileAttachment (aFile,
+                                                                      null,
+                                                                      "c.jpg",
+                                                                      CMimeType.IMAGE_JPG,
+                                                                      EAS4CompressionMode.GZIP,
+                                                                      null,
+                                                                      aResHelper));
+      for (final WSS4JAttachment aAttachment : aAttachments)
+        assertTrue (aAttachment.isTransferLengthKnown ());
+
+      final AS4MimeMessage aMimeMsg = MimeMessageCreator.generateMimeMessage (eSoapVersion, aDoc, aAttachments);
+      assertTrue (aMimeMsg.isRepeatable ());
+      assertTrue (aMimeMsg.isLengthComputable ());
+
+      // Same as when sending
+      MessageHelperMethods.getAndRemoveAllHeaders (aMimeMsg);
+      final HttpMimeMessageEntity aEntity = HttpMimeMessageEntity.create (aMimeMsg);
+
+      final long nLength = aEntity.getContentLength ();
+      assertTrue (nLength > aFile.length ());
+
+      // Write twice to ensure it is repeatable and stable
+      for (int i = 0; i < 2; ++i)
+        try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+        {
+          aEntity.writeTo (aBAOS);
+          assertEquals (nLength, aBAOS.size ());
+        }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.helger.httpclient.HttpClientManager;
+
+/**
+ * Test class for class {@link PooledHttpClientFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class PooledHttpClientFactoryTest
+{
+  @Test
+  public void testNoClientAfterClose ()
+  {
+    final PooledHttpClientFactory aFactory = new PooledHttpClientFactory ();
+    assertFalse (aFactory.isClosed ());
+
+    final HttpClientManager aClientMgr = aFactory.getSharedHttpClientManager ();
+    assertNotNull (aClientMgr);
+    assertSame (aClientMgr, aFactory.getSharedHttpClientManager ());
+
+    aFactory.close ();
+    assertTrue (aFactory.isClosed ());
+    try
+    {
+      aFactory.getSharedHttpClientManager ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+
+    // Closing again is a no-op
+    aFactory.close ();
+    assertTrue (aFactory.isClosed ());
+  }
+}
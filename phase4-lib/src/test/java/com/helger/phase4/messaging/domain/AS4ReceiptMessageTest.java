@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.marshaller.XMLDSigReaderBuilder;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.xml.ChildElementIterator;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+import com.helger.xsds.xmldsig.ReferenceType;
+
+/**
+ * Test class for class {@link AS4ReceiptMessage}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ReceiptMessageTest
+{
+  private static final String SIGNED_SOAP = "<S12:Envelope xmlns:S12=\"http://www.w3.org/2003/05/soap-envelope\">" +
+                                            "<S12:Header>" +
+                                            "<wsse:Security xmlns:wsse=\"" +
+                                            CAS4.WSSE_NS +
+                                            "\">" +
+                                            "<ds:Signature xmlns:ds=\"" +
+                                            CAS4.DS_NS +
+                                            "\">" +
+                                            "<ds:SignedInfo>" +
+                                            "<ds:CanonicalizationMethod Algorithm=\"http://www.w3.org/2001/10/xml-exc-c14n#\"/>" +
+                                            "<ds:SignatureMethod Algorithm=\"http://www.w3.org/2001/04/xmldsig-more#rsa-sha256\"/>" +
+                                            "<ds:Reference URI=\"#id-1\">" +
+                                            "<ds:Transforms><ds:Transform Algorithm=\"http://www.w3.org/2001/10/xml-exc-c14n#\"/></ds:Transforms>" +
+                                            "<ds:DigestMethod Algorithm=\"http://www.w3.org/2001/04/xmlenc#sha256\"/>" +
+                                            "<ds:DigestValue>AAEC</ds:DigestValue>" +
+                                            "</ds:Reference>" +
+                                            "<ds:Reference URI=\"cid:attachment1@phase4\">" +
+                                            "<ds:Transforms><ds:Transform Algorithm=\"http://docs.oasis-open.org/wss/oasis-wss-SwAProfile-1.1#Attachment-Content-Signature-Transform\"/></ds:Transforms>" +
+                                            "<ds:DigestMethod Algorithm=\"http://www.w3.org/2001/04/xmlenc#sha256\"/>" +
+                                            "<ds:DigestValue>AwQF</ds:DigestValue>" +
+                                            "</ds:Reference>" +
+                                            "</ds:SignedInfo>" +
+                                            "</ds:Signature>" +
+                                            "</wsse:Security>" +
+                                            "</S12:Header>" +
+                                            "<S12:Body/>" +
+                                            "</S12:Envelope>";
+
+  @Test
+  public void testCreateWithDSigReferences ()
+  {
+    final Document aSoapDoc = DOMReader.readXMLDOM (SIGNED_SOAP);
+    assertNotNull (aSoapDoc);
+
+    final ICommonsList <Node> aRefNodes = AS4ReceiptMessage.getAllDSigReferenceNodes (aSoapDoc);
+    assertEquals (2, aRefNodes.size ());
+    final ICommonsList <ReferenceType> aExpectedRefs = AS4ReceiptMessage.getAllDSigReferences (aSoapDoc);
+    assertEquals (2, aExpectedRefs.size ());
+
+    final Element eHeader = XMLHelper.getFirstChildElementOfName (aSoapDoc.getDocumentElement (), "Header");
+    final Element eSecurity = XMLHelper.getFirstChildElementOfName (eHeader, CAS4.WSSE_NS, "Security");
+    final ICommonsList <Element> aRefElements = AS4ReceiptMessage.getAllDSigReferenceElements (eSecurity);
+    assertEquals (2, aRefElements.size ());
+
+    final AS4ReceiptMessage aReceipt = AS4ReceiptMessage.createWithDSigReferences (ESoapVersion.SOAP_12,
+                                                                                   "msg-1",
+                                                                                   null,
+                                                                                   aRefElements,
+                                                                                   true);
+    // Serialize and re-read to check that all namespaces are declared
+    final Document aReRead = DOMReader.readXMLDOM (AS4XMLHelper.serializeXML (aReceipt.getAsSoapDocument ()));
+    assertNotNull (aReRead);
+
+    Element eNext = XMLHelper.getFirstChildElementOfName (aReRead.getDocumentElement (), "Header");
+    eNext = XMLHelper.getFirstChildElementOfName (eNext, CAS4.EBMS_NS, "Messaging");
+    eNext = XMLHelper.getFirstChildElementOfName (eNext, CAS4.EBMS_NS, "SignalMessage");
+    eNext = XMLHelper.getFirstChildElementOfName (eNext, CAS4.EBMS_NS, "Receipt");
+    final Element eNRI = XMLHelper.getFirstChildElementOfName (eNext, CAS4.EBBP_NS, "NonRepudiationInformation");
+    assertNotNull (eNRI);
+
+    final ICommonsList <Element> aParts = new CommonsArrayList <> ();
+    new ChildElementIterator (eNRI).findAll (XMLHelper.filterElementWithNamespaceAndLocalName (CAS4.EBBP_NS,
+                                                                                               "MessagePartNRInformation"),
+                                             aParts::add);
+    assertEquals (2, aParts.size ());
+    for (int i = 0; i < aParts.size (); ++i)
+    {
+      final Element eRef = XMLHelper.getFirstChildElementOfName (aParts.get (i), CAS4.DS_NS, "Reference");
+      final ReferenceType aRef = XMLDSigReaderBuilder.dsigReference ().read (eRef);
+      assertNotNull (aRef);
+      assertEquals (aExpectedRefs.get (i).getURI (), aRef.getURI ());
+      assertEquals (aExpectedRefs.get (i).getDigestMethod ().getAlgorithm (), aRef.getDigestMethod ().getAlgorithm ());
+      assertArrayEquals (aExpectedRefs.get (i).getDigestValue (), aRef.getDigestValue ());
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.xml.security.Init;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.jaxb.validation.CollectingValidationEventHandler;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.marshaller.Ebms3ReaderBuilder;
+import com.helger.phase4.marshaller.Ebms3WriterBuilder;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.soap11.Soap11Body;
+import com.helger.phase4.soap11.Soap11Envelope;
+import com.helger.phase4.soap11.Soap11Header;
+import com.helger.phase4.soap12.Soap12Body;
+import com.helger.phase4.soap12.Soap12Envelope;
+import com.helger.phase4.soap12.Soap12Header;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link AbstractAS4Message}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractAS4MessageTest
+{
+  private static final String NS_PAYLOAD = "urn:test:payload";
+
+  @BeforeClass
+  public static void beforeClass ()
+  {
+    Init.init ();
+  }
+
+  /**
+   * Create the SOAP document the way it was done before the single pass
+   * creation: the EBMS3 header and the SOAP envelope are marshalled via JAXB.
+   */
+  @Nonnull
+  private static Document _getAsSoapDocumentViaJAXB (@Nonnull final AbstractAS4Message <?> aMsg,
+                                                     @Nullable final Node aPayload)
+  {
+    final Document aEbms3Document = Ebms3WriterBuilder.ebms3Messaging ().getAsDocument (aMsg.m_aMessaging);
+    assertNotNull (aEbms3Document);
+
+    final Node aRealPayload = aPayload instanceof Document ? ((Document) aPayload).getDocumentElement () : aPayload;
+    switch (aMsg.getSoapVersion ())
+    {
+      case SOAP_11:
+      {
+        final Soap11Envelope aSoapEnv = new Soap11Envelope ();
+        aSoapEnv.setHeader (new Soap11Header ());
+        aSoapEnv.setBody (new Soap11Body ());
+        aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
+        if (aRealPayload != null)
+          aSoapEnv.getBody ().addAny (aRealPayload);
+        return Ebms3WriterBuilder.soap11 ().getAsDocument (aSoapEnv);
+      }
+      case SOAP_12:
+      {
+        final Soap12Envelope aSoapEnv = new Soap12Envelope ();
+        aSoapEnv.setHeader (new Soap12Header ());
+        aSoapEnv.setBody (new Soap12Body ());
+        aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
+        if (aRealPayload != null)
+          aSoapEnv.getBody ().addAny (aRealPayload);
+        return Ebms3WriterBuilder.soap12 ().getAsDocument (aSoapEnv);
+      }
+      default:
+        throw new IllegalStateException ("Unsupported SOAP version " + aMsg.getSoapVersion ());
+    }
+  }
+
+  @Nonnull
+  private static byte [] _getExclusiveC14N (@Nonnull final Node aNode) throws Exception
+  {
+    // The same canonicalization as used for signing
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      Canonicalizer.getInstance (Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS).canonicalizeSubtree (aNode, aBAOS);
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nonnull
+  private static Document _createPayloadWithoutDeclarations ()
+  {
+    final Document aPayload = XMLFactory.newDocument ();
+    final Element eRoot = (Element) aPayload.appendChild (aPayload.createElementNS (NS_PAYLOAD, "p:Root"));
+    final Element eChild = (Element) eRoot.appendChild (aPayload.createElementNS (NS_PAYLOAD, "p:Child"));
+    eChild.setAttributeNS ("urn:test:attr", "a:id", "x");
+    eChild.appendChild (aPayload.createElementNS (null, "NoNamespace"));
+    return aPayload;
+  }
+
+  @Test
+  public void testGetAsSoapDocument ()
+  {
+    // Payload without explicit namespace declarations
+    final Document aPayload = _createPayloadWithoutDeclarations ();
+
+    for (final ESoapVersion eSoapVersion : ESoapVersion.values ())
+    {
+      final AS4ErrorMessage aMsg = AS4ErrorMessage.create (eSoapVersion,
+                                                           "ref",
+                                                           new CommonsArrayList <> (EEbmsError.EBMS_OTHER.getAsEbms3Error (Locale.US,
+                                                                                                                           "ref",
+                                                                                                                           "test")));
+      final Document aDoc = aMsg.getAsSoapDocument (aPayload);
+      assertNotNull (aDoc);
+
+      // Serialize and re-read to check that all namespaces are declared
+      final Document aReRead = DOMReader.readXMLDOM (AS4XMLHelper.serializeXML (aDoc));
+      assertNotNull (aReRead);
+
+      final Element eEnvelope = aReRead.getDocumentElement ();
+      assertEquals (eSoapVersion.getNamespaceURI (), eEnvelope.getNamespaceURI ());
+      final Element eHeader = XMLHelper.getFirstChildElementOfName (eEnvelope,
+                                                                    eSoapVersion.getNamespaceURI (),
+                                                                    eSoapVersion.getHeaderElementName ());
+      assertNotNull (eHeader);
+      final Element eMessaging = XMLHelper.getFirstChildElementOfName (eHeader, CAS4.EBMS_NS, "Messaging");
+      assertNotNull (eMessaging);
+      assertEquals (aMsg.getMessagingID (), eMessaging.getAttributeNS (CAS4.WSU_NS, "Id"));
+
+      final CollectingValidationEventHandler aCVEH = new CollectingValidationEventHandler ();
+      assertNotNull (Ebms3ReaderBuilder.ebms3Messaging ().setValidationEventHandler (aCVEH).read (eMessaging));
+      assertTrue (aCVEH.getErrorList ().toString (), aCVEH.getErrorList ().isEmpty ());
+
+      final Element eBody = XMLHelper.getFirstChildElementOfName (eEnvelope,
+                                                                  eSoapVersion.getNamespaceURI (),
+                                                                  eSoapVersion.getBodyElementName ());
+      assertNotNull (eBody);
+      final Element eRootReRead = XMLHelper.getFirstChildElementOfName (eBody, NS_PAYLOAD, "Root");
+      assertNotNull (eRootReRead);
+      final Element eChildReRead = XMLHelper.getFirstChildElementOfName (eRootReRead, NS_PAYLOAD, "Child");
+      assertNotNull (eChildReRead);
+      assertEquals ("x", eChildReRead.getAttributeNS ("urn:test:attr", "id"));
+      final Element eNoNamespace = XMLHelper.getFirstChildElement (eChildReRead);
+      assertNotNull (eNoNamespace);
+      assertEquals ("NoNamespace", eNoNamespace.getLocalName ());
+      assertNull (eNoNamespace.getNamespaceURI ());
+    }
+  }
+
+  @Test
+  public void testSameCanonicalFormAsJAXB () throws Exception
+  {
+    // Payload read from XML with explicit and default namespaces
+    final Document aParsedPayload = DOMReader.readXMLDOM ("<Invoice xmlns='urn:test:invoice' xmlns:cbc='urn:test:cbc'>" +
+                                                          "<cbc:ID>123</cbc:ID>" +
+                                                          "<Line xmlns:x='urn:test:x' x:type='a'><cbc:Note>n</cbc:Note></Line>" +
+                                                          "</Invoice>");
+    assertNotNull (aParsedPayload);
+
+    for (final ESoapVersion eSoapVersion : ESoapVersion.values ())
+      for (final Document aPayload : new Document [] { aParsedPayload, _createPayloadWithoutDeclarations (), null })
+      {
+        final AS4ErrorMessage aMsg = AS4ErrorMessage.create (eSoapVersion,
+                                                             "ref",
+                                                             new CommonsArrayList <> (EEbmsError.EBMS_OTHER.getAsEbms3Error (Locale.US,
+                                                                                                                             "ref",
+                                                                                                                             "test")))
+                                                     .setMustUnderstand (true);
+        final Document aDOMDoc = aMsg.getAsSoapDocument (aPayload);
+        final Document aJAXBDoc = _getAsSoapDocumentViaJAXB (aMsg, aPayload);
+
+        // In memory, as used for signing
+        assertArrayEquals (_getExclusiveC14N (aJAXBDoc), _getExclusiveC14N (aDOMDoc));
+
+        // After transmission, as used for verification
+        final Document aDOMDocReRead = DOMReader.readXMLDOM (AS4XMLHelper.serializeXML (aDOMDoc));
+        final Document aJAXBDocReRead = DOMReader.readXMLDOM (AS4XMLHelper.serializeXML (aJAXBDoc));
+        assertArrayEquals (_getExclusiveC14N (aJAXBDocReRead), _getExclusiveC14N (aDOMDocReRead));
+        assertArrayEquals (_getExclusiveC14N (aDOMDoc), _getExclusiveC14N (aDOMDocReRead));
+      }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4MetricsRegistryInMemory}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4MetricsRegistryInMemoryTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final AS4MetricsRegistryInMemory aRegistry = new AS4MetricsRegistryInMemory ();
+    assertEquals (0, aRegistry.getCounterValue (CAS4Metrics.COUNTER_INCOMING_BYTES));
+    assertNull (aRegistry.getTimer (CAS4Metrics.TIMER_INCOMING_WSS4J));
+
+    aRegistry.incrementCounter (CAS4Metrics.COUNTER_INCOMING_BYTES, 100);
+    aRegistry.incrementCounter (CAS4Metrics.COUNTER_INCOMING_BYTES, 23);
+    assertEquals (123, aRegistry.getCounterValue (CAS4Metrics.COUNTER_INCOMING_BYTES));
+    assertEquals (1, aRegistry.getAllCounters ().size ());
+
+    aRegistry.recordTime (CAS4Metrics.TIMER_INCOMING_WSS4J, 10);
+    aRegistry.recordTime (CAS4Metrics.TIMER_INCOMING_WSS4J, 30);
+    final AS4MetricsRegistryInMemory.TimerSnapshot aTimer = aRegistry.getTimer (CAS4Metrics.TIMER_INCOMING_WSS4J);
+    assertNotNull (aTimer);
+    assertEquals (2, aTimer.getCount ());
+    assertEquals (40, aTimer.getTotalNanos ());
+    assertEquals (30, aTimer.getMaxNanos ());
+    assertEquals (20, aTimer.getAverageNanos ());
+
+    aRegistry.reset ();
+    assertEquals (0, aRegistry.getAllCounters ().size ());
+    assertEquals (0, aRegistry.getAllTimers ().size ());
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testNegativeDelta ()
+  {
+    new AS4MetricsRegistryInMemory ().incrementCounter (CAS4Metrics.COUNTER_INCOMING_BYTES, -1);
+  }
+}
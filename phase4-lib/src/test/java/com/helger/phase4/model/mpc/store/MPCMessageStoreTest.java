@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.state.EChange;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+
+/**
+ * Test class for class {@link MPCMessageStore}.
+ *
+ * @author Philip Helger
+ */
+public final class MPCMessageStoreTest
+{
+  private static final String MPC2 = "urn:test:mpc2";
+
+  @Nonnull
+  private static Ebms3UserMessage _createUserMessage (@Nonnull final String sMessageID)
+  {
+    final Ebms3UserMessage ret = new Ebms3UserMessage ();
+    ret.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo (sMessageID, null, OffsetDateTime.now ()));
+    ret.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo ("role1", "party1", "role2", "party2"));
+    ret.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  "service",
+                                                                                  "action",
+                                                                                  "conv"));
+    return ret;
+  }
+
+  @Test
+  public void testFIFOAndAcknowledge ()
+  {
+    try (final MPCMessageStore aStore = new MPCMessageStore ())
+    {
+      assertNull (aStore.receive (CAS4.DEFAULT_MPC_ID));
+
+      for (int i = 0; i < 5; ++i)
+        assertEquals (EChange.CHANGED, aStore.enqueue (CAS4.DEFAULT_MPC_ID, _createUserMessage ("msg" + i)));
+      assertEquals (EChange.CHANGED, aStore.enqueue (MPC2, _createUserMessage ("other")));
+      // Duplicate
+      assertEquals (EChange.UNCHANGED, aStore.enqueue (MPC2, _createUserMessage ("msg0")));
+      assertEquals (5, aStore.getMessageCount (CAS4.DEFAULT_MPC_ID));
+      assertEquals (6, aStore.getTotalMessageCount ());
+
+      for (int i = 0; i < 5; ++i)
+      {
+        // null means default MPC
+        final MPCStoredMessage aMsg = aStore.receive (i % 2 == 0 ? CAS4.DEFAULT_MPC_ID : null);
+        assertNotNull (aMsg);
+        assertEquals ("msg" + i, aMsg.getMessageID ());
+        assertEquals (1, aMsg.getDeliveryCount ());
+        assertEquals ("msg" + i, aMsg.getAsUserMessage ().getMessageInfo ().getMessageId ());
+        assertEquals (EChange.CHANGED, aStore.acknowledge (aMsg.getMessageID ()));
+        assertEquals (EChange.UNCHANGED, aStore.acknowledge (aMsg.getMessageID ()));
+      }
+      assertNull (aStore.receive (CAS4.DEFAULT_MPC_ID));
+
+      final MPCStoredMessage aMsg = aStore.receive (MPC2);
+      assertNotNull (aMsg);
+      assertEquals ("other", aMsg.getMessageID ());
+      assertEquals (1, aStore.getTotalMessageCount ());
+    }
+  }
+
+  @Test
+  public void testRedelivery ()
+  {
+    try (final MPCMessageStore aStore = new MPCMessageStore (null, Duration.ofMillis (100), Duration.ofDays (1)))
+    {
+      aStore.enqueue (MPC2, _createUserMessage ("a"));
+      aStore.enqueue (MPC2, _createUserMessage ("b"));
+
+      assertEquals ("a", aStore.receive (MPC2).getMessageID ());
+      assertEquals ("b", aStore.receive (MPC2).getMessageID ());
+      // Both invisible
+      assertNull (aStore.receive (MPC2));
+
+      aStore.acknowledge ("b");
+      ThreadHelper.sleep (200);
+
+      // "a" was not acknowledged
+      final MPCStoredMessage aMsg = aStore.receive (MPC2);
+      assertNotNull (aMsg);
+      assertEquals ("a", aMsg.getMessageID ());
+      assertEquals (2, aMsg.getDeliveryCount ());
+      assertTrue (aMsg.isRedelivery ());
+      assertNull (aStore.receive (MPC2));
+    }
+  }
+
+  @Test
+  public void testRetention ()
+  {
+    try (final MPCMessageStore aStore = new MPCMessageStore (null, Duration.ofMinutes (1), Duration.ofMillis (50)))
+    {
+      aStore.enqueue (MPC2, _createUserMessage ("a"));
+      aStore.enqueue (MPC2, _createUserMessage ("b"));
+      ThreadHelper.sleep (100);
+      assertEquals (2, aStore.purgeExpired ());
+      assertEquals (0, aStore.getTotalMessageCount ());
+      assertNull (aStore.receive (MPC2));
+    }
+  }
+
+  @Test
+  public void testJournalRestart ()
+  {
+    final File aJournal = new File ("target/mpc-store/journal.bin");
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aJournal);
+
+    try (final MPCMessageStore aStore = new MPCMessageStore (aJournal, Duration.ofMinutes (1), Duration.ofDays (1)))
+    {
+      for (int i = 0; i < 4; ++i)
+        aStore.enqueue (MPC2, _createUserMessage ("msg" + i));
+      assertEquals ("msg0", aStore.receive (MPC2).getMessageID ());
+      aStore.acknowledge ("msg0");
+      // Delivered but not acknowledged
+      assertEquals ("msg1", aStore.receive (MPC2).getMessageID ());
+    }
+
+    try (final MPCMessageStore aStore = new MPCMessageStore (aJournal, Duration.ofMinutes (1), Duration.ofDays (1)))
+    {
+      assertEquals (3, aStore.getTotalMessageCount ());
+      final MPCStoredMessage aMsg = aStore.receive (MPC2);
+      assertEquals ("msg1", aMsg.getMessageID ());
+      assertEquals (2, aMsg.getDeliveryCount ());
+      assertEquals ("msg2", aStore.receive (MPC2).getMessageID ());
+      assertEquals ("msg3", aStore.receive (MPC2).getMessageID ());
+      assertNull (aStore.receive (MPC2));
+    }
+  }
+}
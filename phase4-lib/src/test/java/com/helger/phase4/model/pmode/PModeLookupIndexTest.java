@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * Test class for class {@link PModeLookupIndex}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeLookupIndexTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  private static PMode _createPMode (final String sID, final String sService, final String sAction)
+  {
+    return new PMode (sID,
+                      PModeParty.createSimple ("initiator", "Role"),
+                      PModeParty.createSimple ("responder", "Role"),
+                      "agreement",
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      new PModeLeg (null, PModeLegBusinessInformation.create (sService, sAction, null, null), null, null, null),
+                      null,
+                      null,
+                      null);
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final PMode p1 = _createPMode ("id1", "s1", "a1");
+    final PMode p2 = _createPMode ("id2", "s1", "a2");
+    final PMode p3 = _createPMode ("id3", "s1", "a1");
+    final PModeLookupIndex aIndex = new PModeLookupIndex (new CommonsArrayList <> (p1, p2, p3));
+    assertEquals (3, aIndex.size ());
+
+    assertSame (p1, aIndex.getPModeOfID ("id1"));
+    assertSame (p3, aIndex.getPModeOfID ("id3"));
+    assertNull (aIndex.getPModeOfID ("id4"));
+    assertNull (aIndex.getPModeOfID (null));
+    assertNull (aIndex.getPModeOfID (""));
+
+    assertSame (p2, aIndex.getPModeOfID ("id2", "initiator", "responder"));
+    assertNull (aIndex.getPModeOfID ("id2", "responder", "initiator"));
+
+    // First one wins
+    assertSame (p1, aIndex.getPModeOfServiceAndAction ("s1", "a1"));
+    assertSame (p2, aIndex.getPModeOfServiceAndAction ("s1", "a2"));
+    assertNull (aIndex.getPModeOfServiceAndAction ("s2", "a1"));
+    assertNull (aIndex.getPModeOfServiceAndAction (null, null));
+  }
+
+  @Test
+  public void testManagerInMemory ()
+  {
+    final PModeManagerInMemory aMgr = new PModeManagerInMemory ();
+    assertEquals (0, aMgr.getLookupIndex ().size ());
+
+    final PMode p1 = _createPMode ("id1", "s1", "a1");
+    aMgr.createPMode (p1);
+    assertSame (p1, aMgr.getPModeOfID ("id1"));
+    assertSame (p1, aMgr.getPModeOfServiceAndAction ("s1", "a1"));
+
+    // Index is cached
+    assertSame (aMgr.getLookupIndex (), aMgr.getLookupIndex ());
+
+    // Update changes the index
+    aMgr.updatePMode (_createPMode ("id1", "s2", "a2"));
+    assertNull (aMgr.getPModeOfServiceAndAction ("s1", "a1"));
+    assertSame (p1, aMgr.getPModeOfServiceAndAction ("s2", "a2"));
+
+    aMgr.deletePMode ("id1");
+    assertNull (aMgr.getPModeOfID ("id1"));
+    assertEquals (0, aMgr.getLookupIndex ().size ());
+  }
+}
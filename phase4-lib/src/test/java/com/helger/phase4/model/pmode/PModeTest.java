@@ -16,13 +16,19 @@
  */
 package com.helger.phase4.model.pmode;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.fail;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 
+import com.helger.commons.state.EMandatory;
 import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeProperty;
 import com.helger.photon.security.object.StubObject;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -72,4 +78,33 @@ public final class PModeTest
       // Expected
     }
   }
+
+  @Test
+  public void testGetClone ()
+  {
+    final PMode aPMode = (PMode) DefaultPMode.getOrCreateDefaultPMode ("init", "resp", "http://localhost/as4", false);
+    aPMode.getLeg1 ()
+          .getBusinessInfo ()
+          .addProperty (new PModeProperty ("prop", null, PModeProperty.DATA_TYPE_STRING, EMandatory.MANDATORY));
+
+    final PMode aClone = aPMode.getClone ();
+    assertNotSame (aPMode, aClone);
+    assertEquals (aPMode, aClone);
+    assertEquals (aPMode.getInitiator (), aClone.getInitiator ());
+    assertNotSame (aPMode.getInitiator (), aClone.getInitiator ());
+    assertEquals (aPMode.getAgreement (), aClone.getAgreement ());
+    assertEquals (aPMode.getMEP (), aClone.getMEP ());
+    assertEquals (aPMode.getLeg1 (), aClone.getLeg1 ());
+    assertNotSame (aPMode.getLeg1 (), aClone.getLeg1 ());
+    assertNotSame (aPMode.getLeg1 ().getBusinessInfo (), aClone.getLeg1 ().getBusinessInfo ());
+    assertNotSame (aPMode.getLeg1 ().getBusinessInfo ().properties ().get ("prop"),
+                   aClone.getLeg1 ().getBusinessInfo ().properties ().get ("prop"));
+
+    // Modifying the clone must not modify the original
+    final PModeLeg aOriginalLeg1 = aPMode.getLeg1 ().getClone ();
+    aClone.getLeg1 ().getSecurity ().setSendReceipt (false);
+    aClone.getLeg1 ().getBusinessInfo ().setAction ("other");
+    assertEquals (aOriginalLeg1, aPMode.getLeg1 ());
+    assertNotEquals (aOriginalLeg1, aClone.getLeg1 ());
+  }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.IPModeIDProvider;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.profile.AS4Profile;
+import com.helger.phase4.profile.IAS4ProfileManager;
+
+/**
+ * Test class for class {@link DefaultPModeResolver}.
+ *
+ * @author Philip Helger
+ */
+public final class DefaultPModeResolverTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testTemplateCacheReturnsCopies ()
+  {
+    final AtomicInteger aCreated = new AtomicInteger (0);
+    final AS4Profile aProfile = new AS4Profile ("resolvertest",
+                                                "Resolver test",
+                                                () -> null,
+                                                (i, r, a) -> {
+                                                  aCreated.incrementAndGet ();
+                                                  return (PMode) DefaultPMode.getOrCreateDefaultPMode (i, r, a, false);
+                                                },
+                                                IPModeIDProvider.DEFAULT_DYNAMIC,
+                                                false);
+    final IAS4ProfileManager aProfileMgr = MetaAS4Manager.getProfileMgr ();
+    aProfileMgr.registerProfile (aProfile);
+    aProfileMgr.setDefaultProfile (aProfile);
+    try
+    {
+      final DefaultPModeResolver aResolver = new DefaultPModeResolver (false);
+      final IPMode aPMode1 = aResolver.getPModeOfID (null, "svc", "act", "init", "resp", null, "http://localhost/as4");
+      assertNotNull (aPMode1);
+      assertEquals (1, aCreated.get ());
+
+      // Modifying the returned PMode must not change the cached template
+      ((PMode) aPMode1).setAgreement ("modified");
+
+      final IPMode aPMode2 = aResolver.getPModeOfID (null, "svc", "act", "init", "resp", null, "http://localhost/as4");
+      assertNotNull (aPMode2);
+      assertEquals (1, aCreated.get ());
+      assertNotSame (aPMode1, aPMode2);
+      assertNotSame (aPMode1.getLeg1 (), aPMode2.getLeg1 ());
+      assertEquals (aPMode1.getID (), aPMode2.getID ());
+      assertEquals ("urn:as4:agreement", aPMode2.getAgreement ());
+
+      // Different key
+      assertNotNull (aResolver.getPModeOfID (null, "svc", "act", "init", "resp2", null, "http://localhost/as4"));
+      assertEquals (2, aCreated.get ());
+
+      aResolver.clearTemplateCache ();
+      assertNotNull (aResolver.getPModeOfID (null, "svc", "act", "init", "resp", null, "http://localhost/as4"));
+      assertEquals (3, aCreated.get ());
+    }
+    finally
+    {
+      aProfileMgr.setDefaultProfile (null);
+    }
+  }
+
+  @Test
+  public void testTemplateCacheIsLRU ()
+  {
+    final AtomicInteger aCreated = new AtomicInteger (0);
+    final AS4Profile aProfile = new AS4Profile ("resolvertestlru",
+                                                "Resolver LRU test",
+                                                () -> null,
+                                                (i, r, a) -> {
+                                                  aCreated.incrementAndGet ();
+                                                  return (PMode) DefaultPMode.getOrCreateDefaultPMode (i, r, a, false);
+                                                },
+                                                IPModeIDProvider.DEFAULT_DYNAMIC,
+                                                false);
+    final IAS4ProfileManager aProfileMgr = MetaAS4Manager.getProfileMgr ();
+    aProfileMgr.registerProfile (aProfile);
+    aProfileMgr.setDefaultProfile (aProfile);
+    try
+    {
+      final DefaultPModeResolver aResolver = new DefaultPModeResolver (false);
+      final int nMax = DefaultPModeResolver.MAX_TEMPLATE_CACHE_SIZE;
+      for (int i = 0; i < nMax; ++i)
+        aResolver.getPModeOfID (null, "svc", "act", "init", "resp" + i, null, null);
+      assertEquals (nMax, aCreated.get ());
+
+      // Use the first entry, so that the second one is the eldest
+      aResolver.getPModeOfID (null, "svc", "act", "init", "resp0", null, null);
+      assertEquals (nMax, aCreated.get ());
+
+      // Evicts only the least recently used entry
+      aResolver.getPModeOfID (null, "svc", "act", "init", "resp" + nMax, null, null);
+      assertEquals (nMax + 1, aCreated.get ());
+      aResolver.getPModeOfID (null, "svc", "act", "init", "resp0", null, null);
+      assertEquals (nMax + 1, aCreated.get ());
+      aResolver.getPModeOfID (null, "svc", "act", "init", "resp1", null, null);
+      assertEquals (nMax + 2, aCreated.get ());
+    }
+    finally
+    {
+      aProfileMgr.setDefaultProfile (null);
+    }
+  }
+}
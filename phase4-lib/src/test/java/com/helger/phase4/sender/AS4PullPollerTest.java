@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.state.EChange;
+import com.helger.phase4.client.IAS4UserMessageConsumer;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.error.EEbmsError;
+
+/**
+ * Test class for class {@link AS4PullPoller}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4PullPollerTest
+{
+  @Test
+  public void testBackOff ()
+  {
+    try (final AS4PullPoller aPoller = new AS4PullPoller (1, Duration.ofMillis (100), Duration.ofMillis (1000), 3))
+    {
+      assertEquals (100, aPoller.getNextBackOffMillis (0));
+      assertEquals (300, aPoller.getNextBackOffMillis (100));
+      assertEquals (900, aPoller.getNextBackOffMillis (300));
+      assertEquals (1000, aPoller.getNextBackOffMillis (900));
+      assertEquals (1000, aPoller.getNextBackOffMillis (1000));
+    }
+  }
+
+  @Test
+  public void testIsEmptyMPCResponse ()
+  {
+    assertFalse (AS4PullPoller.isEmptyMPCResponse (null));
+
+    final Ebms3SignalMessage aSignalMsg = new Ebms3SignalMessage ();
+    assertFalse (AS4PullPoller.isEmptyMPCResponse (aSignalMsg));
+
+    final Ebms3Error aEmptyError = new Ebms3Error ();
+    aEmptyError.setErrorCode (EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.getErrorCode ());
+    aSignalMsg.getError ().add (aEmptyError);
+    assertTrue (AS4PullPoller.isEmptyMPCResponse (aSignalMsg));
+
+    // The code must only be contained in the error code
+    final Ebms3Error aOtherError = new Ebms3Error ();
+    aOtherError.setErrorCode (EEbmsError.EBMS_OTHER.getErrorCode ());
+    aOtherError.setErrorDetail (EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.getErrorCode ());
+    aSignalMsg.getError ().add (aOtherError);
+    assertFalse (AS4PullPoller.isEmptyMPCResponse (aSignalMsg));
+  }
+
+  @Test
+  public void testPolling () throws Exception
+  {
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final CountDownLatch aEmptyReached = new CountDownLatch (1);
+    try (final AS4PullPoller aPoller = new AS4PullPoller (2, Duration.ofMillis (50), Duration.ofSeconds (10), 2))
+    {
+      // 3 messages are waiting, afterwards the MPC is empty
+      aPoller.addTarget ("t1", "urn:test:mpc", () -> {
+        final int nCall = aCalls.incrementAndGet ();
+        if (nCall <= 3)
+          return EAS4PullResult.MESSAGE_RECEIVED;
+        aEmptyReached.countDown ();
+        return EAS4PullResult.EMPTY;
+      });
+      assertEquals (1, aPoller.getAllTargetIDs ().size ());
+
+      try
+      {
+        aPoller.addTarget ("t1", "urn:test:mpc", () -> EAS4PullResult.EMPTY);
+        fail ();
+      }
+      catch (final IllegalArgumentException ex)
+      {
+        // expected
+      }
+
+      // Messages are pulled without delay
+      assertTrue (aEmptyReached.await (5, TimeUnit.SECONDS));
+      assertTrue (aCalls.get () >= 4);
+
+      // Back-off is active now
+      Thread.sleep (20);
+      assertTrue (aPoller.getCurrentBackOff ("t1").toMillis () >= 50);
+
+      assertEquals (EChange.CHANGED, aPoller.removeTarget ("t1"));
+      assertEquals (EChange.UNCHANGED, aPoller.removeTarget ("t1"));
+      assertNull (aPoller.getCurrentBackOff ("t1"));
+      assertTrue (aPoller.getAllTargetIDs ().isEmpty ());
+    }
+  }
+
+  @Test
+  public void testQueueConsumer () throws Exception
+  {
+    final BlockingQueue <Ebms3UserMessage> aQueue = new ArrayBlockingQueue <> (2);
+    final IAS4UserMessageConsumer aConsumer = AS4PullPoller.createQueueConsumer (aQueue);
+    final Ebms3UserMessage aUserMsg = new Ebms3UserMessage ();
+    aConsumer.handleUserMessage (aUserMsg);
+    assertEquals (1, aQueue.size ());
+    assertTrue (aQueue.poll () == aUserMsg);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4AsyncExecutor}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncExecutorTest
+{
+  @Test
+  public void testLimits () throws Exception
+  {
+    final AS4AsyncExecutor aExecutor = new AS4AsyncExecutor (1, 2, 2, false);
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    final AtomicInteger aDone = new AtomicInteger (0);
+    try
+    {
+      // 1 running + 1 queued for key "a"
+      aExecutor.submit ("a", () -> {
+        aBlock.await ();
+        aDone.incrementAndGet ();
+      });
+      aExecutor.submit ("a", aDone::incrementAndGet);
+
+      // Per key limit exceeded
+      try
+      {
+        aExecutor.submit ("a", aDone::incrementAndGet);
+        fail ();
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // expected
+      }
+
+      // Another key is still accepted
+      aExecutor.submit ("b", aDone::incrementAndGet);
+
+      // Overall capacity (1 thread + 2 queued) exceeded
+      try
+      {
+        aExecutor.submit ("c", aDone::incrementAndGet);
+        fail ();
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // expected
+      }
+    }
+    finally
+    {
+      aBlock.countDown ();
+      // Drain all pending tasks
+      assertTrue (aExecutor.shutdown (10));
+    }
+    assertEquals (3, aDone.get ());
+    assertTrue (aExecutor.isShutdown ());
+
+    try
+    {
+      aExecutor.submit ("a", aDone::incrementAndGet);
+      fail ();
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // expected
+    }
+  }
+}
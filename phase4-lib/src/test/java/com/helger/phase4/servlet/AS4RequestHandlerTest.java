@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.helger.phase4.duplicate.AS4DuplicateManagerInMemory;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
+
+/**
+ * Test class for class {@link AS4RequestHandler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4RequestHandlerTest
+{
+  @Test
+  public void testRejectedAsyncProcessingIsNoDuplicate () throws Exception
+  {
+    final IAS4DuplicateManager aDuplicateMgr = new AS4DuplicateManagerInMemory ();
+    // 1 thread and no queue
+    final AS4AsyncExecutor aExecutor = new AS4AsyncExecutor (1, 0, 0, false);
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    try
+    {
+      assertTrue (aDuplicateMgr.registerAndCheck ("msg1", null, null).isContinue ());
+      assertNotNull (AS4RequestHandler.submitAsyncOrUnregister (aExecutor, aDuplicateMgr, "key", "msg1", aBlock::await));
+
+      // Executor is busy - the message ID must be released again
+      assertTrue (aDuplicateMgr.registerAndCheck ("msg2", null, null).isContinue ());
+      assertNull (AS4RequestHandler.submitAsyncOrUnregister (aExecutor, aDuplicateMgr, "key", "msg2", () -> {}));
+      assertNull (aDuplicateMgr.getItemOfMessageID ("msg2"));
+
+      // The retry is accepted
+      assertTrue (aDuplicateMgr.registerAndCheck ("msg2", null, null).isContinue ());
+      // The first message is still a duplicate
+      assertTrue (aDuplicateMgr.registerAndCheck ("msg1", null, null).isBreak ());
+    }
+    finally
+    {
+      aBlock.countDown ();
+      assertTrue (aExecutor.shutdown (10));
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.spi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3PartInfo;
+import com.helger.phase4.ebms3header.Ebms3PayloadInfo;
+import com.helger.phase4.ebms3header.Ebms3PullRequest;
+import com.helger.phase4.ebms3header.Ebms3Receipt;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.model.mpc.store.IMPCPayloadResolver;
+import com.helger.phase4.model.mpc.store.MPCMessageStore;
+import com.helger.phase4.servlet.AS4MessageState;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4MPCMessageStoreProcessorSPI}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4MPCMessageStoreProcessorSPITest
+{
+  private static final String MESSAGE_ID = "pulled-msg";
+  private static final String CONTENT_ID = "payload-1";
+  private static final byte [] PAYLOAD = "<payload />".getBytes (StandardCharsets.UTF_8);
+
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static Ebms3UserMessage _createUserMessage ()
+  {
+    final Ebms3UserMessage ret = new Ebms3UserMessage ();
+    ret.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo (MESSAGE_ID, null, OffsetDateTime.now ()));
+    ret.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo ("role1", "party1", "role2", "party2"));
+    ret.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  "service",
+                                                                                  "action",
+                                                                                  "conv"));
+    final Ebms3PartInfo aPartInfo = new Ebms3PartInfo ();
+    aPartInfo.setHref (MessageHelperMethods.PREFIX_CID + CONTENT_ID);
+    final Ebms3PayloadInfo aPayloadInfo = new Ebms3PayloadInfo ();
+    aPayloadInfo.addPartInfo (aPartInfo);
+    ret.setPayloadInfo (aPayloadInfo);
+    return ret;
+  }
+
+  @Nonnull
+  private static Ebms3SignalMessage _createPullRequest ()
+  {
+    final Ebms3PullRequest aPullRequest = new Ebms3PullRequest ();
+    aPullRequest.setMpc (CAS4.DEFAULT_MPC_ID);
+    final Ebms3SignalMessage ret = new Ebms3SignalMessage ();
+    ret.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+    ret.setPullRequest (aPullRequest);
+    return ret;
+  }
+
+  @Nonnull
+  private static Ebms3SignalMessage _createReceipt (@Nonnull final String sRefToMessageID)
+  {
+    final Ebms3SignalMessage ret = new Ebms3SignalMessage ();
+    ret.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo (sRefToMessageID));
+    ret.setReceipt (new Ebms3Receipt ());
+    return ret;
+  }
+
+  @Nonnull
+  private static AS4SignalMessageProcessorResult _process (@Nonnull final AS4MPCMessageStoreProcessorSPI aSPI,
+                                                           @Nonnull final Ebms3SignalMessage aSignalMessage,
+                                                           @Nonnull final AS4ResourceHelper aResHelper)
+  {
+    final ICommonsList <Ebms3Error> aErrors = new CommonsArrayList <> ();
+    return aSPI.processAS4SignalMessage (null,
+                                         new HttpHeaderMap (),
+                                         aSignalMessage,
+                                         null,
+                                         new AS4MessageState (ESoapVersion.AS4_DEFAULT, aResHelper, Locale.US),
+                                         aErrors);
+  }
+
+  @Test
+  public void testPullReceiptAcknowledge () throws Exception
+  {
+    final IMPCPayloadResolver aResolver = (aStoredMsg, aUserMsg, aResHelper) -> {
+      assertEquals (MESSAGE_ID, aStoredMsg.getMessageID ());
+      return new CommonsArrayList <> (WSS4JAttachment.createOutgoingFileAttachment (PAYLOAD,
+                                                                                   CONTENT_ID,
+                                                                                   "payload.xml",
+                                                                                   CMimeType.APPLICATION_XML,
+                                                                                   null,
+                                                                                   StandardCharsets.UTF_8,
+                                                                                   aResHelper));
+    };
+
+    try (final MPCMessageStore aStore = new MPCMessageStore ();
+         final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4MPCMessageStoreProcessorSPI aSPI = new AS4MPCMessageStoreProcessorSPI (aStore, aResolver);
+      aStore.enqueue (CAS4.DEFAULT_MPC_ID, _createUserMessage ());
+
+      // Pull returns the user message and its payload
+      AS4SignalMessageProcessorResult aResult = _process (aSPI, _createPullRequest (), aResHelper);
+      assertTrue (aResult.isSuccess ());
+      assertNotNull (aResult.getPullReturnUserMessage ());
+      assertEquals (MESSAGE_ID, aResult.getPullReturnUserMessage ().getMessageInfo ().getMessageId ());
+      assertEquals (1, aResult.getAllAttachments ().size ());
+      assertEquals (CONTENT_ID, aResult.getAllAttachments ().getFirst ().getId ());
+
+      // Invisible until acknowledged
+      assertEquals (1, aStore.getTotalMessageCount ());
+      aResult = _process (aSPI, _createPullRequest (), aResHelper);
+      assertTrue (aResult.isSuccess ());
+      assertNull (aResult.getPullReturnUserMessage ());
+
+      // The receipt acknowledges the message
+      aResult = _process (aSPI, _createReceipt (MESSAGE_ID), aResHelper);
+      assertTrue (aResult.isSuccess ());
+      assertEquals (0, aStore.getTotalMessageCount ());
+    }
+  }
+
+  @Test
+  public void testMissingPayload () throws Exception
+  {
+    try (final MPCMessageStore aStore = new MPCMessageStore ();
+         final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      aStore.enqueue (CAS4.DEFAULT_MPC_ID, _createUserMessage ());
+
+      // No resolver
+      final AS4MPCMessageStoreProcessorSPI aSPI = new AS4MPCMessageStoreProcessorSPI (aStore);
+      final AS4SignalMessageProcessorResult aResult = _process (aSPI, _createPullRequest (), aResHelper);
+      assertFalse (aResult.isSuccess ());
+      assertNull (aResult.getPullReturnUserMessage ());
+    }
+
+    try (final MPCMessageStore aStore = new MPCMessageStore ();
+         final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      aStore.enqueue (CAS4.DEFAULT_MPC_ID, _createUserMessage ());
+
+      // Resolver without the referenced attachment
+      final AS4MPCMessageStoreProcessorSPI aSPI = new AS4MPCMessageStoreProcessorSPI (aStore,
+                                                                                      (aStoredMsg,
+                                                                                       aUserMsg,
+                                                                                       aRH) -> null);
+      final AS4SignalMessageProcessorResult aResult = _process (aSPI, _createPullRequest (), aResHelper);
+      assertFalse (aResult.isSuccess ());
+      // Not acknowledged
+      assertEquals (1, aStore.getTotalMessageCount ());
+    }
+  }
+}
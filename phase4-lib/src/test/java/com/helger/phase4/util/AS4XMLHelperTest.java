@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link AS4XMLHelper}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4XMLHelperTest
+{
+  @Test
+  public void testSerializeBytesMatchesString ()
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eRoot = (Element) aDoc.appendChild (aDoc.createElementNS ("urn:test", "ns:root"));
+    eRoot.setAttribute ("a", "b");
+    eRoot.appendChild (aDoc.createTextNode ("Grüße & <€>"));
+
+    final String sXML = AS4XMLHelper.serializeXML (aDoc);
+    final byte [] aExpected = sXML.getBytes (AS4XMLHelper.XWS.getCharset ());
+
+    // Run multiple times to ensure the reused Transformer is correctly reset
+    for (int i = 0; i < 3; ++i)
+    {
+      assertEquals (sXML, AS4XMLHelper.serializeXML (aDoc));
+      assertArrayEquals (aExpected, AS4XMLHelper.serializeXMLBytes (aDoc));
+
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        AS4XMLHelper.serializeXML (aDoc, aBAOS);
+        assertArrayEquals (aExpected, aBAOS.toByteArray ());
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.wss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link WSSSynchronizer}.
+ *
+ * @author Philip Helger
+ */
+public final class WSSSynchronizerTest
+{
+  @Test
+  public void testModesExcludeEachOther () throws Exception
+  {
+    final CountDownLatch aSharedStarted = new CountDownLatch (1);
+    final CountDownLatch aSharedRelease = new CountDownLatch (1);
+    final AtomicBoolean aGlobalRan = new AtomicBoolean (false);
+    final ExecutorService aES = Executors.newFixedThreadPool (2);
+    try
+    {
+      final Future <Object> aShared = aES.submit ( () -> WSSSynchronizer.call (EWSSSynchronizationMode.SHARED, () -> {
+        aSharedStarted.countDown ();
+        aSharedRelease.await ();
+        // The global lock mode must not have run in between
+        assertFalse (aGlobalRan.get ());
+        assertEquals (1, WSSSynchronizer.getSharedActiveCount ());
+        return null;
+      }));
+      assertTrue (aSharedStarted.await (10, TimeUnit.SECONDS));
+
+      final Future <Object> aGlobal = aES.submit ( () -> WSSSynchronizer.call (EWSSSynchronizationMode.GLOBAL_LOCK,
+                                                                               () -> {
+                                                                                 assertEquals (0,
+                                                                                               WSSSynchronizer.getSharedActiveCount ());
+                                                                                 aGlobalRan.set (true);
+                                                                                 return null;
+                                                                               }));
+
+      // Waits for the shared invocation
+      ThreadHelper.sleep (100);
+      assertFalse (aGlobalRan.get ());
+
+      aSharedRelease.countDown ();
+      aShared.get (1, TimeUnit.MINUTES);
+      aGlobal.get (1, TimeUnit.MINUTES);
+      assertTrue (aGlobalRan.get ());
+      assertEquals (0, WSSSynchronizer.getSharedActiveCount ());
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    }
+  }
+}
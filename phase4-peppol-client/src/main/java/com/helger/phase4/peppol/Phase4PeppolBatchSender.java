@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.http.AS4DestinationHelper;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * A batch sender for Peppol messages that processes many builders in a two
+ * stage pipeline:
+ * <ol>
+ * <li>Preparation: payload validation, SMP lookup and SBDH creation - see
+ * {@link Phase4PeppolSender.AbstractPeppolUserMessageBuilder#prepareMessage()}
+ * </li>
+ * <li>Transmission: signing, encryption and the HTTP call including the
+ * evaluation of the received signal message - see
+ * {@link Phase4PeppolSender.AbstractPeppolUserMessageBuilder#sendPreparedMessageAndCheckForReceipt(Consumer)}
+ * </li>
+ * </ol>
+ * Each stage has its own thread pool with a configurable parallelism. Prepared
+ * messages are grouped by the receiver AP, and the messages of the same AP are
+ * sent consecutively by at most {@link #getMaxConcurrentSendsPerAP()} threads,
+ * so that open HTTP connections can be reused if HTTP pooling is enabled.<br>
+ * At most {@link #getMaxInFlight()} messages are processed at the same time.
+ * If that limit is reached, submitting blocks until a message was
+ * completed.<br>
+ * The result of each message is provided via the returned
+ * {@link CompletableFuture}. Each builder instance may only be submitted once,
+ * and may not be modified after submission.<br>
+ * Instances of this class must be closed after usage.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@ThreadSafe
+public class Phase4PeppolBatchSender implements AutoCloseable
+{
+  public static final int DEFAULT_PREPARE_PARALLELISM = 4;
+  public static final int DEFAULT_SEND_PARALLELISM = 8;
+  public static final int DEFAULT_MAX_CONCURRENT_SENDS_PER_AP = 2;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 500;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolBatchSender.class);
+
+  /**
+   * The pending transmissions of a single receiver AP.
+   */
+  private static final class APLane
+  {
+    private final Queue <SendTask> m_aQueue = new ArrayDeque <> ();
+    private int m_nActive = 0;
+  }
+
+  /**
+   * A single pending transmission.
+   */
+  private static final class SendTask
+  {
+    private final CompletableFuture <?> m_aFuture;
+    private final Runnable m_aRunnable;
+
+    SendTask (@Nonnull final CompletableFuture <?> aFuture, @Nonnull final Runnable aRunnable)
+    {
+      m_aFuture = aFuture;
+      m_aRunnable = aRunnable;
+    }
+  }
+
+  private final int m_nMaxConcurrentSendsPerAP;
+  private final int m_nMaxInFlight;
+  private final Semaphore m_aInFlight;
+  private final Consumer <? super Phase4Exception> m_aExceptionConsumer;
+  private final ExecutorService m_aPrepareES;
+  private final ExecutorService m_aSendES;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, APLane> m_aLanes = new CommonsHashMap <> ();
+
+  /**
+   * Constructor using the default parallelism.
+   */
+  public Phase4PeppolBatchSender ()
+  {
+    this (DEFAULT_PREPARE_PARALLELISM, DEFAULT_SEND_PARALLELISM, DEFAULT_MAX_CONCURRENT_SENDS_PER_AP, null);
+  }
+
+  /**
+   * Constructor using {@link #DEFAULT_MAX_IN_FLIGHT}.
+   *
+   * @param nPrepareParallelism
+   *        The number of threads used for message preparation. Must be &gt; 0.
+   * @param nSendParallelism
+   *        The number of threads used for message transmission. Must be &gt;
+   *        0.
+   * @param nMaxConcurrentSendsPerAP
+   *        The maximum number of concurrent transmissions to a single receiver
+   *        AP. Must be &gt; 0.
+   * @param aExceptionConsumer
+   *        An optional consumer for exceptions that occurred when preparing or
+   *        sending a message. May be <code>null</code> in which case the
+   *        exceptions are logged.
+   */
+  public Phase4PeppolBatchSender (@Nonnegative final int nPrepareParallelism,
+                                  @Nonnegative final int nSendParallelism,
+                                  @Nonnegative final int nMaxConcurrentSendsPerAP,
+                                  @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    this (nPrepareParallelism, nSendParallelism, nMaxConcurrentSendsPerAP, DEFAULT_MAX_IN_FLIGHT, aExceptionConsumer);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nPrepareParallelism
+   *        The number of threads used for message preparation. Must be &gt; 0.
+   * @param nSendParallelism
+   *        The number of threads used for message transmission. Must be &gt;
+   *        0.
+   * @param nMaxConcurrentSendsPerAP
+   *        The maximum number of concurrent transmissions to a single receiver
+   *        AP. Must be &gt; 0.
+   * @param nMaxInFlight
+   *        The maximum number of submitted messages that are not yet
+   *        completed. Submitting blocks if this limit is reached. Must be &gt;
+   *        0.
+   * @param aExceptionConsumer
+   *        An optional consumer for exceptions that occurred when preparing or
+   *        sending a message. May be <code>null</code> in which case the
+   *        exceptions are logged.
+   */
+  public Phase4PeppolBatchSender (@Nonnegative final int nPrepareParallelism,
+                                  @Nonnegative final int nSendParallelism,
+                                  @Nonnegative final int nMaxConcurrentSendsPerAP,
+                                  @Nonnegative final int nMaxInFlight,
+                                  @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    ValueEnforcer.isGT0 (nPrepareParallelism, "PrepareParallelism");
+    ValueEnforcer.isGT0 (nSendParallelism, "SendParallelism");
+    ValueEnforcer.isGT0 (nMaxConcurrentSendsPerAP, "MaxConcurrentSendsPerAP");
+    ValueEnforcer.isGT0 (nMaxInFlight, "MaxInFlight");
+    m_nMaxConcurrentSendsPerAP = nMaxConcurrentSendsPerAP;
+    m_nMaxInFlight = nMaxInFlight;
+    m_aInFlight = new Semaphore (nMaxInFlight);
+    m_aExceptionConsumer = aExceptionConsumer != null ? aExceptionConsumer
+                                                      : ex -> LOGGER.error ("Exception sending Peppol message", ex);
+    m_aPrepareES = Executors.newFixedThreadPool (nPrepareParallelism,
+                                                 new BasicThreadFactory.Builder ().namingPattern ("phase4-peppol-prepare-%d")
+                                                                                  .daemon (true)
+                                                                                  .build ());
+    m_aSendES = Executors.newFixedThreadPool (nSendParallelism,
+                                              new BasicThreadFactory.Builder ().namingPattern ("phase4-peppol-send-%d")
+                                                                               .daemon (true)
+                                                                               .build ());
+  }
+
+  /**
+   * @return The maximum number of concurrent transmissions to a single
+   *         receiver AP. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConcurrentSendsPerAP ()
+  {
+    return m_nMaxConcurrentSendsPerAP;
+  }
+
+  /**
+   * @return The maximum number of submitted messages that are not yet
+   *         completed. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxInFlight ()
+  {
+    return m_nMaxInFlight;
+  }
+
+  private void _enqueueSend (@Nonnull final String sLaneKey, @Nonnull final SendTask aSendTask)
+  {
+    final APLane aLane = m_aLock.lockedGet ( () -> {
+      final APLane ret = m_aLanes.computeIfAbsent (sLaneKey, k -> new APLane ());
+      ret.m_aQueue.add (aSendTask);
+      if (ret.m_nActive >= m_nMaxConcurrentSendsPerAP)
+      {
+        // One of the active drainers will pick it up
+        return null;
+      }
+      ret.m_nActive++;
+      return ret;
+    });
+    if (aLane != null)
+    {
+      try
+      {
+        m_aSendES.execute ( () -> _drainLane (sLaneKey, aLane));
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // The sender was closed in the meantime - fail all tasks that no
+        // drainer will pick up
+        final ICommonsList <SendTask> aFailed = m_aLock.lockedGet ( () -> {
+          final ICommonsList <SendTask> ret = new CommonsArrayList <> ();
+          aLane.m_nActive--;
+          if (aLane.m_nActive == 0)
+          {
+            ret.addAll (aLane.m_aQueue);
+            aLane.m_aQueue.clear ();
+            m_aLanes.remove (sLaneKey);
+          }
+          else
+            if (aLane.m_aQueue.remove (aSendTask))
+              ret.add (aSendTask);
+          return ret;
+        });
+        for (final SendTask aTask : aFailed)
+          aTask.m_aFuture.completeExceptionally (ex);
+      }
+    }
+  }
+
+  /**
+   * Perform the preparation stage of a single message. Override only for
+   * testing purposes.
+   *
+   * @param aBuilder
+   *        The builder to prepare. Never <code>null</code>.
+   * @return {@link ESuccess#SUCCESS} if the message can be sent.
+   * @throws Phase4Exception
+   *         In case of an error
+   */
+  @Nonnull
+  protected ESuccess prepareMessage (@Nonnull final Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?> aBuilder) throws Phase4Exception
+  {
+    return aBuilder.prepareMessage ();
+  }
+
+  /**
+   * Perform the transmission stage of a single prepared message. Override
+   * only for testing purposes.
+   *
+   * @param aBuilder
+   *        The prepared builder to send. Never <code>null</code>.
+   * @param aExceptionConsumer
+   *        The exception consumer to use. Never <code>null</code>.
+   * @return The sending result. Never <code>null</code>.
+   */
+  @Nonnull
+  protected ESimpleUserMessageSendResult sendPreparedMessage (@Nonnull final Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?> aBuilder,
+                                                              @Nonnull final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    return aBuilder.sendPreparedMessageAndCheckForReceipt (aExceptionConsumer);
+  }
+
+  private void _drainLane (@Nonnull final String sLaneKey, @Nonnull final APLane aLane)
+  {
+    while (true)
+    {
+      final SendTask aTask = m_aLock.lockedGet ( () -> {
+        final SendTask ret = aLane.m_aQueue.poll ();
+        if (ret == null)
+        {
+          aLane.m_nActive--;
+          if (aLane.m_nActive == 0)
+            m_aLanes.remove (sLaneKey);
+        }
+        return ret;
+      });
+      if (aTask == null)
+        break;
+      aTask.m_aRunnable.run ();
+    }
+  }
+
+  /**
+   * Submit a single message for preparation and transmission. If
+   * {@link #getMaxInFlight()} messages are already in progress, this method
+   * blocks until one of them was completed.
+   *
+   * @param aBuilder
+   *        The fully configured builder to be used. May not be
+   *        <code>null</code>.
+   * @return The future that is completed with the sending result. Never
+   *         <code>null</code>. It is only completed exceptionally in case of
+   *         unexpected runtime exceptions, if the calling thread was
+   *         interrupted while waiting or if this sender was already closed.
+   */
+  @Nonnull
+  public CompletableFuture <ESimpleUserMessageSendResult> submit (@Nonnull final Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?> aBuilder)
+  {
+    ValueEnforcer.notNull (aBuilder, "Builder");
+
+    final CompletableFuture <ESimpleUserMessageSendResult> ret = new CompletableFuture <> ();
+    try
+    {
+      m_aInFlight.acquire ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      ret.completeExceptionally (ex);
+      return ret;
+    }
+    // Release the permit when the message is done - whatever the outcome
+    ret.whenComplete ( (x, ex) -> m_aInFlight.release ());
+
+    try
+    {
+      _submitPrepare (aBuilder, ret);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Already closed
+      ret.completeExceptionally (ex);
+    }
+    return ret;
+  }
+
+  private void _submitPrepare (@Nonnull final Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?> aBuilder,
+                               @Nonnull final CompletableFuture <ESimpleUserMessageSendResult> aResult)
+  {
+    m_aPrepareES.execute ( () -> {
+      try
+      {
+        // Stage 1: validation, SMP lookup and SBDH creation
+        if (prepareMessage (aBuilder).isFailure ())
+        {
+          aResult.complete (ESimpleUserMessageSendResult.INVALID_PARAMETERS);
+          return;
+        }
+      }
+      catch (final Phase4Exception ex)
+      {
+        m_aExceptionConsumer.accept (ex);
+        aResult.complete (ESimpleUserMessageSendResult.TRANSPORT_ERROR);
+        return;
+      }
+      catch (final RuntimeException ex)
+      {
+        aResult.completeExceptionally (ex);
+        return;
+      }
+
+      // Stage 2: signing, encryption and HTTP transmission
+      // Group by scheme, host and port of the receiver AP
+      _enqueueSend (AS4DestinationHelper.getDestinationKey (aBuilder.endpointURL ()), new SendTask (aResult, () -> {
+        try
+        {
+          aResult.complete (sendPreparedMessage (aBuilder, m_aExceptionConsumer));
+        }
+        catch (final RuntimeException ex)
+        {
+          aResult.completeExceptionally (ex);
+        }
+      }));
+    });
+  }
+
+  /**
+   * Submit all messages of the provided stream for preparation and
+   * transmission. The stream is consumed while messages are completed, so
+   * that at most {@link #getMaxInFlight()} messages are in progress.
+   *
+   * @param aBuilders
+   *        The fully configured builders to be used. May not be
+   *        <code>null</code>.
+   * @return A list with one future per builder in the order of the stream.
+   *         Never <code>null</code>.
+   * @see #submit(Phase4PeppolSender.AbstractPeppolUserMessageBuilder)
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <CompletableFuture <ESimpleUserMessageSendResult>> submitAll (@Nonnull final Stream <? extends Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?>> aBuilders)
+  {
+    ValueEnforcer.notNull (aBuilders, "Builders");
+
+    final ICommonsList <CompletableFuture <ESimpleUserMessageSendResult>> ret = new CommonsArrayList <> ();
+    aBuilders.forEach (x -> ret.add (submit (x)));
+    return ret;
+  }
+
+  /**
+   * Wait until all submitted messages were processed and shutdown the thread
+   * pools. No new messages may be submitted afterwards.
+   */
+  @Override
+  public void close ()
+  {
+    // Preparation must finish first, as it submits to the send executor
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aPrepareES);
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aSendES);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxConcurrentSendsPerAP", m_nMaxConcurrentSendsPerAP)
+                                       .append ("MaxInFlight", m_nMaxInFlight)
+                                       .append ("PrepareES", m_aPrepareES)
+                                       .append ("SendES", m_aSendES)
+                                       .getToString ();
+  }
+}
@@ -17,9 +17,12 @@
 package com.helger.phase4.peppol;
 
 import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
 import java.time.OffsetDateTime;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -59,9 +62,17 @@ import com.helger.peppolid.peppol.doctype.PeppolDocumentTypeIdentifierParts;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.client.AS4ClientBuiltMessage;
+import com.helger.phase4.client.IAS4ClientBuildMessageCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
 import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
+import com.helger.phase4.http.BasicHttpPoster;
+import com.helger.phase4.http.HttpClientPoolSettings;
+import com.helger.phase4.http.PooledHttpClientFactory;
+import com.helger.phase4.messaging.domain.AbstractAS4Message;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.profile.peppol.PeppolPMode;
@@ -92,9 +103,40 @@ public final class Phase4PeppolSender
 
   private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolSender.class);
 
+  private static final String SHARED_POOLED_HTTP_CLIENT_FACTORY_KEY = "peppol";
+
   private Phase4PeppolSender ()
   {}
 
+  /**
+   * @return The shared {@link PooledHttpClientFactory} using the
+   *         {@link Phase4PeppolHttpClientSettings} and the pool settings from
+   *         the configuration. It is created on first access and used by all
+   *         builders if HTTP pooling is enabled. It is closed together with
+   *         the other shared factories via
+   *         {@link BasicHttpPoster#closeSharedPooledHttpClientFactory()}. Never
+   *         <code>null</code>.
+   * @throws IllegalStateException
+   *         If the Peppol HTTP client settings cannot be created
+   * @since 1.4.1
+   * @see AS4Configuration#isHttpPoolingEnabled()
+   */
+  @Nonnull
+  public static PooledHttpClientFactory getSharedPooledHttpClientFactory ()
+  {
+    return BasicHttpPoster.getSharedPooledHttpClientFactory (SHARED_POOLED_HTTP_CLIENT_FACTORY_KEY, () -> {
+      try
+      {
+        return new PooledHttpClientFactory (new Phase4PeppolHttpClientSettings (),
+                                            HttpClientPoolSettings.createFromConfiguration ());
+      }
+      catch (final GeneralSecurityException ex)
+      {
+        throw new IllegalStateException ("Failed to create Peppol HTTP client settings", ex);
+      }
+    });
+  }
+
   /**
    * @param aSenderID
    *        Sender participant ID. May not be <code>null</code>.
@@ -187,26 +229,21 @@ public final class Phase4PeppolSender
   private static void _validatePayload (@Nonnull final Element aPayloadElement,
                                         @Nullable final IValidationExecutorSetRegistry <IValidationSourceXML> aRegistry,
                                         @Nullable final VESID aVESID,
-                                        @Nullable final IPhase4PeppolValidationResultHandler aValidationResultHandler) throws Phase4PeppolException
+                                        @Nullable final IPhase4PeppolValidationResultHandler aValidationResultHandler,
+                                        final boolean bParallelLayers) throws Phase4PeppolException
   {
     // Client side validation
     if (aVESID != null)
     {
       if (aValidationResultHandler != null)
       {
-        if (aRegistry == null)
-        {
-          // Default registry
-          Phase4PeppolValidation.validateOutgoingBusinessDocument (aPayloadElement, aVESID, aValidationResultHandler);
-        }
-        else
-        {
-          // Custom registry
-          Phase4PeppolValidation.validateOutgoingBusinessDocument (aPayloadElement,
-                                                                   aRegistry,
-                                                                   aVESID,
-                                                                   aValidationResultHandler);
-        }
+        // Custom or default registry
+        Phase4PeppolValidation.validateOutgoingBusinessDocument (aPayloadElement,
+                                                                 aRegistry != null ? aRegistry
+                                                                                   : Phase4PeppolValidation.getDefaultRegistry (),
+                                                                 aVESID,
+                                                                 aValidationResultHandler,
+                                                                 bParallelLayers);
       }
       else
         LOGGER.warn ("A VES ID is present but no ValidationResultHandler - therefore no validation is performed");
@@ -218,6 +255,78 @@ public final class Phase4PeppolSender
     }
   }
 
+  /**
+   * A build message callback that waits for an asynchronous validation right
+   * before the transmission and prevents it, if the validation failed. All
+   * other calls are forwarded to the optional wrapped callback.
+   *
+   * @author Philip Helger
+   * @since 1.4.1
+   */
+  private static final class AsyncValidationBuildMessageCallback implements IAS4ClientBuildMessageCallback
+  {
+    private final IAS4ClientBuildMessageCallback m_aWrapped;
+    private final CompletableFuture <Void> m_aValidationFuture;
+
+    AsyncValidationBuildMessageCallback (@Nullable final IAS4ClientBuildMessageCallback aWrapped,
+                                         @Nonnull final CompletableFuture <Void> aValidationFuture)
+    {
+      m_aWrapped = aWrapped;
+      m_aValidationFuture = aValidationFuture;
+    }
+
+    public void onAS4Message (@Nonnull final AbstractAS4Message <?> aMsg)
+    {
+      if (m_aWrapped != null)
+        m_aWrapped.onAS4Message (aMsg);
+    }
+
+    public void onSoapDocument (@Nonnull final Document aDoc)
+    {
+      if (m_aWrapped != null)
+        m_aWrapped.onSoapDocument (aDoc);
+    }
+
+    public void onSignedSoapDocument (@Nonnull final Document aDoc)
+    {
+      if (m_aWrapped != null)
+        m_aWrapped.onSignedSoapDocument (aDoc);
+    }
+
+    public void onEncryptedSoapDocument (@Nonnull final Document aDoc)
+    {
+      if (m_aWrapped != null)
+        m_aWrapped.onEncryptedSoapDocument (aDoc);
+    }
+
+    public void onEncryptedMimeMessage (@Nonnull final AS4MimeMessage aMimeMsg)
+    {
+      if (m_aWrapped != null)
+        m_aWrapped.onEncryptedMimeMessage (aMimeMsg);
+    }
+
+    public void onBeforeTransmission (@Nonnull final AS4ClientBuiltMessage aBuiltMsg)
+    {
+      try
+      {
+        m_aValidationFuture.get ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new IllegalStateException ("Interrupted while waiting for the validation of the business document", ex);
+      }
+      catch (final ExecutionException ex)
+      {
+        throw new IllegalStateException ("Not sending the AS4 message, because the validation of the business document failed",
+                                         ex.getCause ());
+      }
+
+      if (m_aWrapped != null)
+        m_aWrapped.onBeforeTransmission (aBuiltMsg);
+    }
+  }
+
   /**
    * Get the receiver certificate from the specified SMP endpoint.
    *
@@ -318,7 +427,10 @@ public final class Phase4PeppolSender
       try
       {
         // Use the Peppol specific timeout settings
-        httpClientFactory (new Phase4PeppolHttpClientSettings ());
+        if (AS4Configuration.isHttpPoolingEnabled ())
+          httpClientFactory (getSharedPooledHttpClientFactory ());
+        else
+          httpClientFactory (new Phase4PeppolHttpClientSettings ());
         agreementRef (PeppolPMode.DEFAULT_AGREEMENT_ID);
         fromPartyIDType (PeppolPMode.DEFAULT_PARTY_TYPE_ID);
         fromRole (CAS4.DEFAULT_INITIATOR_URL);
@@ -733,6 +845,9 @@ public final class Phase4PeppolSender
   @NotThreadSafe
   public static class Builder extends AbstractPeppolUserMessageBuilder <Builder>
   {
+    public static final boolean DEFAULT_VALIDATION_PARALLEL_LAYERS = false;
+    public static final boolean DEFAULT_VALIDATION_ASYNC = false;
+
     private String m_sSBDHInstanceIdentifier;
     private String m_sSBDHTypeVersion;
     private Element m_aPayloadElement;
@@ -743,6 +858,10 @@ public final class Phase4PeppolSender
     private IValidationExecutorSetRegistry <IValidationSourceXML> m_aVESRegistry;
     private VESID m_aVESID;
     private IPhase4PeppolValidationResultHandler m_aValidationResultHandler;
+    private boolean m_bValidationParallelLayers = DEFAULT_VALIDATION_PARALLEL_LAYERS;
+    private boolean m_bValidationAsync = DEFAULT_VALIDATION_ASYNC;
+    // Status var for the running asynchronous validation
+    private CompletableFuture <Void> m_aAsyncValidationFuture;
 
     /**
      * Create a new builder, with the defaults from
@@ -977,6 +1096,58 @@ public final class Phase4PeppolSender
       return this;
     }
 
+    /**
+     * Enable or disable the parallel execution of the different validation
+     * layers (like XML Schema and the Schematrons). The results are identical
+     * to the sequential execution.
+     *
+     * @param bValidationParallelLayers
+     *        <code>true</code> to validate the layers in parallel,
+     *        <code>false</code> to validate them one after the other.
+     * @return this for chaining
+     * @since 1.4.1
+     * @see Phase4PeppolValidation#getSharedExecutor()
+     */
+    @Nonnull
+    public Builder validationParallelLayers (final boolean bValidationParallelLayers)
+    {
+      m_bValidationParallelLayers = bValidationParallelLayers;
+      return this;
+    }
+
+    /**
+     * Enable or disable asynchronous validation. If enabled, the validation
+     * runs in the background while the SMP lookup, the SBDH creation, the
+     * signing and the encryption take place. The transmission waits for the
+     * validation result and is not performed if the validation failed (e.g.
+     * because the validation result handler threw an exception). In that case
+     * sending fails with a {@link Phase4Exception}.
+     *
+     * @param bValidationAsync
+     *        <code>true</code> to validate asynchronously, <code>false</code>
+     *        to validate before anything else happens.
+     * @return this for chaining
+     * @since 1.4.1
+     */
+    @Nonnull
+    public Builder validationAsync (final boolean bValidationAsync)
+    {
+      m_bValidationAsync = bValidationAsync;
+      return this;
+    }
+
+    @Override
+    @Nullable
+    protected IAS4ClientBuildMessageCallback getBuildMessageCallbackForSending ()
+    {
+      final CompletableFuture <Void> aValidationFuture = m_aAsyncValidationFuture;
+      if (aValidationFuture == null)
+        return m_aBuildMessageCallback;
+
+      // Wait for the asynchronous validation right before sending
+      return new AsyncValidationBuildMessageCallback (m_aBuildMessageCallback, aValidationFuture);
+    }
+
     @Override
     protected ESuccess finishFields () throws Phase4Exception
     {
@@ -998,8 +1169,26 @@ public final class Phase4PeppolSender
         else
           throw new IllegalStateException ("Unexpected - neither element nor bytes are present");
 
+      // Forget the validation of a previous transmission
+      m_aAsyncValidationFuture = null;
+
       // Optional payload validation
-      _validatePayload (aPayloadElement, m_aVESRegistry, m_aVESID, m_aValidationResultHandler);
+      if (m_bValidationAsync && m_aVESID != null && m_aValidationResultHandler != null)
+      {
+        // Waited for right before sending - see
+        // getBuildMessageCallbackForSending
+        m_aAsyncValidationFuture = Phase4PeppolValidation.validateOutgoingBusinessDocumentAsync (aPayloadElement,
+                                                                                                m_aVESRegistry,
+                                                                                                m_aVESID,
+                                                                                                m_aValidationResultHandler,
+                                                                                                m_bValidationParallelLayers);
+      }
+      else
+        _validatePayload (aPayloadElement,
+                          m_aVESRegistry,
+                          m_aVESID,
+                          m_aValidationResultHandler,
+                          m_bValidationParallelLayers);
 
       // Perform SMP lookup
       if (super.finishFields ().isFailure ())
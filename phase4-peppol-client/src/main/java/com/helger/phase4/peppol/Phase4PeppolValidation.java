@@ -16,24 +16,43 @@
  */
 package com.helger.phase4.peppol;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phive.api.execute.IValidationExecutor;
 import com.helger.phive.api.execute.ValidationExecutionManager;
 import com.helger.phive.api.executorset.IValidationExecutorSet;
 import com.helger.phive.api.executorset.IValidationExecutorSetRegistry;
 import com.helger.phive.api.executorset.VESID;
 import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.api.result.ValidationResult;
 import com.helger.phive.api.result.ValidationResultList;
 import com.helger.phive.engine.source.IValidationSourceXML;
 import com.helger.phive.engine.source.ValidationSourceXML;
 import com.helger.phive.peppol.PeppolValidation;
+import com.helger.xml.XMLFactory;
 
 /**
  * This class contains the client side validation required for outgoing Peppol
@@ -48,6 +67,10 @@ public final class Phase4PeppolValidation
   // modification
   private static final IValidationExecutorSetRegistry <IValidationSourceXML> VES_REGISTRY = createDefaultRegistry ();
 
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static ExecutorService s_aSharedExecutor;
+
   private Phase4PeppolValidation ()
   {}
 
@@ -103,6 +126,240 @@ public final class Phase4PeppolValidation
     validateOutgoingBusinessDocument (aXML, VES_REGISTRY, aVESID, aValidationResultHandler);
   }
 
+  /**
+   * @return The shared executor used for validating the layers of a validation
+   *         executor set in parallel and for asynchronous validation. It uses
+   *         at most {@link AS4Configuration#getPeppolValidationThreads()}
+   *         daemon threads and queues at most
+   *         {@link AS4Configuration#getPeppolValidationQueueSize()} tasks. If
+   *         the queue is full, the task is executed in the submitting thread.
+   *         It is created on first access. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static ExecutorService getSharedExecutor ()
+  {
+    ExecutorService ret = RW_LOCK.readLockedGet ( () -> s_aSharedExecutor);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        ExecutorService aES = s_aSharedExecutor;
+        if (aES == null)
+        {
+          final int nThreads = Math.max (1, AS4Configuration.getPeppolValidationThreads ());
+          final ThreadPoolExecutor aTPE = new ThreadPoolExecutor (nThreads,
+                                                                  nThreads,
+                                                                  60,
+                                                                  TimeUnit.SECONDS,
+                                                                  new LinkedBlockingQueue <> (Math.max (1,
+                                                                                                        AS4Configuration.getPeppolValidationQueueSize ())),
+                                                                  new BasicThreadFactory.Builder ().namingPattern ("phase4-peppol-validation-%d")
+                                                                                                   .daemon (true)
+                                                                                                   .build (),
+                                                                  new ThreadPoolExecutor.CallerRunsPolicy ());
+          aTPE.allowCoreThreadTimeOut (true);
+          aES = aTPE;
+          s_aSharedExecutor = aES;
+        }
+        return aES;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Shutdown the shared executor if it was created. This should be called upon
+   * application shutdown.
+   *
+   * @since 1.4.1
+   */
+  public static void shutdownSharedExecutor ()
+  {
+    final ExecutorService aES = RW_LOCK.writeLockedGet ( () -> {
+      final ExecutorService ret = s_aSharedExecutor;
+      s_aSharedExecutor = null;
+      return ret;
+    });
+    if (aES != null)
+      aES.shutdown ();
+  }
+
+  /**
+   * Create a copy of the passed element in a new document, so that it can be
+   * read by another thread. DOM implementations are not thread-safe, even for
+   * reading.
+   *
+   * @param aXML
+   *        The element to be copied. May not be <code>null</code>.
+   * @return The copied element, being the root element of a new document.
+   */
+  @Nonnull
+  private static Element _createCopy (@Nonnull final Element aXML)
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element ret = (Element) aDoc.importNode (aXML, true);
+    aDoc.appendChild (ret);
+    return ret;
+  }
+
+  /**
+   * Load and compile the artefacts (like XML Schemas and Schematrons) of the
+   * provided validation executor sets, so that the first real validation does
+   * not need to do it. The artefacts are cached by the underlying validation
+   * executors. This is done by validating a dummy document with each
+   * validation executor.
+   *
+   * @param aVESRegistry
+   *        The VES registry the VESIDs are looked up in. May not be
+   *        <code>null</code>.
+   * @param aVESIDs
+   *        The {@link VESID}s to be pre-loaded. Unknown IDs are ignored. May
+   *        not be <code>null</code>.
+   * @since 1.4.1
+   */
+  public static void preloadValidationExecutorSets (@Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aVESRegistry,
+                                                    @Nonnull final VESID... aVESIDs)
+  {
+    ValueEnforcer.notNull (aVESRegistry, "VESRegistry");
+    ValueEnforcer.notNull (aVESIDs, "VESIDs");
+
+    for (final VESID aVESID : aVESIDs)
+    {
+      final IValidationExecutorSet <IValidationSourceXML> aVES = aVESRegistry.getOfID (aVESID);
+      if (aVES == null)
+      {
+        LOGGER.warn ("The validation executor set ID " + aVESID.getAsSingleID () + " is unknown and cannot be preloaded");
+        continue;
+      }
+
+      final Document aDummyDoc = XMLFactory.newDocument ();
+      aDummyDoc.appendChild (aDummyDoc.createElementNS ("urn:phase4:preload", "Preload"));
+      for (final IValidationExecutor <IValidationSourceXML> aExecutor : aVES.getAllExecutors ())
+        try
+        {
+          // The result itself is irrelevant
+          aExecutor.applyValidation (ValidationSourceXML.create (null, aDummyDoc), null);
+        }
+        catch (final RuntimeException ex)
+        {
+          LOGGER.warn ("Failed to preload validation artefact " + aExecutor.getValidationArtefact (), ex);
+        }
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Preloaded validation executor set ID " + aVESID.getAsSingleID ());
+    }
+  }
+
+  /**
+   * Apply a single validation executor and complete the passed future with the
+   * result or the exception.
+   *
+   * @param aVE
+   *        The validation executor to apply. May not be <code>null</code>.
+   * @param aXML
+   *        The XML element to be validated. May not be <code>null</code>.
+   * @param aFuture
+   *        The future to be completed. May not be <code>null</code>.
+   */
+  private static void _runValidation (@Nonnull final IValidationExecutor <IValidationSourceXML> aVE,
+                                      @Nonnull final Element aXML,
+                                      @Nonnull final CompletableFuture <ValidationResult> aFuture)
+  {
+    try
+    {
+      aFuture.complete (aVE.applyValidation (ValidationSourceXML.create (null, aXML), null));
+    }
+    catch (final RuntimeException ex)
+    {
+      aFuture.completeExceptionally (ex);
+    }
+  }
+
+  /**
+   * Execute all validation executors of the provided validation executor set in
+   * parallel. Each executor validates its own copy of the XML. The results are
+   * combined in the order of the executors. If an executor that has errors is
+   * configured to stop the validation on error, the results of all following
+   * executors are ignored - exactly like in the sequential validation.<br>
+   * Because the executor is bounded and this method may itself run inside it,
+   * each layer is executed by whoever claims it first: a pool thread or the
+   * calling thread when it needs the result. That way the caller never waits
+   * for a layer that is still queued behind it.
+   *
+   * @param aVES
+   *        The validation executor set to use. May not be <code>null</code>.
+   * @param aXML
+   *        The XML element to be validated. May not be <code>null</code>.
+   * @param aExecutor
+   *        The executor to run the validations in. May not be
+   *        <code>null</code>.
+   * @return The combined validation results. Never <code>null</code>.
+   * @throws Phase4PeppolException
+   *         If a validation executor failed unexpectedly
+   */
+  @Nonnull
+  private static ValidationResultList _executeValidationParallel (@Nonnull final IValidationExecutorSet <IValidationSourceXML> aVES,
+                                                                  @Nonnull final Element aXML,
+                                                                  @Nonnull final ExecutorService aExecutor) throws Phase4PeppolException
+  {
+    final ICommonsList <IValidationExecutor <IValidationSourceXML>> aExecutors = aVES.getAllExecutors ();
+
+    // Create all copies before starting, as the source is read by this thread
+    final ICommonsList <Element> aCopies = new CommonsArrayList <> (aExecutors.size ());
+    for (int i = 0; i < aExecutors.size (); ++i)
+      aCopies.add (_createCopy (aXML));
+
+    final ICommonsList <AtomicBoolean> aClaims = new CommonsArrayList <> (aExecutors.size ());
+    final ICommonsList <CompletableFuture <ValidationResult>> aFutures = new CommonsArrayList <> (aExecutors.size ());
+    for (int i = 0; i < aExecutors.size (); ++i)
+    {
+      final AtomicBoolean aClaim = new AtomicBoolean (false);
+      final CompletableFuture <ValidationResult> aFuture = new CompletableFuture <> ();
+      aClaims.add (aClaim);
+      aFutures.add (aFuture);
+
+      final IValidationExecutor <IValidationSourceXML> aVE = aExecutors.get (i);
+      final Element aCopy = aCopies.get (i);
+      aExecutor.execute ( () -> {
+        if (aClaim.compareAndSet (false, true))
+          _runValidation (aVE, aCopy, aFuture);
+      });
+    }
+
+    final ValidationResultList ret = new ValidationResultList ();
+    boolean bIgnoreRest = false;
+    try
+    {
+      for (int i = 0; i < aExecutors.size (); ++i)
+      {
+        final IValidationExecutor <IValidationSourceXML> aVE = aExecutors.get (i);
+        if (bIgnoreRest)
+        {
+          // Prevent queued layers from running at all
+          aClaims.get (i).set (true);
+          aFutures.get (i).cancel (false);
+          ret.add (ValidationResult.createIgnoredResult (aVE.getValidationArtefact ()));
+        }
+        else
+        {
+          // Run it in this thread, if no pool thread has started it yet
+          if (aClaims.get (i).compareAndSet (false, true))
+            _runValidation (aVE, aCopies.get (i), aFutures.get (i));
+          final ValidationResult aResult = aFutures.get (i).join ();
+          ret.add (aResult);
+          if (aResult.getErrorList ().containsAtLeastOneError () && aVE.isStopValidationOnError ())
+            bIgnoreRest = true;
+        }
+      }
+    }
+    catch (final CompletionException ex)
+    {
+      throw new Phase4PeppolException ("Error validating business document", ex.getCause ());
+    }
+    return ret;
+  }
+
   /**
    * Validate the passed DOM element using the provided VESID using the provided
    * registry.
@@ -126,6 +383,39 @@ public final class Phase4PeppolValidation
                                                        @Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aVESRegistry,
                                                        @Nonnull final VESID aVESID,
                                                        @Nonnull final IPhase4PeppolValidationResultHandler aValidationResultHandler) throws Phase4PeppolException
+  {
+    validateOutgoingBusinessDocument (aXML, aVESRegistry, aVESID, aValidationResultHandler, false);
+  }
+
+  /**
+   * Validate the passed DOM element using the provided VESID using the provided
+   * registry.
+   *
+   * @param aXML
+   *        The XML element to be validated. May not be <code>null</code>.
+   * @param aVESRegistry
+   *        The VES registry the VESID is looked up in.
+   * @param aVESID
+   *        The {@link VESID} to be used. Must be contained in the provided
+   *        registry. May not be <code>null</code>.
+   * @param aValidationResultHandler
+   *        The validation result handler to be used. May not be
+   *        <code>null</code>.
+   * @param bParallelLayers
+   *        <code>true</code> to execute the validation layers (e.g. XML Schema
+   *        and the different Schematrons) in parallel using the
+   *        {@link #getSharedExecutor() shared executor}, <code>false</code> to
+   *        execute them sequentially in the calling thread.
+   * @throws Phase4PeppolException
+   *         In case e.g. the validation failed. This usually implies, that the
+   *         document will NOT be send out.
+   * @since 1.4.1
+   */
+  public static void validateOutgoingBusinessDocument (@Nonnull final Element aXML,
+                                                       @Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aVESRegistry,
+                                                       @Nonnull final VESID aVESID,
+                                                       @Nonnull final IPhase4PeppolValidationResultHandler aValidationResultHandler,
+                                                       final boolean bParallelLayers) throws Phase4PeppolException
   {
     ValueEnforcer.notNull (aXML, "XMLElement");
     ValueEnforcer.notNull (aVESRegistry, "VESRegistry");
@@ -136,8 +426,12 @@ public final class Phase4PeppolValidation
     if (aVES == null)
       throw new Phase4PeppolException ("The validation executor set ID " + aVESID.getAsSingleID () + " is unknown!");
 
-    final ValidationResultList aValidationResult = ValidationExecutionManager.executeValidation (aVES,
-                                                                                                 ValidationSourceXML.create (null, aXML));
+    final ValidationResultList aValidationResult;
+    if (bParallelLayers && aVES.getAllExecutors ().size () > 1)
+      aValidationResult = _executeValidationParallel (aVES, aXML, getSharedExecutor ());
+    else
+      aValidationResult = ValidationExecutionManager.executeValidation (aVES, ValidationSourceXML.create (null, aXML));
+
     if (aValidationResult.containsAtLeastOneError ())
     {
       aValidationResultHandler.onValidationErrors (aValidationResult);
@@ -146,4 +440,58 @@ public final class Phase4PeppolValidation
     else
       aValidationResultHandler.onValidationSuccess (aValidationResult);
   }
+
+  /**
+   * Validate the passed DOM element asynchronously in the
+   * {@link #getSharedExecutor() shared executor}. The validation uses a copy of
+   * the passed element, so the caller may continue to use the element. The
+   * validation result handler is invoked in the validating thread.
+   *
+   * @param aXML
+   *        The XML element to be validated. May not be <code>null</code>.
+   * @param aVESRegistry
+   *        The VES registry the VESID is looked up in. May be
+   *        <code>null</code> to use the default registry.
+   * @param aVESID
+   *        The {@link VESID} to be used. Must be contained in the provided
+   *        registry. May not be <code>null</code>.
+   * @param aValidationResultHandler
+   *        The validation result handler to be used. May not be
+   *        <code>null</code>.
+   * @param bParallelLayers
+   *        <code>true</code> to execute the validation layers in parallel.
+   * @return A future that is completed when the validation is done. It is
+   *         completed exceptionally with a {@link Phase4PeppolException} if
+   *         the validation failed. Never <code>null</code>.
+   * @since 1.4.1
+   */
+  @Nonnull
+  public static CompletableFuture <Void> validateOutgoingBusinessDocumentAsync (@Nonnull final Element aXML,
+                                                                               @Nullable final IValidationExecutorSetRegistry <IValidationSourceXML> aVESRegistry,
+                                                                               @Nonnull final VESID aVESID,
+                                                                               @Nonnull final IPhase4PeppolValidationResultHandler aValidationResultHandler,
+                                                                               final boolean bParallelLayers)
+  {
+    ValueEnforcer.notNull (aXML, "XMLElement");
+    ValueEnforcer.notNull (aVESID, "VESID");
+    ValueEnforcer.notNull (aValidationResultHandler, "ValidationResultHandler");
+
+    // Copy in the calling thread
+    final Element aCopy = _createCopy (aXML);
+    final IValidationExecutorSetRegistry <IValidationSourceXML> aRealRegistry = aVESRegistry != null ? aVESRegistry
+                                                                                                     : VES_REGISTRY;
+    final CompletableFuture <Void> ret = new CompletableFuture <> ();
+    getSharedExecutor ().execute ( () -> {
+      try
+      {
+        validateOutgoingBusinessDocument (aCopy, aRealRegistry, aVESID, aValidationResultHandler, bParallelLayers);
+        ret.complete (null);
+      }
+      catch (final Phase4PeppolException | RuntimeException ex)
+      {
+        ret.completeExceptionally (ex);
+      }
+    });
+    return ret;
+  }
 }
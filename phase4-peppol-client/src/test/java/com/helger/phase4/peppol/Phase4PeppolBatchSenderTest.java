@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.functional.IThrowingFunction;
+import com.helger.commons.state.ESuccess;
+import com.helger.phase4.http.AS4DestinationHelper;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Test class for class {@link Phase4PeppolBatchSender}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolBatchSenderTest
+{
+  private static final String AP1 = "http://ap1.example.org/as4";
+  private static final String AP2 = "http://ap2.example.org:8080/as4";
+
+  /**
+   * Batch sender that does not prepare or send anything, but records the
+   * concurrent transmissions per receiver AP.
+   */
+  private static final class StubBatchSender extends Phase4PeppolBatchSender
+  {
+    private final IThrowingFunction <Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?>, ESuccess, Phase4Exception> m_aPrepare;
+    private final Runnable m_aSend;
+    private final Map <String, AtomicInteger> m_aActive = new ConcurrentHashMap <> ();
+    private final Map <String, AtomicInteger> m_aMaxActive = new ConcurrentHashMap <> ();
+    private final AtomicInteger m_aSendCount = new AtomicInteger (0);
+
+    StubBatchSender (final int nMaxConcurrentSendsPerAP,
+                     @Nonnull final Consumer <? super Phase4Exception> aExceptionConsumer,
+                     @Nonnull final IThrowingFunction <Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?>, ESuccess, Phase4Exception> aPrepare,
+                     @Nonnull final Runnable aSend)
+    {
+      this (nMaxConcurrentSendsPerAP, DEFAULT_MAX_IN_FLIGHT, aExceptionConsumer, aPrepare, aSend);
+    }
+
+    StubBatchSender (final int nMaxConcurrentSendsPerAP,
+                     final int nMaxInFlight,
+                     @Nonnull final Consumer <? super Phase4Exception> aExceptionConsumer,
+                     @Nonnull final IThrowingFunction <Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?>, ESuccess, Phase4Exception> aPrepare,
+                     @Nonnull final Runnable aSend)
+    {
+      super (2, 8, nMaxConcurrentSendsPerAP, nMaxInFlight, aExceptionConsumer);
+      m_aPrepare = aPrepare;
+      m_aSend = aSend;
+    }
+
+    @Override
+    protected ESuccess prepareMessage (@Nonnull final Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?> aBuilder) throws Phase4Exception
+    {
+      return m_aPrepare.apply (aBuilder);
+    }
+
+    @Override
+    protected ESimpleUserMessageSendResult sendPreparedMessage (@Nonnull final Phase4PeppolSender.AbstractPeppolUserMessageBuilder <?> aBuilder,
+                                                                @Nonnull final Consumer <? super Phase4Exception> aExceptionConsumer)
+    {
+      final String sKey = AS4DestinationHelper.getDestinationKey (aBuilder.endpointURL ());
+      final int nActive = m_aActive.computeIfAbsent (sKey, k -> new AtomicInteger ()).incrementAndGet ();
+      m_aMaxActive.computeIfAbsent (sKey, k -> new AtomicInteger ()).accumulateAndGet (nActive, Math::max);
+      try
+      {
+        m_aSend.run ();
+        m_aSendCount.incrementAndGet ();
+        return ESimpleUserMessageSendResult.SUCCESS;
+      }
+      finally
+      {
+        m_aActive.get (sKey).decrementAndGet ();
+      }
+    }
+
+    int getMaxActive (@Nonnull final String sURL)
+    {
+      final AtomicInteger ret = m_aMaxActive.get (AS4DestinationHelper.getDestinationKey (sURL));
+      return ret == null ? 0 : ret.get ();
+    }
+  }
+
+  @Nonnull
+  private static ICommonsList <CompletableFuture <ESimpleUserMessageSendResult>> _submit (@Nonnull final Phase4PeppolBatchSender aSender,
+                                                                                          @Nonnull final String... aURLs)
+  {
+    final ICommonsList <CompletableFuture <ESimpleUserMessageSendResult>> ret = new CommonsArrayList <> ();
+    for (final String sURL : aURLs)
+      ret.add (aSender.submit (Phase4PeppolSender.builder ().endpointURL (sURL)));
+    return ret;
+  }
+
+  private static void _assertAll (@Nonnull final ESimpleUserMessageSendResult eExpected,
+                                  @Nonnull final ICommonsList <CompletableFuture <ESimpleUserMessageSendResult>> aFutures) throws Exception
+  {
+    for (final CompletableFuture <ESimpleUserMessageSendResult> aFuture : aFutures)
+      assertSame (eExpected, aFuture.get (1, TimeUnit.MINUTES));
+  }
+
+  @Test
+  public void testLaneDraining () throws Exception
+  {
+    try (final StubBatchSender aSender = new StubBatchSender (1,
+                                                              ex -> fail ("Unexpected " + ex),
+                                                              x -> ESuccess.SUCCESS,
+                                                              () -> ThreadHelper.sleep (2)))
+    {
+      final ICommonsList <String> aURLs = new CommonsArrayList <> ();
+      for (int i = 0; i < 10; ++i)
+      {
+        aURLs.add (AP1);
+        // Different paths of the same AP use the same lane
+        aURLs.add (AP2 + "?i=" + i);
+      }
+      _assertAll (ESimpleUserMessageSendResult.SUCCESS, _submit (aSender, aURLs.toArray (new String [0])));
+
+      // All queued messages were drained
+      assertEquals (20, aSender.m_aSendCount.get ());
+      // Only one transmission at a time per AP
+      assertEquals (1, aSender.getMaxActive (AP1));
+      assertEquals (1, aSender.getMaxActive (AP2));
+    }
+  }
+
+  @Test
+  public void testMaxConcurrentSendsPerAP () throws Exception
+  {
+    // The first two transmissions only finish if they run concurrently
+    final CountDownLatch aBothActive = new CountDownLatch (2);
+    try (final StubBatchSender aSender = new StubBatchSender (2, ex -> fail ("Unexpected " + ex), x -> ESuccess.SUCCESS, () -> {
+      aBothActive.countDown ();
+      try
+      {
+        aBothActive.await (10, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      ThreadHelper.sleep (2);
+    }))
+    {
+      final ICommonsList <String> aURLs = new CommonsArrayList <> ();
+      for (int i = 0; i < 10; ++i)
+        aURLs.add (AP1);
+      _assertAll (ESimpleUserMessageSendResult.SUCCESS, _submit (aSender, aURLs.toArray (new String [0])));
+
+      assertEquals (10, aSender.m_aSendCount.get ());
+      assertEquals (0, aBothActive.getCount ());
+      assertEquals (2, aSender.getMaxActive (AP1));
+    }
+  }
+
+  @Test
+  public void testPrepareFailure () throws Exception
+  {
+    final List <Phase4Exception> aExceptions = new CopyOnWriteArrayList <> ();
+    try (final StubBatchSender aSender = new StubBatchSender (1, aExceptions::add, x -> {
+      switch (x.endpointURL ())
+      {
+        case "http://failure":
+          return ESuccess.FAILURE;
+        case "http://exception":
+          throw new Phase4Exception ("Simulated");
+        case "http://runtime":
+          throw new IllegalStateException ("Simulated");
+        default:
+          return ESuccess.SUCCESS;
+      }
+    }, () -> {}))
+    {
+      final ICommonsList <CompletableFuture <ESimpleUserMessageSendResult>> aFutures = _submit (aSender, "http://failure", "http://exception", "http://runtime", AP1);
+
+      assertSame (ESimpleUserMessageSendResult.INVALID_PARAMETERS, aFutures.get (0).get (1, TimeUnit.MINUTES));
+      assertSame (ESimpleUserMessageSendResult.TRANSPORT_ERROR, aFutures.get (1).get (1, TimeUnit.MINUTES));
+      try
+      {
+        aFutures.get (2).get (1, TimeUnit.MINUTES);
+        fail ();
+      }
+      catch (final ExecutionException ex)
+      {
+        assertTrue (ex.getCause () instanceof IllegalStateException);
+      }
+      assertSame (ESimpleUserMessageSendResult.SUCCESS, aFutures.get (3).get (1, TimeUnit.MINUTES));
+
+      // Only the successfully prepared message was sent
+      assertEquals (1, aSender.m_aSendCount.get ());
+      assertEquals (1, aExceptions.size ());
+      assertEquals ("Simulated", aExceptions.get (0).getMessage ());
+    }
+  }
+
+  @Test
+  public void testMaxInFlight () throws Exception
+  {
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AtomicInteger aPrepared = new AtomicInteger (0);
+    try (final StubBatchSender aSender = new StubBatchSender (2, 3, ex -> fail ("Unexpected " + ex), x -> {
+      aPrepared.incrementAndGet ();
+      return ESuccess.SUCCESS;
+    }, () -> {
+      try
+      {
+        aRelease.await (10, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+    }))
+    {
+      final ICommonsList <String> aURLs = new CommonsArrayList <> ();
+      for (int i = 0; i < 5; ++i)
+      {
+        aURLs.add (AP1);
+        aURLs.add (AP2);
+      }
+      final CompletableFuture <ICommonsList <CompletableFuture <ESimpleUserMessageSendResult>>> aSubmitted = CompletableFuture.supplyAsync ( () -> _submit (aSender,
+                                                                                                                                                          aURLs.toArray (new String [0])));
+
+      // Submitting blocks until the first messages are completed
+      ThreadHelper.sleep (200);
+      assertFalse (aSubmitted.isDone ());
+      assertEquals (3, aPrepared.get ());
+
+      aRelease.countDown ();
+      _assertAll (ESimpleUserMessageSendResult.SUCCESS, aSubmitted.get (1, TimeUnit.MINUTES));
+      assertEquals (10, aPrepared.get ());
+      assertEquals (10, aSender.m_aSendCount.get ());
+    }
+  }
+
+  @Test
+  public void testSubmitAfterClose () throws Exception
+  {
+    final StubBatchSender aSender = new StubBatchSender (1,
+                                                         1,
+                                                         ex -> fail ("Unexpected " + ex),
+                                                         x -> ESuccess.SUCCESS,
+                                                         () -> {});
+    aSender.close ();
+
+    // Twice, to ensure the in-flight permit is released
+    for (int i = 0; i < 2; ++i)
+    {
+      final CompletableFuture <ESimpleUserMessageSendResult> aFuture = aSender.submit (Phase4PeppolSender.builder ()
+                                                                                                         .endpointURL (AP1));
+      try
+      {
+        aFuture.get (1, TimeUnit.MINUTES);
+        fail ();
+      }
+      catch (final ExecutionException ex)
+      {
+        assertTrue (ex.getCause () instanceof RejectedExecutionException);
+      }
+    }
+    assertEquals (0, aSender.m_aSendCount.get ());
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.phive.api.result.ValidationResultList;
+import com.helger.phive.peppol.PeppolValidation3_14_0;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link Phase4PeppolValidation}
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolValidationTest
+{
+  private static final class KeepingResultHandler implements IPhase4PeppolValidationResultHandler
+  {
+    private final Wrapper <ValidationResultList> m_aResult = new Wrapper <> ();
+
+    public void onValidationSuccess (final ValidationResultList aValidationResult)
+    {
+      m_aResult.set (aValidationResult);
+    }
+
+    public void onValidationErrors (final ValidationResultList aValidationResult)
+    {
+      m_aResult.set (aValidationResult);
+    }
+  }
+
+  @Test
+  public void testParallelLayers () throws Exception
+  {
+    final Element aPayloadElement = DOMReader.readXMLDOM (new File ("src/test/resources/examples/base-example.xml"))
+                                             .getDocumentElement ();
+    assertNotNull (aPayloadElement);
+
+    final KeepingResultHandler aSequential = new KeepingResultHandler ();
+    Phase4PeppolValidation.validateOutgoingBusinessDocument (aPayloadElement,
+                                                             Phase4PeppolValidation.getDefaultRegistry (),
+                                                             PeppolValidation3_14_0.VID_OPENPEPPOL_INVOICE_UBL_V3,
+                                                             aSequential,
+                                                             false);
+
+    final KeepingResultHandler aParallel = new KeepingResultHandler ();
+    Phase4PeppolValidation.validateOutgoingBusinessDocument (aPayloadElement,
+                                                             Phase4PeppolValidation.getDefaultRegistry (),
+                                                             PeppolValidation3_14_0.VID_OPENPEPPOL_INVOICE_UBL_V3,
+                                                             aParallel,
+                                                             true);
+
+    final ValidationResultList aSeqResult = aSequential.m_aResult.get ();
+    final ValidationResultList aParResult = aParallel.m_aResult.get ();
+    assertNotNull (aSeqResult);
+    assertNotNull (aParResult);
+    assertEquals (aSeqResult.size (), aParResult.size ());
+    assertEquals (Boolean.valueOf (aSeqResult.containsAtLeastOneError ()),
+                  Boolean.valueOf (aParResult.containsAtLeastOneError ()));
+
+    // Asynchronous as well
+    final KeepingResultHandler aAsync = new KeepingResultHandler ();
+    Phase4PeppolValidation.validateOutgoingBusinessDocumentAsync (aPayloadElement,
+                                                                  null,
+                                                                  PeppolValidation3_14_0.VID_OPENPEPPOL_INVOICE_UBL_V3,
+                                                                  aAsync,
+                                                                  true)
+                          .get ();
+    assertEquals (aSeqResult.size (), aAsync.m_aResult.get ().size ());
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.receivers;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.peppol.sml.ESML;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.phase4.http.HttpRetrySettings;
+import com.helger.phase4.peppol.Phase4PeppolBatchSender;
+import com.helger.phase4.peppol.Phase4PeppolSender;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+import com.helger.servlet.mock.MockServletContext;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+import com.helger.web.scope.mgr.WebScopeManager;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Example for sending many documents to the Qvalia [SE] test endpoint using
+ * the {@link Phase4PeppolBatchSender}.
+ *
+ * @author Philip Helger
+ */
+public final class MainSendInBatch
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainSendInBatch.class);
+
+  public static void main (final String [] args) throws Exception
+  {
+    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+
+    try
+    {
+      final Element aPayloadElement = DOMReader.readXMLDOM (new File ("src/test/resources/examples/base-example.xml"))
+                                               .getDocumentElement ();
+      if (aPayloadElement == null)
+        throw new IllegalStateException ("Failed to read XML file to be send");
+
+      final IParticipantIdentifier aReceiverID = Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("0007:5567321707");
+      final SMPClientReadOnly aSMPClient = new SMPClientReadOnly (Phase4PeppolSender.URL_PROVIDER,
+                                                                  aReceiverID,
+                                                                  ESML.DIGIT_TEST);
+
+      try (final Phase4PeppolBatchSender aBatchSender = new Phase4PeppolBatchSender ())
+      {
+        final ICommonsList <CompletableFuture <ESimpleUserMessageSendResult>> aResults;
+        aResults = aBatchSender.submitAll (IntStream.range (0, 100)
+                                                    .mapToObj (i -> Phase4PeppolSender.builder ()
+                                                                                      .httpRetrySettings (new HttpRetrySettings ().setMaxRetries (0))
+                                                                                      .documentTypeID (Phase4PeppolSender.IF.createDocumentTypeIdentifierWithDefaultScheme ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1"))
+                                                                                      .processID (Phase4PeppolSender.IF.createProcessIdentifierWithDefaultScheme ("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0"))
+                                                                                      .senderParticipantID (Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:phase4-test-sender"))
+                                                                                      .receiverParticipantID (aReceiverID)
+                                                                                      .senderPartyID ("POP000306")
+                                                                                      // DOM nodes are not thread-safe
+                                                                                      .payload ((Element) aPayloadElement.cloneNode (true))
+                                                                                      .smpClient (aSMPClient)));
+
+        int nIndex = 0;
+        for (final CompletableFuture <ESimpleUserMessageSendResult> aResult : aResults)
+          LOGGER.info ("Peppol send result [" + nIndex++ + "]: " + aResult.get ());
+      }
+    }
+    finally
+    {
+      WebScopeManager.onGlobalEnd ();
+    }
+  }
+}
@@ -22,10 +22,15 @@ import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
 
 import com.helger.commons.annotation.IsSPIInterface;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.peppol.sbdh.PeppolSBDHDocument;
+import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReader;
+import com.helger.peppolid.factory.SimpleIdentifierFactory;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.servlet.IAS4MessageState;
+import com.helger.sbdh.builder.SBDHReader;
 
 /**
  * This is the interface that must be implemented to handle incoming SBD
@@ -84,4 +89,69 @@ public interface IPhase4PeppolIncomingSBDHandlerSPI
   {
     return false;
   }
+
+  /**
+   * Check if this handler supports the streaming mode. Streaming is only used
+   * if it is enabled in {@link Phase4PeppolServletConfiguration} and if at
+   * least one registered handler supports it.
+   *
+   * @return <code>true</code> if
+   *         {@link #handleIncomingSBDStreaming(IAS4IncomingMessageMetadata, HttpHeaderMap, Ebms3UserMessage, IHasInputStream, PeppolSBDHDocument, IAS4MessageState)}
+   *         is implemented, <code>false</code> if the default implementation
+   *         is used. By default it is not.
+   * @since 1.4.1
+   */
+  default boolean isStreamingSupported ()
+  {
+    return false;
+  }
+
+  /**
+   * Handle the provided incoming StandardBusinessDocument in streaming mode.
+   * Only the SBDH was parsed, the business message was not read into memory.
+   * The stream provider is only valid for the duration of this call, because
+   * temporary files are deleted after the message processing finished.<br>
+   * The default implementation reads the complete SBD into memory and calls
+   * {@link #handleIncomingSBD(IAS4IncomingMessageMetadata, HttpHeaderMap, Ebms3UserMessage, byte[], StandardBusinessDocument, PeppolSBDHDocument, IAS4MessageState)}.
+   *
+   * @param aMessageMetadata
+   *        Message metadata. Includes data when and from whom it was received.
+   *        Never <code>null</code>.
+   * @param aHeaders
+   *        The (HTTP) headers of the incoming request. Never <code>null</code>.
+   * @param aUserMessage
+   *        The received EBMS user message. Never <code>null</code>.
+   * @param aSBDStreamProvider
+   *        The provider for the complete SBD (header and business message).
+   *        It can be read multiple times. Never <code>null</code>.
+   * @param aPeppolSBD
+   *        The pre-parsed Peppol Standard Business Document. The contained
+   *        business message is only an empty placeholder element with the
+   *        correct namespace URI and local name. Never <code>null</code>.
+   * @param aState
+   *        The message state. Never <code>null</code>.
+   * @throws Exception
+   *         In case it cannot be processed.
+   * @since 1.4.1
+   */
+  default void handleIncomingSBDStreaming (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nonnull final HttpHeaderMap aHeaders,
+                                           @Nonnull final Ebms3UserMessage aUserMessage,
+                                           @Nonnull final IHasInputStream aSBDStreamProvider,
+                                           @Nonnull final PeppolSBDHDocument aPeppolSBD,
+                                           @Nonnull final IAS4MessageState aState) throws Exception
+  {
+    final byte [] aSBDBytes = StreamHelper.getAllBytes (aSBDStreamProvider.getInputStream ());
+    if (aSBDBytes == null)
+      throw new IllegalStateException ("Failed to read the SBD bytes");
+
+    final StandardBusinessDocument aSBD = SBDHReader.standardBusinessDocument ().read (aSBDBytes);
+    if (aSBD == null)
+      throw new IllegalStateException ("Failed to read the SBD");
+
+    // The provided Peppol SBD only contains a placeholder business message
+    final PeppolSBDHDocument aFullPeppolSBD = new PeppolSBDHDocumentReader (SimpleIdentifierFactory.INSTANCE).setPerformValueChecks (Phase4PeppolServletConfiguration.isPerformSBDHValueChecks ())
+                                                                                                          .extractData (aSBD);
+    handleIncomingSBD (aMessageMetadata, aHeaders, aUserMessage, aSBDBytes, aSBD, aFullPeppolSBD, aState);
+  }
 }
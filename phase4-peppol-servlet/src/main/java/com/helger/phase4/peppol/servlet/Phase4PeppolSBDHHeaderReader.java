@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEvent;
+import javax.xml.bind.ValidationEventHandler;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
+
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocumentHeader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.StringHelper;
+import com.helger.sbdh.CSBDH;
+import com.helger.sbdh.builder.ESBDHDocumentType;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Read only the Standard Business Document Header of an SBD using StAX,
+ * without building a DOM of the contained business message. The resulting
+ * {@link StandardBusinessDocument} contains the full header and an empty
+ * placeholder element that has the namespace URI and local name of the
+ * business message root element, so that it can be used with the Peppol SBDH
+ * reader for the addressing checks.<br>
+ * The header is validated against the SBDH XML Schema while it is read.
+ *
+ * @author Philip Helger
+ * @since 1.4.1
+ */
+@Immutable
+public final class Phase4PeppolSBDHHeaderReader
+{
+  private static final String ELEMENT_SBD = "StandardBusinessDocument";
+  private static final String ELEMENT_SBDH = "StandardBusinessDocumentHeader";
+
+  private static final XMLInputFactory XML_INPUT_FACTORY;
+  private static final JAXBContext JAXB_CONTEXT;
+  private static final Schema SBDH_SCHEMA;
+
+  static
+  {
+    XML_INPUT_FACTORY = XMLInputFactory.newInstance ();
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    // Avoid XXE attacks
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+    try
+    {
+      JAXB_CONTEXT = JAXBContext.newInstance (StandardBusinessDocumentHeader.class);
+    }
+    catch (final JAXBException ex)
+    {
+      throw new IllegalStateException ("Failed to create JAXB context for the SBDH", ex);
+    }
+    SBDH_SCHEMA = ESBDHDocumentType.STANDARD_BUSINESS_DOCUMENT.getSchema ();
+    if (SBDH_SCHEMA == null)
+      throw new IllegalStateException ("Failed to load the SBDH XML Schema");
+  }
+
+  private Phase4PeppolSBDHHeaderReader ()
+  {}
+
+  private static void _expectStartElement (@Nonnull final XMLStreamReader aReader,
+                                           @Nonnull final String sLocalName) throws XMLStreamException
+  {
+    if (aReader.getEventType () != XMLStreamConstants.START_ELEMENT ||
+        !CSBDH.SBDH_NS.equals (aReader.getNamespaceURI ()) ||
+        !sLocalName.equals (aReader.getLocalName ()))
+      throw new XMLStreamException ("Expected element {" + CSBDH.SBDH_NS + "}" + sLocalName, aReader.getLocation ());
+  }
+
+  /**
+   * Read the Standard Business Document Header from the provided input
+   * stream. Only the header and the start tag of the business message are
+   * read - the rest of the stream stays untouched. Every schema violation of
+   * the header is considered an error.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. The
+   *        stream is not closed by this method.
+   * @return The Standard Business Document with the parsed header and a
+   *         placeholder business message element. Never <code>null</code>.
+   * @throws XMLStreamException
+   *         In case the XML is not well-formed or does not follow the SBDH
+   *         structure
+   * @throws JAXBException
+   *         In case the header could not be unmarshalled or is not valid
+   *         according to the SBDH XML Schema
+   */
+  @Nonnull
+  public static StandardBusinessDocument readHeaderOnly (@Nonnull @WillNotClose final InputStream aIS) throws XMLStreamException,
+                                                                                                        JAXBException
+  {
+    // Only continue on warnings
+    return readHeaderOnly (aIS, aEvent -> aEvent.getSeverity () == ValidationEvent.WARNING);
+  }
+
+  /**
+   * Read the Standard Business Document Header from the provided input
+   * stream. Only the header and the start tag of the business message are
+   * read - the rest of the stream stays untouched.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. The
+   *        stream is not closed by this method.
+   * @param aEventHandler
+   *        The handler for the schema validation events of the header. May not
+   *        be <code>null</code>. If it decides to continue on errors, the
+   *        caller is responsible to evaluate them.
+   * @return The Standard Business Document with the parsed header and a
+   *         placeholder business message element. Never <code>null</code>.
+   * @throws XMLStreamException
+   *         In case the XML is not well-formed or does not follow the SBDH
+   *         structure
+   * @throws JAXBException
+   *         In case the header could not be unmarshalled
+   */
+  @Nonnull
+  public static StandardBusinessDocument readHeaderOnly (@Nonnull @WillNotClose final InputStream aIS,
+                                                         @Nonnull final ValidationEventHandler aEventHandler) throws XMLStreamException,
+                                                                                                              JAXBException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.notNull (aEventHandler, "EventHandler");
+
+    final XMLStreamReader aReader = XML_INPUT_FACTORY.createXMLStreamReader (aIS);
+    try
+    {
+      aReader.nextTag ();
+      _expectStartElement (aReader, ELEMENT_SBD);
+      aReader.nextTag ();
+      _expectStartElement (aReader, ELEMENT_SBDH);
+
+      // Unmarshal only the header; the reader is afterwards positioned after
+      // the closing header element
+      final Unmarshaller aUnmarshaller = JAXB_CONTEXT.createUnmarshaller ();
+      aUnmarshaller.setSchema (SBDH_SCHEMA);
+      aUnmarshaller.setEventHandler (aEventHandler);
+      final StandardBusinessDocumentHeader aHeader = aUnmarshaller.unmarshal (aReader, StandardBusinessDocumentHeader.class)
+                                                                  .getValue ();
+
+      // Skip whitespaces and comments up to the business message
+      int nEvent = aReader.getEventType ();
+      while (nEvent != XMLStreamConstants.START_ELEMENT &&
+             nEvent != XMLStreamConstants.END_ELEMENT &&
+             nEvent != XMLStreamConstants.END_DOCUMENT)
+        nEvent = aReader.next ();
+      if (nEvent != XMLStreamConstants.START_ELEMENT)
+        throw new XMLStreamException ("The Standard Business Document contains no business message",
+                                      aReader.getLocation ());
+
+      // Create an empty placeholder with the same QName as the business
+      // message root element
+      final String sPrefix = aReader.getPrefix ();
+      final String sLocalName = aReader.getLocalName ();
+      final Document aDoc = XMLFactory.newDocument ();
+      final Element eBusinessMessage = aDoc.createElementNS (aReader.getNamespaceURI (),
+                                                             StringHelper.hasText (sPrefix) ? sPrefix +
+                                                                                              ":" +
+                                                                                              sLocalName
+                                                                                            : sLocalName);
+      aDoc.appendChild (eBusinessMessage);
+
+      final StandardBusinessDocument ret = new StandardBusinessDocument ();
+      ret.setStandardBusinessDocumentHeader (aHeader);
+      ret.setAny (eBusinessMessage);
+      return ret;
+    }
+    finally
+    {
+      // Does not close the underlying input stream
+      aReader.close ();
+    }
+  }
+}
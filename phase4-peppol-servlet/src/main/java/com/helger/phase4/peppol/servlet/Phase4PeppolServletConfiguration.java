@@ -40,6 +40,8 @@ import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
 public final class Phase4PeppolServletConfiguration
 {
   public static final boolean DEFAULT_RECEIVER_CHECK_ENABLED = true;
+  /** @since 1.4.1 */
+  public static final boolean DEFAULT_STREAMING_SBDH_HANDLING = false;
   private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolServletConfiguration.class);
 
   private static boolean s_bReceiverCheckEnabled = DEFAULT_RECEIVER_CHECK_ENABLED;
@@ -47,6 +49,7 @@ public final class Phase4PeppolServletConfiguration
   private static String s_sAS4EndpointURL;
   private static X509Certificate s_aAPCertificate;
   private static boolean s_bPerformSBDHValueChecks = PeppolSBDHDocumentReader.DEFAULT_PERFORM_VALUE_CHECKS;
+  private static boolean s_bStreamingSBDHHandling = DEFAULT_STREAMING_SBDH_HANDLING;
 
   private Phase4PeppolServletConfiguration ()
   {}
@@ -198,4 +201,38 @@ public final class Phase4PeppolServletConfiguration
         LOGGER.warn (CAS4.LIB_NAME + " Peppol SBDH value checks are now disabled");
     }
   }
+
+  /**
+   * @return <code>true</code> if incoming SBDs are handled in streaming mode,
+   *         <code>false</code> if they are fully read into memory. Default is
+   *         {@value #DEFAULT_STREAMING_SBDH_HANDLING}.
+   * @since 1.4.1
+   */
+  public static boolean isStreamingSBDHHandling ()
+  {
+    return s_bStreamingSBDHHandling;
+  }
+
+  /**
+   * Enable or disable the streaming handling of incoming SBDs. In streaming
+   * mode only the SBDH is parsed for the Peppol checks and the payload is
+   * handed to the handlers as a re-readable stream. This only takes effect,
+   * if at least one registered {@link IPhase4PeppolIncomingSBDHandlerSPI}
+   * instance supports streaming. Handlers that don't support streaming read
+   * the payload into memory themselves.
+   *
+   * @param bStreamingSBDHHandling
+   *        <code>true</code> to enable streaming, <code>false</code> to
+   *        disable it
+   * @since 1.4.1
+   */
+  public static void setStreamingSBDHHandling (final boolean bStreamingSBDHHandling)
+  {
+    final boolean bChange = bStreamingSBDHHandling != s_bStreamingSBDHHandling;
+    s_bStreamingSBDHHandling = bStreamingSBDHHandling;
+    if (bChange)
+      LOGGER.info (CAS4.LIB_NAME +
+                   " Peppol streaming SBDH handling is now " +
+                   (bStreamingSBDHHandling ? "enabled" : "disabled"));
+  }
 }
@@ -16,8 +16,10 @@
  */
 package com.helger.phase4.peppol.servlet;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
@@ -25,12 +27,15 @@ import java.util.Locale;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
 import org.w3c.dom.Node;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.IsSPIImplementation;
 import com.helger.commons.annotation.Nonempty;
@@ -43,6 +48,10 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.ServiceLoaderHelper;
@@ -61,6 +70,7 @@ import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4Attachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3Property;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
@@ -72,6 +82,7 @@ import com.helger.phase4.servlet.IAS4MessageState;
 import com.helger.phase4.servlet.spi.AS4MessageProcessorResult;
 import com.helger.phase4.servlet.spi.AS4SignalMessageProcessorResult;
 import com.helger.phase4.servlet.spi.IAS4ServletMessageProcessorSPI;
+import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.sbdh.builder.SBDHReader;
 import com.helger.security.certificate.CertificateHelper;
@@ -98,6 +109,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     private Charset m_aCharset;
     private EAS4CompressionMode m_eCompressionMode;
     private byte [] m_aPayloadBytes;
+    private IHasInputStream m_aPayloadISP;
     private StandardBusinessDocument m_aSBDH;
 
     private ReadAttachment ()
@@ -140,6 +152,12 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
       return m_aPayloadBytes;
     }
 
+    @Nullable
+    public IHasInputStream getPayloadStreamProvider ()
+    {
+      return m_aPayloadISP;
+    }
+
     @Nonnull
     @ReturnsMutableObject
     public StandardBusinessDocument standardBusinessDocument ()
@@ -365,6 +383,70 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
       LOGGER.debug (sLogPrefix + "The certificate of the SMP lookup matches our certificate");
   }
 
+  /**
+   * Get a stream provider for the decompressed attachment content that can be
+   * read multiple times. If the attachment is already backed by memory or a
+   * file, it is used as is. Otherwise the content is copied once - small
+   * payloads are kept in memory, large payloads are spooled to a temporary
+   * file that is deleted at the end of the message processing.
+   */
+  @Nonnull
+  private static IHasInputStream _getRepeatableStreamProvider (@Nonnull final String sLogPrefix,
+                                                              @Nonnull final IAS4Attachment aAttachment,
+                                                              @Nonnull final AS4ResourceHelper aResHelper) throws IOException
+  {
+    if (aAttachment.isRepeatable ())
+      return aAttachment.getInputStreamProvider ();
+
+    final long nMaxInMemoryBytes = AS4Configuration.getIncomingAttachmentInMemoryMaxBytes ();
+    final byte [] aBuffer = new byte [16 * CGlobal.BYTES_PER_KILOBYTE];
+    try (final InputStream aSIS = aAttachment.getSourceStream ();
+         final NonBlockingByteArrayOutputStream aMemOS = new NonBlockingByteArrayOutputStream ())
+    {
+      File aTempFile = null;
+      OutputStream aFileOS = null;
+      try
+      {
+        long nTotalBytes = 0;
+        int nRead;
+        while ((nRead = aSIS.read (aBuffer)) > -1)
+        {
+          nTotalBytes += nRead;
+          if (aFileOS == null && nTotalBytes > nMaxInMemoryBytes)
+          {
+            // Switch to temp file
+            aTempFile = aResHelper.createTempFile ();
+            if (LOGGER.isDebugEnabled ())
+              LOGGER.debug (sLogPrefix + "Spooling SBD to temporary file '" + aTempFile.getAbsolutePath () + "'");
+
+            aFileOS = FileHelper.getBufferedOutputStream (aTempFile);
+            if (aFileOS == null)
+              throw new IOException ("Failed to open temporary file '" + aTempFile.getAbsolutePath () + "' for writing");
+            aMemOS.writeTo (aFileOS);
+            aMemOS.reset ();
+          }
+
+          if (aFileOS != null)
+            aFileOS.write (aBuffer, 0, nRead);
+          else
+            aMemOS.write (aBuffer, 0, nRead);
+        }
+      }
+      finally
+      {
+        StreamHelper.close (aFileOS);
+      }
+
+      if (aTempFile == null)
+      {
+        final byte [] aData = aMemOS.toByteArray ();
+        return HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aData));
+      }
+      final File aFinalTempFile = aTempFile;
+      return HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aFinalTempFile));
+    }
+  }
+
   @Nonnull
   public AS4MessageProcessorResult processAS4UserMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
                                                           @Nonnull final HttpHeaderMap aHttpHeaders,
@@ -413,6 +495,13 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         LOGGER.debug (sLogPrefix + "  SOAP Body Payload = " + XMLWriter.getNodeAsString (aPayload));
     }
 
+    // Streaming is used, if at least one handler supports it. The others
+    // read the payload into memory themselves
+    final boolean bStreaming = Phase4PeppolServletConfiguration.isStreamingSBDHHandling () &&
+                               m_aHandlers.containsAny (IPhase4PeppolIncomingSBDHandlerSPI::isStreamingSupported);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug (sLogPrefix + "Using " + (bStreaming ? "streaming" : "in-memory") + " SBDH handling");
+
     // Read all attachments
     final ICommonsList <ReadAttachment> aReadAttachments = new CommonsArrayList <> ();
     if (aIncomingAttachments != null)
@@ -426,19 +515,35 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         a.m_sUncompressedMimeType = aIncomingAttachment.getUncompressedMimeType ();
         a.m_aCharset = aIncomingAttachment.getCharset ();
         a.m_eCompressionMode = aIncomingAttachment.getCompressionMode ();
-        try (final InputStream aSIS = aIncomingAttachment.getSourceStream ())
+        if (bStreaming)
         {
-          final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
-          if (StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aSIS, aBAOS).isSuccess ())
+          try
           {
-            a.m_aPayloadBytes = aBAOS.getBufferOrCopy ();
+            a.m_aPayloadISP = _getRepeatableStreamProvider (sLogPrefix,
+                                                           aIncomingAttachment,
+                                                           aState.getResourceHelper ());
+          }
+          catch (final IOException | AS4DecompressException ex)
+          {
+            // Fall through
           }
         }
-        catch (final IOException | AS4DecompressException ex)
+        else
         {
-          // Fall through
+          try (final InputStream aSIS = aIncomingAttachment.getSourceStream ())
+          {
+            final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+            if (StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aSIS, aBAOS).isSuccess ())
+            {
+              a.m_aPayloadBytes = aBAOS.getBufferOrCopy ();
+            }
+          }
+          catch (final IOException | AS4DecompressException ex)
+          {
+            // Fall through
+          }
         }
-        if (a.m_aPayloadBytes == null)
+        if (a.m_aPayloadBytes == null && a.m_aPayloadISP == null)
         {
           if (LOGGER.isErrorEnabled ())
             LOGGER.error (sLogPrefix + "Failed to decompress the payload");
@@ -447,36 +552,69 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
           return AS4MessageProcessorResult.createFailure (null);
         }
 
-        // Read data as SBDH
-        // Hint for production systems: this may take a huge amount of memory,
-        // if the payload is large
         final ErrorList aSBDHErrors = new ErrorList ();
-        a.m_aSBDH = SBDHReader.standardBusinessDocument ()
-                              .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aSBDHErrors))
-                              .read (a.m_aPayloadBytes);
+        String sSBDHReadError = null;
+        if (bStreaming)
+        {
+          // Read only the SBDH - the business message is not parsed
+          try (final InputStream aSIS = a.m_aPayloadISP.getInputStream ())
+          {
+            a.m_aSBDH = Phase4PeppolSBDHHeaderReader.readHeaderOnly (aSIS,
+                                                                     new WrappedCollectingValidationEventHandler (aSBDHErrors));
+            if (aSBDHErrors.containsAtLeastOneError ())
+              a.m_aSBDH = null;
+          }
+          catch (final IOException | XMLStreamException | JAXBException | AS4DecompressException ex)
+          {
+            // Schema violations are reported via the error list
+            if (aSBDHErrors.isEmpty ())
+              sSBDHReadError = "Failed to read the provided SBDH document. Technical details: " +
+                               ex.getClass ().getName () +
+                               " - " +
+                               ex.getMessage ();
+          }
+        }
+        else
+        {
+          // Read data as SBDH
+          // Hint for production systems: this may take a huge amount of
+          // memory, if the payload is large
+          a.m_aSBDH = SBDHReader.standardBusinessDocument ()
+                                .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aSBDHErrors))
+                                .read (a.m_aPayloadBytes);
+        }
         if (a.m_aSBDH == null)
         {
-          if (aSBDHErrors.isEmpty ())
+          if (sSBDHReadError != null)
           {
-            final String sMsg = "Failed to read the provided SBDH document";
             if (LOGGER.isErrorEnabled ())
-              LOGGER.error (sLogPrefix + sMsg);
+              LOGGER.error (sLogPrefix + sSBDHReadError);
             aProcessingErrorMessages.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (aDisplayLocale,
                                                                                  aState.getMessageID (),
-                                                                                 sMsg));
+                                                                                 sSBDHReadError));
           }
           else
-          {
-            for (final IError aError : aSBDHErrors)
+            if (aSBDHErrors.isEmpty ())
             {
-              final String sMsg = "Peppol SBDH Issue: " + aError.getAsString (aDisplayLocale);
+              final String sMsg = "Failed to read the provided SBDH document";
               if (LOGGER.isErrorEnabled ())
                 LOGGER.error (sLogPrefix + sMsg);
               aProcessingErrorMessages.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (aDisplayLocale,
                                                                                    aState.getMessageID (),
                                                                                    sMsg));
             }
-          }
+            else
+            {
+              for (final IError aError : aSBDHErrors)
+              {
+                final String sMsg = "Peppol SBDH Issue: " + aError.getAsString (aDisplayLocale);
+                if (LOGGER.isErrorEnabled ())
+                  LOGGER.error (sLogPrefix + sMsg);
+                aProcessingErrorMessages.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (aDisplayLocale,
+                                                                                     aState.getMessageID (),
+                                                                                     sMsg));
+              }
+            }
 
           return AS4MessageProcessorResult.createFailure (null);
         }
@@ -495,7 +633,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
                         "] and [" +
                         StringHelper.getToString (a.m_aCharset, "no charset") +
                         "] and length is " +
-                        (a.m_aPayloadBytes == null ? "<error>" : Integer.toString (a.m_aPayloadBytes.length)) +
+                        (a.m_aPayloadBytes == null ? "<streamed>" : Integer.toString (a.m_aPayloadBytes.length)) +
                         " bytes" +
                         (a.m_eCompressionMode == null ? "" : " of compressed payload"));
         nAttachmentIndex++;
@@ -614,13 +752,21 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         {
           if (LOGGER.isDebugEnabled ())
             LOGGER.debug (sLogPrefix + "Invoking Peppol handler " + aHandler);
-          aHandler.handleIncomingSBD (aMessageMetadata,
-                                      aHttpHeaders.getClone (),
-                                      aUserMessage.clone (),
-                                      aReadAttachment.payloadBytes (),
-                                      aReadAttachment.standardBusinessDocument (),
-                                      aPeppolSBD,
-                                      aState);
+          if (bStreaming)
+            aHandler.handleIncomingSBDStreaming (aMessageMetadata,
+                                                 aHttpHeaders.getClone (),
+                                                 aUserMessage.clone (),
+                                                 aReadAttachment.getPayloadStreamProvider (),
+                                                 aPeppolSBD,
+                                                 aState);
+          else
+            aHandler.handleIncomingSBD (aMessageMetadata,
+                                        aHttpHeaders.getClone (),
+                                        aUserMessage.clone (),
+                                        aReadAttachment.payloadBytes (),
+                                        aReadAttachment.standardBusinessDocument (),
+                                        aPeppolSBD,
+                                        aState);
         }
         catch (final Exception ex)
         {
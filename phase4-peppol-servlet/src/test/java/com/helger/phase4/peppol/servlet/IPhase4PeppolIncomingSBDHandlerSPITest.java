@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.streamprovider.ByteArrayInputStreamProvider;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.peppol.sbdh.PeppolSBDHDocument;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+
+/**
+ * Test class for class {@link IPhase4PeppolIncomingSBDHandlerSPI}.
+ *
+ * @author Philip Helger
+ */
+public final class IPhase4PeppolIncomingSBDHandlerSPITest
+{
+  private static final String SBD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                                    "<StandardBusinessDocument xmlns=\"http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader\">" +
+                                    "<StandardBusinessDocumentHeader>" +
+                                    "<HeaderVersion>1.0</HeaderVersion>" +
+                                    "<Sender><Identifier Authority=\"iso6523-actorid-upis\">9915:test</Identifier></Sender>" +
+                                    "<Receiver><Identifier Authority=\"iso6523-actorid-upis\">9915:test2</Identifier></Receiver>" +
+                                    "<DocumentIdentification>" +
+                                    "<Standard>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2</Standard>" +
+                                    "<TypeVersion>2.1</TypeVersion>" +
+                                    "<InstanceIdentifier>abc</InstanceIdentifier>" +
+                                    "<Type>Invoice</Type>" +
+                                    "<CreationDateAndTime>2022-01-01T12:00:00Z</CreationDateAndTime>" +
+                                    "</DocumentIdentification>" +
+                                    "<BusinessScope>" +
+                                    "<Scope><Type>DOCUMENTID</Type>" +
+                                    "<InstanceIdentifier>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1</InstanceIdentifier>" +
+                                    "<Identifier>busdox-docid-qns</Identifier></Scope>" +
+                                    "<Scope><Type>PROCESSID</Type>" +
+                                    "<InstanceIdentifier>urn:fdc:peppol.eu:2017:poacc:billing:01:1.0</InstanceIdentifier>" +
+                                    "<Identifier>cenbii-procid-ubl</Identifier></Scope>" +
+                                    "</BusinessScope>" +
+                                    "</StandardBusinessDocumentHeader>" +
+                                    "<inv:Invoice xmlns:inv=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"><inv:ID>1</inv:ID></inv:Invoice>" +
+                                    "</StandardBusinessDocument>";
+
+  @Test
+  public void testDefaultStreamingDelegatesToInMemory () throws Exception
+  {
+    final byte [] aSBDBytes = SBD.getBytes (StandardCharsets.UTF_8);
+    final Wrapper <byte []> aReceivedBytes = new Wrapper <> ();
+    final Wrapper <PeppolSBDHDocument> aReceivedPeppolSBD = new Wrapper <> ();
+    final IPhase4PeppolIncomingSBDHandlerSPI aHandler = (aMessageMetadata,
+                                                         aHeaders,
+                                                         aUserMessage,
+                                                         aBytes,
+                                                         aSBD,
+                                                         aPeppolSBD,
+                                                         aState) -> {
+      assertNotNull (aSBD.getStandardBusinessDocumentHeader ());
+      aReceivedBytes.set (aBytes);
+      aReceivedPeppolSBD.set (aPeppolSBD);
+    };
+
+    // Only the in-memory variant is implemented
+    aHandler.handleIncomingSBDStreaming (null,
+                                         new HttpHeaderMap (),
+                                         new Ebms3UserMessage (),
+                                         new ByteArrayInputStreamProvider (aSBDBytes),
+                                         null,
+                                         null);
+
+    assertArrayEquals (aSBDBytes, aReceivedBytes.get ());
+    assertNotNull (aReceivedPeppolSBD.get ());
+    assertEquals ("abc", aReceivedPeppolSBD.get ().getInstanceIdentifier ());
+    // The complete business message is available
+    final Element eBusinessMessage = aReceivedPeppolSBD.get ().getBusinessMessage ();
+    assertEquals ("Invoice", eBusinessMessage.getLocalName ());
+    assertTrue (eBusinessMessage.hasChildNodes ());
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.w3c.dom.Element;
+
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.jaxb.validation.WrappedCollectingValidationEventHandler;
+
+/**
+ * Test class for class {@link Phase4PeppolSBDHHeaderReader}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolSBDHHeaderReaderTest
+{
+  private static final String SBDH_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                                           "<StandardBusinessDocument xmlns=\"http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader\">" +
+                                           "<StandardBusinessDocumentHeader>" +
+                                           "<HeaderVersion>1.0</HeaderVersion>" +
+                                           "<Sender><Identifier Authority=\"iso6523-actorid-upis\">9915:test</Identifier></Sender>" +
+                                           "<Receiver><Identifier Authority=\"iso6523-actorid-upis\">9915:test2</Identifier></Receiver>" +
+                                           "<DocumentIdentification>" +
+                                           "<Standard>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2</Standard>" +
+                                           "<TypeVersion>2.1</TypeVersion>" +
+                                           "<InstanceIdentifier>abc</InstanceIdentifier>" +
+                                           "<Type>Invoice</Type>" +
+                                           "<CreationDateAndTime>2022-01-01T12:00:00Z</CreationDateAndTime>" +
+                                           "</DocumentIdentification>" +
+                                           "</StandardBusinessDocumentHeader>";
+
+  @Test
+  public void testReadHeaderOnly () throws Exception
+  {
+    final String sXML = SBDH_START +
+                        "<!-- comment -->\n" +
+                        "<inv:Invoice xmlns:inv=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"><ID>1</ID></inv:Invoice>" +
+                        "</StandardBusinessDocument>";
+    final StandardBusinessDocument aSBD = Phase4PeppolSBDHHeaderReader.readHeaderOnly (new NonBlockingByteArrayInputStream (sXML.getBytes (StandardCharsets.UTF_8)));
+    assertNotNull (aSBD);
+    assertNotNull (aSBD.getStandardBusinessDocumentHeader ());
+    assertEquals ("9915:test", aSBD.getStandardBusinessDocumentHeader ().getSender ().get (0).getIdentifier ().getValue ());
+    assertEquals ("abc", aSBD.getStandardBusinessDocumentHeader ().getDocumentIdentification ().getInstanceIdentifier ());
+
+    assertTrue (aSBD.getAny () instanceof Element);
+    final Element eBusinessMessage = (Element) aSBD.getAny ();
+    assertEquals ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2", eBusinessMessage.getNamespaceURI ());
+    assertEquals ("Invoice", eBusinessMessage.getLocalName ());
+    // Placeholder only
+    assertEquals (0, eBusinessMessage.getChildNodes ().getLength ());
+  }
+
+  @Test
+  public void testNoBusinessMessage () throws Exception
+  {
+    final String sXML = SBDH_START + "</StandardBusinessDocument>";
+    try
+    {
+      Phase4PeppolSBDHHeaderReader.readHeaderOnly (new NonBlockingByteArrayInputStream (sXML.getBytes (StandardCharsets.UTF_8)));
+      fail ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWrongRootElement () throws Exception
+  {
+    final String sXML = "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"/>";
+    try
+    {
+      Phase4PeppolSBDHHeaderReader.readHeaderOnly (new NonBlockingByteArrayInputStream (sXML.getBytes (StandardCharsets.UTF_8)));
+      fail ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSchemaViolation () throws Exception
+  {
+    // HeaderVersion is missing
+    final String sXML = SBDH_START.replace ("<HeaderVersion>1.0</HeaderVersion>", "") +
+                        "<inv:Invoice xmlns:inv=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"/>" +
+                        "</StandardBusinessDocument>";
+    try
+    {
+      Phase4PeppolSBDHHeaderReader.readHeaderOnly (new NonBlockingByteArrayInputStream (sXML.getBytes (StandardCharsets.UTF_8)));
+      fail ();
+    }
+    catch (final JAXBException ex)
+    {
+      // expected
+    }
+
+    // Collect the errors instead
+    final ErrorList aErrors = new ErrorList ();
+    try
+    {
+      Phase4PeppolSBDHHeaderReader.readHeaderOnly (new NonBlockingByteArrayInputStream (sXML.getBytes (StandardCharsets.UTF_8)),
+                                                   new WrappedCollectingValidationEventHandler (aErrors));
+    }
+    catch (final JAXBException ex)
+    {
+      // Depends on the handler whether processing continues
+    }
+    assertTrue (aErrors.containsAtLeastOneError ());
+  }
+}
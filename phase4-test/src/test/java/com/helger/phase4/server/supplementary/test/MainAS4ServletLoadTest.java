@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.httpclient.response.ResponseHandlerMicroDom;
+import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ScopedConfig;
+import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.AS4CryptoProperties;
+import com.helger.phase4.crypto.ECryptoAlgorithmCrypt;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.profile.cef.AS4CEFProfileRegistarSPI;
+import com.helger.phase4.server.MockJettySetup;
+import com.helger.phase4.server.MockPModeGenerator;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * Load generator that sends signed and encrypted user messages with
+ * {@link AS4ClientUserMessage} from a configurable number of concurrent
+ * threads to an {@link com.helger.phase4.servlet.AS4Servlet}. Reports
+ * throughput, p50/p99/p999 latency, allocation rate and error counts.<br>
+ * By default the embedded Jetty of {@link MockJettySetup} is started in the
+ * same JVM, so nothing external is needed. To test another node (e.g. a
+ * running Peppol servlet), provide its URL via
+ * <code>-Dphase4.loadtest.url=...</code> - the PMode and profile on that node
+ * must match the messages sent.<br>
+ * Supported system properties (with defaults):
+ * <ul>
+ * <li><code>phase4.loadtest.url</code> - target URL (embedded Jetty)</li>
+ * <li><code>phase4.loadtest.threads</code> - number of concurrent senders
+ * (available processors)</li>
+ * <li><code>phase4.loadtest.warmup.seconds</code> - warm up duration (10)</li>
+ * <li><code>phase4.loadtest.duration.seconds</code> - measurement duration
+ * (30)</li>
+ * <li><code>phase4.loadtest.payload.bytes</code> - payload size (4096)</li>
+ * <li><code>phase4.loadtest.attachments</code> - number of attachments each
+ * with the payload size. If 0 the payload is sent in the SOAP body (0)</li>
+ * </ul>
+ * Add <code>-Dphase4.http.pooling.enabled=true</code> to reuse HTTP
+ * connections between messages.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4ServletLoadTest
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4ServletLoadTest.class);
+  private static final String PROPERTY_PREFIX = "phase4.loadtest.";
+  private static final String DEFAULT_AGREEMENT = "urn:as4:agreements:so-that-we-have-a-non-empty-value";
+
+  private MainAS4ServletLoadTest ()
+  {}
+
+  /**
+   * Per thread list of latencies in nanoseconds without boxing.
+   *
+   * @author Philip Helger
+   */
+  private static final class LatencyRecorder
+  {
+    private long [] m_aValues = new long [4096];
+    private int m_nCount = 0;
+
+    void add (final long nNanos)
+    {
+      if (m_nCount == m_aValues.length)
+        m_aValues = Arrays.copyOf (m_aValues, m_nCount * 2);
+      m_aValues[m_nCount++] = nNanos;
+    }
+
+    void reset ()
+    {
+      m_nCount = 0;
+    }
+  }
+
+  /**
+   * The result of one run.
+   *
+   * @author Philip Helger
+   */
+  private static final class RunResult
+  {
+    private final long m_nDurationMillis;
+    private final long m_nSuccessCount;
+    private final long m_nErrorCount;
+    private final long [] m_aSortedLatencies;
+    private final long m_nAllocatedBytes;
+
+    RunResult (final long nDurationMillis,
+               final long nSuccessCount,
+               final long nErrorCount,
+               @Nonnull final long [] aSortedLatencies,
+               final long nAllocatedBytes)
+    {
+      m_nDurationMillis = nDurationMillis;
+      m_nSuccessCount = nSuccessCount;
+      m_nErrorCount = nErrorCount;
+      m_aSortedLatencies = aSortedLatencies;
+      m_nAllocatedBytes = nAllocatedBytes;
+    }
+
+    double getPercentileMillis (final double dPercentile)
+    {
+      if (m_aSortedLatencies.length == 0)
+        return 0;
+      final int nIndex = (int) Math.min (m_aSortedLatencies.length - 1,
+                                         Math.ceil (dPercentile * m_aSortedLatencies.length) - 1);
+      return m_aSortedLatencies[Math.max (0, nIndex)] / 1_000_000d;
+    }
+
+    void log ()
+    {
+      final double dSeconds = Math.max (1, m_nDurationMillis) / 1000d;
+      LOGGER.info ("Sent " + (m_nSuccessCount + m_nErrorCount) + " messages in " + m_nDurationMillis + " ms");
+      LOGGER.info ("  Throughput:      " + Math.round (m_nSuccessCount / dSeconds) + " messages/s");
+      LOGGER.info ("  Errors:          " + m_nErrorCount);
+      LOGGER.info ("  Latency p50:     " + _fmt (getPercentileMillis (0.5)) + " ms");
+      LOGGER.info ("  Latency p99:     " + _fmt (getPercentileMillis (0.99)) + " ms");
+      LOGGER.info ("  Latency p999:    " + _fmt (getPercentileMillis (0.999)) + " ms");
+      LOGGER.info ("  Allocation rate: " + Math.round (m_nAllocatedBytes / dSeconds / 1024 / 1024) + " MB/s");
+    }
+  }
+
+  @Nonnull
+  private static String _fmt (final double d)
+  {
+    return String.format ("%.2f", Double.valueOf (d));
+  }
+
+  private static int _getIntProperty (@Nonnull final String sName, final int nDefault)
+  {
+    return Integer.getInteger (PROPERTY_PREFIX + sName, nDefault).intValue ();
+  }
+
+  @Nonnull
+  private static IAS4CryptoFactory _createCryptoFactory ()
+  {
+    final AS4CryptoProperties aCP = new AS4CryptoProperties ().setKeyStoreType (EKeyStoreType.JKS)
+                                                              .setKeyStorePath ("keys/dummy-pw-test.jks")
+                                                              .setKeyStorePassword ("test")
+                                                              .setKeyAlias ("ph-as4")
+                                                              .setKeyPassword ("test");
+    return new AS4CryptoFactoryProperties (aCP);
+  }
+
+  @Nonnull
+  private static Element _createPayload (final int nPayloadBytes)
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eRoot = (Element) aDoc.appendChild (aDoc.createElementNS ("urn:phase4:loadtest", "Payload"));
+    eRoot.appendChild (aDoc.createTextNode (StringHelper.getRepeated ('x', nPayloadBytes)));
+    return eRoot;
+  }
+
+  private static boolean _sendOnce (@Nonnull final String sURL,
+                                    @Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                    @Nonnull final Element aPayload,
+                                    @Nonnull final byte [] aAttachmentData,
+                                    final int nAttachments) throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientUserMessage aClient = new AS4ClientUserMessage (aResHelper);
+      aClient.setSoapVersion (ESoapVersion.SOAP_12);
+      aClient.setAction ("AnAction");
+      aClient.setServiceType ("MyServiceType");
+      aClient.setServiceValue ("OrderPaper");
+      aClient.setConversationID (MessageHelperMethods.createRandomConversationID ());
+      aClient.setAgreementRefValue (DEFAULT_AGREEMENT);
+      aClient.setFromRole (CAS4.DEFAULT_ROLE);
+      aClient.setFromPartyID ("MyPartyIDforSending");
+      aClient.setToRole (CAS4.DEFAULT_ROLE);
+      aClient.setToPartyID ("MyPartyIDforReceving");
+      aClient.ebms3Properties ().setAll (AS4TestConstants.getEBMSProperties ());
+      aClient.httpRetrySettings ().setMaxRetries (0);
+
+      // Sign and encrypt
+      aClient.setAS4CryptoFactory (aCryptoFactory);
+      aClient.signingParams ()
+             .setAlgorithmSign (ECryptoAlgorithmSign.RSA_SHA_256)
+             .setAlgorithmSignDigest (ECryptoAlgorithmSignDigest.DIGEST_SHA_256);
+      aClient.cryptParams ().setAlias ("ph-as4").setAlgorithmCrypt (ECryptoAlgorithmCrypt.AES_128_GCM);
+
+      if (nAttachments == 0)
+        aClient.setPayload (aPayload);
+      else
+        for (int i = 0; i < nAttachments; ++i)
+          aClient.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (Phase4OutgoingAttachment.builder ()
+                                                                                                       .data (aAttachmentData)
+                                                                                                       .mimeTypeXML ()
+                                                                                                       .build (),
+                                                                               aResHelper));
+
+      final IMicroDocument aResponse = aClient.sendMessageWithRetries (sURL, new ResponseHandlerMicroDom (), null, null, null)
+                                              .getResponse ();
+      return aResponse != null && MicroWriter.getNodeAsString (aResponse).contains (AS4TestConstants.RECEIPT_ASSERTCHECK);
+    }
+  }
+
+  private static long _getAllocatedBytes ()
+  {
+    final ThreadMXBean aBean = ManagementFactory.getThreadMXBean ();
+    if (!(aBean instanceof com.sun.management.ThreadMXBean))
+      return 0;
+    // Only threads alive at the time of the call are considered
+    long ret = 0;
+    for (final long nAllocated : ((com.sun.management.ThreadMXBean) aBean).getThreadAllocatedBytes (aBean.getAllThreadIds ()))
+      if (nAllocated > 0)
+        ret += nAllocated;
+    return ret;
+  }
+
+  @Nonnull
+  private static RunResult _run (@Nonnull final String sURL,
+                                 @Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                 final int nThreads,
+                                 final int nSeconds,
+                                 final int nPayloadBytes,
+                                 final int nAttachments) throws Exception
+  {
+    final byte [] aAttachmentData = AS4XMLHelper.serializeXML (_createPayload (nPayloadBytes))
+                                                .getBytes (AS4XMLHelper.XWS.getCharset ());
+    final AtomicLong aSuccessCount = new AtomicLong ();
+    final AtomicLong aErrorCount = new AtomicLong ();
+    final ICommonsList <LatencyRecorder> aRecorders = new CommonsArrayList <> ();
+    for (int i = 0; i < nThreads; ++i)
+      aRecorders.add (new LatencyRecorder ());
+
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      final long nAllocatedBefore = _getAllocatedBytes ();
+      final StopWatch aSW = StopWatch.createdStarted ();
+      final long nEndNanos = System.nanoTime () + TimeUnit.SECONDS.toNanos (nSeconds);
+      final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+      for (final LatencyRecorder aRecorder : aRecorders)
+        aFutures.add (aES.submit ( () -> {
+          // DOM nodes are not thread-safe - use one payload per thread
+          final Element aPayload = _createPayload (nPayloadBytes);
+          while (System.nanoTime () < nEndNanos)
+          {
+            final long nStart = System.nanoTime ();
+            boolean bSuccess;
+            try
+            {
+              bSuccess = _sendOnce (sURL, aCryptoFactory, aPayload, aAttachmentData, nAttachments);
+            }
+            catch (final Exception ex)
+            {
+              LOGGER.warn ("Failed to send message: " + ex.getMessage ());
+              bSuccess = false;
+            }
+            if (bSuccess)
+            {
+              aRecorder.add (System.nanoTime () - nStart);
+              aSuccessCount.incrementAndGet ();
+            }
+            else
+              aErrorCount.incrementAndGet ();
+          }
+          return null;
+        }));
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+      aSW.stop ();
+      final long nAllocatedBytes = Math.max (0, _getAllocatedBytes () - nAllocatedBefore);
+
+      // Merge all latencies
+      final long [] aLatencies = new long [aRecorders.stream ().mapToInt (x -> x.m_nCount).sum ()];
+      int nOfs = 0;
+      for (final LatencyRecorder aRecorder : aRecorders)
+      {
+        System.arraycopy (aRecorder.m_aValues, 0, aLatencies, nOfs, aRecorder.m_nCount);
+        nOfs += aRecorder.m_nCount;
+        aRecorder.reset ();
+      }
+      Arrays.sort (aLatencies);
+      return new RunResult (aSW.getMillis (), aSuccessCount.get (), aErrorCount.get (), aLatencies, nAllocatedBytes);
+    }
+    finally
+    {
+      aES.shutdown ();
+      aES.awaitTermination (1, TimeUnit.MINUTES);
+    }
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final String sCustomURL = System.getProperty (PROPERTY_PREFIX + "url");
+    final int nThreads = _getIntProperty ("threads", Runtime.getRuntime ().availableProcessors ());
+    final int nWarmupSeconds = _getIntProperty ("warmup.seconds", 10);
+    final int nSeconds = _getIntProperty ("duration.seconds", 30);
+    final int nPayloadBytes = _getIntProperty ("payload.bytes", 4096);
+    final int nAttachments = _getIntProperty ("attachments", 0);
+
+    try (final ScopedConfig aSC = ScopedConfig.createTestConfig ())
+    {
+      MockJettySetup.startServer ();
+      try
+      {
+        MetaAS4Manager.getProfileMgr ().setDefaultProfileID (AS4CEFProfileRegistarSPI.AS4_PROFILE_ID_FOUR_CORNER);
+        MockPModeGenerator.ensureMockPModesArePresent ();
+
+        final String sURL = StringHelper.hasText (sCustomURL) ? sCustomURL : MockJettySetup.getServerAddressFromSettings ();
+        final IAS4CryptoFactory aCryptoFactory = _createCryptoFactory ();
+        LOGGER.info ("Sending to " +
+                     sURL +
+                     " with " +
+                     nThreads +
+                     " thread(s), " +
+                     nPayloadBytes +
+                     " payload bytes and " +
+                     nAttachments +
+                     " attachment(s)");
+
+        // Warm up the JIT and the connection pools
+        _run (sURL, aCryptoFactory, nThreads, nWarmupSeconds, nPayloadBytes, nAttachments);
+
+        _run (sURL, aCryptoFactory, nThreads, nSeconds, nPayloadBytes, nAttachments).log ();
+      }
+      finally
+      {
+        MockJettySetup.shutDownServer ();
+      }
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015-2022 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.AS4SigningParams;
+import com.helger.phase4.messaging.crypto.AS4Signer;
+import com.helger.phase4.messaging.domain.AS4UserMessage;
+import com.helger.phase4.server.message.MockMessages;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.wss.EWSSSynchronizationMode;
+import com.helger.phase4.wss.WSSConfigManager;
+import com.helger.phase4.wss.WSSSynchronizer;
+import com.helger.scope.mgr.ScopeManager;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Simple benchmark that signs SOAP messages with an increasing number of
+ * threads in all {@link EWSSSynchronizationMode}s and logs the throughput. In
+ * mode {@link EWSSSynchronizationMode#SHARED} the throughput should scale with
+ * the number of available cores, whereas in
+ * {@link EWSSSynchronizationMode#GLOBAL_LOCK} it stays roughly constant.
+ *
+ * @author Philip Helger
+ */
+public final class MainWSSSynchronizerScaling
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainWSSSynchronizerScaling.class);
+  private static final int WARMUP_OPS_PER_THREAD = 50;
+  private static final int OPS_PER_THREAD = 200;
+
+  private MainWSSSynchronizerScaling ()
+  {}
+
+  private static void _signOnce (final EWSSSynchronizationMode eMode, final Node aPayload) throws Exception
+  {
+    final ESoapVersion eSoapVersion = ESoapVersion.SOAP_12;
+    final AS4UserMessage aMsg = MockMessages.createUserMessageNotSigned (eSoapVersion, aPayload, null);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final Document aSigned = WSSSynchronizer.call (eMode,
+                                                     () -> AS4Signer.createSignedMessage (AS4CryptoFactoryProperties.getDefaultInstance (),
+                                                                                          aMsg.getAsSoapDocument (aPayload),
+                                                                                          eSoapVersion,
+                                                                                          aMsg.getMessagingID (),
+                                                                                          null,
+                                                                                          aResHelper,
+                                                                                          false,
+                                                                                          AS4SigningParams.createDefault ()));
+      if (aSigned == null)
+        throw new IllegalStateException ("Failed to sign");
+    }
+  }
+
+  private static double _run (final EWSSSynchronizationMode eMode,
+                              final Node aPayload,
+                              final int nThreads,
+                              final int nOpsPerThread) throws Exception
+  {
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      final StopWatch aSW = StopWatch.createdStarted ();
+      final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nThreads; ++i)
+        aFutures.add (aES.submit ( () -> {
+          for (int j = 0; j < nOpsPerThread; ++j)
+            _signOnce (eMode, aPayload);
+          return null;
+        }));
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+      aSW.stop ();
+      return nThreads * nOpsPerThread * 1000d / Math.max (1, aSW.getMillis ());
+    }
+    finally
+    {
+      aES.shutdown ();
+      aES.awaitTermination (1, TimeUnit.MINUTES);
+    }
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    ScopeManager.onGlobalBegin ("MainWSSSynchronizerScaling");
+    try
+    {
+      // Ensure WSSConfig is initialized
+      WSSConfigManager.getInstance ();
+
+      final Node aPayload = DOMReader.readXMLDOM (new ClassPathResource ("SOAPBodyPayload.xml"));
+      final int nMaxThreads = Runtime.getRuntime ().availableProcessors ();
+
+      for (final EWSSSynchronizationMode eMode : EWSSSynchronizationMode.values ())
+      {
+        // Warm up the JIT
+        _run (eMode, aPayload, nMaxThreads, WARMUP_OPS_PER_THREAD);
+
+        for (int nThreads = 1; nThreads <= nMaxThreads; nThreads *= 2)
+        {
+          final double dOpsPerSec = _run (eMode, aPayload, nThreads, OPS_PER_THREAD);
+          LOGGER.info ("Mode " + eMode + " with " + nThreads + " thread(s): " + Math.round (dOpsPerSec) + " signatures/s");
+        }
+      }
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+  }
+}